@@ -0,0 +1,80 @@
+package mondeytransfer.benchmark;
+
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.StoreTypeEnum;
+import mondeytransfer.model.AccountImage;
+import mondeytransfer.model.AccountStore;
+import mondeytransfer.model.Currencies;
+import mondeytransfer.model.PrimitiveAccountStore;
+import mondeytransfer.model.TransactionStore;
+import mondeytransfer.enums.TransferResultEnum;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and transfers of {@link AccountStore} implementations under contention: several threads read and change
+ * random accounts at the same time
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(4)
+public class AccountStoreBenchmark {
+
+    @Param({"map", "primitive"})
+    String store;
+
+    @Param({"10000"})
+    int accounts;
+
+    private AccountStore accountStore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accountStore = StoreTypeEnum.of(store) == StoreTypeEnum.PRIMITIVE
+                ? new PrimitiveAccountStore(accounts, new Currencies("USD", 2))
+                : new TransactionStore(new Currencies("USD", 2));
+        for (long id = 0; id < accounts; id++)
+            accountStore.putIfAbsent(new UserDto(id, new BigDecimal("1000000000.00")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        accountStore.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Transfer {
+        private final SplittableRandom random = new SplittableRandom();
+        private final AccountImage from = new AccountImage(), to = new AccountImage();
+        private TransactionDto td;
+
+        @Setup(Level.Trial)
+        public void setUp(final AccountStoreBenchmark benchmark) {
+            td = new TransactionDto(0L, new BigDecimal("0.01"), 1L);
+            benchmark.accountStore.prepare(td);
+        }
+    }
+
+    @Benchmark
+    public UserDto get(final Transfer transfer) {
+        return accountStore.get(transfer.random.nextInt(accounts));
+    }
+
+    @Benchmark
+    public TransferResultEnum transfer(final Transfer transfer) {
+        final long from = transfer.random.nextInt(accounts);
+        transfer.td.setFromId(from);
+        transfer.td.setToId((from + 1 + transfer.random.nextInt(accounts - 1)) % accounts);
+        return accountStore.transfer(transfer.td, transfer.from, transfer.to);
+    }
+}
@@ -0,0 +1,57 @@
+package mondeytransfer.benchmark;
+
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.model.AccountStore;
+import mondeytransfer.service.TransactionsService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An export of all accounts page by page by {@link TransactionsService#getPage(Long, int, AccountStore.UserConsumer)},
+ * as `/getAll` writes them
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GetAllBenchmark {
+
+    @Param({"10000", "1000000"})
+    int accounts;
+
+    private TransactionsService ts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ts = new TransactionsService();
+        for (long id = 1_000; id < 1_000 + accounts; id++)
+            ts.addOne(new UserDto(id, new BigDecimal("100.00")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ts.close();
+    }
+
+    @Benchmark
+    public int getAll() {
+        final StringBuilder page = new StringBuilder(1_000 * 40);
+        int length = 0;
+        Long next = null;
+        do {
+            page.setLength(0);
+            next = ts.getPage(next, 1_000, (id, version, currency, balance) ->
+                    page.append(",\"").append(id).append("\":{\"id\":").append(id)
+                            .append(",\"balance\":").append(balance)
+                            .append(",\"currency\":\"").append(currency).append("\"}"));
+            length += page.length();
+        } while (next != null);
+        return length;
+    }
+}
@@ -0,0 +1,55 @@
+package mondeytransfer.benchmark;
+
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.TransferResultEnum;
+import mondeytransfer.model.AccountImage;
+import mondeytransfer.model.Currencies;
+import mondeytransfer.model.TransactionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention of shard workers on {@link TransactionStore#credit} of the same receivers: one hot receiver for all
+ * threads against receivers spread among them
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(8)
+public class HotReceiverBenchmark {
+
+    @Param({"1", "64"})
+    int receivers;
+
+    private TransactionStore store;
+    private TransactionDto td;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new TransactionStore(new Currencies("USD", 2));
+        for (long id = 0; id < receivers; id++)
+            store.putIfAbsent(new UserDto(id, BigDecimal.ZERO));
+        td = new TransactionDto(-1L, new BigDecimal("0.01"), 0L);
+        store.prepare(td);
+    }
+
+    @State(Scope.Thread)
+    public static class Random {
+        private final SplittableRandom random = new SplittableRandom();
+        private final AccountImage to = new AccountImage();
+    }
+
+    @Benchmark
+    public TransferResultEnum credit(final Random random) {
+        return store.credit(random.random.nextInt(receivers), td.getCreditedUnits(), random.to);
+    }
+}
@@ -0,0 +1,32 @@
+package mondeytransfer.benchmark;
+
+import io.vertx.core.buffer.Buffer;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.other.JsonCodec;
+import mondeytransfer.validator.RequestValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work of {@link RequestValidator#transactionValidator} for a request body: JSON decoding of a transaction and
+ * its checks (the HTTP response part isn`t included)
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TransactionDecodeBenchmark {
+    private final Buffer body = Buffer.buffer("{\"fromId\": \"1\", \"sentSum\": \"100.1\", \"toId\": \"2\"}");
+
+    @Benchmark
+    public String decodeAndCheck() throws IOException {
+        final TransactionDto td = JsonCodec.decode(body, TransactionDto.class);
+        return RequestValidator.transactionError(td);
+    }
+}
@@ -0,0 +1,90 @@
+package mondeytransfer.benchmark;
+
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.dto.StatusDto;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.service.TransactionsService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static mondeytransfer.enums.ConfigKeys.*;
+
+/**
+ * The whole path of a transfer without HTTP: the validation, a shard queue, a worker and the status.
+ * {@link TransferBenchmark#send} measures how fast shards accept transactions (a producer waits when the queue of
+ * a shard is full, so it is bounded by workers), {@link TransferBenchmark#sendAndWait} measures the latency until the
+ * status of a transaction is ready.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class TransferBenchmark {
+    final static long FIRST_ID = 1_000L;
+
+    @Param({"1000"})
+    int accounts;
+
+    @Param({"ring", "linked"})
+    String queue;
+
+    @Param({"map", "primitive"})
+    String store;
+
+    private TransactionsService ts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ts = new TransactionsService(new JsonObject()
+                .put(QUEUE_TYPE, queue)
+                .put(STORE_TYPE, store)
+                .put(STATUS_INDEX_CAPACITY, 1_000_000)
+        );
+        for (long id = FIRST_ID; id < FIRST_ID + accounts; id++)
+            ts.addOne(new UserDto(id, new BigDecimal("1000000000000")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ts.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Transfers {
+        private final SplittableRandom random = new SplittableRandom();
+        private final BigDecimal sum = new BigDecimal("0.01");
+
+        TransactionDto next(final int accounts) {
+            final long from = FIRST_ID + random.nextInt(accounts);
+            long to = FIRST_ID + random.nextInt(accounts - 1);
+            if (to >= from)
+                to++;
+            return new TransactionDto(from, sum, to);
+        }
+    }
+
+    @Benchmark
+    public String send(final Transfers transfers) {
+        return ts.sendTransaction(transfers.next(accounts));
+    }
+
+    @Benchmark
+    public StatusDto sendAndWait(final Transfers transfers) {
+        final TransactionDto td = transfers.next(accounts);
+        ts.sendTransaction(td);
+
+        StatusDto status;
+        while ((status = ts.getStatus(td.getTransactionId())) == null)
+            Thread.yield();
+        return status;
+    }
+}
@@ -0,0 +1,397 @@
+package mondeytransfer.load;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.Launcher;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.other.JsonCodec;
+import mondeytransfer.other.LatencyHistogram;
+import mondeytransfer.other.Money;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.isNull;
+import static mondeytransfer.controller.AppController.MAX_PAGE_SIZE;
+import static mondeytransfer.enums.ConfigKeys.HTTP_PORT;
+import static mondeytransfer.enums.ConfigKeys.STORE_SCALE;
+import static mondeytransfer.enums.HttpStatusesCodeEnum.OK;
+import static mondeytransfer.enums.Routes.CREATE_A_NEW_USER;
+import static mondeytransfer.enums.Routes.GET_ALL;
+import static mondeytransfer.enums.Routes.SEND_TRANSACTION;
+import static mondeytransfer.service.TransactionsService.DEFAULT_STORE_SCALE;
+
+/**
+ * An end-to-end load test of the app over HTTP, unlike JMH benchmarks of its parts:
+ * <ol>
+ * <li>it deploys {@link Launcher} in this JVM with `app` of the config (on a free port if it has no `http.port`);</li>
+ * <li>creates `accounts` users from `first.id` with `balance` by /addUser;</li>
+ * <li>sends transfers of `amount` by /sendTransaction at `rate` per second for `duration.seconds`. It is an open loop:
+ * a transfer is sent at its time whether previous ones have been answered or not, as independent clients do, and its
+ * latency is counted from that time, so a stall of the app isn`t hidden by a slower pace of the generator. Transfers
+ * of the first `warmup.seconds` (the JIT, new connections) aren`t counted. Senders and receivers are picked by
+ * `skew.senders` and `skew.receivers` ({@link SkewEnum}), hot senders are the first accounts and hot receivers are
+ * the last ones;</li>
+ * <li>reports the throughput, percentiles of latencies and answers, then checks that the total of all balances is
+ * the same when all accepted transfers are done.</li>
+ * </ol>
+ * It exits with 1 if the total has changed, or the throughput or p99 is worse than `min.throughput` or `max.p99.ms`,
+ * so it can guard against regressions.
+ * <pre>
+ * mvn -P load clean package -DskipTests
+ * java -jar target/loadgen.jar src/load/conf/load-conf.json
+ * </pre>
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class LoadGenerator {
+    public static final String
+            APP = "app",
+            ACCOUNTS = "accounts",
+            FIRST_ID = "first.id",
+            BALANCE = "balance",
+            AMOUNT = "amount",
+            RATE = "rate",
+            WARMUP = "warmup.seconds",
+            DURATION = "duration.seconds",
+            SENDERS = "skew.senders",
+            RECEIVERS = "skew.receivers",
+            ZIPF_EXPONENT = "zipf.exponent",
+            CONNECTIONS = "connections",
+            EVENT_LOOPS = "event.loops",
+            SETTLE_TIMEOUT = "settle.timeout.seconds",
+            MIN_THROUGHPUT = "min.throughput",
+            MAX_P99 = "max.p99.ms";
+
+    private final JsonObject APP_CONFIG;
+    private final int ACCOUNTS_COUNT;
+    private final long FIRST;
+    private final BigDecimal BALANCE_OF_ACCOUNT, TRANSFER_AMOUNT;
+    private final int TRANSFERS_RATE;
+    private final long WARMUP_TRANSFERS, TRANSFERS; // the first ones aren`t counted
+    private final ZipfSampler SENDERS_SAMPLER, RECEIVERS_SAMPLER; // null for uniform
+    private final int CONNECTIONS_COUNT, LOOPS;
+    private final long SETTLE_TIMEOUT_SECONDS;
+    private final Double MIN_THROUGHPUT_PER_SECOND, MAX_P99_MS; // null - not checked
+
+    private final Vertx server = Vertx.vertx();
+    private final Vertx client = Vertx.vertx();
+    private HttpClient http; // for accounts and totals
+    private int port;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder accepted = new LongAdder(), rejected = new LongAdder(), failed = new LongAdder();
+    private final AtomicLong lastAnswer = new AtomicLong();
+
+    public LoadGenerator(final JsonObject config) {
+        this.APP_CONFIG = config.getJsonObject(APP, new JsonObject()).copy();
+        this.ACCOUNTS_COUNT = config.getInteger(ACCOUNTS, 10_000);
+        this.FIRST = config.getLong(FIRST_ID, 1_000_000L);
+        final String balance = config.getString(BALANCE, "1000000"), amount = config.getString(AMOUNT, "0.01");
+        this.BALANCE_OF_ACCOUNT = new BigDecimal(balance);
+        this.TRANSFER_AMOUNT = new BigDecimal(amount);
+        this.TRANSFERS_RATE = config.getInteger(RATE, 5_000);
+        this.WARMUP_TRANSFERS = (long) TRANSFERS_RATE * config.getInteger(WARMUP, 5);
+        this.TRANSFERS = WARMUP_TRANSFERS + (long) TRANSFERS_RATE * config.getInteger(DURATION, 30);
+        final double exponent = config.getDouble(ZIPF_EXPONENT, 1.0);
+        this.SENDERS_SAMPLER = sampler(SkewEnum.of(config.getString(SENDERS, SkewEnum.ZIPF.name())), exponent);
+        this.RECEIVERS_SAMPLER = sampler(SkewEnum.of(config.getString(RECEIVERS, SkewEnum.UNIFORM.name())), exponent);
+        this.CONNECTIONS_COUNT = config.getInteger(CONNECTIONS, 64);
+        this.LOOPS = config.getInteger(EVENT_LOOPS, 2);
+        this.SETTLE_TIMEOUT_SECONDS = config.getLong(SETTLE_TIMEOUT, 30L);
+        this.MIN_THROUGHPUT_PER_SECOND = config.getDouble(MIN_THROUGHPUT);
+        this.MAX_P99_MS = config.getDouble(MAX_P99);
+
+        if (ACCOUNTS_COUNT < 2 || TRANSFERS_RATE < 1 || LOOPS < 1 || CONNECTIONS_COUNT < LOOPS)
+            throw new IllegalArgumentException("The load needs 2 accounts, a positive rate and a connection per loop");
+
+        final int scale = APP_CONFIG.getInteger(STORE_SCALE, DEFAULT_STORE_SCALE); // else each transfer is rejected
+        if (Money.parse(balance, scale) < 0 || Money.parse(amount, scale) <= 0) // it throws if they don`t fit the scale
+            throw new IllegalArgumentException("The balance and the amount must be positive");
+    }
+
+    /**
+     * @param args - the config file (JSON), optional
+     */
+    public static void main(final String[] args) throws Exception {
+        final JsonObject config = args.length > 0
+                ? new JsonObject(new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8))
+                : new JsonObject();
+
+        final LoadGenerator generator = new LoadGenerator(config);
+        boolean passed = false;
+        try {
+            passed = generator.run();
+        } finally {
+            generator.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return - true if balances are kept and the throughput and the latency are within limits of the config
+     */
+    public boolean run() throws Exception {
+        deploy();
+        createAccounts();
+        final BigDecimal before = total();
+
+        final long elapsed = sendTransfers();
+        final double throughput = accepted.sum() * 1e9 / Math.max(elapsed, 1);
+        final double p99 = latencies.valueAtPercentile(99) / 1e6;
+        System.out.printf("transfers: %d sent at %d/s, %d accepted, %d rejected, %d failed%n",
+                TRANSFERS - WARMUP_TRANSFERS, TRANSFERS_RATE, accepted.sum(), rejected.sum(), failed.sum());
+        System.out.printf("throughput: %.1f accepted/s%n", throughput);
+        System.out.printf("latency, ms: p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+                latencies.valueAtPercentile(50) / 1e6, latencies.valueAtPercentile(90) / 1e6, p99,
+                latencies.valueAtPercentile(99.9) / 1e6, latencies.valueAtPercentile(100) / 1e6);
+
+        final BigDecimal after = settle(before);
+        final boolean kept = after.compareTo(before) == 0;
+        System.out.printf("balances: the total is %s before and %s after - %s%n", before.toPlainString(),
+                after.toPlainString(), kept ? "kept" : "NOT KEPT");
+
+        boolean passed = kept && failed.sum() == 0;
+        if (!isNull(MIN_THROUGHPUT_PER_SECOND) && throughput < MIN_THROUGHPUT_PER_SECOND) {
+            System.out.printf("regression: the throughput is below %.1f/s%n", MIN_THROUGHPUT_PER_SECOND);
+            passed = false;
+        }
+        if (!isNull(MAX_P99_MS) && p99 > MAX_P99_MS) {
+            System.out.printf("regression: p99 is above %.3f ms%n", MAX_P99_MS);
+            passed = false;
+        }
+        return passed;
+    }
+
+    public void close() throws Exception {
+        for (Vertx vertx : new Vertx[]{client, server}) {
+            final CompletableFuture<Void> closed = new CompletableFuture<>();
+            vertx.close(completing(closed));
+            closed.get(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void deploy() throws Exception {
+        if (!APP_CONFIG.containsKey(HTTP_PORT))
+            APP_CONFIG.put(HTTP_PORT, freePort());
+        port = APP_CONFIG.getInteger(HTTP_PORT);
+
+        final CompletableFuture<String> deployed = new CompletableFuture<>();
+        server.deployVerticle(Launcher.class.getName(), new DeploymentOptions().setConfig(APP_CONFIG),
+                completing(deployed));
+        deployed.get(1, TimeUnit.MINUTES);
+        http = client.createHttpClient(new HttpClientOptions().setMaxPoolSize(CONNECTIONS_COUNT));
+    }
+
+    /**
+     * Up to `connections` users are being created at the same time
+     */
+    private void createAccounts() throws Exception {
+        final long started = System.nanoTime();
+        final Semaphore inFlight = new Semaphore(CONNECTIONS_COUNT);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (long id = FIRST; id < FIRST + ACCOUNTS_COUNT && isNull(failure.get()); id++) {
+            inFlight.acquire();
+            request(HttpMethod.POST, CREATE_A_NEW_USER, JsonCodec.encode(new UserDto(id, BALANCE_OF_ACCOUNT)))
+                    .whenComplete((body, e) -> {
+                        if (!isNull(e))
+                            failure.compareAndSet(null, e);
+                        inFlight.release();
+                    });
+        }
+        inFlight.acquire(CONNECTIONS_COUNT); // all of them have been answered
+
+        if (!isNull(failure.get()))
+            throw new IllegalStateException("Accounts haven`t been created", failure.get());
+        System.out.printf("accounts: %d created in %d ms%n", ACCOUNTS_COUNT,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /**
+     * Each event loop of the client sends every `event.loops`-th transfer of the schedule
+     *
+     * @return - nanoseconds from the end of the warmup to the last answer
+     */
+    private long sendTransfers() throws InterruptedException {
+        final CountDownLatch answered = new CountDownLatch((int) TRANSFERS);
+        final long start = System.nanoTime();
+        final double period = 1e9 / TRANSFERS_RATE;
+        for (int loop = 0; loop < LOOPS; loop++) {
+            final int first = loop;
+            client.getOrCreateContext().runOnContext(v -> new Pacer(first, start, period, answered)); // a new context
+        }
+
+        if (!answered.await(TRANSFERS / TRANSFERS_RATE + SETTLE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            System.out.printf("transfers: %d haven`t been answered%n", answered.getCount());
+        return lastAnswer.get() - start - (long) (WARMUP_TRANSFERS * period);
+    }
+
+    /**
+     * Transfers of one event loop of the client. The timer fires each millisecond and sends all transfers which are
+     * due, so they go out on time (up to a millisecond) even when the app answers slowly
+     */
+    private final class Pacer {
+        private final HttpClient pacerHttp = client.createHttpClient(new HttpClientOptions()
+                .setMaxPoolSize(CONNECTIONS_COUNT / LOOPS)); // requests over the pool wait in its queue
+        private final SplittableRandom random = new SplittableRandom();
+        private final long start;
+        private final double period;
+        private final CountDownLatch answered;
+        private long next; // the index of the next transfer in the schedule
+
+        private Pacer(final int first, final long start, final double period, final CountDownLatch answered) {
+            this.next = first;
+            this.start = start;
+            this.period = period;
+            this.answered = answered;
+            client.setPeriodic(1, this::tick);
+        }
+
+        private void tick(final long timer) {
+            final long now = System.nanoTime();
+            for (long due = start + (long) (next * period); next < TRANSFERS && due <= now;
+                 due = start + (long) (next * period)) {
+                send(due, next >= WARMUP_TRANSFERS);
+                next += LOOPS;
+            }
+            if (next >= TRANSFERS)
+                client.cancelTimer(timer);
+        }
+
+        private void send(final long due, final boolean counted) {
+            final long from = FIRST + pick(SENDERS_SAMPLER, random);
+            long to;
+            do {
+                to = FIRST + ACCOUNTS_COUNT - 1 - pick(RECEIVERS_SAMPLER, random);
+            } while (to == from);
+
+            final HttpClientRequest request = pacerHttp.request(HttpMethod.POST, port, "localhost", SEND_TRANSACTION,
+                    response -> response.bodyHandler(body -> {
+                        answered.countDown();
+                        if (!counted)
+                            return;
+
+                        final long now = System.nanoTime();
+                        latencies.record(now - due);
+                        lastAnswer.accumulateAndGet(now, Math::max);
+                        if (response.statusCode() == OK.getCode())
+                            accepted.increment();
+                        else
+                            rejected.increment();
+                    }));
+            request.exceptionHandler(e -> {
+                failed.increment();
+                answered.countDown();
+            });
+            request.putHeader("content-type", "application/json");
+            request.end(JsonCodec.encode(new TransactionDto(from, TRANSFER_AMOUNT, to)));
+        }
+    }
+
+    /**
+     * Transfers are accepted before they are done, so the total is read again until it is the same or the time is out
+     *
+     * @return - the last total
+     */
+    private BigDecimal settle(final BigDecimal before) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SETTLE_TIMEOUT_SECONDS);
+        BigDecimal after = total();
+        while (after.compareTo(before) != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            after = total();
+        }
+        return after;
+    }
+
+    /**
+     * @return - the sum of balances of all users by /getAll page by page
+     */
+    private BigDecimal total() throws Exception {
+        BigDecimal total = BigDecimal.ZERO;
+        Long next = null;
+        do {
+            final String uri = GET_ALL + "?limit=" + MAX_PAGE_SIZE + (isNull(next) ? "" : "&after=" + next);
+            final Page page = JsonCodec.decode(request(HttpMethod.GET, uri, null).get(1, TimeUnit.MINUTES), Page.class);
+            for (UserDto user : page.users)
+                total = total.add(user.getBalance());
+            next = page.next;
+        } while (!isNull(next));
+        return total;
+    }
+
+    /**
+     * A page of /getAll with `limit`
+     */
+    public static class Page {
+        public List<UserDto> users;
+        public Long next;
+    }
+
+    /**
+     * @return - the future with the body, failed if the status isn`t 2xx
+     */
+    private CompletableFuture<Buffer> request(final HttpMethod method, final String uri, final Buffer body) {
+        final CompletableFuture<Buffer> answer = new CompletableFuture<>();
+        final HttpClientRequest request = http.request(method, port, "localhost", uri, response ->
+                response.bodyHandler(b -> {
+                    if (response.statusCode() / 100 == 2)
+                        answer.complete(b);
+                    else
+                        answer.completeExceptionally(new IllegalStateException(uri + " has answered "
+                                + response.statusCode() + " " + b));
+                }));
+        request.exceptionHandler(answer::completeExceptionally);
+        if (isNull(body)) {
+            request.end();
+        } else {
+            request.putHeader("content-type", "application/json");
+            request.end(body);
+        }
+        return answer;
+    }
+
+    private int pick(final ZipfSampler sampler, final SplittableRandom random) {
+        return isNull(sampler) ? random.nextInt(ACCOUNTS_COUNT) : sampler.next(random);
+    }
+
+    private ZipfSampler sampler(final SkewEnum skew, final double exponent) {
+        return skew == SkewEnum.ZIPF ? new ZipfSampler(ACCOUNTS_COUNT, exponent) : null;
+    }
+
+    private static <T> Handler<AsyncResult<T>> completing(final CompletableFuture<T> future) {
+        return ar -> {
+            if (ar.succeeded())
+                future.complete(ar.result());
+            else
+                future.completeExceptionally(ar.cause());
+        };
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package mondeytransfer.load;
+
+/**
+ * How senders and receivers of generated transfers are picked among accounts
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum SkewEnum {
+    UNIFORM, // all accounts equally often
+    ZIPF; // by Zipf`s law: a few first accounts are hot, see ZipfSampler
+
+    public static SkewEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,34 @@
+package mondeytransfer.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Ranks from 0 to n - 1 by Zipf`s law: the rank k is picked with the probability proportional to 1 / (k + 1)^s.
+ * With s = 1 and 10k accounts the first one gets ~10% of picks and the first 100 get ~50%.
+ * <p>
+ * The cumulative distribution is computed once (8 bytes per account), then a pick is a binary search of a uniform
+ * random value in it. It is immutable, so threads can share it with their own randoms.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class ZipfSampler {
+    private final double[] cdf;
+
+    public ZipfSampler(final int n, final double exponent) {
+        if (n < 1 || exponent <= 0)
+            throw new IllegalArgumentException("Zipf needs n > 0 and the exponent > 0");
+
+        cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++)
+            cdf[k] = sum += 1 / Math.pow(k + 1, exponent);
+        for (int k = 0; k < n; k++)
+            cdf[k] /= sum;
+    }
+
+    public int next(final SplittableRandom random) {
+        final int found = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(found >= 0 ? found : -found - 1, cdf.length - 1); // against rounding of the last sum
+    }
+}
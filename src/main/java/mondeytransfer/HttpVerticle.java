@@ -0,0 +1,57 @@
+package mondeytransfer;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.BodyHandler;
+import mondeytransfer.controller.AppController;
+import mondeytransfer.service.AdmissionControl;
+import mondeytransfer.service.ClusterService;
+import mondeytransfer.service.TransactionsService;
+
+import static mondeytransfer.Launcher.ADMISSION;
+import static mondeytransfer.Launcher.CLUSTER;
+import static mondeytransfer.Launcher.ENGINE;
+import static mondeytransfer.Launcher.SHARED_MAP;
+import static mondeytransfer.enums.ConfigKeys.HTTP_PORT;
+
+/**
+ * A HTTP server in front of the engine which {@link Launcher} has shared. Many instances of it listen to the same
+ * port, each on its own event loop
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class HttpVerticle extends AbstractVerticle {
+
+    @Override
+    public void start(Future<Void> fut) {
+        final LocalMap<String, Shareable> engines = vertx.sharedData().getLocalMap(SHARED_MAP);
+        final TransactionsService engine = (TransactionsService) engines.get(ENGINE);
+        if (engine == null) {
+            fut.fail(new IllegalStateException("The engine hasn`t been started, deploy " + Launcher.class.getName()));
+            return;
+        }
+
+        Router router = Router.router(vertx);
+        router.route().handler(BodyHandler.create());
+
+        new AppController(router, engine, (ClusterService) engines.get(CLUSTER),
+                (AdmissionControl) engines.get(ADMISSION), config());
+
+        vertx
+                .createHttpServer()
+                .requestHandler(router::accept)
+                .listen(
+                        config().getInteger(HTTP_PORT, 8083),
+                        http -> {
+                            if (http.succeeded()) {
+                                fut.complete();
+                            } else {
+                                fut.fail(http.cause());
+                            }
+                        }
+                );
+    }
+}
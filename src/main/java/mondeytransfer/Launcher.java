@@ -1,55 +1,103 @@
 package mondeytransfer;
 
 import io.vertx.core.AbstractVerticle;
-import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
-import io.vertx.core.Handler;
-import io.vertx.core.http.HttpServer;
-import io.vertx.ext.web.Router;
-import io.vertx.ext.web.handler.BodyHandler;
-import mondeytransfer.controller.AppController;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import mondeytransfer.service.AdmissionControl;
+import mondeytransfer.service.ClusterService;
+import mondeytransfer.service.TransactionsService;
+
+import static mondeytransfer.enums.ConfigKeys.CLUSTER_NODES;
+import static mondeytransfer.enums.ConfigKeys.HTTP_INSTANCES;
 
 /**
  * Verte.x launcher
+ * <p>
+ * It starts the only engine ({@link TransactionsService}: stores, shards, the journal) of the JVM, shares it by the
+ * local shared data of Vert.x and deploys {@link HttpVerticle} instances which front it. Each instance has its own
+ * event loop, so parsing of HTTP requests is spread over all cores, while all of them change the same accounts.
+ * <p>
+ * If {@link mondeytransfer.enums.ConfigKeys#CLUSTER_NODES} is more than 1, the engine keeps only users of its node and
+ * {@link ClusterService} links it to other nodes, then Vert.x must be clustered (`-cluster`).
+ *
  * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
  */
 public class Launcher extends AbstractVerticle {
+    public final static String SHARED_MAP = "mondeytransfer";
+    public final static String ENGINE = "engine";
+    public final static String CLUSTER = "cluster";
+    public final static String ADMISSION = "admission";
+
+    private TransactionsService engine;
+    private ClusterService cluster;
 
     /**
-     * This method is called when the verticle is deployed. It creates a HTTP server and registers a simple request
-     * handler.
+     * This method is called when the verticle is deployed. The engine is created on a worker thread (it can replay
+     * the journal for a long time), then HTTP verticles are deployed.
      * <p/>
-     * Notice the `listen` method. It passes a lambda checking the port binding result. When the HTTP server has been
-     * bound on the port, it call the `complete` method to inform that the starting has completed. Else it reports the
-     * error.
+     * The startup is completed when all HTTP verticles have bound the port (they share it, Vert.x balances
+     * connections between them). Else it reports the error.
      *
      * @param fut the future
      */
     @Override
     public void start(Future<Void> fut) {
-        startWebApp((http) -> completeStartup(http, fut));
-    }
+        if (config().getInteger(CLUSTER_NODES, 1) > 1 && !vertx.isClustered()) {
+            fut.fail(new IllegalStateException("Nodes of the cluster must be run with -cluster"));
+            return;
+        }
 
-    private void startWebApp(Handler<AsyncResult<HttpServer>> next) {
-        Router router = Router.router(vertx);
-        router.route().handler(BodyHandler.create());
+        vertx.<TransactionsService>executeBlocking(
+                created -> created.complete(new TransactionsService(config())),
+                false,
+                created -> {
+                    if (created.failed()) {
+                        fut.fail(created.cause());
+                        return;
+                    }
 
-        new AppController(router);
+                    engine = created.result();
+                    engines().put(ENGINE, engine);
+                    engines().put(ADMISSION, new AdmissionControl(engine, config()));
+                    if (engine.getNodes() > 1) {
+                        cluster = new ClusterService(vertx, engine, config());
+                        engines().put(CLUSTER, cluster);
+                    }
 
-        vertx
-                .createHttpServer()
-                .requestHandler(router::accept)
-                .listen(
-                        config().getInteger("http.port", 8083),
-                        next::handle
-                );
+                    final DeploymentOptions options = new DeploymentOptions()
+                            .setConfig(config())
+                            .setInstances(config().getInteger(HTTP_INSTANCES, VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE));
+                    vertx.deployVerticle(HttpVerticle.class.getName(), options, deployed -> {
+                        if (deployed.succeeded())
+                            fut.complete();
+                        else
+                            fut.fail(deployed.cause());
+                    });
+                }
+        );
     }
 
-    private void completeStartup(AsyncResult<HttpServer> http, Future<Void> fut) {
-        if (http.succeeded()) {
-            fut.complete();
-        } else {
-            fut.fail(http.cause());
+    /**
+     * HTTP verticles have been undeployed before it (they are children of this one), so stop the transactions
+     * handlers and close the journal
+     */
+    @Override
+    public void stop() {
+        if (cluster != null) {
+            engines().remove(CLUSTER);
+            cluster.close();
+        }
+        if (engine != null) {
+            engines().remove(ADMISSION);
+            engines().remove(ENGINE);
+            engine.close();
         }
     }
+
+    private LocalMap<String, Shareable> engines() {
+        return vertx.sharedData().getLocalMap(SHARED_MAP);
+    }
 }
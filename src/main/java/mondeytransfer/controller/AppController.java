@@ -1,20 +1,49 @@
 package mondeytransfer.controller;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
+import mondeytransfer.dto.BatchTransactionStatusDto;
+import mondeytransfer.dto.HistoryPageDto;
 import mondeytransfer.dto.SendTransactionStatusDto;
 import mondeytransfer.dto.StatusDto;
 import mondeytransfer.dto.TransactionDto;
 import mondeytransfer.dto.UserDto;
+import mondeytransfer.other.JsonCodec;
+import mondeytransfer.other.RateLimiter;
+import mondeytransfer.other.RejectedTransactionException;
+import mondeytransfer.service.AdmissionControl;
+import mondeytransfer.service.ClusterService;
+import mondeytransfer.service.MetricsService;
+import mondeytransfer.service.StatusBroadcaster;
 import mondeytransfer.service.TransactionsService;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
+import java.util.UUID;
+import java.util.function.Predicate;
 
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
+import static mondeytransfer.dto.ErrorResponseDto.printError;
+import static mondeytransfer.enums.ConfigKeys.BATCH_MAX_SIZE;
+import static mondeytransfer.enums.ConfigKeys.QUEUE_RETRY_AFTER;
+import static mondeytransfer.enums.Messages.CLIENT_IS_RATE_LIMITED;
+import static mondeytransfer.enums.Messages.HISTORY_IS_DISABLED;
+import static mondeytransfer.enums.Messages.HISTORY_PAGE_IS_TOO_BIG;
+import static mondeytransfer.enums.Messages.IDEMPOTENCY_KEY_IS_INCORRECT;
+import static mondeytransfer.enums.Messages.INCORRECT_DATA;
+import static mondeytransfer.enums.Messages.PAGE_IS_TOO_BIG;
+import static mondeytransfer.enums.Messages.SENDER_IS_RATE_LIMITED;
+import static mondeytransfer.enums.Messages.SERVICE_IS_OVERLOADED;
+import static mondeytransfer.enums.Messages.TOO_MANY_SUBSCRIBERS;
+import static mondeytransfer.enums.Messages.UNKNOWN_CURSOR;
+import static mondeytransfer.enums.Messages.UNKNOWN_HISTORY_CURSOR;
 import static mondeytransfer.enums.Routes.*;
 import static mondeytransfer.validator.RequestValidator.*;
 import static mondeytransfer.enums.HttpStatusesCodeEnum.*;
@@ -25,20 +54,112 @@ import static mondeytransfer.enums.HttpStatusesCodeEnum.*;
  * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
  */
 public class AppController {
+    public final static int DEFAULT_BATCH_MAX_SIZE = 10_000;
+    private final static int STREAM_CHUNK = 256; // statuses in a write to a stream
+    public final static int MAX_PAGE_SIZE = 10_000; // users in a page of /getAll
+    private final static int EXPORT_PAGE = 1_000; // users in a write of the full /getAll
+    public final static int DEFAULT_HISTORY_PAGE = 100; // entries in a page of /getHistory without `limit`
+    public final static int MAX_HISTORY_PAGE = 1_000;
+    public final static String IDEMPOTENCY_KEY = "Idempotency-Key"; // the header of /sendTransaction
+    public final static int MAX_IDEMPOTENCY_KEY = 255;
+    public final static String API_KEY = "X-Api-Key"; // a client without it is limited by its address
+
     private final TransactionsService TS;
+    private final ClusterService CLUSTER; // null if it isn`t clustered
+    private final AdmissionControl ADMISSION;
+    private final int MAX_BATCH_SIZE;
+    private final int RETRY_AFTER;
+
+    /**
+     * @param ts      - the engine, it is shared by controllers of all HTTP verticles
+     * @param cluster   - other nodes, requests about their users are sent to them. Null if it isn`t clustered
+     * @param admission - rate limits and load shedding, it is shared by controllers of all HTTP verticles
+     */
+    public AppController(final Router router, final TransactionsService ts, final ClusterService cluster,
+                         final AdmissionControl admission, final JsonObject config) {
+        this.TS = ts;
+        this.CLUSTER = cluster;
+        this.ADMISSION = admission;
+        this.MAX_BATCH_SIZE = config.getInteger(BATCH_MAX_SIZE, DEFAULT_BATCH_MAX_SIZE);
+        this.RETRY_AFTER = config.getInteger(QUEUE_RETRY_AFTER, TransactionsService.DEFAULT_RETRY_AFTER);
 
-    public AppController(final Router router) {
-        this.TS = new TransactionsService();
+        router.route().handler(this::measure); // before all routes
+        router.route().handler(this::admit); // rejected requests are measured too
 
         /**
          * Registry routes
          */
+        router.get(GET_METRICS).handler(this::getMetrics); // Prometheus text format
         router.post(CREATE_A_NEW_USER).handler(this::addOne);
         router.get(GET_ALL).handler(this::getAll);
         router.get(GET_BY_ID).handler(this::getById);
         router.get(GET_STATUSES).handler(this::getStatuses);
+        router.get(GET_STATUS).handler(this::getStatus);
+        router.get(GET_HISTORY).handler(this::getHistory);
+        router.get(STREAM_STATUSES).handler(this::streamStatuses); // Server-Sent Events
+
+        router.post(SEND_TRANSACTION).handler(this::sendTransaction); // never blocks, a full shard queue is answered by 503
+        router.post(SEND_TRANSACTIONS).handler(this::sendTransactions);
+
+        for (String route : new String[]{GET_METRICS, CREATE_A_NEW_USER, GET_ALL, GET_BY_ID, GET_STATUSES, GET_STATUS,
+                GET_HISTORY, STREAM_STATUSES, SEND_TRANSACTION, SEND_TRANSACTIONS})
+            TS.getMetrics().route(route);
+    }
+
+    /**
+     * Count a request and its time until the response headers are sent (so a stream is measured until it has been
+     * opened)
+     *
+     * @param routingContext
+     */
+    private void measure(final RoutingContext routingContext) {
+        final long started = System.nanoTime();
+        routingContext.addHeadersEndHandler(v -> TS.getMetrics().httpRequest(
+                routingContext.normalisedPath(),
+                routingContext.response().getStatusCode(),
+                System.nanoTime() - started
+        ));
+        routingContext.next();
+    }
+
+    /**
+     * Admission control before a route parses the request (see {@link AdmissionControl}): transactions get 503 while
+     * shard queues are too full, a client over its rate gets 429. Metrics aren`t limited, so an overloaded node can
+     * be watched
+     *
+     * @param routingContext
+     */
+    private void admit(final RoutingContext routingContext) {
+        final String path = routingContext.normalisedPath();
+        if (GET_METRICS.equals(path)) {
+            routingContext.next();
+            return;
+        }
+
+        final boolean transactions = SEND_TRANSACTION.equals(path) || SEND_TRANSACTIONS.equals(path);
+        if (transactions && ADMISSION.isOverloaded()) {
+            TS.getMetrics().rejected(MetricsService.REJECTED_BY_LOAD_SHEDDING);
+            overloaded(routingContext.response());
+            return;
+        }
+
+        final String apiKey = routingContext.request().getHeader(API_KEY);
+        final long wait = ADMISSION.admitClient(nonNull(apiKey) ? apiKey : routingContext.request().remoteAddress().host());
+        if (wait > 0) {
+            if (transactions)
+                TS.getMetrics().rejected(MetricsService.REJECTED_BY_RATE_LIMIT);
+            limited(routingContext.response(), printError(CLIENT_IS_RATE_LIMITED), wait);
+            return;
+        }
 
-        router.post(SEND_TRANSACTION).blockingHandler(this::sendTransaction); // work with a LinkedBlockingQueue so can be blocked
+        routingContext.next();
+    }
+
+    private void getMetrics(final RoutingContext routingContext) {
+        final HttpServerResponse response = routingContext.response();
+        response.setStatusCode(OK.getCode());
+        response.putHeader("Content-Type", "text/plain; version=0.0.4");
+        response.end(TS.renderMetrics());
     }
 
     /**
@@ -52,18 +173,104 @@ public class AppController {
 
         final Queue<StatusDto> statuses = TS.getStatuses();
 
-        String statusesRes;
+        response.setStatusCode(OK.getCode());
+        response.putHeader("Content-Type", "application/json");
+        response.end(JsonCodec.encode(Buffer.buffer(statuses.size() * 200 + 2), statuses));
+
+    }
+
+    /**
+     * Stream statuses by Server-Sent Events as soon as shard workers produce them. Optional filters: uuid of
+     * a transaction and accountId of a sender or a receiver.
+     * <p>
+     * A slow client doesn`t get more than the buffer of its subscription (see {@link StatusBroadcaster}): statuses
+     * over it are dropped and the client gets the `dropped` event with their number, or the stream is closed with the
+     * `overflow` event
+     *
+     * @param routingContext
+     */
+    private void streamStatuses(final RoutingContext routingContext) {
+        final HttpServerResponse response = routingContext.response();
+
+        final UUID uuid;
+        final Long accountId;
         try {
-            statusesRes = new ObjectMapper().writeValueAsString(statuses);
-        } catch (JsonProcessingException e) {
-            response.end(e.getMessage());
+            final String uuidParam = routingContext.request().getParam("uuid");
+            final String accountParam = routingContext.request().getParam("accountId");
+            uuid = isNull(uuidParam) ? null : UUID.fromString(uuidParam);
+            accountId = isNull(accountParam) ? null : Long.valueOf(accountParam);
+        } catch (IllegalArgumentException e) {
+            response.putHeader("Content-Type", "application/json");
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(INCORRECT_DATA));
+            return;
+        }
+
+        final Predicate<StatusDto> filter = status -> (isNull(uuid) || uuid.equals(status.getUuid()))
+                && (isNull(accountId) || accountId.equals(status.getFromId()) || accountId.equals(status.getToId()));
+
+        final StatusBroadcaster broadcaster = TS.getStatusBroadcaster();
+        final StatusBroadcaster.Subscription subscription
+                = broadcaster.subscribe(filter, s -> writeStatuses(response, s));
+        if (isNull(subscription)) {
+            response.putHeader("Content-Type", "application/json");
+            rejected(response, new RejectedTransactionException(printError(TOO_MANY_SUBSCRIBERS), RETRY_AFTER));
             return;
         }
 
+        response.closeHandler(v -> broadcaster.unsubscribe(subscription));
+        response.setChunked(true);
         response.setStatusCode(OK.getCode());
-        response.putHeader("Content-Type", "application/json");
-        response.end(statusesRes);
+        response.putHeader("Content-Type", "text/event-stream");
+        response.putHeader("Cache-Control", "no-cache");
+        response.write(": connected\n\n"); // send headers, so the client knows that it has been subscribed
+    }
 
+    /**
+     * Drain the buffer of the subscription to the stream while the stream can take more data
+     */
+    private void writeStatuses(final HttpServerResponse response, final StatusBroadcaster.Subscription subscription) {
+        if (subscription.isOverflowed()) {
+            TS.getStatusBroadcaster().unsubscribe(subscription);
+            response.end("event: overflow\ndata: {}\n\n");
+            return;
+        }
+
+        final long dropped = subscription.takeDropped();
+        if (dropped > 0)
+            response.write("event: dropped\ndata: " + dropped + "\n\n");
+
+        StatusDto status = null;
+        while (!response.writeQueueFull()) {
+            final Buffer chunk = Buffer.buffer();
+            for (int i = 0; i < STREAM_CHUNK && !isNull(status = subscription.poll()); i++)
+                JsonCodec.encode(chunk.appendString("data: "), status).appendString("\n\n");
+
+            if (chunk.length() > 0)
+                response.write(chunk);
+            if (isNull(status))
+                return;
+        }
+
+        response.drainHandler(v -> subscription.drain()); // continue when the client has read the data
+    }
+
+    private void getStatus(final RoutingContext routingContext) {
+        HttpServerResponse response = routingContext.response();
+
+        final UUID uuid = getStatusValidator(response, routingContext);
+        if (isNull(uuid)) return;
+
+        final StatusDto status = TS.getStatus(uuid);
+        if (isNull(status) && nonNull(CLUSTER)) { // the sender can be on another node
+            CLUSTER.getStatus(uuid).setHandler(ar ->
+                    forwarded(response, ar, () -> getStatusPostValidator(response, null, uuid)));
+            return;
+        }
+        if (isNull(getStatusPostValidator(response, status, uuid))) return;
+
+        response.setStatusCode(OK.getCode());
+        response.end(JsonCodec.encode(status));
     }
 
     private void getById(RoutingContext routingContext) {
@@ -72,13 +279,84 @@ public class AppController {
         final Long id = getByIdValidator(response, routingContext);
         if (isNull(id)) return;
 
+        if (!TS.isLocal(id)) {
+            CLUSTER.getById(id).setHandler(ar -> forwarded(response, ar, () -> getByIdPostValidator(response, null, id)));
+            return;
+        }
+
         final UserDto user = TS.getById(id);
 
         if (isNull(getByIdPostValidator(response, user, id))) return;
 
         response.setStatusCode(OK.getCode());
 
-        response.end(user.response());
+        response.end(JsonCodec.encode(user));
+    }
+
+    /**
+     * The history of a user from the newest transfer to the oldest one: {"entries": [...], "next": cursor}. `from` is
+     * `next` of the previous page, `limit` is the size of the page ({@link AppController#DEFAULT_HISTORY_PAGE} by
+     * default)
+     *
+     * @param routingContext
+     */
+    private void getHistory(final RoutingContext routingContext) {
+        HttpServerResponse response = routingContext.response();
+
+        final Long id = getByIdValidator(response, routingContext);
+        if (isNull(id)) return;
+
+        final Long from;
+        final int limit;
+        try {
+            final String fromParam = routingContext.request().getParam("from");
+            final String limitParam = routingContext.request().getParam("limit");
+            from = isNull(fromParam) ? null : Long.valueOf(fromParam);
+            limit = isNull(limitParam) ? DEFAULT_HISTORY_PAGE : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(INCORRECT_DATA));
+            return;
+        }
+        if (limit < 1 || limit > MAX_HISTORY_PAGE) {
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(String.format(HISTORY_PAGE_IS_TOO_BIG, MAX_HISTORY_PAGE)));
+            return;
+        }
+        if (!TS.isHistoryEnabled()) {
+            response.setStatusCode(NOT_FOUND.getCode());
+            response.end(printError(HISTORY_IS_DISABLED));
+            return;
+        }
+
+        if (!TS.isLocal(id)) {
+            CLUSTER.getHistory(id, from, limit).setHandler(ar -> {
+                if (ar.failed() && ar.cause() instanceof RejectedTransactionException
+                        && !((RejectedTransactionException) ar.cause()).isRetryable()) { // the cursor is wrong
+                    response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+                    response.end(ar.cause().getMessage());
+                    return;
+                }
+                forwarded(response, ar, () -> getByIdPostValidator(response, null, id));
+            });
+            return;
+        }
+
+        final HistoryPageDto page;
+        try {
+            page = TS.getHistory(id, from, limit);
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(String.format(UNKNOWN_HISTORY_CURSOR, from, id)));
+            return;
+        }
+        if (isNull(page)) {
+            getByIdPostValidator(response, null, id);
+            return;
+        }
+
+        response.setStatusCode(OK.getCode());
+        response.end(JsonCodec.encode(page));
     }
 
     private void sendTransaction(RoutingContext routingContext) {
@@ -92,18 +370,84 @@ public class AppController {
          * if success, then treat send the transaction to the {@link TransactionsService#TDQ} queue for transactions
          * processing
          */
-        final String msg = TS.sendTransaction(td);
+        final String idempotencyKey = routingContext.request().getHeader(IDEMPOTENCY_KEY);
+        if (nonNull(idempotencyKey) && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY)) {
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(String.format(IDEMPOTENCY_KEY_IS_INCORRECT, MAX_IDEMPOTENCY_KEY)));
+            return;
+        }
 
-        response.setStatusCode(OK.getCode());
+        if (ADMISSION.isOverloaded(td.getFromId())) {
+            TS.getMetrics().rejected(MetricsService.REJECTED_BY_LOAD_SHEDDING);
+            overloaded(response);
+            return;
+        }
+        final long wait = ADMISSION.admitSender(td.getFromId());
+        if (wait > 0) {
+            TS.getMetrics().rejected(MetricsService.REJECTED_BY_RATE_LIMIT);
+            limited(response, printError(String.format(SENDER_IS_RATE_LIMITED, td.getFromId())), wait);
+            return;
+        }
 
-        if (nonNull(msg)) {
-            response.end(msg);
+        if (!TS.isLocal(td.getFromId())) { // the node of the sender accepts it
+            CLUSTER.submitTransaction(td, idempotencyKey).setHandler(ar -> forwarded(response, ar, null));
             return;
         }
 
-        response.end(
-                new SendTransactionStatusDto(td.getTransactionId()).toString() // save transactionId (UUID)
-        );
+        TS.submitTransaction(td, idempotencyKey).setHandler(ar -> {
+            if (ar.failed()) {
+                rejected(response, ar.cause());
+                return;
+            }
+
+            response.setStatusCode(OK.getCode());
+            response.end(JsonCodec.encode(ar.result())); // save transactionId (UUID)
+        });
+    }
+
+    /**
+     * Send a batch of transactions (a JSON array or NDJSON). The response is an array with a result for each
+     * transaction in the same order: the UUID and the status, or the error. A transaction whose sender has a full
+     * shard queue or is rate limited gets the error, the others are sent
+     */
+    private void sendTransactions(final RoutingContext routingContext) {
+        HttpServerResponse response = routingContext.response();
+
+        final List<TransactionDto> tds = transactionsValidator(response, routingContext, MAX_BATCH_SIZE);
+        if (isNull(tds)) return;
+
+        final String[] errors = new String[tds.size()];
+        final List<TransactionDto> valid = new ArrayList<>(tds.size());
+        for (int i = 0; i < tds.size(); i++) {
+            errors[i] = transactionError(tds.get(i)); // first validation
+            if (isNull(errors[i]) && ADMISSION.isOverloaded(tds.get(i).getFromId())) {
+                TS.getMetrics().rejected(MetricsService.REJECTED_BY_LOAD_SHEDDING);
+                errors[i] = SERVICE_IS_OVERLOADED;
+            }
+            if (isNull(errors[i]) && ADMISSION.admitSender(tds.get(i).getFromId()) > 0) {
+                TS.getMetrics().rejected(MetricsService.REJECTED_BY_RATE_LIMIT);
+                errors[i] = String.format(SENDER_IS_RATE_LIMITED, tds.get(i).getFromId());
+            }
+            if (isNull(errors[i]))
+                valid.add(tds.get(i));
+        }
+
+        TS.submitTransactions(valid).setHandler(ar -> {
+            if (ar.failed()) {
+                rejected(response, ar.cause());
+                return;
+            }
+
+            final List<BatchTransactionStatusDto> statuses = new ArrayList<>(tds.size());
+            for (int i = 0, j = 0; i < tds.size(); i++)
+                statuses.add(new BatchTransactionStatusDto(
+                        tds.get(i).getTransactionId(),
+                        nonNull(errors[i]) ? errors[i] : ar.result()[j++]
+                ));
+
+            response.setStatusCode(OK.getCode());
+            response.end(JsonCodec.encode(Buffer.buffer(statuses.size() * 80 + 2), statuses));
+        });
     }
 
     private void addOne(final RoutingContext routingContext) {
@@ -112,23 +456,169 @@ public class AppController {
         final UserDto user = addValidator(response, routingContext);
         if (isNull(user)) return;
 
-        response.setStatusCode(OK.getCode());
-        final String msg = TS.addOne(user);
+        (TS.isLocal(user.getId()) ? TS.addOne(user) : CLUSTER.addOne(user)).setHandler(ar -> {
+            if (ar.failed()) {
+                rejected(response, ar.cause());
+                return;
+            }
+
+            response.setStatusCode(OK.getCode());
+            final String msg = ar.result();
 
-        if (nonNull(msg)) {
-            response.end(msg);
+            if (nonNull(msg)) {
+                response.end(msg);
+                return;
+            }
+            response.setStatusCode(CREATED.getCode());
+
+            response.end();
+        });
+    }
+
+    /**
+     * The answer of another node is the body of the response
+     *
+     * @param notFound - it answers if the node hasn`t found anything
+     */
+    private void forwarded(final HttpServerResponse response, final AsyncResult<String> answer, final Runnable notFound) {
+        if (answer.failed()) {
+            rejected(response, answer.cause());
+            return;
+        }
+        if (isNull(answer.result())) {
+            notFound.run();
             return;
         }
-        response.setStatusCode(CREATED.getCode());
 
-        response.end();
+        response.setStatusCode(OK.getCode());
+        response.end(answer.result());
     }
 
+    /**
+     * A request which can be repeated later gets 503 and Retry-After
+     */
+    private void rejected(final HttpServerResponse response, final Throwable cause) {
+        if (cause instanceof RejectedTransactionException && ((RejectedTransactionException) cause).isRetryable()) {
+            response.setStatusCode(SERVICE_UNAVAILABLE.getCode());
+            response.putHeader("Retry-After", String.valueOf(((RejectedTransactionException) cause).getRetryAfter()));
+        } else {
+            response.setStatusCode(OK.getCode());
+        }
+
+        response.end(cause.getMessage());
+    }
+
+    /**
+     * The rate limit of the client or of the sender: 429 and Retry-After until it has a token
+     *
+     * @param wait - in nanos
+     */
+    private static void limited(final HttpServerResponse response, final String msg, final long wait) {
+        response.setStatusCode(TOO_MANY_REQUESTS.getCode());
+        response.putHeader("Retry-After", String.valueOf(RateLimiter.toSeconds(wait)));
+        response.end(msg);
+    }
+
+    private void overloaded(final HttpServerResponse response) {
+        rejected(response, new RejectedTransactionException(printError(SERVICE_IS_OVERLOADED), RETRY_AFTER));
+    }
+
+    /**
+     * Without `limit` all users are streamed as before (a JSON object of users by ids), but page by page: the next
+     * page is read from the store only when the client has read the previous one, so an export takes the memory of
+     * a page whatever the size of the store is.
+     * <p>
+     * With `limit` (and `after` - the `next` of the previous page) it returns one page: {"users": [...], "next": id},
+     * `next` is null after the last page
+     *
+     * @param routingContext
+     */
     private void getAll(final RoutingContext routingContext) {
         HttpServerResponse response = routingContext.response();
-        response.setStatusCode(OK.getCode());
         response.putHeader("Content-Type", "application/json");
 
-        response.end(TS.getAll());
+        final Integer limit;
+        final Long after;
+        try {
+            final String limitParam = routingContext.request().getParam("limit");
+            final String afterParam = routingContext.request().getParam("after");
+            limit = isNull(limitParam) ? null : Integer.valueOf(limitParam);
+            after = isNull(afterParam) ? null : Long.valueOf(afterParam);
+        } catch (NumberFormatException e) {
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(INCORRECT_DATA));
+            return;
+        }
+        if (nonNull(limit) && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(String.format(PAGE_IS_TOO_BIG, MAX_PAGE_SIZE)));
+            return;
+        }
+
+        final Buffer chunk = Buffer.buffer(nonNull(limit) ? limit * 40 : EXPORT_PAGE * 40);
+        final boolean[] written = {false}; // a page can have only parts of split accounts, they aren`t written
+        final Long next;
+        try {
+            chunk.appendString(nonNull(limit) ? "{\"users\":[" : "{");
+            next = TS.getPage(after, nonNull(limit) ? limit : EXPORT_PAGE, (id, version, currency, balance) ->
+                    appendUser(chunk, id, balance, currency, isNull(limit), written));
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+            response.end(printError(String.format(UNKNOWN_CURSOR, after)));
+            return;
+        }
+        response.setStatusCode(OK.getCode());
+
+        if (nonNull(limit)) {
+            response.end(chunk.appendString("],\"next\":").appendString(String.valueOf(next)).appendString("}"));
+        } else if (isNull(next)) {
+            response.end(chunk.appendString("}"));
+        } else {
+            response.setChunked(true);
+            response.write(chunk);
+            exportUsers(response, next, written);
+        }
+    }
+
+    /**
+     * Write the rest of users while the client can take more data
+     *
+     * @param after   - the last read user
+     * @param written - true if a user has been written to the response
+     */
+    private void exportUsers(final HttpServerResponse response, final Long after, final boolean[] written) {
+        Long last = after;
+        while (!response.writeQueueFull()) {
+            final Buffer chunk = Buffer.buffer(EXPORT_PAGE * 40);
+            final Long next = TS.getPage(last, EXPORT_PAGE, (id, version, currency, balance) ->
+                    appendUser(chunk, id, balance, currency, true, written));
+            if (isNull(next)) {
+                response.end(chunk.appendString("}"));
+                return;
+            }
+            response.write(chunk);
+            last = next;
+        }
+
+        final Long next = last;
+        response.drainHandler(v -> exportUsers(response, next, written)); // continue when the client has read the data
+    }
+
+    /**
+     * The same JSON as {@link UserDto} by Jackson
+     *
+     * @param byId    - with the id as the key
+     * @param written - true if a user has been written to the response before, it is set by the first one
+     */
+    private static void appendUser(final Buffer chunk, final long id, final BigDecimal balance, final String currency,
+                                   final boolean byId, final boolean[] written) {
+        if (written[0])
+            chunk.appendString(",");
+        written[0] = true;
+        if (byId)
+            chunk.appendString("\"").appendString(Long.toString(id)).appendString("\":");
+        chunk.appendString("{\"id\":").appendString(Long.toString(id))
+                .appendString(",\"balance\":").appendString(balance.toString())
+                .appendString(",\"currency\":\"").appendString(currency).appendString("\"}");
     }
 }
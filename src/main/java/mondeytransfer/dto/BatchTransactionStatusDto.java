@@ -0,0 +1,39 @@
+package mondeytransfer.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+import static mondeytransfer.enums.Messages.TRANSACTION_SUCCESS;
+
+/**
+ * A result of a transaction from a batch: the status and the UUID if it has been sent on processing, else the error
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchTransactionStatusDto {
+    private UUID uuid;
+    private String status;
+    private String error;
+
+    public BatchTransactionStatusDto() {}
+
+    public BatchTransactionStatusDto(final UUID uuid, final String error) {
+        this.uuid = uuid;
+        this.status = error == null ? TRANSACTION_SUCCESS : null;
+        this.error = error;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
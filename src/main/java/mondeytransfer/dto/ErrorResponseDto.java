@@ -1,6 +1,11 @@
 package mondeytransfer.dto;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import mondeytransfer.other.JsonCodec;
+
 /**
+ * An error of a request: {"error": "the message"}
+ *
  * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
  */
 public class ErrorResponseDto {
@@ -11,15 +16,16 @@ public class ErrorResponseDto {
     }
 
     public static String printError(final String msg) {
-        return "{error:" + msg + '}';
+        return JsonCodec.encodeToString(new ErrorResponseDto(msg));
     }
 
+    @JsonProperty("error")
     public String getMsg() {
         return msg;
     }
 
     @Override
     public String toString() {
-        return "{error:" + msg + '}';
+        return JsonCodec.encodeToString(this);
     }
 }
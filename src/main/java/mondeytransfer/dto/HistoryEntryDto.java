@@ -0,0 +1,141 @@
+package mondeytransfer.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import mondeytransfer.other.Money;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * A change of one user by an applied transfer, an entry of {@link mondeytransfer.model.HistoryLedger}: the amount is
+ * negative for the sender and positive for the receiver, the balance is the one after the transfer. A shard makes it
+ * with minor units of the store (see {@link Money}), they are converted only for a response
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HistoryEntryDto {
+    private static final int NO_UNITS = -1;
+    public static final long NO_BALANCE = Long.MIN_VALUE; // a split account doesn`t have one balance after a transfer
+
+    public HistoryEntryDto() {}
+
+    public HistoryEntryDto(final UUID transactionId, final long accountId, final long counterpartyId,
+                           final BigDecimal amount, final BigDecimal balance, final long time) {
+        this.transactionId = transactionId;
+        this.accountId = accountId;
+        this.counterpartyId = counterpartyId;
+        this.amount = amount;
+        this.balance = balance;
+        this.time = time;
+    }
+
+    private HistoryEntryDto(final UUID transactionId, final long accountId, final long counterpartyId,
+                            final long amountUnits, final long balanceUnits, final int scale) {
+        this.transactionId = transactionId;
+        this.accountId = accountId;
+        this.counterpartyId = counterpartyId;
+        this.amountUnits = amountUnits;
+        this.balanceUnits = balanceUnits;
+        this.scale = scale;
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * The entry of the sender
+     *
+     * @param balanceUnits - the balance after the debit or {@link HistoryEntryDto#NO_BALANCE}
+     */
+    public static HistoryEntryDto debited(final TransactionDto op, final long balanceUnits, final int scale) {
+        return new HistoryEntryDto(op.getTransactionId(), op.getFromId(), op.getToId(), -op.getSentUnits(),
+                balanceUnits, scale);
+    }
+
+    /**
+     * The entry of the receiver, the amount is in the currency of the receiver
+     *
+     * @param balanceUnits - the balance after the credit or {@link HistoryEntryDto#NO_BALANCE}
+     */
+    public static HistoryEntryDto credited(final TransactionDto op, final long balanceUnits, final int scale) {
+        return new HistoryEntryDto(op.getTransactionId(), op.getToId(), op.getFromId(), op.getCreditedUnits(),
+                balanceUnits, scale);
+    }
+
+    private UUID transactionId;
+    @JsonIgnore
+    private long accountId; // a page has entries of one user
+    private long counterpartyId;
+    private BigDecimal amount; // null if it is too big for the ledger
+    private BigDecimal balance; // null if it is too big for the ledger
+    private long time; // milliseconds since the epoch
+
+    @JsonIgnore
+    private long amountUnits, balanceUnits;
+    @JsonIgnore
+    private int scale = NO_UNITS; // of units, else the amount and the balance are decimals
+
+    public UUID getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(UUID transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public long getCounterpartyId() {
+        return counterpartyId;
+    }
+
+    public void setCounterpartyId(long counterpartyId) {
+        this.counterpartyId = counterpartyId;
+    }
+
+    public BigDecimal getAmount() {
+        return scale == NO_UNITS ? amount : Money.toDecimal(amountUnits, scale);
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public BigDecimal getBalance() {
+        return scale == NO_UNITS ? balance : balanceUnits == NO_BALANCE ? null : Money.toDecimal(balanceUnits, scale);
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    @JsonIgnore
+    public boolean isInUnits() {
+        return scale != NO_UNITS;
+    }
+
+    @JsonIgnore
+    public long getAmountUnits() {
+        return amountUnits;
+    }
+
+    @JsonIgnore
+    public long getBalanceUnits() {
+        return balanceUnits;
+    }
+
+    @JsonIgnore
+    public int getScale() {
+        return scale;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+}
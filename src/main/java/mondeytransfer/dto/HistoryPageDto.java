@@ -0,0 +1,37 @@
+package mondeytransfer.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of /getHistory: entries from the newest to the oldest one and the cursor of the next page (`from`), null after
+ * the last page
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class HistoryPageDto {
+    public HistoryPageDto() {}
+
+    public HistoryPageDto(final int limit) {
+        this.entries = new ArrayList<>(limit);
+    }
+
+    private List<HistoryEntryDto> entries;
+    private Long next;
+
+    public List<HistoryEntryDto> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<HistoryEntryDto> entries) {
+        this.entries = entries;
+    }
+
+    public Long getNext() {
+        return next;
+    }
+
+    public void setNext(Long next) {
+        this.next = next;
+    }
+}
@@ -1,12 +1,20 @@
 package mondeytransfer.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.other.JsonCodec;
+
 import java.util.UUID;
 
 import static mondeytransfer.enums.Messages.TRANSACTION_SUCCESS;
 
 /**
+ * The answer to an accepted transaction: {"status": ..., "uuid": ...}. A repeated request with an idempotency key also
+ * gets the result of the transaction, if it is ready
+ *
  * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class SendTransactionStatusDto {
 
     public SendTransactionStatusDto(final UUID uuid) { // this constructor for mock tests
@@ -15,6 +23,7 @@ public class SendTransactionStatusDto {
 
     private String status = TRANSACTION_SUCCESS;
     private final UUID uuid; // can`t be change by business logic
+    private StatusEnum result;
 
     public String getStatus() {
         return status;
@@ -28,8 +37,16 @@ public class SendTransactionStatusDto {
         return uuid;
     }
 
+    public StatusEnum getResult() {
+        return result;
+    }
+
+    public void setResult(StatusEnum result) {
+        this.result = result;
+    }
+
     @Override
     public String toString() {
-        return "{status:'\"" + status + "\"," + "uuid:\"" + uuid + "\"}";
+        return JsonCodec.encodeToString(this);
     }
 }
@@ -20,12 +20,20 @@ public class StatusDto {
         this.message = message;
     }
 
+    public StatusDto(TransactionDto td, StatusEnum se, String message) {
+        this(td.getTransactionId(), se, message);
+        this.fromId = td.getFromId();
+        this.toId = td.getToId();
+    }
+
     private UUID uuid;
     private StatusEnum statusEnum;
     /**
      * message - if there was {@link StatusEnum#ERROR} with description
      */
     private String message;
+    private Long fromId;
+    private Long toId;
     private final LocalDateTime dateTime = LocalDateTime.now();
 
     public UUID getUuid() {
@@ -51,4 +59,12 @@ public class StatusDto {
     public String getMessage() {
         return message;
     }
+
+    public Long getFromId() {
+        return fromId;
+    }
+
+    public Long getToId() {
+        return toId;
+    }
 }
@@ -1,5 +1,10 @@
 package mondeytransfer.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import mondeytransfer.enums.TransferPhaseEnum;
+import mondeytransfer.enums.TransferResultEnum;
+
 import java.math.BigDecimal;
 import java.util.UUID;
 
@@ -10,18 +15,56 @@ public class TransactionDto {
     public TransactionDto() {}
 
     public TransactionDto(final Long fromId, final BigDecimal sentSum, final Long toId) {
+        this(UUID.randomUUID(), fromId, sentSum, toId);
+    }
+
+    public TransactionDto(final UUID transactionId, final Long fromId, final BigDecimal sentSum, final Long toId) { // for a journal replay
+        this.transactionId = transactionId;
         this.fromId = fromId;
         this.sentSum = sentSum;
         this.toId = toId;
     }
 
-    private final UUID transactionId = UUID.randomUUID();
+    private UUID transactionId = UUID.randomUUID();
 
     private Long fromId;
     private BigDecimal sentSum;
 
     private Long toId;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String currency; // of sentSum, it is the currency of the sender. Null - the one of the sender
+
+    @JsonIgnore
+    private long sentUnits; // sentSum in minor units of the currency, see mondeytransfer.model.AccountStore#prepare
+
+    @JsonIgnore
+    private int currencyIndex; // the currency in mondeytransfer.model.Currencies of the node
+
+    @JsonIgnore
+    private long creditedUnits; // sentUnits converted to the currency of the receiver
+
+    @JsonIgnore
+    private long fromAccount; // fromId or a part of it if it is split, see mondeytransfer.service.HotAccounts
+
+    @JsonIgnore
+    private long toAccount; // toId or a part of it, on the node of the receiver
+
+    @JsonIgnore
+    private long enqueuedAt; // System.nanoTime() when it has been sent to a shard queue, for metrics
+
+    @JsonIgnore
+    private TransferPhaseEnum phase = TransferPhaseEnum.DEBIT; // what the next shard does with it
+
+    @JsonIgnore
+    private TransferResultEnum result; // why the credit has failed, for REFUND
+
+    @JsonIgnore
+    private long debitedVersion; // the after-image of the sender for the journal, from DEBIT to CREDIT
+
+    @JsonIgnore
+    private long debitedUnits;
+
     public Long getFromId() {
         return fromId;
     }
@@ -55,6 +98,110 @@ public class TransactionDto {
                 '}';
     }
 
+    public String getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(String currency) {
+        this.currency = currency;
+    }
+
+    @JsonIgnore
+    public long getSentUnits() {
+        return sentUnits;
+    }
+
+    @JsonIgnore
+    public int getCurrencyIndex() {
+        return currencyIndex;
+    }
+
+    /**
+     * The receiver gets the same units until {@link TransactionDto#setCreditedUnits(long)}
+     */
+    @JsonIgnore
+    public void setSentUnits(long sentUnits, int currencyIndex) {
+        this.sentUnits = sentUnits;
+        this.currencyIndex = currencyIndex;
+        this.creditedUnits = sentUnits;
+    }
+
+    @JsonIgnore
+    public long getCreditedUnits() {
+        return creditedUnits;
+    }
+
+    @JsonIgnore
+    public void setCreditedUnits(long creditedUnits) {
+        this.creditedUnits = creditedUnits;
+    }
+
+    @JsonIgnore
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    @JsonIgnore
+    public void setEnqueuedAt(long enqueuedAt) {
+        this.enqueuedAt = enqueuedAt;
+    }
+
+    @JsonIgnore
+    public TransferPhaseEnum getPhase() {
+        return phase;
+    }
+
+    @JsonIgnore
+    public void setPhase(TransferPhaseEnum phase) {
+        this.phase = phase;
+    }
+
+    @JsonIgnore
+    public TransferResultEnum getResult() {
+        return result;
+    }
+
+    @JsonIgnore
+    public void setResult(TransferResultEnum result) {
+        this.result = result;
+    }
+
+    @JsonIgnore
+    public long getFromAccount() {
+        return fromAccount;
+    }
+
+    @JsonIgnore
+    public void setFromAccount(long fromAccount) {
+        this.fromAccount = fromAccount;
+    }
+
+    @JsonIgnore
+    public long getToAccount() {
+        return toAccount;
+    }
+
+    @JsonIgnore
+    public void setToAccount(long toAccount) {
+        this.toAccount = toAccount;
+    }
+
+    @JsonIgnore
+    public long getDebitedVersion() {
+        return debitedVersion;
+    }
+
+    @JsonIgnore
+    public long getDebitedUnits() {
+        return debitedUnits;
+    }
+
+    @JsonIgnore
+    public void setDebited(long version, long units) {
+        this.debitedVersion = version;
+        this.debitedUnits = units;
+    }
+
     public UUID getTransactionId() {
         return transactionId;
     }
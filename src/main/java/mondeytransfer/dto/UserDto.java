@@ -1,16 +1,22 @@
 package mondeytransfer.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.vertx.core.json.JsonObject;
 
 import java.math.BigDecimal;
 
 /**
+ * A user of the API, balances of the engine are minor units of {@link mondeytransfer.model.AccountStore}. The balance
+ * is in the currency of the account, null is the default currency of {@link mondeytransfer.model.Currencies}
+ *
  * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
  */
 public class UserDto {
 
     private Long id;
     private BigDecimal balance;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String currency;
 
     public UserDto() {
 
@@ -21,9 +27,12 @@ public class UserDto {
         this.balance = BigDecimal.ZERO;
     }
 
+    /**
+     * The balance is the shortest decimal form of the double (3000.0 is 3000.0), not its binary value
+     */
     public UserDto(Long id, Double balance) {
         this.id = id;
-        this.balance = new BigDecimal(balance);
+        this.balance = BigDecimal.valueOf(balance);
     }
 
     public UserDto(Long id, String balance) {
@@ -36,6 +45,12 @@ public class UserDto {
         this.balance = balance;
     }
 
+    public UserDto(Long id, BigDecimal balance, String currency) {
+        this.id = id;
+        this.balance = balance;
+        this.currency = currency;
+    }
+
     public UserDto(JsonObject json) {
         this.id = json.getLong("_id");
         this.balance = new BigDecimal(json.getString("balance"));
@@ -49,12 +64,6 @@ public class UserDto {
         return balance;
     }
 
-    /**
-     * You don`t need any synchronization here because this method used only a thread choices by the formula
-     * ({@link mondeytransfer.dto.TransactionDto#fromId} % {@link mondeytransfer.service.TransactionsService#COUNT_THREADS})
-     *
-     * @param balance
-     */
     public void setBalance(BigDecimal balance) {
         this.balance = balance;
     }
@@ -63,25 +72,20 @@ public class UserDto {
         this.id = id;
     }
 
+    public String getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(String currency) {
+        this.currency = currency;
+    }
+
     @Override
     public String toString() {
         return "User{" +
                 "id=" + id +
                 ", balance=" + balance +
+                ", currency=" + currency +
                 '}';
     }
-
-    public String response() {
-        return "{" + "\"id\":" + id + ", \"balance\": \"" + balance+"\"}";
-    }
-
-    /**
-     * synchronized for atomicity in order if there were send several transaction from different senders
-     * an receiver for all this transactions the same user.
-     *
-     * @param sentSum
-     */
-    public synchronized void plusBalance(BigDecimal sentSum) {
-        balance = balance.add(sentSum);
-    }
 }
@@ -0,0 +1,17 @@
+package mondeytransfer.enums;
+
+/**
+ * Which halves of transfers {@link mondeytransfer.model.AuditLog} records
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum AuditModeEnum {
+    OFF, // nothing, the audit file isn`t opened
+    ERRORS, // only failed transactions
+    SAMPLED, // failed transactions and a part of the rest by the sample rate
+    FULL; // all halves of all transfers, a shard waits if the audit log is overloaded
+
+    public static AuditModeEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,81 @@
+package mondeytransfer.enums;
+
+/**
+ * Config keys keeper (see src/main/conf/my-application-conf.json)
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class ConfigKeys {
+    private ConfigKeys() {}
+
+    public static final String
+            HTTP_PORT = "http.port",
+            HTTP_INSTANCES = "http.instances",
+
+            CLUSTER_NODES = "cluster.nodes",
+            CLUSTER_NODE = "cluster.node",
+            CLUSTER_TIMEOUT = "cluster.timeout.ms",
+
+            STORE_TYPE = "store.type",
+            STORE_CAPACITY = "store.capacity",
+            STORE_SCALE = "store.scale",
+
+            CURRENCY_DEFAULT = "currency.default",
+            CURRENCY_SCALES = "currencies",
+            FX_RATES_FILE = "fx.rates.file",
+            FX_RATES_RELOAD_INTERVAL = "fx.rates.reload.interval.seconds",
+
+            SHARDS_COUNT = "shards.count",
+            SHARDS_ASSIGNMENT = "shards.assignment",
+            SHARDS_REBALANCE_INTERVAL = "shards.rebalance.interval.seconds",
+            SPLIT_ACCOUNTS = "hot.accounts",
+            HOT_ACCOUNT_PARTS = "hot.account.parts",
+            HOT_ACCOUNT_AUTO_SPLIT = "hot.account.auto.split",
+            HOT_ACCOUNTS_REBALANCE_INTERVAL = "hot.accounts.rebalance.interval.seconds",
+
+            QUEUE_TYPE = "queue.type",
+            QUEUE_CAPACITY = "queue.capacity",
+            QUEUE_WAIT_STRATEGY = "queue.wait.strategy",
+            QUEUE_DRAIN_BATCH = "queue.drain.batch",
+            QUEUE_RETRY_AFTER = "queue.retry.after.seconds",
+            BATCH_MAX_SIZE = "batch.max.size",
+
+            RATE_LIMIT_CLIENT = "rate.limit.client.per.second",
+            RATE_LIMIT_CLIENT_BURST = "rate.limit.client.burst",
+            RATE_LIMIT_SENDER = "rate.limit.sender.per.second",
+            RATE_LIMIT_SENDER_BURST = "rate.limit.sender.burst",
+            RATE_LIMIT_BUCKETS = "rate.limit.buckets",
+            LOAD_SHEDDING_QUEUE_FILL = "load.shedding.queue.fill",
+
+            STATUS_INDEX_CAPACITY = "status.index.capacity",
+            STATUS_INDEX_TTL = "status.index.ttl.seconds",
+            STATUS_INDEX_EVICTION = "status.index.eviction",
+
+            IDEMPOTENCY_CAPACITY = "idempotency.capacity",
+            IDEMPOTENCY_TTL = "idempotency.ttl.seconds",
+
+            STATUS_STREAM_BUFFER = "status.stream.buffer",
+            STATUS_STREAM_OVERFLOW = "status.stream.overflow",
+            STATUS_STREAM_MAX_SUBSCRIBERS = "status.stream.max.subscribers",
+
+            JOURNAL_ENABLED = "journal.enabled",
+            JOURNAL_DIR = "journal.dir",
+            JOURNAL_SEGMENT_SIZE = "journal.segment.size",
+            JOURNAL_QUEUE_CAPACITY = "journal.queue.capacity",
+            JOURNAL_MAX_BATCH = "journal.group.commit.max.batch",
+            JOURNAL_WINDOW_MICROS = "journal.group.commit.window.micros",
+            JOURNAL_FSYNC = "journal.fsync",
+
+            SNAPSHOT_DIR = "snapshot.dir",
+            SNAPSHOT_INTERVAL = "snapshot.interval.seconds",
+
+            AUDIT_MODE = "audit.mode",
+            AUDIT_FILE = "audit.file",
+            AUDIT_SAMPLE_RATE = "audit.sample.rate",
+            AUDIT_QUEUE_CAPACITY = "audit.queue.capacity",
+
+            HISTORY_ENABLED = "history.enabled",
+            HISTORY_DIR = "history.dir",
+            HISTORY_SEGMENT_ROWS = "history.segment.rows",
+            HISTORY_QUEUE_CAPACITY = "history.queue.capacity";
+}
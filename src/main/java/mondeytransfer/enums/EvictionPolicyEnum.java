@@ -0,0 +1,15 @@
+package mondeytransfer.enums;
+
+/**
+ * Which statuses {@link mondeytransfer.model.StatusIndex} evicts first when it is full
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum EvictionPolicyEnum {
+    FIFO, // the oldest statuses
+    LRU; // statuses which haven`t been read for the longest time
+
+    public static EvictionPolicyEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
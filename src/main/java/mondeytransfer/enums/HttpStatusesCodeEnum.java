@@ -5,7 +5,8 @@ package mondeytransfer.enums;
  */
 public enum HttpStatusesCodeEnum {
     NO_CONTENT(204), NOT_FOUND(404), UNPROCESSABLE_ENTITY(422),
-    OK(200), CREATED(201);
+    OK(200), CREATED(201),
+    TOO_MANY_REQUESTS(429), SERVICE_UNAVAILABLE(503);
 
     private final int code;
 
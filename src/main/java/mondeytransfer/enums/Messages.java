@@ -11,12 +11,38 @@ public class Messages {
 
     public static final String
             USER_EXIST = "This user id=%d is already exist",
+            ID_IS_RESERVED = "The id=%d is reserved for parts of split accounts",
             USER_NOT_FOUND = "The user with id=%d not found",
+            STATUS_NOT_FOUND = "The status of the transaction uuid=%s not found. It is in processing or it has expired",
             USER_DOESNT_HAVE_ENOUGH_MONEY = "The sender has`t had enough money. Please try later",
-            RECEIVER_DOESNT_HAVE_ENOUGH_MONEY = "Receiver with id=%d hasn`t existed",
+            RECEIVER_NOT_FOUND = "Receiver with id=%d hasn`t existed",
+
+            AMOUNT_IS_NOT_SUPPORTED = "The amount %s has too many digits after the point or it is too big",
+            UNKNOWN_CURRENCY = "The currency %s isn`t supported",
+            CURRENCY_ISNT_OF_THE_SENDER = "The sender has an account in %s, not in %s",
+            CANT_BE_CONVERTED = "The amount can`t be converted to the currency of the receiver id=%d, there isn`t a rate or the result is out of range",
 
             TRANSACTION_CANT_BE_SEND_TO_THE_SAME_SENDER = "You can`t send yourself",
             TRANSACTION_SUCCESS = "Request for transaction has been send success",
+            BATCH_IS_TOO_BIG = "A batch can`t have more than %d transactions",
+            SHARD_IS_SATURATED = "Too many transactions of this sender or receiver are in processing. Please try later",
+            JOURNAL_IS_SATURATED = "Too many requests are waiting for the journal. Please try later",
+            CLIENT_IS_RATE_LIMITED = "Too many requests from this client. Please try later",
+            SENDER_IS_RATE_LIMITED = "Too many transactions from the sender id=%d. Please try later",
+            SERVICE_IS_OVERLOADED = "Too many transactions are in processing. Please try later",
+            TOO_MANY_SUBSCRIBERS = "Too many status streams are open. Please try later",
+            JOURNAL_ERROR = "The request has not been saved to the journal, check its result later",
+            TRANSACTION_ISNT_JOURNALED = "The transaction has not been saved to the journal and it has not been sent. Please try later",
+            TRANSACTION_IS_INTERRUPTED = "The transaction has been interrupted and it has not been sent",
+            STORE_IS_FULL = "The store is full. No more users can be added",
+            NODE_IS_UNAVAILABLE = "The node of the user is unavailable. Please try later",
+            IDEMPOTENCY_KEY_IS_INCORRECT = "An idempotency key must have from 1 to %d characters",
+            IDEMPOTENCY_KEY_IS_USED = "The idempotency key has been used for another transaction",
+            PAGE_IS_TOO_BIG = "A page can`t have more than %d users",
+            UNKNOWN_CURSOR = "The user after=%d of the cursor hasn`t existed",
+            HISTORY_PAGE_IS_TOO_BIG = "A page of the history can`t have more than %d entries",
+            UNKNOWN_HISTORY_CURSOR = "The cursor from=%d isn`t an entry of the user id=%d",
+            HISTORY_IS_DISABLED = "The history of transfers is disabled",
 
             EMPTY_DATA = "Empty data",
             INCORRECT_DATA = "Incorrect data";
@@ -0,0 +1,16 @@
+package mondeytransfer.enums;
+
+/**
+ * What a status stream does when the buffer of a subscriber is full (see
+ * {@link mondeytransfer.service.StatusBroadcaster})
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum OverflowPolicyEnum {
+    DROP, // drop new statuses and tell the subscriber how many have been dropped
+    DISCONNECT; // close the stream, the subscriber should reconnect and check statuses it has missed
+
+    public static OverflowPolicyEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,15 @@
+package mondeytransfer.enums;
+
+/**
+ * Implementation of the shard queues {@link mondeytransfer.other.ShardQueue}
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum QueueTypeEnum {
+    RING, // a preallocated lock-free multi-producer/single-consumer ring buffer
+    LINKED; // the old LinkedBlockingQueue, a fallback
+
+    public static QueueTypeEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
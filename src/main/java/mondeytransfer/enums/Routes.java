@@ -13,5 +13,10 @@ public class Routes {
             GET_ALL = "/getAll",
             GET_BY_ID = "/getById",
             GET_STATUSES = "/getStatuses",
-            SEND_TRANSACTION = "/sendTransaction";
+            GET_STATUS = "/getStatus",
+            GET_HISTORY = "/getHistory",
+            STREAM_STATUSES = "/streamStatuses",
+            SEND_TRANSACTION = "/sendTransaction",
+            SEND_TRANSACTIONS = "/sendTransactions",
+            GET_METRICS = "/metrics";
 }
@@ -0,0 +1,15 @@
+package mondeytransfer.enums;
+
+/**
+ * How an account is assigned to a shard, see {@link mondeytransfer.service.ShardRouter}
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum ShardAssignmentEnum {
+    MODULO, // id % shards: the cheapest, but almost all accounts get other shards if the number of shards is changed
+    CONSISTENT; // a hash ring with virtual nodes: only ~1/shards of accounts move if a shard is added
+
+    public static ShardAssignmentEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,15 @@
+package mondeytransfer.enums;
+
+/**
+ * Implementation of {@link mondeytransfer.model.AccountStore}
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum StoreTypeEnum {
+    MAP, // a ConcurrentHashMap of accounts with long minor units
+    PRIMITIVE; // an open-addressing table of long minor units
+
+    public static StoreTypeEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
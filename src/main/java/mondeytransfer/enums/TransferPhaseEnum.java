@@ -0,0 +1,16 @@
+package mondeytransfer.enums;
+
+/**
+ * A half of a transfer which a shard does with a transaction. Each user is changed only by the shard of the user, so
+ * a transfer goes from the shard of the sender to the shard of the receiver (see
+ * {@link mondeytransfer.service.TransactionsService})
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum TransferPhaseEnum {
+    DEBIT, // take the sum from the sender, on the shard of the sender
+    CREDIT, // add the sum to the receiver, on the shard of the receiver
+    REFUND, // give the sum back to the sender if the credit has failed, on the shard of the sender
+    CONFIRM, // the receiver on another node has got the sum, on the shard of the sender
+    FENCE // not a transaction: the old shard of a moved account has treated everything before it
+}
@@ -0,0 +1,14 @@
+package mondeytransfer.enums;
+
+/**
+ * A result of {@link mondeytransfer.model.AccountStore#transfer}
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum TransferResultEnum {
+    SUCCESS,
+    NOT_ENOUGH_MONEY,
+    CORRUPTED, // a user doesn`t exist or has a zero balance, it should be filtered in validation
+    OVERFLOW, // the balance of the receiver is too big for the store, the sender has got his money back
+    NOT_CONVERTIBLE // the sum can`t be converted to the currency of the receiver, the sender has got his money back
+}
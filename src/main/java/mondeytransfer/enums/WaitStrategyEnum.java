@@ -0,0 +1,60 @@
+package mondeytransfer.enums;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a thread does while it waits for a lock-free queue: a consumer for a new element or a producer for a free slot
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public enum WaitStrategyEnum {
+    /**
+     * The lowest latency, but it burns a whole core per waiting thread
+     */
+    BUSY_SPIN {
+        @Override
+        public int idle(final int counter) {
+            return counter + 1;
+        }
+    },
+    /**
+     * Give the core to other threads, but stay runnable
+     */
+    YIELD {
+        @Override
+        public int idle(final int counter) {
+            if (counter > SPINS)
+                Thread.yield();
+
+            return counter + 1;
+        }
+    },
+    /**
+     * Spin a little, then yield, then sleep for {@link WaitStrategyEnum#PARK_NANOS}. The best choice when there are
+     * more shards than free cores
+     */
+    PARK {
+        @Override
+        public int idle(final int counter) {
+            if (counter > SPINS + YIELDS)
+                LockSupport.parkNanos(PARK_NANOS);
+            else if (counter > SPINS)
+                Thread.yield();
+
+            return counter + 1;
+        }
+    };
+
+    private static final int SPINS = 100, YIELDS = 100;
+    private static final long PARK_NANOS = 50_000L;
+
+    /**
+     * @param counter - how many times the caller has already been idle in the current wait
+     * @return - the counter for the next call
+     */
+    public abstract int idle(int counter);
+
+    public static WaitStrategyEnum of(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,45 @@
+package mondeytransfer.model;
+
+import mondeytransfer.other.Money;
+
+import java.math.BigDecimal;
+
+/**
+ * A state of a user after a change: a mutable holder, so a shard reuses the same images for all transfers. The balance
+ * is in minor units of the store (see {@link Money}), it is converted only by {@link AccountImage#getBalance()}
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class AccountImage {
+    private long id;
+    private long version;
+    private long units;
+    private int scale;
+
+    void set(final long id, final long version, final long units, final int scale) {
+        this.id = id;
+        this.version = version;
+        this.units = units;
+        this.scale = scale;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getUnits() {
+        return units;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public BigDecimal getBalance() {
+        return Money.toDecimal(units, scale);
+    }
+}
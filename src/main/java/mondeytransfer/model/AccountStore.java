@@ -0,0 +1,157 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.TransferResultEnum;
+import mondeytransfer.other.Money;
+
+import java.math.BigDecimal;
+
+/**
+ * Accounts and their balances. Each account has a currency of {@link Currencies}, its balance is a long of minor units
+ * of the currency (see {@link Money}), so transfers don`t touch BigDecimal: sums are converted once by
+ * {@link AccountStore#prepare(TransactionDto)}. Each change of a balance increases the version of the user, so a user
+ * can be restored from after-images of {@link TransactionJournal} and {@link SnapshotStore} in any order.
+ * <p>
+ * Implementations: {@link TransactionStore} (a map of accounts) and {@link PrimitiveAccountStore}
+ * (an open-addressing table of longs).
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public interface AccountStore {
+
+    boolean containsKey(long id);
+
+    /**
+     * @return - null if the user doesn`t exist. It can be a copy, so don`t change it
+     */
+    UserDto get(long id);
+
+    /**
+     * @return - false if the user exists
+     * @throws IllegalArgumentException - if the currency isn`t supported or the balance can`t be kept by the store
+     * @throws IllegalStateException    - if the store is full
+     */
+    boolean putIfAbsent(UserDto user);
+
+    void remove(long id);
+
+    /**
+     * Create the user or set the balance if the version is not older than the current one
+     *
+     * @param currency - the code of the currency of a new user, null for the default one. The currency of an existing
+     *                 user isn`t changed
+     */
+    void restore(long id, long version, String currency, BigDecimal balance);
+
+    Currencies getCurrencies();
+
+    /**
+     * @return - the index of the currency of the user in {@link AccountStore#getCurrencies()}, -1 if the user doesn`t
+     * exist
+     */
+    int getCurrency(long id);
+
+    /**
+     * Check the sum of the transaction in its currency (the currency of the sender) and convert it to minor units for
+     * {@link AccountStore#transfer}. It is called once before the transaction is sent to a shard, so a transfer
+     * doesn`t convert anything unless the receiver has another currency
+     *
+     * @throws ArithmeticException - if the currency isn`t supported or the sum can`t be kept by the store
+     */
+    default void prepare(final TransactionDto td) {
+        final int currency = getCurrencies().index(td.getCurrency());
+        if (currency < 0)
+            throw new ArithmeticException("Unknown currency " + td.getCurrency());
+
+        final long units = Money.toUnits(td.getSentSum(), getCurrencies().scale(currency));
+        if (units <= 0)
+            throw new ArithmeticException("Incorrect sum " + td.getSentSum());
+
+        td.setSentUnits(units, currency);
+    }
+
+    /**
+     * Read the version and the balance of the user atomically
+     *
+     * @return - false if the user doesn`t exist
+     */
+    boolean read(long id, AccountImage image);
+
+    /**
+     * @return - false if the user doesn`t exist or doesn`t have enough money now
+     */
+    boolean canDebit(long id, TransactionDto td);
+
+    /**
+     * Take the sum from the sender. It is the first half of a transfer, the second one is
+     * {@link AccountStore#credit(long, long, AccountImage)} of the receiver, so each user is changed only by the shard
+     * of the user and hot receivers don`t lock shards of senders.
+     *
+     * @param id            - the sender or a part of the sender if it is split (see
+     *                      {@link mondeytransfer.service.HotAccounts})
+     * @param localReceiver - false if the receiver is kept by another node of the cluster, then it isn`t checked here
+     * @param from          - it gets the after-image of the sender
+     * @return - {@link TransferResultEnum#CORRUPTED} if the sender or the receiver doesn`t exist
+     */
+    TransferResultEnum debit(long id, TransactionDto td, boolean localReceiver, AccountImage from);
+
+    /**
+     * Add the sum to the user: the receiver of the transaction, or the sender if the money is given back
+     *
+     * @param units - minor units of the currency of the user: {@link TransactionDto#getCreditedUnits()} for the
+     *              receiver or {@link TransactionDto#getSentUnits()} for the sender
+     * @param to    - it gets the after-image of the user
+     * @return - {@link TransferResultEnum#OVERFLOW} if the balance is too big for the store
+     */
+    TransferResultEnum credit(long id, long units, AccountImage to);
+
+    /**
+     * Move the sum from the sender to the receiver in the current thread: the debit, the credit and the sender gets
+     * the money back if the credit has failed. Each user is changed atomically, but not the both together. The sum
+     * isn`t converted, the receiver gets {@link TransactionDto#getCreditedUnits()}.
+     *
+     * @param from - it gets the after-image of the sender
+     * @param to   - it gets the after-image of the receiver
+     */
+    default TransferResultEnum transfer(final TransactionDto td, final AccountImage from, final AccountImage to) {
+        final TransferResultEnum debited = debit(td.getFromId(), td, true, from);
+        if (debited != TransferResultEnum.SUCCESS)
+            return debited;
+
+        final TransferResultEnum credited = credit(td.getToId(), td.getCreditedUnits(), to);
+        if (credited != TransferResultEnum.SUCCESS)
+            credit(td.getFromId(), td.getSentUnits(), from);
+
+        return credited;
+    }
+
+    /**
+     * Visit all users. Each user is read atomically, but the store can be changed during the visit
+     */
+    void forEach(UserConsumer consumer);
+
+    /**
+     * Visit up to the limit users after the user `after` in the order of the store. The order doesn`t change while
+     * the store lives, so all users can be read page by page without a copy of the store
+     *
+     * @param after - the last user of the previous page, null for the first page
+     * @return - the id of the last visited user, or null if there aren`t more users
+     * @throws IllegalArgumentException - if the store can`t find the user `after`
+     */
+    Long forEachAfter(Long after, int limit, UserConsumer consumer);
+
+    int size();
+
+    /**
+     * Free resources of the store
+     */
+    void close();
+
+    interface UserConsumer {
+        /**
+         * @param currency - the code of the currency
+         */
+        void accept(long id, long version, String currency, BigDecimal balance);
+    }
+}
@@ -0,0 +1,223 @@
+package mondeytransfer.model;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.enums.AuditModeEnum;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.enums.TransferPhaseEnum;
+import mondeytransfer.enums.WaitStrategyEnum;
+import mondeytransfer.other.CustomThreadFactory;
+import mondeytransfer.other.MpscRingBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An audit trail of treated halves of transfers as JSON lines, e.g.
+ * {"time":1500000000000,"shard":1,"phase":"DEBIT","transactionId":"...","fromId":1,"toId":2,"sum":"10.5","result":"ROUTED"}
+ * <p>
+ * A shard worker only copies a few fields of the transaction and puts them to a bounded {@link MpscRingBuffer}
+ * (a transaction is changed by the next half, so it can`t be put itself), nothing is formatted on it. The only audit
+ * thread drains the buffer, formats lines into a reused buffer and writes them through a {@link FileChannel}. Lines
+ * aren`t synced: the audit trail isn`t the journal, it isn`t needed for a restore.
+ * <p>
+ * What is recorded is decided by {@link AuditModeEnum}. Failed transactions are recorded in any mode except OFF, the
+ * rest is sampled by a counter of the worker (every n-th half), so the sample doesn`t need a random generator. If the
+ * buffer is full, a record is dropped and counted, only in {@link AuditModeEnum#FULL} a worker waits for a free slot,
+ * so the trail is complete.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class AuditLog implements Closeable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(AuditLog.class);
+    private final static String ROUTED = "ROUTED"; // the half has been done, the transaction has gone to the next one
+
+    private final static int MAX_BATCH = 1_024;
+    private final static int MAX_LINE_SIZE = 2_048;
+    private final static int BUFFER_SIZE = 1 << 20;
+
+    private final Path file;
+    private final AuditModeEnum mode;
+    private final long sampleEvery;
+    private final MpscRingBuffer<Entry> queue;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder(256);
+    private final List<Entry> batch = new ArrayList<>(MAX_BATCH);
+
+    private FileChannel channel;
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * @param file          - lines are appended to it
+     * @param sampleRate    - a part of successful halves for {@link AuditModeEnum#SAMPLED}, from 0 to 1
+     * @param queueCapacity - how many records can wait for the audit thread
+     */
+    public AuditLog(final Path file, final AuditModeEnum mode, final double sampleRate, final int queueCapacity) {
+        if (mode == AuditModeEnum.OFF)
+            throw new IllegalArgumentException("The audit log is off");
+
+        this.file = file;
+        this.mode = mode;
+        this.sampleEvery = sampleRate <= 0 ? Long.MAX_VALUE : Math.max(Math.round(1 / sampleRate), 1L);
+        this.queue = new MpscRingBuffer<>(queueCapacity, WaitStrategyEnum.PARK);
+    }
+
+    public void start() throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, CREATE, WRITE, APPEND);
+
+        running = true;
+        writer = new CustomThreadFactory("Audit log").newThread(this::writeLoop);
+        writer.start();
+    }
+
+    /**
+     * It is cheap, so a worker calls it before it copies anything
+     *
+     * @param result   - null if the half has been routed to the next one
+     * @param sequence - a counter of halves of the caller
+     */
+    public boolean isRecorded(final StatusEnum result, final long sequence) {
+        if (result != null && result != StatusEnum.SUCCESS)
+            return true;
+
+        return mode == AuditModeEnum.FULL || mode == AuditModeEnum.SAMPLED && sequence % sampleEvery == 0;
+    }
+
+    /**
+     * @param phase  - the half which has been treated, the transaction can already be in the next one
+     * @param result - null if the half has been routed to the next one
+     */
+    public void record(final int shard, final TransferPhaseEnum phase, final TransactionDto op, final StatusEnum result)
+            throws InterruptedException {
+        if (!running)
+            return;
+
+        final Entry entry = new Entry(System.currentTimeMillis(), shard, phase, op.getTransactionId(), op.getFromId(),
+                op.getToId(), op.getSentSum(), result);
+        if (mode == AuditModeEnum.FULL)
+            queue.put(entry);
+        else if (!queue.offer(entry))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * @return - records which haven`t been written because the audit log was overloaded
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Write the rest of records and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null)
+            channel.close();
+        if (dropped.get() > 0)
+            LOGGER.warn("The audit log {0} has dropped {1} records", file, dropped.get());
+    }
+
+    private void writeLoop() {
+        int idle = 0;
+
+        while (running || queue.size() > 0) {
+            if (queue.drainTo(batch, MAX_BATCH) == 0) {
+                idle = WaitStrategyEnum.PARK.idle(idle);
+                continue;
+            }
+            idle = 0;
+
+            try {
+                buffer.clear();
+                for (Entry entry : batch) {
+                    if (buffer.remaining() < MAX_LINE_SIZE)
+                        flush();
+                    encode(entry);
+                }
+                flush();
+            } catch (IOException e) {
+                LOGGER.error("The audit log {0} can`t write {1} records, reason=''{2}''", file, batch.size(), e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * All values are ASCII (numbers, UUIDs and names of enums), so chars are written as bytes
+     */
+    private void encode(final Entry entry) {
+        line.setLength(0);
+        line.append("{\"time\":").append(entry.time)
+                .append(",\"shard\":").append(entry.shard)
+                .append(",\"phase\":\"").append(entry.phase.name())
+                .append("\",\"transactionId\":\"").append(entry.transactionId)
+                .append("\",\"fromId\":").append(entry.fromId)
+                .append(",\"toId\":").append(entry.toId)
+                .append(",\"sum\":\"").append(entry.sum == null ? "" : entry.sum.toPlainString())
+                .append("\",\"result\":\"").append(entry.result == null ? ROUTED : entry.result.name())
+                .append("\"}\n");
+
+        final int length = Math.min(line.length(), MAX_LINE_SIZE);
+        for (int i = 0; i < length; i++)
+            buffer.put((byte) line.charAt(i));
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * A copy of the fields of a transaction at the time of a half
+     */
+    private static class Entry {
+        private final long time;
+        private final int shard;
+        private final TransferPhaseEnum phase;
+        private final UUID transactionId;
+        private final long fromId;
+        private final long toId;
+        private final BigDecimal sum;
+        private final StatusEnum result;
+
+        private Entry(final long time, final int shard, final TransferPhaseEnum phase, final UUID transactionId,
+                      final long fromId, final long toId, final BigDecimal sum, final StatusEnum result) {
+            this.time = time;
+            this.shard = shard;
+            this.phase = phase;
+            this.transactionId = transactionId;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.sum = sum;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package mondeytransfer.model;
+
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.other.Money;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Currencies of accounts and their scales (digits of the minor unit, e.g. 2 for USD and 0 for JPY). Each account has
+ * one currency, its balance is kept in minor units of it (see {@link Money}). The set is fixed while the application
+ * lives: a scale never changes, only rates of {@link FxRateTable} are reloaded.
+ * <p>
+ * A currency is an index in the stores, the index 0 is the default currency (of accounts without a currency and of
+ * balances of old journals and snapshots). Indexes aren`t stable between restarts, files keep codes.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class Currencies {
+    private final String[] codes;
+    private final int[] scales;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    /**
+     * The default currency only
+     */
+    public Currencies(final String defaultCode, final int defaultScale) {
+        this(defaultCode, defaultScale, new JsonObject());
+    }
+
+    /**
+     * @param defaultScale - the scale of the default currency if it isn`t in the others
+     * @param others       - codes and scales, e.g. {"EUR": 2, "JPY": 0}
+     */
+    public Currencies(final String defaultCode, final int defaultScale, final JsonObject others) {
+        final List<String> codes = new ArrayList<>();
+        final List<Integer> scales = new ArrayList<>();
+        final String code = normalize(defaultCode);
+        codes.add(code);
+        scales.add(Money.checkScale(others.getInteger(code, defaultScale)));
+        indexes.put(code, 0);
+
+        for (String other : others.fieldNames()) {
+            if (indexes.putIfAbsent(normalize(other), codes.size()) != null)
+                continue;
+            codes.add(normalize(other));
+            scales.add(Money.checkScale(others.getInteger(other)));
+        }
+
+        this.codes = codes.toArray(new String[codes.size()]);
+        this.scales = scales.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return - the index of the currency, -1 if it isn`t supported. Null is the default currency
+     */
+    public int index(final String code) {
+        if (isNull(code))
+            return 0;
+
+        Integer index = indexes.get(code);
+        if (isNull(index) && !code.trim().isEmpty())
+            index = indexes.get(normalize(code));
+        return isNull(index) ? -1 : index;
+    }
+
+    public String code(final int index) {
+        return codes[index];
+    }
+
+    public int scale(final int index) {
+        return scales[index];
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    private static String normalize(final String code) {
+        if (isNull(code) || code.trim().isEmpty())
+            throw new IllegalArgumentException("Incorrect currency " + code);
+        return code.trim().toUpperCase();
+    }
+}
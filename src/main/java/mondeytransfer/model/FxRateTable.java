@@ -0,0 +1,79 @@
+package mondeytransfer.model;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Exchange rates loaded from a local JSON file of rates by codes ({"USD": "1", "EUR": "1.0835", "JPY": "0.0067"}),
+ * see {@link FxRates}. The file is read again by {@link FxRateTable#reload()} when it has been changed.
+ * <p>
+ * The table is copy-on-write: a reload builds a new immutable {@link FxRates} and publishes it by a volatile write,
+ * so shard workers read rates without locks and a conversion uses one consistent version of all rates. A file which
+ * can`t be read or parsed doesn`t replace the current rates.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class FxRateTable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(FxRateTable.class);
+
+    private final Currencies currencies;
+    private final Path file; // null - without rates
+    private volatile FxRates rates;
+    private long modified = Long.MIN_VALUE; // of the loaded file, only the reloading thread uses it
+
+    /**
+     * @param file - null if there aren`t any rates, then only accounts of the same currency exchange money
+     * @throws IOException - if the file exists, but it can`t be read or parsed
+     */
+    public FxRateTable(final Currencies currencies, final Path file) throws IOException {
+        this.currencies = currencies;
+        this.file = file;
+        this.rates = FxRates.empty(currencies);
+        if (!isNull(file) && Files.exists(file) && !reload())
+            throw new IOException("The rates " + file + " can`t be loaded");
+    }
+
+    public FxRates get() {
+        return rates;
+    }
+
+    /**
+     * Read the file if it has been changed since the last load
+     *
+     * @return - false if the file can`t be read or parsed, the current rates are kept
+     */
+    public synchronized boolean reload() {
+        if (isNull(file))
+            return true;
+
+        try {
+            final long lastModified = Files.getLastModifiedTime(file).toMillis();
+            if (lastModified == modified)
+                return true;
+
+            final JsonObject json = new JsonObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            final Map<String, BigDecimal> parsed = new HashMap<>();
+            for (String code : json.fieldNames())
+                parsed.put(code.trim().toUpperCase(), new BigDecimal(String.valueOf(json.getValue(code))));
+
+            rates = new FxRates(currencies, parsed, rates.getVersion() + 1);
+            modified = lastModified;
+            LOGGER.info("Exchange rates have been loaded from {0}, version={1}", file, rates.getVersion());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Exchange rates can`t be loaded from {0}, reason=''{1}''", file, e.getMessage());
+            return false;
+        }
+    }
+}
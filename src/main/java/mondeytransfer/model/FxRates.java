@@ -0,0 +1,119 @@
+package mondeytransfer.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * An immutable snapshot of exchange rates, see {@link FxRateTable}. A rate is the value of one unit of a currency in
+ * any common unit (e.g. USD=1, EUR=1.0835, JPY=0.0067), so a pair of currencies is converted through it.
+ * <p>
+ * The factor of each pair of currencies is prepared once by the snapshot as an exact fraction of minor units
+ * (numerator / denominator, reduced), so a conversion is a multiplication and a division of longs: it doesn`t lock
+ * and doesn`t allocate anything unless the product doesn`t fit a long. The result is rounded down to the minor unit
+ * of the target currency, so money isn`t made by rounding.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class FxRates {
+    private final static BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final long version;
+    private final int size;
+    private final long[] numerators, denominators; // a pair is [from * size + to], 0 - there isn`t a rate
+    private final BigInteger[] bigNumerators, bigDenominators; // for factors which don`t fit longs
+
+    /**
+     * @param rates   - rates by codes, currencies without a rate can`t be converted
+     * @param version - it is increased by each reload
+     * @throws IllegalArgumentException - if a rate isn`t positive
+     */
+    public FxRates(final Currencies currencies, final Map<String, BigDecimal> rates, final long version) {
+        for (Map.Entry<String, BigDecimal> rate : rates.entrySet())
+            if (rate.getValue().signum() <= 0)
+                throw new IllegalArgumentException("Incorrect rate " + rate.getValue() + " of " + rate.getKey());
+
+        this.version = version;
+        this.size = currencies.size();
+        this.numerators = new long[size * size];
+        this.denominators = new long[size * size];
+        this.bigNumerators = new BigInteger[size * size];
+        this.bigDenominators = new BigInteger[size * size];
+
+        for (int from = 0; from < size; from++)
+            for (int to = 0; to < size; to++) {
+                final BigDecimal fromRate = rates.get(currencies.code(from)), toRate = rates.get(currencies.code(to));
+                if (from != to && (isNull(fromRate) || isNull(toRate)))
+                    continue;
+
+                prepare(from * size + to, from == to ? BigDecimal.ONE : fromRate, from == to ? BigDecimal.ONE : toRate,
+                        currencies.scale(to) - currencies.scale(from));
+            }
+    }
+
+    /**
+     * Without rates, each currency is converted only to itself
+     */
+    public static FxRates empty(final Currencies currencies) {
+        return new FxRates(currencies, Collections.emptyMap(), 0);
+    }
+
+    /**
+     * @param units - a positive amount in minor units of the currency `from`
+     * @return - minor units of the currency `to`, or -1 if there isn`t a rate, the result is zero (the amount is too
+     * small) or it doesn`t fit a long
+     */
+    public long convert(final long units, final int from, final int to) {
+        final int pair = from * size + to;
+        final long numerator = numerators[pair], denominator = denominators[pair];
+        long res;
+        if (denominator > 0) {
+            if (units <= Long.MAX_VALUE / numerator)
+                res = units * numerator / denominator;
+            else
+                res = big(units, BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+        } else if (!isNull(bigDenominators[pair])) {
+            res = big(units, bigNumerators[pair], bigDenominators[pair]);
+        } else {
+            return -1;
+        }
+
+        return res > 0 ? res : -1;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * units(to) = units(from) * fromRate / toRate * 10^shift, where the shift is the difference of scales
+     */
+    private void prepare(final int pair, final BigDecimal fromRate, final BigDecimal toRate, final int shift) {
+        final int exponent = toRate.scale() - fromRate.scale() + shift;
+        BigInteger numerator = fromRate.unscaledValue(), denominator = toRate.unscaledValue();
+        if (exponent >= 0)
+            numerator = numerator.multiply(BigInteger.TEN.pow(exponent));
+        else
+            denominator = denominator.multiply(BigInteger.TEN.pow(-exponent));
+
+        final BigInteger gcd = numerator.gcd(denominator);
+        numerator = numerator.divide(gcd);
+        denominator = denominator.divide(gcd);
+
+        if (numerator.compareTo(LONG_MAX) <= 0 && denominator.compareTo(LONG_MAX) <= 0) {
+            numerators[pair] = numerator.longValue();
+            denominators[pair] = denominator.longValue();
+        } else {
+            bigNumerators[pair] = numerator;
+            bigDenominators[pair] = denominator;
+        }
+    }
+
+    private static long big(final long units, final BigInteger numerator, final BigInteger denominator) {
+        final BigInteger res = BigInteger.valueOf(units).multiply(numerator).divide(denominator);
+        return res.compareTo(LONG_MAX) <= 0 ? res.longValue() : -1;
+    }
+}
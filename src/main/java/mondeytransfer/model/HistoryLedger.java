@@ -0,0 +1,364 @@
+package mondeytransfer.model;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import mondeytransfer.dto.HistoryEntryDto;
+import mondeytransfer.enums.WaitStrategyEnum;
+import mondeytransfer.other.CustomThreadFactory;
+import mondeytransfer.other.MpscRingBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Objects.isNull;
+
+/**
+ * An append-only ledger of applied transfers: an entry for each changed user ({@link HistoryEntryDto}), so the history
+ * of a user is read without a scan of other users.
+ * <p>
+ * An entry is a row of {@link HistoryLedger#ROW_SIZE} bytes (rows don`t cross pages of the OS), a row is found by its
+ * number. Each row keeps the number of the previous row of the same user, so rows of a user are a chain from the newest
+ * to the oldest one, and only the head of each chain is in the memory. A page of the history is a walk along the chain
+ * from the head or from a cursor (the number of a row), it costs `limit` reads whatever the size of the ledger is,
+ * and recent rows are usually in the page cache. Rows are in segment files (history-[the number of the first
+ * row].ledger) of {@link HistoryLedger#segmentRows} rows, which are mapped to the memory, so a read doesn`t copy
+ * a row or call the OS.
+ * <p>
+ * Shard workers put entries to a {@link MpscRingBuffer} (in the order of changes of each user), the only ledger thread
+ * writes rows and then moves heads, so a reader sees only whole rows. Rows aren`t synced (the ledger isn`t needed for
+ * a restore, the journal is), the last rows can be lost only by a crash of the OS. Heads are saved on close, a start
+ * loads them and scans only rows after them; without the file it scans the whole ledger.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class HistoryLedger implements Closeable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(HistoryLedger.class);
+    private final static String PREFIX = "history-", SUFFIX = ".ledger", HEADS = "heads";
+
+    public final static int ROW_SIZE = 64;
+    private final static int MAX_BATCH = 1_024;
+    private final static long NO_ROW = -1;
+    private final static byte UNKNOWN = Byte.MIN_VALUE; // the scale of a number which doesn`t fit into a row
+    /**
+     * Offsets of fields in a row. STAMP is the time (48 bits) and scales of the amount and the balance, it is written
+     * last and is never 0, so a row of zeros is the end of the ledger
+     */
+    private final static int ACCOUNT = 0, PREV = 8, COUNTERPARTY = 16, UUID_HIGH = 24, UUID_LOW = 32, AMOUNT = 40,
+            BALANCE = 48, STAMP = 56;
+
+    private final Path dir;
+    private final int segmentRows;
+    private final MpscRingBuffer<HistoryEntryDto> queue;
+    private final List<HistoryEntryDto> batch = new ArrayList<>(MAX_BATCH);
+
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final Map<Long, Long> heads = new ConcurrentHashMap<>(); // the newest row of each user
+    private volatile long rows; // rows which readers can see, only the ledger thread changes it
+
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * @param segmentRows   - rows in a segment file, existing segments keep their size
+     * @param queueCapacity - how many entries can wait for the ledger thread
+     */
+    public HistoryLedger(final Path dir, final int segmentRows, final int queueCapacity) throws IOException {
+        if (segmentRows < 1 || (long) segmentRows * ROW_SIZE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A segment of the history must have from 1 to "
+                    + Integer.MAX_VALUE / ROW_SIZE + " rows");
+
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.queue = new MpscRingBuffer<>(queueCapacity, WaitStrategyEnum.PARK);
+
+        final List<Long> starts = starts();
+        this.segmentRows = starts.isEmpty() ? segmentRows : (int) (Files.size(file(starts.get(0))) / ROW_SIZE);
+        if (this.segmentRows != segmentRows)
+            LOGGER.warn("The history {0} has segments of {1} rows, they are kept", dir, this.segmentRows);
+        open(starts);
+    }
+
+    public void start() {
+        running = true;
+        writer = new CustomThreadFactory("History ledger").newThread(this::writeLoop);
+        writer.start();
+    }
+
+    /**
+     * Add entries in order. It waits if the ledger is overloaded, because the history must be complete
+     */
+    public void putAll(final List<HistoryEntryDto> entries) throws InterruptedException {
+        if (!running)
+            throw new IllegalStateException("The history " + dir + " is closed");
+
+        int added = 0, counter = 0;
+        while (added < entries.size()) {
+            final int count = queue.offerAll(added == 0 ? entries : entries.subList(added, entries.size()));
+            if (count == 0) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                counter = WaitStrategyEnum.PARK.idle(counter);
+            }
+            added += count;
+        }
+    }
+
+    /**
+     * Read a page of the history of the user from the newest entry to the oldest one. Entries which are still in the
+     * queue of the ledger aren`t seen yet
+     *
+     * @param from     - the cursor of the page (the number of a row of the user), null - from the newest entry
+     * @param consumer - it gets entries of the page
+     * @return - the cursor of the next page, or null if it was the last one
+     * @throws IllegalArgumentException - if the cursor isn`t a row of the user
+     */
+    public Long read(final long accountId, final Long from, final int limit, final Consumer<HistoryEntryDto> consumer) {
+        long row;
+        if (isNull(from)) {
+            final Long head = heads.get(accountId);
+            if (isNull(head))
+                return null;
+            row = head;
+        } else {
+            if (from < 0 || from >= rows || segment(from).getLong(offset(from) + ACCOUNT) != accountId)
+                throw new IllegalArgumentException("The row " + from + " isn`t in the history of " + accountId);
+            row = from;
+        }
+
+        for (int i = 0; i < limit && row != NO_ROW; i++) {
+            final MappedByteBuffer segment = segment(row);
+            final int offset = offset(row);
+            final long stamp = segment.getLong(offset + STAMP);
+            consumer.accept(new HistoryEntryDto(
+                    new UUID(segment.getLong(offset + UUID_HIGH), segment.getLong(offset + UUID_LOW)),
+                    accountId,
+                    segment.getLong(offset + COUNTERPARTY),
+                    decimal(segment.getLong(offset + AMOUNT), (byte) (stamp >>> 8)),
+                    decimal(segment.getLong(offset + BALANCE), (byte) stamp),
+                    stamp >>> 16
+            ));
+            row = segment.getLong(offset + PREV);
+        }
+
+        return row == NO_ROW ? null : row;
+    }
+
+    /**
+     * @return - rows in the ledger
+     */
+    public long size() {
+        return rows;
+    }
+
+    /**
+     * Write the rest of entries, flush the last segment and save heads
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (!segments.isEmpty())
+            segments.get(segments.size() - 1).force();
+        saveHeads();
+    }
+
+    private void writeLoop() {
+        int idle = 0;
+
+        while (running || queue.size() > 0) {
+            if (queue.drainTo(batch, MAX_BATCH) == 0) {
+                idle = WaitStrategyEnum.PARK.idle(idle);
+                continue;
+            }
+            idle = 0;
+
+            try {
+                for (HistoryEntryDto entry : batch)
+                    write(entry);
+            } catch (IOException e) {
+                LOGGER.error("The history {0} can`t write {1} entries, reason=''{2}''", dir, batch.size(), e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(final HistoryEntryDto entry) throws IOException {
+        final long row = rows;
+        if (row == (long) segments.size() * segmentRows) {
+            if (!segments.isEmpty())
+                segments.get(segments.size() - 1).force(); // it is full, a crash of the OS doesn`t lose it
+            segments.add(map(row));
+        }
+
+        final MappedByteBuffer segment = segment(row);
+        final int offset = offset(row);
+        final Long prev = heads.get(entry.getAccountId());
+        segment.putLong(offset + ACCOUNT, entry.getAccountId());
+        segment.putLong(offset + PREV, isNull(prev) ? NO_ROW : prev);
+        segment.putLong(offset + COUNTERPARTY, entry.getCounterpartyId());
+        segment.putLong(offset + UUID_HIGH, entry.getTransactionId().getMostSignificantBits());
+        segment.putLong(offset + UUID_LOW, entry.getTransactionId().getLeastSignificantBits());
+        final byte amountScale, balanceScale;
+        if (entry.isInUnits()) { // from a shard, without BigDecimal
+            segment.putLong(offset + AMOUNT, entry.getAmountUnits());
+            segment.putLong(offset + BALANCE, entry.getBalanceUnits());
+            amountScale = (byte) entry.getScale();
+            balanceScale = entry.getBalanceUnits() == HistoryEntryDto.NO_BALANCE ? UNKNOWN : amountScale;
+        } else {
+            amountScale = putDecimal(segment, offset + AMOUNT, entry.getAmount());
+            balanceScale = putDecimal(segment, offset + BALANCE, entry.getBalance());
+        }
+        segment.putLong(offset + STAMP, Math.max(entry.getTime(), 1) << 16 | (amountScale & 0xFF) << 8
+                | balanceScale & 0xFF);
+
+        heads.put(entry.getAccountId(), row);
+        rows = row + 1;
+    }
+
+    /**
+     * @return - sorted numbers of the first rows of segments
+     */
+    private List<Long> starts() throws IOException {
+        final List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                starts.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(starts);
+        return starts;
+    }
+
+    /**
+     * Map existing segments, load heads and scan rows after them
+     */
+    private void open(final List<Long> starts) throws IOException {
+        for (int i = 0; i < starts.size(); i++) {
+            if (starts.get(i) != (long) i * segmentRows)
+                throw new IOException("The history " + dir + " doesn`t have the segment of the row " + (long) i * segmentRows);
+            try (FileChannel channel = FileChannel.open(file(starts.get(i)), READ, WRITE)) {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRows * ROW_SIZE));
+            }
+        }
+
+        final long capacity = (long) segments.size() * segmentRows;
+        long row = loadHeads(capacity);
+        final long loaded = row;
+        for (; row < capacity && segment(row).getLong(offset(row) + STAMP) != 0; row++)
+            heads.put(segment(row).getLong(offset(row) + ACCOUNT), row);
+        rows = row;
+
+        LOGGER.info("The history {0} has been opened, rows={1}, scanned={2}, users={3}", dir, rows, rows - loaded,
+                heads.size());
+    }
+
+    /**
+     * @return - the number of rows which the heads cover, 0 if they haven`t been saved
+     */
+    private long loadHeads(final long capacity) throws IOException {
+        final Path file = dir.resolve(HEADS);
+        if (!Files.exists(file))
+            return 0;
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            final long covered = in.readLong();
+            if (covered > capacity || covered > 0 && segment(covered - 1).getLong(offset(covered - 1) + STAMP) == 0) {
+                LOGGER.warn("The heads of the history {0} are newer than its rows, they are ignored", dir);
+                return 0;
+            }
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++)
+                heads.put(in.readLong(), in.readLong());
+            return covered;
+        }
+    }
+
+    /**
+     * The file is replaced atomically, so a crash leaves the old heads, which are correct for fewer rows
+     */
+    private void saveHeads() throws IOException {
+        final Path tmp = dir.resolve(HEADS + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp,
+                CREATE, WRITE, TRUNCATE_EXISTING)))) {
+            out.writeLong(rows);
+            out.writeInt(heads.size());
+            for (Map.Entry<Long, Long> head : heads.entrySet()) {
+                out.writeLong(head.getKey());
+                out.writeLong(head.getValue());
+            }
+        }
+        Files.move(tmp, dir.resolve(HEADS), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private MappedByteBuffer map(final long start) throws IOException {
+        try (FileChannel channel = FileChannel.open(file(start), CREATE_NEW, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRows * ROW_SIZE);
+        }
+    }
+
+    private MappedByteBuffer segment(final long row) {
+        return segments.get((int) (row / segmentRows));
+    }
+
+    private int offset(final long row) {
+        return (int) (row % segmentRows) * ROW_SIZE;
+    }
+
+    private Path file(final long start) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, start, SUFFIX));
+    }
+
+    /**
+     * A number is kept as a long unscaled value and a byte scale, trailing zeros are cut if it doesn`t fit
+     *
+     * @return - the scale or {@link HistoryLedger#UNKNOWN}
+     */
+    private static byte putDecimal(final MappedByteBuffer segment, final int offset, final BigDecimal value) {
+        BigDecimal fitted = value;
+        if (!isNull(fitted) && !fits(fitted))
+            fitted = fitted.stripTrailingZeros();
+        if (isNull(fitted) || !fits(fitted)) {
+            segment.putLong(offset, 0);
+            return UNKNOWN;
+        }
+
+        segment.putLong(offset, fitted.unscaledValue().longValue());
+        return (byte) fitted.scale();
+    }
+
+    private static boolean fits(final BigDecimal value) {
+        return value.unscaledValue().bitLength() < Long.SIZE && value.scale() > UNKNOWN && value.scale() <= Byte.MAX_VALUE;
+    }
+
+    private static BigDecimal decimal(final long unscaled, final byte scale) {
+        return scale == UNKNOWN ? null : BigDecimal.valueOf(unscaled, scale);
+    }
+}
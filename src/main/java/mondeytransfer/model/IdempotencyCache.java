@@ -0,0 +1,147 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.TransactionDto;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Transactions by idempotency keys of clients, so a client which repeats a request (e.g. after a timeout) gets the
+ * transaction which has already been accepted instead of a new transfer. A key belongs to the sender, the same key of
+ * another sender is another key.
+ * <p>
+ * Like {@link StatusIndex} it is split into stripes by the key, each stripe is a {@link LinkedHashMap} in the insertion
+ * order under its own lock, so requests rarely wait for each other. Memory is bounded: a key is kept for the window
+ * (the TTL) and not more than the capacity keys are kept, the oldest ones are evicted first.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class IdempotencyCache {
+    private final static int STRIPES = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    /**
+     * @param capacity - max keys
+     */
+    public IdempotencyCache(final int capacity, final long ttlMillis) {
+        this(capacity, ttlMillis, System::nanoTime);
+    }
+
+    IdempotencyCache(final int capacity, final long ttlMillis, final LongSupplier clock) {
+        if (capacity < 1 || ttlMillis <= 0)
+            throw new IllegalArgumentException("Incorrect capacity " + capacity + " or TTL " + ttlMillis);
+
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.clock = clock;
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe(Math.max(capacity / STRIPES + (i < capacity % STRIPES ? 1 : 0), 1));
+    }
+
+    /**
+     * Keep the transaction under the key, if the key is new
+     *
+     * @return - null if the transaction has got the key, else the transaction which has already had it
+     */
+    public TransactionDto claim(final String key, final TransactionDto td) {
+        final Key k = new Key(td.getFromId(), key);
+        final Stripe stripe = stripe(k);
+        final long now = clock.getAsLong();
+        synchronized (stripe) {
+            stripe.evictExpired(now);
+            final Entry entry = stripe.get(k);
+            if (entry != null)
+                return entry.td;
+
+            stripe.put(k, new Entry(td, now + ttlNanos));
+            return null;
+        }
+    }
+
+    /**
+     * Forget the key of a rejected transaction, so the client can repeat it
+     */
+    public void release(final String key, final TransactionDto td) {
+        final Key k = new Key(td.getFromId(), key);
+        final Stripe stripe = stripe(k);
+        synchronized (stripe) {
+            final Entry entry = stripe.get(k);
+            if (entry != null && entry.td == td)
+                stripe.remove(k);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        return size;
+    }
+
+    private Stripe stripe(final Key key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ hash >>> 16) & (STRIPES - 1)];
+    }
+
+    private static class Key {
+        private final long fromId;
+        private final String key;
+
+        Key(final long fromId, final String key) {
+            this.fromId = fromId;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return fromId == other.fromId && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(fromId) + key.hashCode();
+        }
+    }
+
+    private static class Entry {
+        private final TransactionDto td;
+        private final long expiresAt; // System.nanoTime()
+
+        Entry(final TransactionDto td, final long expiresAt) {
+            this.td = td;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Stripe extends LinkedHashMap<Key, Entry> {
+        private final int capacity;
+
+        Stripe(final int capacity) {
+            super(16, 0.75f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Entry> eldest) {
+            return size() > capacity;
+        }
+
+        /**
+         * Keys are in the insertion order, so expired ones are at the head
+         */
+        void evictExpired(final long now) {
+            final Iterator<Entry> it = values().iterator();
+            while (it.hasNext() && it.next().expiresAt - now <= 0)
+                it.remove();
+        }
+    }
+}
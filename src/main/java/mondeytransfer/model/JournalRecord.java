@@ -0,0 +1,290 @@
+package mondeytransfer.model;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.other.Money;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * A record of {@link TransactionJournal}. There are five types of records:
+ * <ul>
+ * <li>{@link JournalRecord#USER} - a new user has been created;</li>
+ * <li>{@link JournalRecord#ACCEPTED} - a transaction has been accepted and sent to a shard queue;</li>
+ * <li>{@link JournalRecord#DEBITED} - the shard of the sender has taken the money, the record keeps the after-image
+ * of the sender. The transaction is still in flight: after a restart it is resent to the credit half, not to the
+ * debit one;</li>
+ * <li>{@link JournalRecord#CREDITED} - the credit half of a transfer from another node of the cluster, with the
+ * after-image of the receiver. The journal keeps it in flight until the node of the sender confirms that it has got
+ * the result (an APPLIED record without images, see {@link JournalRecord#confirmed(UUID)}), so a repeated credit is
+ * found after a restart and it isn`t added twice;</li>
+ * <li>{@link JournalRecord#APPLIED} - a transaction has been treated by a shard. If it is
+ * {@link StatusEnum#SUCCESS} the record keeps balances and versions of the sender and the receiver after the
+ * transfer (after-images), so a replay just takes the image with the greatest version for each user and the order of
+ * records from different shards doesn`t matter. If the sender and the receiver are on different nodes of the cluster,
+ * each node writes only the image of its user, the other one is {@link JournalRecord#NO_IMAGE}. A shard makes it
+ * with minor units of the store (see {@link Money}), they are converted by the journal thread.</li>
+ * </ul>
+ * And {@link JournalRecord#CHECKPOINT} is a marker which is never written, the journal thread only sets its positions
+ * (see {@link TransactionJournal#checkpoint()}).
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class JournalRecord {
+    public static final byte USER = 1, ACCEPTED = 2, APPLIED = 3, CHECKPOINT = 4, DEBITED = 5, CREDITED = 6;
+    public static final long NO_IMAGE = -1; // the version of an image of a user on another node
+
+    private final byte type;
+    private UUID transactionId;
+    private StatusEnum status;
+
+    private long fromId;
+    private long fromVersion;
+    private BigDecimal fromBalance; // the balance of a new user for USER, null if it is in units
+    private long toId;
+    private long toVersion;
+    private BigDecimal toBalance;
+    private BigDecimal sentSum;
+
+    private String currency; // of a new user for USER, of the sum for ACCEPTED. Null in old journals - the default one
+
+    private long fromUnits, toUnits; // balances of a shard
+    private int fromScale, toScale;
+
+    private long position; // for CHECKPOINT: all records before it have been written
+    private long pendingFrom; // for CHECKPOINT: the oldest accepted transaction without a result
+
+    /**
+     * it is called by the journal thread after the record has been written (and synced) or failed
+     */
+    private Handler<AsyncResult<Void>> onCommit;
+
+    JournalRecord(final byte type) {
+        this.type = type;
+    }
+
+    public static JournalRecord user(final UserDto user) {
+        final JournalRecord r = new JournalRecord(USER);
+        r.fromId = user.getId();
+        r.fromVersion = 0; // a new user
+        r.fromBalance = user.getBalance();
+        r.currency = user.getCurrency();
+        return r;
+    }
+
+    public static JournalRecord accepted(final TransactionDto td) {
+        final JournalRecord r = new JournalRecord(ACCEPTED);
+        r.transactionId = td.getTransactionId();
+        r.fromId = td.getFromId();
+        r.toId = td.getToId();
+        r.sentSum = td.getSentSum();
+        r.currency = td.getCurrency();
+        return r;
+    }
+
+    public static JournalRecord rejected(final UUID transactionId, final StatusEnum status) {
+        final JournalRecord r = new JournalRecord(APPLIED);
+        r.transactionId = transactionId;
+        r.status = status;
+        return r;
+    }
+
+    static JournalRecord checkpoint() {
+        return new JournalRecord(CHECKPOINT);
+    }
+
+    /**
+     * A success transfer with after-images of the sender and the receiver. Each image must be read when its user is
+     * locked, else the version and the balance can be inconsistent. Balances are minor units with scales of
+     * currencies of the users
+     */
+    public static JournalRecord applied(final UUID transactionId,
+                                        final long fromId, final long fromVersion, final long fromUnits,
+                                        final int fromScale,
+                                        final long toId, final long toVersion, final long toUnits,
+                                        final int toScale) {
+        final JournalRecord r = rejected(transactionId, StatusEnum.SUCCESS);
+        r.fromId = fromId;
+        r.fromVersion = fromVersion;
+        r.fromUnits = fromUnits;
+        r.fromScale = fromScale;
+        r.toId = toId;
+        r.toVersion = toVersion;
+        r.toUnits = toUnits;
+        r.toScale = toScale;
+        return r;
+    }
+
+    /**
+     * A success transfer to another node, with the after-image of the sender only
+     */
+    public static JournalRecord applied(final UUID transactionId, final long fromId, final long fromVersion,
+                                        final long fromUnits, final int fromScale) {
+        return applied(transactionId, fromId, fromVersion, fromUnits, fromScale, 0, NO_IMAGE, 0, 0);
+    }
+
+    /**
+     * A failed transfer which has given the money back to the sender, with the after-image of the sender. The record
+     * is {@link StatusEnum#SUCCESS} for the journal, because the replay restores only images of success records, the
+     * status of the transaction is an error
+     */
+    public static JournalRecord refunded(final UUID transactionId, final long fromId, final long fromVersion,
+                                         final long fromUnits, final int fromScale) {
+        return applied(transactionId, fromId, fromVersion, fromUnits, fromScale);
+    }
+
+    /**
+     * The debit half of a transfer, with the after-image of the sender. It must be written before any later image of
+     * the sender, else a replay restores the debit by that image and debits the sender again by the resent transaction
+     */
+    public static JournalRecord debited(final UUID transactionId, final long fromId, final long fromVersion,
+                                        final long fromUnits, final int fromScale) {
+        final JournalRecord r = new JournalRecord(DEBITED);
+        r.transactionId = transactionId;
+        r.fromId = fromId;
+        r.fromVersion = fromVersion;
+        r.fromUnits = fromUnits;
+        r.fromScale = fromScale;
+        return r;
+    }
+
+    /**
+     * The half of a transfer from another node, with the after-image of the receiver only
+     */
+    public static JournalRecord credited(final UUID transactionId, final long toId, final long toVersion,
+                                         final long toUnits, final int toScale) {
+        final JournalRecord r = new JournalRecord(CREDITED);
+        r.transactionId = transactionId;
+        r.toId = toId;
+        r.toVersion = toVersion;
+        r.toUnits = toUnits;
+        r.toScale = toScale;
+        return r;
+    }
+
+    /**
+     * The node of the sender has got the result of the credit from another node, so the credit isn`t in flight any
+     * more. It doesn`t have images
+     */
+    public static JournalRecord confirmed(final UUID transactionId) {
+        return applied(transactionId, 0, NO_IMAGE, 0, 0, 0, NO_IMAGE, 0, 0);
+    }
+
+    /**
+     * @return - a transaction for a replay of an accepted record
+     */
+    public TransactionDto toTransaction() {
+        final TransactionDto td = new TransactionDto(transactionId, fromId, sentSum, toId);
+        td.setCurrency(currency);
+        return td;
+    }
+
+    public JournalRecord onCommit(final Handler<AsyncResult<Void>> onCommit) {
+        this.onCommit = onCommit;
+        return this;
+    }
+
+    Handler<AsyncResult<Void>> getOnCommit() {
+        return onCommit;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public UUID getTransactionId() {
+        return transactionId;
+    }
+
+    public StatusEnum getStatus() {
+        return status;
+    }
+
+    public long getFromId() {
+        return fromId;
+    }
+
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    public BigDecimal getFromBalance() {
+        return fromBalance != null ? fromBalance : Money.toDecimal(fromUnits, fromScale);
+    }
+
+    public long getToId() {
+        return toId;
+    }
+
+    public long getToVersion() {
+        return toVersion;
+    }
+
+    public BigDecimal getToBalance() {
+        return toBalance != null ? toBalance : Money.toDecimal(toUnits, toScale);
+    }
+
+    public BigDecimal getSentSum() {
+        return sentSum;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getPendingFrom() {
+        return pendingFrom;
+    }
+
+    void setPositions(final long position, final long pendingFrom) {
+        this.position = position;
+        this.pendingFrom = pendingFrom;
+    }
+
+    void setTransactionId(UUID transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    void setStatus(StatusEnum status) {
+        this.status = status;
+    }
+
+    void setFrom(final long id, final long version, final BigDecimal balance) {
+        this.fromId = id;
+        this.fromVersion = version;
+        this.fromBalance = balance;
+    }
+
+    void setTo(final long id, final long version, final BigDecimal balance) {
+        this.toId = id;
+        this.toVersion = version;
+        this.toBalance = balance;
+    }
+
+    void setSentSum(BigDecimal sentSum) {
+        this.sentSum = sentSum;
+    }
+
+    void setCurrency(String currency) {
+        this.currency = currency;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" +
+                "type=" + type +
+                ", transactionId=" + transactionId +
+                ", status=" + status +
+                ", fromId=" + fromId +
+                ", toId=" + toId +
+                '}';
+    }
+}
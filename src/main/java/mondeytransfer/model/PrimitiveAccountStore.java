@@ -0,0 +1,464 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.TransferResultEnum;
+import mondeytransfer.other.Money;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link AccountStore} on an open-addressing table with linear probing: no objects per user, a balance is a long of
+ * minor units of the currency of the user (e.g. cents for USD), so a transfer doesn`t allocate anything.
+ * <p>
+ * A slot is three longs of an {@link AtomicLongArray} (24 bytes, 30 bytes per user with the load factor 0.8, the table
+ * isn`t rounded up to a power of two): the key, the balance and the state. The state is the currency (the high 16
+ * bits, it is written before the user is published and never changed) and the sequence (the low 48 bits), which is
+ * a seqlock and the version of the user together: 0 - the slot is free (or the user has been removed), an odd value -
+ * the user is locked by a writer, an even value - 2 + 2 * version. Writers lock a user by CAS of the state, readers
+ * don`t lock at all and repeat a read if the state has been changed.
+ * <p>
+ * A lookup stops at the first never used key. A removed user leaves its key in the slot (a tombstone), a new user takes
+ * the first tombstone on its way, so after any churn the store accepts users up to the capacity. New users are added
+ * under the monitor of the store, so a slot isn`t taken twice; transfers and reads don`t use it. A slot can be reused
+ * while a reader holds it, so an operation checks the key of the slot after it has locked or read the state.
+ * <p>
+ * The table is allocated once as a long[] of the atomic array (a primitive array, GC doesn`t trace it), it isn`t
+ * resized: the store accepts not more than the capacity users. Overflows of balances are detected.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class PrimitiveAccountStore implements AccountStore {
+    private static final long EMPTY = 0L; // a never used key
+    private static final int KEY = 0, BALANCE = 1, STATE = 2, SLOT = 3; // longs of a slot
+    private static final int CURRENCY_SHIFT = 48;
+    private static final long SEQUENCE_MASK = (1L << CURRENCY_SHIFT) - 1;
+    private static final double LOAD_FACTOR = 0.8;
+
+    private final int capacity;
+    private final int slots;
+    private final Currencies currencies;
+    private final AtomicLongArray table;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param capacity - max users
+     */
+    public PrimitiveAccountStore(final int capacity, final Currencies currencies) {
+        final long slots = Math.max(2, (long) Math.ceil(capacity / LOAD_FACTOR));
+        if (capacity < 1 || slots * SLOT > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Incorrect capacity " + capacity);
+
+        this.capacity = capacity;
+        this.slots = (int) slots;
+        this.currencies = currencies;
+        this.table = new AtomicLongArray((int) slots * SLOT);
+    }
+
+    @Override
+    public boolean containsKey(final long id) {
+        final int slot = find(id);
+        return slot >= 0 && readState(slot, key(id)) != 0;
+    }
+
+    @Override
+    public UserDto get(final long id) {
+        final int slot = find(id);
+        if (slot < 0)
+            return null;
+
+        final long key = key(id);
+        final long balance = readBalance(slot, key);
+        final long state = readState(slot, key);
+        if (balance < 0 || state == 0)
+            return null;
+
+        final int currency = currencyOf(state);
+        return new UserDto(id, Money.toDecimal(balance, currencies.scale(currency)), currencies.code(currency));
+    }
+
+    @Override
+    public boolean putIfAbsent(final UserDto user) {
+        final int currency = currency(user.getCurrency());
+        final long units;
+        try {
+            units = toUnits(user.getBalance(), currency);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Incorrect balance " + user.getBalance(), e);
+        }
+        if (containsKey(user.getId()))
+            return false;
+
+        if (size.incrementAndGet() > capacity) { // reserve a place
+            size.decrementAndGet();
+            throw new IllegalStateException("The store is full, capacity=" + capacity);
+        }
+
+        if (!insert(user.getId(), currency, units, 0)) {
+            size.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void remove(final long id) {
+        final int slot = find(id);
+        if (slot < 0 || lock(slot, key(id)) < 0)
+            return;
+
+        table.lazySet(index(slot, STATE), 0); // the key stays, the slot is a tombstone
+        size.decrementAndGet();
+    }
+
+    /**
+     * It is called only during a start, so it doesn`t check the capacity
+     */
+    @Override
+    public void restore(final long id, final long version, final String currency, final BigDecimal balance) {
+        final int slot = find(id);
+        final long state = slot < 0 ? -1 : lock(slot, key(id));
+        if (state < 0) {
+            final int index = currency(currency);
+            if (!insert(id, index, toUnits(balance, index), version))
+                throw new IllegalStateException("The user " + id + " is changed during a restore");
+            size.incrementAndGet();
+            return;
+        }
+
+        if (version < ((state & SEQUENCE_MASK) - 2) / 2) { // the currency of an existing user isn`t changed
+            table.lazySet(index(slot, STATE), state);
+            return;
+        }
+        table.set(index(slot, BALANCE), toUnits(balance, currencyOf(state)));
+        table.lazySet(index(slot, STATE), state(currencyOf(state), 2 + 2 * version));
+    }
+
+    @Override
+    public boolean read(final long id, final AccountImage image) {
+        final int slot = find(id);
+        if (slot < 0)
+            return false;
+
+        final long key = key(id);
+        long state, balance;
+        do {
+            state = table.get(index(slot, STATE));
+            balance = table.get(index(slot, BALANCE));
+        } while ((state & 1) == 1 || state != table.get(index(slot, STATE)));
+
+        if (state == 0 || table.get(index(slot, KEY)) != key)
+            return false;
+
+        image.set(id, ((state & SEQUENCE_MASK) - 2) / 2, balance, currencies.scale(currencyOf(state)));
+        return true;
+    }
+
+    @Override
+    public boolean canDebit(final long id, final TransactionDto td) {
+        final int slot = find(id);
+        return slot >= 0 && readBalance(slot, key(id)) >= td.getSentUnits();
+    }
+
+    @Override
+    public TransferResultEnum debit(final long id, final TransactionDto td, final boolean localReceiver,
+                                    final AccountImage from) {
+        final int fromSlot = find(id);
+        final int toSlot = localReceiver ? find(td.getToId()) : 0;
+        final long sum = td.getSentUnits();
+
+        /**
+         * This check just in case, because it a normal working system you can`t send ZERO, it
+         * should be filtered in validation
+         */
+        if (fromSlot < 0 || toSlot < 0 || localReceiver && readBalance(toSlot, key(td.getToId())) <= 0)
+            return TransferResultEnum.CORRUPTED;
+
+        final long state = lock(fromSlot, key(id));
+        if (state < 0)
+            return TransferResultEnum.CORRUPTED;
+
+        final long fromBalance = table.get(index(fromSlot, BALANCE));
+        if (fromBalance <= 0 || fromBalance < sum) {
+            table.lazySet(index(fromSlot, STATE), state);
+            return fromBalance <= 0 ? TransferResultEnum.CORRUPTED : TransferResultEnum.NOT_ENOUGH_MONEY;
+        }
+        write(fromSlot, state, fromBalance - sum, id, from);
+
+        return TransferResultEnum.SUCCESS;
+    }
+
+    @Override
+    public TransferResultEnum credit(final long id, final long sum, final AccountImage to) {
+        final int slot = find(id);
+        final long state = slot < 0 ? -1 : lock(slot, key(id));
+        if (state < 0)
+            return TransferResultEnum.CORRUPTED;
+
+        final long balance = table.get(index(slot, BALANCE));
+        if (balance > Long.MAX_VALUE - sum) {
+            table.lazySet(index(slot, STATE), state);
+            return TransferResultEnum.OVERFLOW;
+        }
+        write(slot, state, balance + sum, id, to);
+
+        return TransferResultEnum.SUCCESS;
+    }
+
+    @Override
+    public void forEach(final UserConsumer consumer) {
+        for (int slot = 0; slot < slots; slot++)
+            visit(slot, consumer);
+    }
+
+    /**
+     * Users are in the order of slots. A key stays in its slot until a new user takes it, so `after` is found even if
+     * the user has been removed, but it must have been in the store
+     */
+    @Override
+    public Long forEachAfter(final Long after, final int limit, final UserConsumer consumer) {
+        final int from = after == null ? 0 : find(after) + 1;
+        if (from == 0 && after != null)
+            throw new IllegalArgumentException("The user " + after + " hasn`t been in the store");
+
+        int visited = 0;
+        for (int slot = from; slot < slots; slot++) {
+            final long key = visit(slot, consumer);
+            if (key != EMPTY && ++visited == limit)
+                return key ^ Long.MIN_VALUE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the user of the slot consistently (see the state) and pass it to the consumer
+     *
+     * @return - the key of the user, or {@link PrimitiveAccountStore#EMPTY} if the slot doesn`t have a user
+     */
+    private long visit(final int slot, final UserConsumer consumer) {
+        long key, state, balance;
+        do {
+            key = table.get(index(slot, KEY));
+            if (key == EMPTY)
+                return EMPTY;
+
+            do {
+                state = table.get(index(slot, STATE));
+                balance = table.get(index(slot, BALANCE));
+            } while ((state & 1) == 1 || state != table.get(index(slot, STATE)));
+        } while (key != table.get(index(slot, KEY))); // the slot has been taken by a new user
+
+        if (state == 0)
+            return EMPTY;
+
+        final int currency = currencyOf(state);
+        consumer.accept(key ^ Long.MIN_VALUE, ((state & SEQUENCE_MASK) - 2) / 2, currencies.code(currency),
+                Money.toDecimal(balance, currencies.scale(currency)));
+        return key;
+    }
+
+    @Override
+    public Currencies getCurrencies() {
+        return currencies;
+    }
+
+    @Override
+    public int getCurrency(final long id) {
+        final int slot = find(id);
+        final long state = slot < 0 ? 0 : readState(slot, key(id));
+        return state == 0 ? -1 : currencyOf(state);
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * The table is on the heap, there is nothing to free
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @throws ArithmeticException - if the value has more digits after the point than the scale or it is too big
+     */
+    private long toUnits(final BigDecimal value, final int currency) {
+        if (value.signum() < 0)
+            throw new ArithmeticException("Negative value " + value);
+
+        return Money.toUnits(value, currencies.scale(currency));
+    }
+
+    /**
+     * @throws IllegalArgumentException - if the currency isn`t supported
+     */
+    private int currency(final String code) {
+        final int currency = currencies.index(code);
+        if (currency < 0)
+            throw new IllegalArgumentException("Unknown currency " + code);
+        return currency;
+    }
+
+    /**
+     * Set the new balance, unlock the user and fill the image
+     */
+    private void write(final int slot, final long lockedState, final long balance, final long id,
+                       final AccountImage image) {
+        table.set(index(slot, BALANCE), balance);
+        table.lazySet(index(slot, STATE), lockedState + 2);
+        image.set(id, (lockedState & SEQUENCE_MASK) / 2, balance, // (sequence + 2 - 2) / 2
+                currencies.scale(currencyOf(lockedState)));
+    }
+
+    /**
+     * Spin until the user is locked
+     *
+     * @param key - the key of the user, the slot could have been taken by another user after the lookup
+     * @return - the state before the lock, or -1 if the slot doesn`t have the user
+     */
+    private long lock(final int slot, final long key) {
+        final int index = index(slot, STATE);
+        while (true) {
+            final long current = table.get(index);
+            if (current == 0)
+                return -1;
+            if ((current & 1) == 0 && table.compareAndSet(index, current, current + 1)) {
+                if (table.get(index(slot, KEY)) == key)
+                    return current;
+                table.lazySet(index, current); // another user
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * A read of the balance without a lock
+     *
+     * @return - -1 if the slot doesn`t have the user
+     */
+    private long readBalance(final int slot, final long key) {
+        final int index = index(slot, STATE);
+        while (true) {
+            final long state = table.get(index);
+            if (state == 0)
+                return -1;
+            if ((state & 1) == 1)
+                continue;
+
+            final long balance = table.get(index(slot, BALANCE));
+            if (state == table.get(index))
+                return table.get(index(slot, KEY)) == key ? balance : -1;
+        }
+    }
+
+    /**
+     * @return - the state of the user, 0 if the slot doesn`t have the user
+     */
+    private long readState(final int slot, final long key) {
+        final long state = table.get(index(slot, STATE));
+        return table.get(index(slot, KEY)) == key ? state : 0;
+    }
+
+    /**
+     * @return - the slot of the user (it can be removed) or -1
+     */
+    private int find(final long id) {
+        final long key = key(id);
+        int slot = home(id);
+
+        for (int i = 0; i < slots; i++) {
+            final long current = table.get(index(slot, KEY));
+            if (current == key)
+                return slot;
+            if (current == EMPTY)
+                return -1;
+            slot = next(slot);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Add the user, if it isn`t in the store: its slot (if it has been removed), else the first tombstone or the never
+     * used slot on its way. The slot is locked before its key is changed, so a reader of the old user doesn`t get the
+     * new one
+     *
+     * @return - false if the user is in the store
+     * @throws IllegalStateException - if there isn`t a free slot
+     */
+    private synchronized boolean insert(final long id, final int currency, final long units, final long version) {
+        if (id == Long.MIN_VALUE)
+            throw new IllegalArgumentException("Incorrect id " + id);
+
+        final long key = key(id);
+        int slot = home(id), free = -1;
+        for (int i = 0; i < slots; i++) {
+            final long current = table.get(index(slot, KEY));
+            if (current == key) {
+                if (table.get(index(slot, STATE)) != 0)
+                    return false;
+                free = slot;
+                break;
+            }
+            if (current == EMPTY) {
+                if (free < 0)
+                    free = slot;
+                break;
+            }
+            if (free < 0 && table.get(index(slot, STATE)) == 0)
+                free = slot;
+            slot = next(slot);
+        }
+        if (free < 0)
+            throw new IllegalStateException("The store is full, capacity=" + capacity);
+
+        table.set(index(free, STATE), state(currency, 1));
+        table.set(index(free, KEY), key);
+        table.set(index(free, BALANCE), units);
+        table.set(index(free, STATE), state(currency, 2 + 2 * version));
+        return true;
+    }
+
+    private static long key(final long id) {
+        return id ^ Long.MIN_VALUE;
+    }
+
+    private static long state(final int currency, final long sequence) {
+        return (long) currency << CURRENCY_SHIFT | sequence;
+    }
+
+    private static int currencyOf(final long state) {
+        return (int) (state >>> CURRENCY_SHIFT);
+    }
+
+    private static int index(final int slot, final int field) {
+        return slot * SLOT + field;
+    }
+
+    /**
+     * The first slot of the user: the hash is mapped to the table by a multiplication, the table isn`t a power of two
+     */
+    private int home(final long id) {
+        return (int) (((hash(id) & 0xffffffffL) * slots) >>> 32);
+    }
+
+    private int next(final int slot) {
+        return slot + 1 == slots ? 0 : slot + 1;
+    }
+
+    /**
+     * fmix64 of MurmurHash3, sequential ids shouldn`t be in neighbour slots
+     */
+    private static int hash(long id) {
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+        id *= 0xc4ceb9fe1a85ec53L;
+        id ^= id >>> 33;
+        return (int) id;
+    }
+}
@@ -0,0 +1,252 @@
+package mondeytransfer.model;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Snapshots of {@link AccountStore} in compact binary files, so a restart loads the latest snapshot
+ * and replays only the tail of {@link TransactionJournal} instead of the whole history.
+ * <p>
+ * A snapshot is taken while shard workers are running, so it is fuzzy: each user is read under its lock, but different
+ * users are read at different moments. It is correct together with the journal: a snapshot keeps the version of each
+ * user and the checkpoint of the journal which has been taken before the scan. All changes which are not in the
+ * snapshot have their after-images after the checkpoint, and the replay skips images which are older than the
+ * snapshot (see {@link AccountStore#restore(long, long, String, BigDecimal)}). A change which the scan has read must be
+ * in the journal before the snapshot replaces the previous one, so the owner of the store waits for it by a
+ * {@link Barrier}.
+ * <p>
+ * A file is [header][id, version, balance, currency]... and it is written to a temporary file through one reused
+ * buffer, then it is renamed and the directory is synced, so the latest snapshot is always complete and it is on the
+ * disk before the journal behind it is deleted. A snapshot is loaded by memory-mapped windows.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class SnapshotStore {
+    private final static Logger LOGGER = LoggerFactory.getLogger(SnapshotStore.class);
+    private final static String PREFIX = "accounts-", SUFFIX = ".snapshot", TMP = ".tmp";
+
+    private final static int MAGIC = 0x4D54534E; // MTSN
+    private final static int FORMAT = 2, FORMAT_WITHOUT_CURRENCIES = 1;
+    private final static int HEADER_SIZE = 64;
+    private final static int MAX_RECORD_SIZE = 8 + 8 + 4 + 2 + 1024 + 1 + 127;
+    private final static long WINDOW = 64L << 20; // of a load
+    private final static int BUFFER_SIZE = 1 << 20; // of a write
+
+    private final Path dir;
+
+    public SnapshotStore(final Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+
+        for (Path tmp : files(PREFIX + "*" + SUFFIX + TMP)) // a crash during a snapshot
+            Files.delete(tmp);
+    }
+
+    /**
+     * @param store       - it can be changed during the snapshot
+     * @param position    - {@link JournalRecord#getPosition()} of the checkpoint
+     * @param pendingFrom - {@link JournalRecord#getPendingFrom()} of the checkpoint, the replay starts from it
+     * @param journaled   - it is called after the scan, before the snapshot replaces the previous one
+     * @return - the snapshot file
+     */
+    public Path write(final AccountStore store, final long position, final long pendingFrom, final Barrier journaled)
+            throws IOException, InterruptedException {
+        final long started = System.currentTimeMillis();
+        final Path file = dir.resolve(String.format("%s%020d%s", PREFIX, started, SUFFIX));
+        final Path tmp = file.resolveSibling(file.getFileName() + TMP);
+        final CRC32 crc = new CRC32();
+        final long count;
+
+        try (FileChannel channel = FileChannel.open(tmp, CREATE_NEW, READ, WRITE)) {
+            final Writer writer = new Writer(channel, crc);
+            try {
+                store.forEach(writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            count = writer.count;
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(position).putLong(pendingFrom).putLong(count)
+                    .putLong(crc.getValue()).clear();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        journaled.await();
+        Files.move(tmp, file, ATOMIC_MOVE);
+        try (FileChannel directory = FileChannel.open(dir, READ)) { // the rename is durable before the journal is cut
+            directory.force(true);
+        }
+        for (Path old : files(PREFIX + "*" + SUFFIX))
+            if (!old.equals(file))
+                Files.delete(old);
+
+        LOGGER.info("The snapshot {0} has been written, users={1}, time={2}ms",
+                file, count, System.currentTimeMillis() - started);
+        return file;
+    }
+
+    /**
+     * Load the latest snapshot
+     *
+     * @return - null if there isn`t any snapshot
+     */
+    public Header load(final AccountStore.UserConsumer consumer) throws IOException {
+        final List<Path> snapshots = files(PREFIX + "*" + SUFFIX);
+        if (snapshots.isEmpty())
+            return null;
+
+        final Path file = snapshots.get(snapshots.size() - 1);
+        final long started = System.currentTimeMillis();
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            final ByteBuffer bytes = ByteBuffer.allocate(HEADER_SIZE);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) ;
+            bytes.flip();
+            final int format;
+            if (bytes.remaining() < HEADER_SIZE || bytes.getInt() != MAGIC
+                    || (format = bytes.getInt()) != FORMAT && format != FORMAT_WITHOUT_CURRENCIES)
+                throw new IOException("The snapshot " + file + " has an unknown format");
+
+            final Header header = new Header(bytes.getLong(), bytes.getLong(), bytes.getLong());
+            final long expectedCrc = bytes.getLong();
+            final CRC32 crc = new CRC32();
+            final long end = channel.size();
+
+            long windowStart = HEADER_SIZE;
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW, end - windowStart));
+
+            for (long i = 0; i < header.count; i++) {
+                if (in.remaining() < MAX_RECORD_SIZE && windowStart + in.limit() < end) {
+                    finish(in, crc);
+                    windowStart += in.position();
+                    in = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW, end - windowStart));
+                }
+
+                final long id = in.getLong(), version = in.getLong();
+                final BigDecimal balance = TransactionJournal.getDecimal(in);
+                consumer.accept(id, version, format == FORMAT ? TransactionJournal.getCode(in) : null, balance);
+            }
+            finish(in, crc);
+
+            if (crc.getValue() != expectedCrc)
+                throw new IOException("The snapshot " + file + " is broken");
+
+            LOGGER.info("The snapshot {0} has been loaded, users={1}, time={2}ms",
+                    file, header.count, System.currentTimeMillis() - started);
+            return header;
+        }
+    }
+
+    /**
+     * Add the used part of a window to the checksum
+     */
+    private static void finish(final ByteBuffer window, final CRC32 crc) {
+        final ByteBuffer used = window.duplicate();
+        used.flip();
+        crc.update(used);
+    }
+
+    private List<Path> files(final String glob) throws IOException {
+        final List<Path> res = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+            files.forEach(res::add);
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * Writes users to the buffer and the full buffer to the file, so a snapshot doesn`t map anything
+     */
+    private static class Writer implements AccountStore.UserConsumer {
+        private final FileChannel channel;
+        private final CRC32 crc;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long end = HEADER_SIZE; // of written data in the file
+        private long count;
+
+        Writer(final FileChannel channel, final CRC32 crc) {
+            this.channel = channel;
+            this.crc = crc;
+        }
+
+        @Override
+        public void accept(final long id, final long version, final String currency, final BigDecimal balance) {
+            if (out.remaining() < MAX_RECORD_SIZE) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            out.putLong(id);
+            out.putLong(version);
+            TransactionJournal.putDecimal(out, balance);
+            TransactionJournal.putCode(out, currency); // stores always give the code
+            count++;
+        }
+
+        /**
+         * Write the rest of the buffer
+         */
+        void flush() throws IOException {
+            SnapshotStore.finish(out, crc);
+            out.flip();
+            while (out.hasRemaining())
+                end += channel.write(out, end);
+            out.clear();
+        }
+    }
+
+    /**
+     * It waits until all changes which the scan could read are in the journal
+     */
+    public interface Barrier {
+        void await() throws IOException, InterruptedException;
+    }
+
+    public static class Header {
+        private final long position;
+        private final long pendingFrom;
+        private final long count;
+
+        Header(final long position, final long pendingFrom, final long count) {
+            this.position = position;
+            this.pendingFrom = pendingFrom;
+            this.count = count;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getPendingFrom() {
+            return pendingFrom;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
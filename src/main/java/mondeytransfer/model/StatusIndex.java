@@ -0,0 +1,125 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.StatusDto;
+import mondeytransfer.enums.EvictionPolicyEnum;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * Statuses of transactions by UUID, so a client can check its transaction at any time and statuses aren`t consumed by
+ * a reader like {@link mondeytransfer.service.TransactionsService#getStatuses()}.
+ * <p>
+ * Memory is bounded: the index keeps not more than the capacity statuses and each status expires after the TTL. It is
+ * split into stripes by UUID, each stripe is a {@link LinkedHashMap} in the insertion order ({@link EvictionPolicyEnum#FIFO})
+ * or in the access order ({@link EvictionPolicyEnum#LRU}) under its own lock, so shard workers rarely wait for each
+ * other and an eviction is O(1) from the head of a stripe.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class StatusIndex {
+    private final static int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    /**
+     * @param capacity - max statuses, 0 - the index is off
+     */
+    public StatusIndex(final int capacity, final long ttlMillis, final EvictionPolicyEnum policy) {
+        this(capacity, ttlMillis, policy, System::nanoTime);
+    }
+
+    StatusIndex(final int capacity, final long ttlMillis, final EvictionPolicyEnum policy, final LongSupplier clock) {
+        if (capacity < 0 || ttlMillis <= 0)
+            throw new IllegalArgumentException("Incorrect capacity " + capacity + " or TTL " + ttlMillis);
+
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.clock = clock;
+        for (int i = 0; i < STRIPES; i++) // the rest of the capacity goes to the first stripes
+            stripes[i] = new Stripe(capacity / STRIPES + (i < capacity % STRIPES ? 1 : 0), policy == EvictionPolicyEnum.LRU);
+    }
+
+    public void put(final StatusDto status) {
+        final Stripe stripe = stripe(status.getUuid());
+        if (stripe.capacity == 0)
+            return;
+
+        final long now = clock.getAsLong();
+        synchronized (stripe) {
+            stripe.evictExpired(now);
+            stripe.put(status.getUuid(), new Entry(status, now + ttlNanos));
+        }
+    }
+
+    /**
+     * @return - null if there isn`t such a status or it has expired
+     */
+    public StatusDto get(final UUID uuid) {
+        final Stripe stripe = stripe(uuid);
+        final long now = clock.getAsLong();
+        synchronized (stripe) {
+            final Entry entry = stripe.get(uuid);
+            if (entry == null)
+                return null;
+
+            if (entry.expiresAt - now <= 0) {
+                stripe.remove(uuid);
+                return null;
+            }
+            return entry.status;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        return size;
+    }
+
+    private Stripe stripe(final UUID uuid) {
+        final long hash = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+        return stripes[(int) (hash ^ hash >>> 32) & (STRIPES - 1)];
+    }
+
+    private static class Entry {
+        private final StatusDto status;
+        private final long expiresAt; // System.nanoTime()
+
+        Entry(final StatusDto status, final long expiresAt) {
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Stripe extends LinkedHashMap<UUID, Entry> {
+        private final int capacity;
+
+        Stripe(final int capacity, final boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<UUID, Entry> eldest) {
+            return size() > capacity;
+        }
+
+        /**
+         * Expired statuses are at the head for FIFO. For LRU it removes only those which are before the first
+         * unexpired one, the rest are removed by reads or by the capacity
+         */
+        void evictExpired(final long now) {
+            final Iterator<Entry> it = values().iterator();
+            while (it.hasNext() && it.next().expiresAt - now <= 0)
+                it.remove();
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package mondeytransfer.model;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.enums.WaitStrategyEnum;
+import mondeytransfer.other.CustomThreadFactory;
+import mondeytransfer.other.MpscRingBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Objects.isNull;
+
+/**
+ * This is an append-only write-ahead journal of accepted transactions and balance changes.
+ * <p>
+ * Any thread can {@link TransactionJournal#append(JournalRecord)} a record: it is only put to a lock-free
+ * {@link MpscRingBuffer}. The only journal thread takes records from it and writes them through a {@link FileChannel}
+ * with a group commit: it collects a batch of records (until {@link TransactionJournal#maxBatch} records or
+ * {@link TransactionJournal#windowNanos} after the first one), writes the batch and calls fsync once for the whole
+ * batch, after it calls {@link JournalRecord#getOnCommit()} of each record. So the cost of fsync is shared by all
+ * shard workers and clients which are waiting for it, and the window is the latency budget of durability.
+ * <p>
+ * A record on the disk is [int length][payload][int CRC32 of the payload]. A position of a record is its offset from
+ * the beginning of the journal. The journal is split into segment files (transactions-[position of the first
+ * record].journal), so segments which are covered by a snapshot can be deleted
+ * ({@link TransactionJournal#deleteBefore(long)}). A torn tail after a crash is cut off during
+ * {@link TransactionJournal#replay(long, Consumer)}.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class TransactionJournal implements Closeable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(TransactionJournal.class);
+    private final static String PREFIX = "transactions-", SUFFIX = ".journal";
+
+    private final static int MAX_RECORD_SIZE = 4096;
+    private final static int MAX_DECIMAL_SIZE = 1024;
+    private final static int BUFFER_SIZE = 1 << 20;
+    private final static AsyncResult<Void> COMMITTED = Future.succeededFuture();
+
+    private final Path dir;
+    private final long segmentSize;
+    private final MpscRingBuffer<JournalRecord> queue;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final boolean fsync;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final List<JournalRecord> batch;
+    /**
+     * positions of ACCEPTED (and CREDITED) records which don`t have APPLIED records yet, in the order of the journal.
+     * Only for the journal thread (and for the replay before it)
+     */
+    private final Map<UUID, Long> inFlight = new LinkedHashMap<>();
+    /**
+     * in-flight transactions before the current batch which get APPLIED records in it, they are tracked again if the
+     * batch fails
+     */
+    private final Map<UUID, Long> untracked = new HashMap<>();
+
+    private FileChannel channel; // the last segment
+    private long segmentStart; // the position of the first record of the last segment
+    private long position; // the position of the next record
+
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * @param dir           - a directory of the journal segments
+     * @param segmentSize   - a new segment is started when the current one has reached this size
+     * @param queueCapacity - how many records can wait for the journal thread
+     * @param maxBatch      - max records in one group commit
+     * @param windowMicros  - how long the journal thread waits for more records after the first one of a batch
+     * @param fsync         - false only if you can lose the last records after a crash of OS
+     */
+    public TransactionJournal(final Path dir, final long segmentSize, final int queueCapacity, final int maxBatch,
+                              final long windowMicros, final boolean fsync) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.queue = new MpscRingBuffer<>(queueCapacity, WaitStrategyEnum.PARK);
+        this.maxBatch = maxBatch;
+        this.windowNanos = windowMicros * 1_000L;
+        this.fsync = fsync;
+        this.batch = new ArrayList<>(maxBatch);
+    }
+
+    /**
+     * Read records from the position to the end and cut off a broken tail. It must be called before
+     * {@link TransactionJournal#start()}
+     *
+     * @param from     - 0 or {@link JournalRecord#getPendingFrom()} of a checkpoint, all records before it are
+     *                 in a snapshot
+     * @param consumer - it gets records in the order of the journal
+     */
+    public void replay(final long from, final Consumer<JournalRecord> consumer) throws IOException {
+        final List<Long> segments = segments();
+        if (segments.isEmpty()) {
+            openSegment(from);
+            return;
+        }
+        if (segments.get(0) > from)
+            throw new IOException("The journal " + dir + " doesn`t have records from " + from);
+
+        int first = 0;
+        while (first + 1 < segments.size() && segments.get(first + 1) <= from)
+            first++;
+
+        long records = 0;
+        for (int i = first; i < segments.size(); i++) {
+            final long start = segments.get(i);
+            final boolean last = i == segments.size() - 1;
+
+            try (FileChannel in = FileChannel.open(segment(start), READ, WRITE)) {
+                final long offset = Math.max(from - start, 0);
+                records += read(in, start, offset, consumer);
+
+                if (in.size() > position - start) {
+                    if (!last)
+                        throw new IOException("The journal segment " + segment(start) + " is broken at " + position);
+
+                    LOGGER.warn("The journal {0} has a broken tail, it is cut off from {1} to {2}",
+                            segment(start), position, start + in.size());
+                    in.truncate(position - start);
+                    in.force(true);
+                }
+            }
+        }
+
+        final long lastStart = segments.get(segments.size() - 1);
+        channel = FileChannel.open(segment(lastStart), WRITE);
+        channel.position(position - lastStart);
+        segmentStart = lastStart;
+        LOGGER.info("The journal {0} has been replayed from {1}, records={2}", dir, from, records);
+    }
+
+    /**
+     * Read records of a segment, {@link TransactionJournal#position} is set after the last correct record
+     *
+     * @return - how many records have been read
+     */
+    private long read(final FileChannel in, final long start, final long offset,
+                      final Consumer<JournalRecord> consumer) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        position = start + offset;
+        long records = 0;
+        boolean eof = false, broken = false;
+        in.position(offset);
+
+        while (!eof && !broken) {
+            eof = in.read(bytes) < 0;
+            bytes.flip();
+
+            while (bytes.remaining() >= 4) {
+                final int length = bytes.getInt(bytes.position());
+                if (length < 1 || length > MAX_RECORD_SIZE) {
+                    broken = true;
+                    break;
+                }
+                if (bytes.remaining() < length + 8)
+                    break; // read more
+
+                final ByteBuffer payload = bytes.duplicate();
+                payload.position(bytes.position() + 4).limit(bytes.position() + 4 + length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != bytes.getInt(bytes.position() + 4 + length)) {
+                    broken = true;
+                    break;
+                }
+
+                final JournalRecord r = decode(payload);
+                track(r, position);
+                consumer.accept(r);
+                records++;
+                position += length + 8;
+                bytes.position(bytes.position() + length + 8);
+            }
+
+            bytes.compact();
+        }
+
+        return records;
+    }
+
+    public void start() throws IOException {
+        if (channel == null)
+            openSegment(0);
+
+        running = true;
+        writer = new CustomThreadFactory("Transaction journal").newThread(this::writeLoop);
+        writer.start();
+    }
+
+    /**
+     * @return - false if the journal is overloaded or closed, so the record will never be written
+     */
+    public boolean append(final JournalRecord record) {
+        return running && queue.offer(record);
+    }
+
+    /**
+     * Block and wait, if the journal is overloaded. It is for records which can`t be rejected, e.g. results of
+     * transactions
+     */
+    public void put(final JournalRecord record) throws InterruptedException {
+        if (!running)
+            throw new IllegalStateException("The journal " + dir + " is closed");
+
+        queue.put(record);
+    }
+
+    /**
+     * The batch version of {@link TransactionJournal#put(JournalRecord)}: records are added in order by
+     * {@link MpscRingBuffer#offerAll(List)}, so producers don`t contend for each of them and the writer usually gets
+     * them in one group commit
+     */
+    public void putAll(final List<JournalRecord> records) throws InterruptedException {
+        if (!running)
+            throw new IllegalStateException("The journal " + dir + " is closed");
+
+        int added = 0, counter = 0;
+        while (added < records.size()) {
+            final int count = queue.offerAll(added == 0 ? records : records.subList(added, records.size()));
+            if (count == 0) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                counter = WaitStrategyEnum.PARK.idle(counter);
+            }
+            added += count;
+        }
+    }
+
+    /**
+     * Wait until all records appended before this call have been written and synced.
+     *
+     * @return - a checkpoint with the position after these records and the position of the oldest accepted
+     * transaction without a result
+     */
+    public JournalRecord checkpoint() throws InterruptedException, IOException {
+        final CountDownLatch written = new CountDownLatch(1);
+        final AsyncResult<?>[] result = new AsyncResult[1];
+        final JournalRecord checkpoint = JournalRecord.checkpoint().onCommit(ar -> {
+            result[0] = ar;
+            written.countDown();
+        });
+
+        put(checkpoint);
+        written.await();
+        if (result[0].failed())
+            throw new IOException("The checkpoint hasn`t been written", result[0].cause());
+
+        return checkpoint;
+    }
+
+    /**
+     * Delete segments which have only records before the position
+     */
+    public void deleteBefore(final long position) throws IOException {
+        final List<Long> segments = segments();
+        for (int i = 0; i + 1 < segments.size() && segments.get(i + 1) <= position; i++) {
+            Files.deleteIfExists(segment(segments.get(i)));
+            LOGGER.info("The journal segment {0} has been deleted", segment(segments.get(i)));
+        }
+    }
+
+    /**
+     * Write all appended records and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null)
+            channel.close();
+    }
+
+    private void writeLoop() {
+        int idle = 0;
+
+        while (running || queue.size() > 0) {
+            JournalRecord record = queue.poll();
+            if (record == null) {
+                idle = WaitStrategyEnum.PARK.idle(idle);
+                continue;
+            }
+            idle = 0;
+
+            final long deadline = System.nanoTime() + windowNanos;
+            while (true) {
+                batch.add(record);
+                if (batch.size() >= maxBatch)
+                    break;
+
+                record = queue.poll();
+                while (record == null && windowNanos > 0 && System.nanoTime() < deadline && running) {
+                    Thread.yield();
+                    record = queue.poll();
+                }
+                if (record == null)
+                    break;
+            }
+
+            commit();
+        }
+    }
+
+    /**
+     * Write and sync {@link TransactionJournal#batch}, then notify the owners of records. If the batch fails, it is cut
+     * off, so {@link TransactionJournal#position} stays the offset of the next record on the disk
+     */
+    private void commit() {
+        AsyncResult<Void> result = COMMITTED;
+        final long committed = position;
+        untracked.clear();
+        try {
+            buffer.clear();
+            for (JournalRecord r : batch) {
+                if (r.getType() == JournalRecord.CHECKPOINT) {
+                    r.setPositions(position, inFlight.isEmpty() ? position : inFlight.values().iterator().next());
+                    continue;
+                }
+
+                if (buffer.remaining() < MAX_RECORD_SIZE + 8)
+                    flush();
+                final int size = encode(r);
+                if (r.getType() == JournalRecord.APPLIED) {
+                    final Long accepted = inFlight.get(r.getTransactionId());
+                    if (!isNull(accepted) && accepted < committed)
+                        untracked.put(r.getTransactionId(), accepted);
+                }
+                track(r, position);
+                position += size;
+            }
+            flush();
+
+            if (fsync)
+                channel.force(false);
+        } catch (Exception e) {
+            LOGGER.error("The journal {0} can`t write {1} records, reason=''{2}''", dir, batch.size(), e.getMessage());
+            result = Future.failedFuture(e);
+            rollback(committed);
+        }
+
+        if (result == COMMITTED)
+            rotate();
+
+        for (JournalRecord r : batch) {
+            final Handler<AsyncResult<Void>> onCommit = r.getOnCommit();
+            if (onCommit != null)
+                onCommit.handle(result);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Cut off a failed batch: the position and in-flight transactions are returned to the last committed record
+     */
+    private void rollback(final long committed) {
+        for (JournalRecord r : batch)
+            if (r.getType() == JournalRecord.ACCEPTED || r.getType() == JournalRecord.CREDITED)
+                inFlight.remove(r.getTransactionId());
+
+        if (!untracked.isEmpty()) { // in the order of the journal again
+            final List<Map.Entry<UUID, Long>> entries = new ArrayList<>(inFlight.entrySet());
+            entries.addAll(untracked.entrySet());
+            entries.sort(Map.Entry.comparingByValue());
+            inFlight.clear();
+            for (Map.Entry<UUID, Long> entry : entries)
+                inFlight.put(entry.getKey(), entry.getValue());
+        }
+
+        position = committed;
+        try {
+            channel.truncate(committed - segmentStart);
+            channel.position(committed - segmentStart);
+        } catch (IOException e) {
+            LOGGER.error("The journal {0} can`t cut off a failed batch at {1}, reason=''{2}''", dir, committed,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Start a new segment if the last one is full. The batch is already committed, so a failure here is only logged,
+     * the next batch fails if the segment can`t be written
+     */
+    private void rotate() {
+        try {
+            if (channel.size() >= segmentSize) {
+                channel.close();
+                openSegment(position);
+            }
+        } catch (IOException e) {
+            LOGGER.error("The journal {0} can`t start a new segment at {1}, reason=''{2}''", dir, position,
+                    e.getMessage());
+        }
+    }
+
+    private void track(final JournalRecord r, final long position) {
+        if (r.getType() == JournalRecord.ACCEPTED || r.getType() == JournalRecord.CREDITED)
+            inFlight.put(r.getTransactionId(), position);
+        else if (r.getType() == JournalRecord.APPLIED)
+            inFlight.remove(r.getTransactionId());
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void openSegment(final long start) throws IOException {
+        channel = FileChannel.open(segment(start), CREATE, WRITE);
+        channel.position(channel.size());
+        segmentStart = start;
+        position = start + channel.size();
+    }
+
+    private Path segment(final long start) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, start, SUFFIX));
+    }
+
+    /**
+     * @return - sorted positions of the first records of segments
+     */
+    private List<Long> segments() throws IOException {
+        final List<Long> res = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                res.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * @return - the size of the record on the disk
+     */
+    private int encode(final JournalRecord r) {
+        final int start = buffer.position();
+        buffer.position(start + 4); // the length will be here
+
+        buffer.put(r.getType());
+        switch (r.getType()) {
+            case JournalRecord.USER:
+                buffer.putLong(r.getFromId());
+                buffer.putLong(r.getFromVersion());
+                putDecimal(buffer, r.getFromBalance());
+                putCode(buffer, r.getCurrency());
+                break;
+            case JournalRecord.ACCEPTED:
+                putUuid(r.getTransactionId());
+                buffer.putLong(r.getFromId());
+                buffer.putLong(r.getToId());
+                putDecimal(buffer, r.getSentSum());
+                putCode(buffer, r.getCurrency());
+                break;
+            case JournalRecord.DEBITED:
+                putUuid(r.getTransactionId());
+                buffer.putLong(r.getFromId());
+                buffer.putLong(r.getFromVersion());
+                putDecimal(buffer, r.getFromBalance());
+                break;
+            case JournalRecord.CREDITED:
+                putUuid(r.getTransactionId());
+                buffer.putLong(r.getToId());
+                buffer.putLong(r.getToVersion());
+                putDecimal(buffer, r.getToBalance());
+                break;
+            default:
+                putUuid(r.getTransactionId());
+                buffer.put((byte) r.getStatus().ordinal());
+                if (r.getStatus() == StatusEnum.SUCCESS) {
+                    buffer.putLong(r.getFromId());
+                    buffer.putLong(r.getFromVersion());
+                    putDecimal(buffer, r.getFromBalance());
+                    buffer.putLong(r.getToId());
+                    buffer.putLong(r.getToVersion());
+                    putDecimal(buffer, r.getToBalance());
+                }
+        }
+
+        final int length = buffer.position() - start - 4;
+        buffer.putInt(start, length);
+
+        final ByteBuffer payload = buffer.duplicate();
+        payload.position(start + 4).limit(start + 4 + length);
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt((int) crc.getValue());
+
+        return length + 8;
+    }
+
+    private static JournalRecord decode(final ByteBuffer in) {
+        final JournalRecord r = new JournalRecord(in.get());
+        switch (r.getType()) {
+            case JournalRecord.USER:
+                r.setFrom(in.getLong(), in.getLong(), getDecimal(in));
+                r.setCurrency(getCode(in));
+                break;
+            case JournalRecord.ACCEPTED:
+                r.setTransactionId(getUuid(in));
+                r.setFrom(in.getLong(), 0, null);
+                r.setTo(in.getLong(), 0, null);
+                r.setSentSum(getDecimal(in));
+                r.setCurrency(getCode(in));
+                break;
+            case JournalRecord.DEBITED:
+                r.setTransactionId(getUuid(in));
+                r.setFrom(in.getLong(), in.getLong(), getDecimal(in));
+                break;
+            case JournalRecord.CREDITED:
+                r.setTransactionId(getUuid(in));
+                r.setTo(in.getLong(), in.getLong(), getDecimal(in));
+                break;
+            case JournalRecord.APPLIED:
+                r.setTransactionId(getUuid(in));
+                r.setStatus(StatusEnum.values()[in.get()]);
+                if (r.getStatus() == StatusEnum.SUCCESS) {
+                    r.setFrom(in.getLong(), in.getLong(), getDecimal(in));
+                    r.setTo(in.getLong(), in.getLong(), getDecimal(in));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown type of a journal record " + r.getType());
+        }
+
+        return r;
+    }
+
+    private void putUuid(final UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(final ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong());
+    }
+
+    static void putDecimal(final ByteBuffer out, final BigDecimal value) {
+        final byte[] unscaled = value.unscaledValue().toByteArray();
+        if (unscaled.length > MAX_DECIMAL_SIZE)
+            throw new IllegalArgumentException("Too big number " + value);
+
+        out.putInt(value.scale());
+        out.putShort((short) unscaled.length);
+        out.put(unscaled);
+    }
+
+    /**
+     * A code of a currency at the end of a record: the length and ASCII chars, nothing for null
+     */
+    static void putCode(final ByteBuffer out, final String code) {
+        if (isNull(code))
+            return;
+
+        out.put((byte) code.length());
+        for (int i = 0; i < code.length(); i++)
+            out.put((byte) code.charAt(i));
+    }
+
+    /**
+     * @return - null if the record doesn`t have a code (records of old journals)
+     */
+    static String getCode(final ByteBuffer in) {
+        if (!in.hasRemaining())
+            return null;
+
+        final byte[] code = new byte[in.get()];
+        in.get(code);
+        return new String(code, StandardCharsets.US_ASCII);
+    }
+
+    static BigDecimal getDecimal(final ByteBuffer in) {
+        final int scale = in.getInt();
+        final byte[] unscaled = new byte[in.getShort()];
+        in.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
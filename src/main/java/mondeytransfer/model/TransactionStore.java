@@ -1,20 +1,256 @@
 package mondeytransfer.model;
 
+import mondeytransfer.dto.TransactionDto;
 import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.TransferResultEnum;
+import mondeytransfer.other.Money;
 
+import java.math.BigDecimal;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static java.util.Objects.isNull;
 
 /**
- * This is a layer for transactions data
+ * This is a layer for transactions data: {@link AccountStore} on a map of accounts. A balance is a long of minor units
+ * of the currency of the account (see {@link Money}), each account is locked by its own monitor. Pages of users are in the order
+ * of ids, by a sorted set of ids beside the map (users are added rarely, transfers don`t touch it)
  *
  * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
  */
-public class TransactionStore {
+public class TransactionStore implements AccountStore {
+
+    private final Map<Long, Account> STORE = new ConcurrentHashMap<>();
+    private final NavigableSet<Long> IDS = new ConcurrentSkipListSet<>();
+    private final Currencies CURRENCIES;
+
+    public TransactionStore(final Currencies currencies) {
+        this.CURRENCIES = currencies;
+    }
+
+    @Override
+    public boolean containsKey(final long id) {
+        return STORE.containsKey(id);
+    }
+
+    /**
+     * @return - a copy of the user
+     */
+    @Override
+    public UserDto get(final long id) {
+        final Account account = STORE.get(id);
+        if (isNull(account))
+            return null;
+
+        return new UserDto(id, Money.toDecimal(balance(account), CURRENCIES.scale(account.currency)),
+                CURRENCIES.code(account.currency));
+    }
+
+    @Override
+    public boolean putIfAbsent(final UserDto user) {
+        final int currency = currency(user.getCurrency());
+        final Account account = new Account(toUnits(user.getBalance(), currency), currency);
+        if (!isNull(STORE.putIfAbsent(user.getId(), account)))
+            return false;
+
+        IDS.add(user.getId());
+        return true;
+    }
+
+    @Override
+    public void remove(final long id) {
+        STORE.remove(id);
+        IDS.remove(id);
+    }
+
+    @Override
+    public void restore(final long id, final long version, final String currency, final BigDecimal balance) {
+        final Account account = STORE.computeIfAbsent(id, key -> new Account(0, currency(currency)));
+        final long units = toUnits(balance, account.currency);
+        synchronized (account) {
+            if (version >= account.version) {
+                account.balance = units;
+                account.version = version;
+            }
+        }
+        IDS.add(id);
+    }
+
+    @Override
+    public Currencies getCurrencies() {
+        return CURRENCIES;
+    }
+
+    @Override
+    public int getCurrency(final long id) {
+        final Account account = STORE.get(id);
+        return isNull(account) ? -1 : account.currency;
+    }
+
+    @Override
+    public boolean read(final long id, final AccountImage image) {
+        final Account account = STORE.get(id);
+        if (isNull(account))
+            return false;
+
+        synchronized (account) {
+            image.set(id, account.version, account.balance, CURRENCIES.scale(account.currency));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean canDebit(final long id, final TransactionDto td) {
+        final Account account = STORE.get(id);
+        if (isNull(account))
+            return false;
+
+        return balance(account) >= td.getSentUnits();
+    }
+
+    /**
+     * After-images (balance and version) are read under the same locks as changes, so they are consistent for
+     * the journal
+     */
+    @Override
+    public TransferResultEnum debit(final long id, final TransactionDto td, final boolean localReceiver,
+                                    final AccountImage from) {
+        final Account sender = STORE.get(id);
+        final Account receiver = localReceiver ? STORE.get(td.getToId()) : null;
+
+        /**
+         * This check just in case, because it a normal working system you can`t send ZERO, it
+         * should be filtered in validation
+         */
+        if (isNull(sender) || localReceiver && (isNull(receiver) || balance(receiver) <= 0))
+            return TransferResultEnum.CORRUPTED;
+
+        synchronized (sender) {
+            if (sender.balance <= 0)
+                return TransferResultEnum.CORRUPTED;
+            if (sender.balance < td.getSentUnits()) // second check the sender`s balance
+                return TransferResultEnum.NOT_ENOUGH_MONEY;
+
+            sender.balance -= td.getSentUnits();
+            from.set(id, ++sender.version, sender.balance, CURRENCIES.scale(sender.currency));
+        }
+
+        return TransferResultEnum.SUCCESS;
+    }
+
+    @Override
+    public TransferResultEnum credit(final long id, final long units, final AccountImage to) {
+        final Account account = STORE.get(id);
+        if (isNull(account))
+            return TransferResultEnum.CORRUPTED;
+
+        synchronized (account) {
+            if (account.balance > Long.MAX_VALUE - units)
+                return TransferResultEnum.OVERFLOW;
+
+            account.balance += units;
+            to.set(id, ++account.version, account.balance, CURRENCIES.scale(account.currency));
+        }
+
+        return TransferResultEnum.SUCCESS;
+    }
+
+    @Override
+    public void forEach(final UserConsumer consumer) {
+        for (Map.Entry<Long, Account> entry : STORE.entrySet())
+            visit(entry.getKey(), entry.getValue(), consumer);
+    }
+
+    /**
+     * Users are in the order of ids, so `after` can be any id
+     */
+    @Override
+    public Long forEachAfter(final Long after, final int limit, final UserConsumer consumer) {
+        int visited = 0;
+        Long last = null;
+        for (Long id : isNull(after) ? IDS : IDS.tailSet(after, false)) {
+            if (visited == limit)
+                break;
+
+            final Account account = STORE.get(id);
+            if (isNull(account)) // it has just been removed
+                continue;
+
+            visit(id, account, consumer);
+            last = id;
+            visited++;
+        }
+
+        return visited == limit ? last : null;
+    }
+
+    @Override
+    public int size() {
+        return STORE.size();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static long balance(final Account account) {
+        synchronized (account) {
+            return account.balance;
+        }
+    }
+
+    /**
+     * Read the balance and the version together
+     */
+    private void visit(final long id, final Account account, final UserConsumer consumer) {
+        final long balance, version;
+        synchronized (account) {
+            balance = account.balance;
+            version = account.version;
+        }
+        consumer.accept(id, version, CURRENCIES.code(account.currency),
+                Money.toDecimal(balance, CURRENCIES.scale(account.currency)));
+    }
+
+    /**
+     * @throws IllegalArgumentException - if the currency isn`t supported
+     */
+    private int currency(final String code) {
+        final int currency = CURRENCIES.index(code);
+        if (currency < 0)
+            throw new IllegalArgumentException("Unknown currency " + code);
+        return currency;
+    }
+
+    /**
+     * @throws IllegalArgumentException - if the balance is negative or it can`t be kept with the scale of the currency
+     */
+    private long toUnits(final BigDecimal balance, final int currency) {
+        try {
+            final long units = Money.toUnits(balance, CURRENCIES.scale(currency));
+            if (units >= 0)
+                return units;
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Incorrect balance " + balance, e);
+        }
+        throw new IllegalArgumentException("Incorrect balance " + balance);
+    }
 
-    private final Map<Long, UserDto> STORE = new ConcurrentHashMap<>();
+    /**
+     * A user of the store. It is changed only by the thread of its shard (a credit is routed to the shard of
+     * the receiver), so the monitor isn`t contended. It is locked for readers, they see the balance and the version
+     * together
+     */
+    private static final class Account {
+        private final int currency;
+        private long balance;
+        private long version; // it is increased by each transfer, see mondeytransfer.model.JournalRecord
 
-    public Map<Long, UserDto> getSTORE() {
-        return STORE;
+        private Account(final long balance, final int currency) {
+            this.balance = balance;
+            this.currency = currency;
+        }
     }
 }
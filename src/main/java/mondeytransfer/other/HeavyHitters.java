@@ -0,0 +1,76 @@
+package mondeytransfer.other;
+
+/**
+ * The most frequent ids of a stream by the Space-Saving algorithm with a few counters: an id which isn`t counted
+ * takes the counter with the least count. So an id which is more often than 1/counters of the stream is always
+ * counted, and its count is overestimated not more than by the least count. Counts are halved after
+ * {@link HeavyHitters#AGING} records, so they show the recent stream.
+ * <p>
+ * Only one thread records (e.g. the worker of a shard), it doesn`t allocate or lock anything. Other threads read it
+ * without synchronization: it is only a hint (e.g. for a rebalance of shards), a stale value is fine.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class HeavyHitters {
+    private final static int AGING = 1 << 16;
+
+    private final long[] ids;
+    private final long[] counts;
+    private long window; // records since the start, halved with counts
+    private long records; // all records, it is never halved
+    private int untilAging = AGING;
+
+    public HeavyHitters(final int counters) {
+        this.ids = new long[counters];
+        this.counts = new long[counters];
+    }
+
+    public void record(final long id) {
+        int min = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id && counts[i] != 0) {
+                min = i;
+                break;
+            }
+            if (counts[i] < counts[min])
+                min = i;
+        }
+        ids[min] = id;
+        counts[min]++;
+        window++;
+        records++;
+
+        if (--untilAging == 0) {
+            untilAging = AGING;
+            window >>= 1;
+            for (int i = 0; i < counts.length; i++)
+                counts[i] >>= 1;
+        }
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return - the id with the greatest count, or 0 if there weren`t records
+     */
+    public long getHottest() {
+        int max = 0;
+        for (int i = 1; i < ids.length; i++)
+            if (counts[i] > counts[max])
+                max = i;
+        return ids[max];
+    }
+
+    /**
+     * @return - the estimated part of the recent stream which the id is, from 0 to 1
+     */
+    public double getShare(final long id) {
+        final long total = window;
+        for (int i = 0; i < ids.length; i++)
+            if (ids[i] == id && counts[i] != 0)
+                return total == 0 ? 0 : Math.min(1, (double) counts[i] / total);
+        return 0;
+    }
+}
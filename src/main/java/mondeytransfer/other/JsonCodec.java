@@ -0,0 +1,106 @@
+package mondeytransfer.other;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The only JSON codec of the app. Readers and writers are created once for each class and reused (they are
+ * immutable and thread-safe), so a request doesn`t look up serializers or create an {@link ObjectMapper}.
+ * <p>
+ * A body is parsed straight from the bytes of its {@link Buffer} (not from a String copy of it), and a value is
+ * written straight into a {@link Buffer} which goes to the response as it is.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public final class JsonCodec {
+    private final static ObjectMapper MAPPER = new ObjectMapper()
+            .configure(JsonParser.Feature.ALLOW_COMMENTS, true); // as io.vertx.core.json.Json
+    private final static Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private final static Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private JsonCodec() {
+    }
+
+    /**
+     * @throws IOException - if the body isn`t JSON of the type or it is empty
+     */
+    public static <T> T decode(final Buffer body, final Class<T> type) throws IOException {
+        return reader(type).readValue(new ByteBufInputStream(body.getByteBuf())); // a view of the same bytes
+    }
+
+    /**
+     * @return - values of a JSON array or of values one after another (e.g. NDJSON), they are parsed one by one
+     */
+    public static <T> MappingIterator<T> decodeValues(final Buffer body, final Class<T> type) throws IOException {
+        return reader(type).readValues(new ByteBufInputStream(body.getByteBuf()));
+    }
+
+    public static Buffer encode(final Object value) {
+        return encode(Buffer.buffer(128), value);
+    }
+
+    /**
+     * Append the value to the buffer
+     *
+     * @return - the same buffer
+     */
+    public static Buffer encode(final Buffer buffer, final Object value) {
+        try {
+            writer(value.getClass()).writeValue(new BufferOutputStream(buffer), value);
+        } catch (IOException e) { // only a value which can`t be serialized, the buffer can`t fail
+            throw new UncheckedIOException(e);
+        }
+        return buffer;
+    }
+
+    /**
+     * For small values, e.g. errors
+     */
+    public static String encodeToString(final Object value) {
+        try {
+            return writer(value.getClass()).writeValueAsString(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ObjectReader reader(final Class<?> type) {
+        return READERS.computeIfAbsent(type, MAPPER::reader);
+    }
+
+    private static ObjectWriter writer(final Class<?> type) {
+        return WRITERS.computeIfAbsent(type, MAPPER::writerFor);
+    }
+
+    /**
+     * Jackson writes through its own buffer, so the stream gets chunks of bytes, not single bytes
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private final Buffer buffer;
+
+        private BufferOutputStream(final Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(final int b) {
+            buffer.appendByte((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            buffer.appendBytes(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package mondeytransfer.other;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free log-linear histogram of durations in nanoseconds, like HdrHistogram with 3 significant bits: each power
+ * of two is split into 8 linear buckets, so a value is kept with the error up to 12.5% and the whole range
+ * (up to ~18 minutes) takes ~300 counters.
+ * <p>
+ * {@link LatencyHistogram#record(long)} doesn`t allocate anything and doesn`t lock, so it is for hot paths.
+ * Readers see a consistent enough picture for monitoring, but not an atomic snapshot.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class LatencyHistogram {
+    private final static int SUB_BITS = 3, SUB = 1 << SUB_BITS;
+    private final static int MAX_EXPONENT = 40; // 2^40 ns
+    private final static int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB + 1; // the last one is for greater values
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(final long nanos) {
+        final long value = nanos < 0 ? 0 : nanos; // System.nanoTime() of different threads
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return - the number of values which are not greater than the bound (up to the precision of buckets)
+     */
+    public long countAtOrBelow(final long nanos) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS && upperBound(i) <= nanos; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * @param percentile - from 0 to 100
+     * @return - the upper bound of the bucket with the percentile, 0 if there aren`t values
+     */
+    public long valueAtPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += snapshot[i] = counts.get(i);
+        if (total == 0)
+            return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += snapshot[i];
+            if (count >= rank)
+                return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int index(final long value) {
+        if (value < SUB)
+            return (int) value;
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT)
+            return BUCKETS - 1;
+
+        return (exponent - SUB_BITS + 1) * SUB + (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+    }
+
+    /**
+     * @return - the max value of the bucket
+     */
+    static long upperBound(final int index) {
+        if (index < SUB)
+            return index;
+        if (index == BUCKETS - 1)
+            return Long.MAX_VALUE;
+
+        final int exponent = index / SUB + SUB_BITS - 1;
+        final long sub = index % SUB;
+        return (1L << exponent) + ((sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
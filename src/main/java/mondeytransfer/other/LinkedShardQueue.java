@@ -0,0 +1,70 @@
+package mondeytransfer.other;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * {@link ShardQueue} on a {@link LinkedBlockingQueue}. It allocates a node per element and takes a lock per put/take,
+ * so it is only a fallback for {@link MpscRingBuffer}
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class LinkedShardQueue<E> implements ShardQueue<E> {
+    private final LinkedBlockingQueue<E> queue;
+    private final int capacity;
+
+    public LinkedShardQueue(final int capacity) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        return queue.offer(e);
+    }
+
+    /**
+     * It takes the lock for each element
+     */
+    @Override
+    public int offerAll(final List<? extends E> elements) {
+        int added = 0;
+        while (added < elements.size() && queue.offer(elements.get(added)))
+            added++;
+
+        return added;
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        queue.put(e);
+    }
+
+    @Override
+    public E poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * It takes the lock once for all elements
+     */
+    @Override
+    public int drainTo(final List<? super E> sink, final int max) {
+        return queue.drainTo(sink, max);
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,95 @@
+package mondeytransfer.other;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point money: an amount is a long of minor units with the scale of the currency (e.g. 1050 with the scale 2 is
+ * 10.50). The engine keeps and moves only units, so a transfer doesn`t allocate and compare BigDecimal. Amounts are
+ * converted only at the API boundary: {@link Money#toUnits(BigDecimal, int)} or {@link Money#parse(CharSequence, int)}
+ * for requests and {@link Money#toDecimal(long, int)} for responses, the journal and the history.
+ * <p>
+ * Conversions are exact: an amount with more digits after the point than the scale (not zeros) or out of the range of
+ * a long is rejected, it is never rounded.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public final class Money {
+    public static final int MAX_SCALE = 18; // 10^18 is the greatest power of ten in a long
+
+    private static final long[] POWERS = new long[MAX_SCALE + 1];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++)
+            POWERS[i] = POWERS[i - 1] * 10;
+    }
+
+    private Money() {
+    }
+
+    /**
+     * @throws IllegalArgumentException - if the scale isn`t in [0, {@link Money#MAX_SCALE}]
+     */
+    public static int checkScale(final int scale) {
+        if (scale < 0 || scale > MAX_SCALE)
+            throw new IllegalArgumentException("Incorrect scale " + scale);
+        return scale;
+    }
+
+    /**
+     * Parse the textual form of a JSON number or string ("10", "10.5", "-0.01", "1e3") without BigDecimal for plain
+     * numbers
+     *
+     * @throws NumberFormatException - if it isn`t a number
+     * @throws ArithmeticException   - if it has more digits after the point than the scale or it is too big
+     */
+    public static long parse(final CharSequence value, final int scale) {
+        final int length = value.length();
+        int i = 0;
+        final boolean negative = length > 0 && value.charAt(0) == '-';
+        if (negative || length > 0 && value.charAt(0) == '+')
+            i++;
+
+        long units = 0; // negative while parsed, Long.MIN_VALUE has no positive pair
+        int fraction = -1; // digits after the point, -1 before the point
+        boolean digits = false;
+        for (; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+                continue;
+            }
+            if (c == 'e' || c == 'E')
+                return toUnits(new BigDecimal(value.toString()), scale); // rare, it isn`t worth a parser
+            if (c < '0' || c > '9')
+                throw new NumberFormatException("Incorrect amount " + value);
+
+            digits = true;
+            if (fraction >= 0 && ++fraction > scale) {
+                if (c != '0')
+                    throw new ArithmeticException("The amount " + value + " has more than " + scale + " digits after the point");
+                continue;
+            }
+            units = Math.subtractExact(Math.multiplyExact(units, 10), c - '0');
+        }
+        if (!digits)
+            throw new NumberFormatException("Incorrect amount " + value);
+
+        units = Math.multiplyExact(units, POWERS[scale - Math.min(Math.max(fraction, 0), scale)]);
+        return negative ? units : Math.negateExact(units);
+    }
+
+    /**
+     * @throws ArithmeticException - if the value has more digits after the point than the scale or it is too big
+     */
+    public static long toUnits(final BigDecimal value, final int scale) {
+        if (value.scale() == scale)
+            return value.unscaledValue().longValueExact();
+
+        return value.setScale(scale).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toDecimal(final long units, final int scale) {
+        return BigDecimal.valueOf(units, scale);
+    }
+}
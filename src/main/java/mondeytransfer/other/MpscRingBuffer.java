@@ -0,0 +1,181 @@
+package mondeytransfer.other;
+
+import mondeytransfer.enums.WaitStrategyEnum;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free multi-producer/single-consumer ring buffer (the D. Vyukov`s bounded queue).
+ * <p>
+ * All slots are allocated in the constructor, so put/take don`t allocate anything, unlike {@link LinkedShardQueue}.
+ * Each slot has its own sequence: a producer claims a slot by CAS on {@link MpscRingBuffer#tail} and publishes
+ * an element by the release-write of the slot sequence; the single consumer reads the sequence and never
+ * CAS-es. The head and the tail are padded to separate cache lines.
+ * <p>
+ * Blocking {@link MpscRingBuffer#put(Object)} and {@link MpscRingBuffer#take()} wait by {@link WaitStrategyEnum}.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class MpscRingBuffer<E> implements ShardQueue<E> {
+    private final Object[] buffer;
+    /**
+     * sequences[i] == position: the slot is free for the producer of the position;
+     * sequences[i] == position + 1: the slot holds the element of the position for the consumer
+     */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final WaitStrategyEnum waitStrategy;
+
+    private final PaddedAtomicLong tail = new PaddedAtomicLong(0L); // the next position for producers
+    private final PaddedAtomicLong head = new PaddedAtomicLong(0L); // the next position for the consumer
+
+    /**
+     * @param capacity - is rounded up to a power of two
+     */
+    public MpscRingBuffer(final int capacity, final WaitStrategyEnum waitStrategy) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Incorrect capacity " + capacity);
+
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.lazySet(i, i);
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        if (e == null)
+            throw new NullPointerException();
+
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            final long diff = sequences.get(index) - position;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+                position = tail.get();
+            } else if (diff < 0) { // the consumer hasn`t freed the slot yet, so the buffer is full
+                return false;
+            } else { // another producer has claimed the position
+                position = tail.get();
+            }
+        }
+
+        buffer[index] = e;
+        sequences.lazySet(index, position + 1); // publish
+        return true;
+    }
+
+    /**
+     * Claim slots for all elements (or for as many as there are free) by one CAS, so a batch doesn`t contend with other
+     * producers for each element. The consumer frees slots in order and {@link MpscRingBuffer#head} is moved after
+     * the slot has been freed, so all slots before the head of the next lap are free.
+     */
+    @Override
+    public int offerAll(final List<? extends E> elements) {
+        for (E e : elements) // a claimed slot must be published
+            if (e == null)
+                throw new NullPointerException();
+
+        long position;
+        int count;
+        while (true) {
+            position = tail.get();
+            count = (int) Math.min(elements.size(), buffer.length - (position - head.get()));
+            if (count <= 0)
+                return 0;
+            if (tail.compareAndSet(position, position + count))
+                break;
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int index = (int) (position + i) & mask;
+            buffer[index] = elements.get(i);
+            sequences.lazySet(index, position + i + 1); // publish
+        }
+        return count;
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        int counter = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            counter = waitStrategy.idle(counter);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long position = head.get();
+        final int index = (int) position & mask;
+
+        if (sequences.get(index) != position + 1) // not published yet
+            return null;
+
+        final E e = (E) buffer[index];
+        buffer[index] = null;
+        sequences.lazySet(index, position + mask + 1); // free the slot for the next lap
+        head.lazySet(position + 1);
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        int counter = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            counter = waitStrategy.idle(counter);
+        }
+
+        return e;
+    }
+
+    /**
+     * Take published elements in order until the first unpublished one and move the head once, so producers see
+     * the freed slots together
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int drainTo(final List<? super E> sink, final int max) {
+        final long position = head.get();
+        int count = 0;
+        while (count < max) {
+            final int index = (int) (position + count) & mask;
+            if (sequences.get(index) != position + count + 1) // not published yet
+                break;
+
+            sink.add((E) buffer[index]);
+            buffer[index] = null;
+            sequences.lazySet(index, position + count + mask + 1); // free the slot for the next lap
+            count++;
+        }
+
+        if (count != 0)
+            head.lazySet(position + count);
+        return count;
+    }
+
+    @Override
+    public int size() {
+        final long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, buffer.length);
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,18 @@
+package mondeytransfer.other;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link AtomicLong} which fills the rest of its cache line, so two hot counters written by different threads
+ * (e.g. the head and the tail of {@link MpscRingBuffer}) don`t invalidate each other (false sharing)
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class PaddedAtomicLong extends AtomicLong {
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    public PaddedAtomicLong(final long initialValue) {
+        super(initialValue);
+    }
+}
@@ -0,0 +1,76 @@
+package mondeytransfer.other;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets of many keys (clients, senders) by the generic cell rate algorithm: a bucket is one long, the time
+ * when it will be full again (the theoretical arrival time). A request takes tokens by moving the time forward, it is
+ * rejected if the time would be ahead of now more than the burst. So a check is a read and a CAS, it doesn`t lock or
+ * allocate anything, and there isn`t a thread which refills buckets.
+ * <p>
+ * Buckets are a fixed table, a key takes the bucket of its hash. The memory doesn`t depend on the number of keys, but
+ * keys of the same bucket share its rate, so the table should be much bigger than the number of active keys.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class RateLimiter {
+    private final static long SECOND = 1_000_000_000L;
+
+    private final long interval; // nanos per token
+    private final long tolerance; // how far the time can be ahead of now, it is the burst
+    private final long origin = System.nanoTime(); // times are from it, so an empty bucket (0) is full
+    private final AtomicLongArray buckets;
+    private final int mask;
+
+    /**
+     * @param perSecond - tokens which are added to a bucket per second
+     * @param burst     - tokens of a full bucket, at least 1
+     * @param buckets   - the size of the table, it is rounded up to a power of two
+     */
+    public RateLimiter(final double perSecond, final int burst, final int buckets) {
+        if (perSecond <= 0 || burst < 1 || buckets < 1)
+            throw new IllegalArgumentException("Incorrect rate limit " + perSecond + "/s, burst " + burst);
+
+        this.interval = Math.max(1, (long) (SECOND / perSecond));
+        this.tolerance = interval * burst;
+        final int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+        this.buckets = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param permits - tokens of the request, at least 1
+     * @return - 0 if the tokens have been taken, else nanos until the bucket will have them
+     */
+    public long tryAcquire(final long key, final int permits) {
+        return tryAcquire(key, permits, System.nanoTime() - origin);
+    }
+
+    /**
+     * @param now - nanos from {@link RateLimiter#origin}, for tests
+     */
+    long tryAcquire(final long key, final int permits, final long now) {
+        final int bucket = index(key);
+        while (true) {
+            final long current = buckets.get(bucket);
+            final long next = Math.max(current, now) + interval * permits;
+            if (next - now > tolerance)
+                return next - now - tolerance;
+            if (buckets.compareAndSet(bucket, current, next))
+                return 0;
+        }
+    }
+
+    /**
+     * @return - seconds for Retry-After, at least 1
+     */
+    public static int toSeconds(final long nanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (nanos + SECOND - 1) / SECOND));
+    }
+
+    private int index(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L; // spread sequential ids and hashes of strings
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+}
@@ -0,0 +1,30 @@
+package mondeytransfer.other;
+
+/**
+ * A transaction which hasn`t been accepted by {@link mondeytransfer.service.TransactionsService}
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class RejectedTransactionException extends RuntimeException {
+    /**
+     * in seconds, null if the transaction is incorrect and it doesn`t make sense to repeat it
+     */
+    private final Integer retryAfter;
+
+    public RejectedTransactionException(final String msg) {
+        this(msg, null);
+    }
+
+    public RejectedTransactionException(final String msg, final Integer retryAfter) {
+        super(msg, null, false, false); // a business error, so don`t fill a stack trace
+        this.retryAfter = retryAfter;
+    }
+
+    public Integer getRetryAfter() {
+        return retryAfter;
+    }
+
+    public boolean isRetryable() {
+        return retryAfter != null;
+    }
+}
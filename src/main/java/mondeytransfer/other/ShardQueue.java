@@ -0,0 +1,49 @@
+package mondeytransfer.other;
+
+import java.util.List;
+
+/**
+ * A bounded queue of a shard. Many threads put into it, but only one thread of the shard takes from it.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public interface ShardQueue<E> {
+
+    /**
+     * @return - false if the queue is full
+     */
+    boolean offer(E e);
+
+    /**
+     * Add elements from the beginning of the list while there is a free place
+     *
+     * @return - the number of added elements
+     */
+    int offerAll(List<? extends E> elements);
+
+    /**
+     * Block and wait, if the queue is full
+     */
+    void put(E e) throws InterruptedException;
+
+    /**
+     * @return - null if the queue is empty. Only for the consumer thread
+     */
+    E poll();
+
+    /**
+     * Block and wait, if the queue is empty. Only for the consumer thread
+     */
+    E take() throws InterruptedException;
+
+    /**
+     * Move up to max elements from the head of the queue to the end of the list. Only for the consumer thread
+     *
+     * @return - the number of moved elements, 0 if the queue is empty
+     */
+    int drainTo(List<? super E> sink, int max);
+
+    int size();
+
+    int capacity();
+}
@@ -0,0 +1,95 @@
+package mondeytransfer.service;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+import mondeytransfer.other.RateLimiter;
+
+import static java.util.Objects.isNull;
+import static mondeytransfer.enums.ConfigKeys.LOAD_SHEDDING_QUEUE_FILL;
+import static mondeytransfer.enums.ConfigKeys.RATE_LIMIT_BUCKETS;
+import static mondeytransfer.enums.ConfigKeys.RATE_LIMIT_CLIENT;
+import static mondeytransfer.enums.ConfigKeys.RATE_LIMIT_CLIENT_BURST;
+import static mondeytransfer.enums.ConfigKeys.RATE_LIMIT_SENDER;
+import static mondeytransfer.enums.ConfigKeys.RATE_LIMIT_SENDER_BURST;
+
+/**
+ * Admission of requests before they are parsed and validated, so one client can`t fill shard queues and take them
+ * from others, and an overloaded node answers at once instead of keeping requests until they time out:
+ * <ol>
+ * <li>load shedding - transactions are rejected while shards are filled over the threshold (queues of new transactions
+ * and of credits), the average of all shards for any transaction and the shard of the sender for a single one</li>
+ * <li>a token bucket of each client (an API key or an address) for its requests</li>
+ * <li>a token bucket of each sender for its transactions</li>
+ * </ol>
+ * Buckets are {@link RateLimiter}, a check doesn`t lock or allocate anything. The queue depth is read live. One
+ * instance is shared by all HTTP verticles, so a client has the same buckets on each event loop.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class AdmissionControl implements Shareable {
+    public final static int DEFAULT_RATE_LIMIT_BUCKETS = 65_536;
+    public final static double DEFAULT_LOAD_SHEDDING_QUEUE_FILL = 0.9;
+
+    private final TransactionsService TS;
+    private final RateLimiter CLIENTS; // null if it is off
+    private final RateLimiter SENDERS; // null if it is off
+    private final double SHEDDING_FILL; // 1 - only a full queue rejects transactions
+
+    public AdmissionControl(final TransactionsService ts, final JsonObject config) {
+        this.TS = ts;
+        final int buckets = config.getInteger(RATE_LIMIT_BUCKETS, DEFAULT_RATE_LIMIT_BUCKETS);
+        this.CLIENTS = limiter(config.getDouble(RATE_LIMIT_CLIENT, 0.0), config.getInteger(RATE_LIMIT_CLIENT_BURST, 0),
+                buckets);
+        this.SENDERS = limiter(config.getDouble(RATE_LIMIT_SENDER, 0.0), config.getInteger(RATE_LIMIT_SENDER_BURST, 0),
+                buckets);
+        this.SHEDDING_FILL = config.getDouble(LOAD_SHEDDING_QUEUE_FILL, DEFAULT_LOAD_SHEDDING_QUEUE_FILL);
+    }
+
+    /**
+     * @return - true if shard queues are too full for new transactions
+     */
+    public boolean isOverloaded() {
+        return SHEDDING_FILL < 1 && TS.getQueueFill() >= SHEDDING_FILL;
+    }
+
+    /**
+     * @return - true if the shard queue of the sender is too full for its new transaction
+     */
+    public boolean isOverloaded(final long fromId) {
+        return SHEDDING_FILL < 1 && TS.isLocal(fromId) && TS.getQueueFill(fromId) >= SHEDDING_FILL;
+    }
+
+    /**
+     * @param client - an API key or an address of the client
+     * @return - 0 if the request is admitted, else nanos until the client can repeat it
+     */
+    public long admitClient(final String client) {
+        return isNull(CLIENTS) ? 0 : CLIENTS.tryAcquire(hash(client), 1);
+    }
+
+    /**
+     * @return - 0 if the transaction is admitted, else nanos until the sender can repeat it
+     */
+    public long admitSender(final long fromId) {
+        return isNull(SENDERS) ? 0 : SENDERS.tryAcquire(fromId, 1);
+    }
+
+    /**
+     * @param perSecond - 0 is off
+     * @param burst     - 0 is a second of the rate
+     */
+    private static RateLimiter limiter(final double perSecond, final int burst, final int buckets) {
+        return perSecond <= 0 ? null
+                : new RateLimiter(perSecond, burst > 0 ? burst : (int) Math.max(1, Math.ceil(perSecond)), buckets);
+    }
+
+    /**
+     * 64 bits of a key, so different keys rarely share a bucket
+     */
+    private static long hash(final String key) {
+        long h = 1125899906842597L;
+        for (int i = 0; i < key.length(); i++)
+            h = 31 * h + key.charAt(i);
+        return h;
+    }
+}
@@ -0,0 +1,365 @@
+package mondeytransfer.service;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Shareable;
+import mondeytransfer.dto.HistoryPageDto;
+import mondeytransfer.dto.StatusDto;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.TransferResultEnum;
+import mondeytransfer.other.JsonCodec;
+import mondeytransfer.other.RejectedTransactionException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.util.Objects.isNull;
+import static mondeytransfer.dto.ErrorResponseDto.printError;
+import static mondeytransfer.enums.ConfigKeys.CLUSTER_NODE;
+import static mondeytransfer.enums.ConfigKeys.CLUSTER_TIMEOUT;
+import static mondeytransfer.enums.ConfigKeys.QUEUE_RETRY_AFTER;
+import static mondeytransfer.enums.Messages.INCORRECT_DATA;
+import static mondeytransfer.enums.Messages.NODE_IS_UNAVAILABLE;
+import static mondeytransfer.enums.Messages.UNKNOWN_HISTORY_CURSOR;
+import static mondeytransfer.enums.Routes.CREATE_A_NEW_USER;
+import static mondeytransfer.enums.Routes.GET_BY_ID;
+import static mondeytransfer.enums.Routes.GET_HISTORY;
+import static mondeytransfer.enums.Routes.GET_STATUS;
+import static mondeytransfer.enums.Routes.SEND_TRANSACTION;
+
+/**
+ * The link of the engine to other nodes of the cluster by the clustered event bus. A user is kept only by its node
+ * ({@link TransactionsService#getNode(long)}), so:
+ * <ul>
+ * <li>a request about a user of another node is sent to that node and its answer is returned as is (it is the body of
+ * the HTTP response);</li>
+ * <li>a transfer to a user of another node has two phases: the shard of the sender takes the money and sends the
+ * credit to the node of the receiver, which answers with the result of the credit; then the shard of the sender
+ * makes the status or gives the money back (see {@link mondeytransfer.enums.TransferPhaseEnum#CONFIRM}).</li>
+ * </ul>
+ * A credit without an answer (the node is down or the answer is lost) is sent again until it is answered, with a
+ * growing delay, so the node of the receiver keeps results of credits by UUIDs and never adds the same one twice. A
+ * success credit is answered after its CREDITED record, and the replay gives it back after a restart (see
+ * {@link TransactionsService#getUnconfirmedCredits()}). A result is kept until the node of the sender has written the
+ * transfer and confirmed it ({@link ClusterService#CONFIRM}), then the credit can`t be repeated. The debit of the
+ * sender is in the journal of its node before the credit is sent, so a restart of that node repeats only the credit.
+ * <p>
+ * Each node listens to {@link ClusterService#ADDRESS} with its number. Requests can be sent from any event loop,
+ * credits and their results are treated on the context of the service only, so its maps aren`t synchronized.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class ClusterService implements RemoteNodes, Shareable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(ClusterService.class);
+    public final static String ADDRESS = "mondeytransfer.node.";
+    public final static long DEFAULT_TIMEOUT = 5_000L; // in milliseconds
+    final static String ACTION = "action", IDEMPOTENCY_KEY = "key", CREDIT = "credit", CONFIRM = "confirm";
+    private final static int NOT_RETRYABLE = -1; // the failure code of a rejection which mustn`t be repeated
+    private final static long MAX_RETRY_DELAY = 60_000L; // in milliseconds, for credits and confirmations
+
+    private final Vertx vertx;
+    private final Context context;
+    private final TransactionsService TS;
+    private final int NODE;
+    private final long TIMEOUT;
+    private final int RETRY_AFTER;
+    private final MessageConsumer<String> consumer;
+
+    private final Map<UUID, Message<String>> crediting = new HashMap<>(); // credits from other nodes in shards
+    private final Map<UUID, TransferResultEnum> credited = new HashMap<>(); // results of credits until confirmations
+
+    /**
+     * It must be created on an event loop, which becomes the context of the service
+     */
+    public ClusterService(final Vertx vertx, final TransactionsService ts, final JsonObject config) {
+        this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
+        this.TS = ts;
+        this.NODE = config.getInteger(CLUSTER_NODE, 0);
+        this.TIMEOUT = config.getLong(CLUSTER_TIMEOUT, DEFAULT_TIMEOUT);
+        this.RETRY_AFTER = config.getInteger(QUEUE_RETRY_AFTER, TransactionsService.DEFAULT_RETRY_AFTER);
+        for (UUID id : ts.getUnconfirmedCredits())
+            credited.put(id, TransferResultEnum.SUCCESS);
+
+        this.consumer = vertx.eventBus().consumer(ADDRESS + NODE, this::handle);
+        ts.setRemote(this);
+    }
+
+    /**
+     * @return - a future with the answer of the node of the sender, see
+     * {@link TransactionsService#submitTransaction(TransactionDto, String)}
+     */
+    public Future<String> submitTransaction(final TransactionDto td, final String idempotencyKey) {
+        final DeliveryOptions options = options(SEND_TRANSACTION);
+        if (!isNull(idempotencyKey))
+            options.addHeader(IDEMPOTENCY_KEY, idempotencyKey);
+        return request(TS.getNode(td.getFromId()), JsonCodec.encodeToString(td), options);
+    }
+
+    /**
+     * @return - a future with an error if the user exists else with null, see {@link TransactionsService#addOne(UserDto)}
+     */
+    public Future<String> addOne(final UserDto user) {
+        return request(TS.getNode(user.getId()), JsonCodec.encodeToString(user), options(CREATE_A_NEW_USER));
+    }
+
+    /**
+     * @return - a future with the user in JSON, or with null if it hasn`t existed
+     */
+    public Future<String> getById(final long id) {
+        return request(TS.getNode(id), String.valueOf(id), options(GET_BY_ID));
+    }
+
+    /**
+     * @return - a future with the page of the history in JSON, or with null if the user hasn`t existed. It fails
+     * without Retry-After if the cursor is wrong
+     */
+    public Future<String> getHistory(final long id, final Long from, final int limit) {
+        final JsonObject query = new JsonObject().put("id", id).put("from", from).put("limit", limit);
+        return request(TS.getNode(id), query.encode(), options(GET_HISTORY));
+    }
+
+    /**
+     * A status is kept by the node of the sender, but a UUID doesn`t say which one it is, so other nodes are asked in
+     * turn
+     *
+     * @return - a future with the status in JSON, or with null if no node has it
+     */
+    public Future<String> getStatus(final UUID uuid) {
+        final Future<String> found = Future.future();
+        getStatus(uuid, 0, null, found);
+        return found;
+    }
+
+    private void getStatus(final UUID uuid, final int from, final Throwable failure, final Future<String> found) {
+        final int node = from == NODE ? from + 1 : from;
+        if (node >= TS.getNodes()) {
+            if (isNull(failure))
+                found.complete();
+            else
+                found.fail(failure); // it can be on the node which hasn`t answered
+            return;
+        }
+
+        request(node, uuid.toString(), options(GET_STATUS)).setHandler(ar -> {
+            if (ar.succeeded() && !isNull(ar.result()))
+                found.complete(ar.result());
+            else
+                getStatus(uuid, node + 1, ar.failed() ? ar.cause() : failure, found);
+        });
+    }
+
+    /**
+     * Only for shard workers, the credit is sent from the context of the service
+     */
+    @Override
+    public void credit(final TransactionDto op) {
+        context.runOnContext(v -> sendCredit(op));
+    }
+
+    /**
+     * Only for shard workers, the result is sent from the context of the service
+     */
+    @Override
+    public void credited(final TransactionDto op) {
+        context.runOnContext(v -> {
+            credited.put(op.getTransactionId(), op.getResult());
+            final Message<String> message = crediting.remove(op.getTransactionId());
+            if (!isNull(message))
+                message.reply(op.getResult().name());
+        });
+    }
+
+    /**
+     * Only for shard workers, the confirmation is sent from the context of the service
+     */
+    @Override
+    public void confirmed(final TransactionDto op) {
+        context.runOnContext(v -> sendUntilAnswered(CONFIRM, TS.getNode(op.getToId()),
+                op.getTransactionId().toString(), op.getTransactionId(), 0, answer -> {
+                }));
+    }
+
+    public void close() {
+        consumer.unregister();
+    }
+
+    private void sendCredit(final TransactionDto op) {
+        sendUntilAnswered(CREDIT, TS.getNode(op.getToId()), JsonCodec.encodeToString(op), op.getTransactionId(), 0,
+                answer -> TS.credited(op, TransferResultEnum.valueOf(answer.body())));
+    }
+
+    /**
+     * The money has been taken, so a credit or a confirmation can`t be dropped. It is sent again after the timeout,
+     * then the delay is doubled up to {@link ClusterService#MAX_RETRY_DELAY}, so a node which is down isn`t flooded
+     *
+     * @param attempt - from 0
+     */
+    private void sendUntilAnswered(final String action, final int node, final String body, final UUID transactionId,
+                                   final int attempt, final Handler<Message<String>> onAnswer) {
+        vertx.eventBus().<String>send(ADDRESS + node, body, options(action), ar -> {
+            if (ar.succeeded()) {
+                onAnswer.handle(ar.result());
+                return;
+            }
+
+            final long delay = Math.min(TIMEOUT << Math.min(attempt, 16), MAX_RETRY_DELAY);
+            TS.getMetrics().clusterRetried();
+            LOGGER.warn("The {0} of the transaction {1} hasn`t been answered by the node {2}, attempt={3}, " +
+                    "the next one in {4}ms, reason=''{5}''", action, transactionId, node, attempt + 1, delay,
+                    ar.cause().getMessage());
+            vertx.setTimer(delay, id -> sendUntilAnswered(action, node, body, transactionId, attempt + 1, onAnswer));
+        });
+    }
+
+    private Future<String> request(final int node, final String body, final DeliveryOptions options) {
+        final Future<String> answer = Future.future();
+        vertx.eventBus().<String>send(ADDRESS + node, body, options, ar -> {
+            if (ar.succeeded())
+                answer.complete(ar.result().body());
+            else
+                answer.fail(rejected(node, ar.cause()));
+        });
+        return answer;
+    }
+
+    /**
+     * @return - the rejection of the other node, or a retryable one if the node hasn`t answered
+     */
+    private RejectedTransactionException rejected(final int node, final Throwable cause) {
+        if (cause instanceof ReplyException && ((ReplyException) cause).failureType() == ReplyFailure.RECIPIENT_FAILURE) {
+            final int retryAfter = ((ReplyException) cause).failureCode();
+            return new RejectedTransactionException(cause.getMessage(), retryAfter == NOT_RETRYABLE ? null : retryAfter);
+        }
+
+        LOGGER.warn("The node {0} is unavailable, reason=''{1}''", node, cause.getMessage());
+        return new RejectedTransactionException(printError(NODE_IS_UNAVAILABLE), RETRY_AFTER);
+    }
+
+    private DeliveryOptions options(final String action) {
+        return new DeliveryOptions().setSendTimeout(TIMEOUT).addHeader(ACTION, action);
+    }
+
+    /**
+     * A request from another node
+     */
+    private void handle(final Message<String> message) {
+        try {
+            switch (message.headers().get(ACTION)) {
+                case SEND_TRANSACTION:
+                    final TransactionDto td = JsonCodec.decode(Buffer.buffer(message.body()), TransactionDto.class);
+                    TS.submitTransaction(td, message.headers().get(IDEMPOTENCY_KEY)).setHandler(ar -> {
+                        if (ar.succeeded())
+                            message.reply(JsonCodec.encodeToString(ar.result()));
+                        else
+                            fail(message, ar.cause());
+                    });
+                    break;
+                case CREATE_A_NEW_USER:
+                    TS.addOne(JsonCodec.decode(Buffer.buffer(message.body()), UserDto.class)).setHandler(ar -> {
+                        if (ar.succeeded())
+                            message.reply(ar.result());
+                        else
+                            fail(message, ar.cause());
+                    });
+                    break;
+                case GET_BY_ID:
+                    final UserDto user = TS.getById(Long.valueOf(message.body()));
+                    message.reply(isNull(user) ? null : JsonCodec.encodeToString(user));
+                    break;
+                case GET_HISTORY:
+                    final JsonObject query = new JsonObject(message.body());
+                    try {
+                        final HistoryPageDto page = TS.getHistory(query.getLong("id"), query.getLong("from"),
+                                query.getInteger("limit"));
+                        message.reply(isNull(page) ? null : JsonCodec.encodeToString(page));
+                    } catch (IllegalArgumentException e) {
+                        message.fail(NOT_RETRYABLE, printError(String.format(UNKNOWN_HISTORY_CURSOR,
+                                query.getLong("from"), query.getLong("id"))));
+                    }
+                    break;
+                case GET_STATUS:
+                    final StatusDto status = TS.getStatus(UUID.fromString(message.body()));
+                    message.reply(isNull(status) ? null : JsonCodec.encodeToString(status));
+                    break;
+                case CREDIT:
+                    acceptCredit(message);
+                    break;
+                case CONFIRM:
+                    confirmCredit(message);
+                    break;
+                default:
+                    message.fail(NOT_RETRYABLE, printError(INCORRECT_DATA));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("The request {0} from another node can`t be treated, reason=''{1}''", message.body(), e.getMessage());
+            message.fail(NOT_RETRYABLE, printError(INCORRECT_DATA));
+        }
+    }
+
+    /**
+     * The failure code is Retry-After of the rejection, so the other node answers to the client as this one would
+     */
+    private void fail(final Message<String> message, final Throwable cause) {
+        if (cause instanceof RejectedTransactionException && ((RejectedTransactionException) cause).isRetryable())
+            message.fail(((RejectedTransactionException) cause).getRetryAfter(), cause.getMessage());
+        else
+            message.fail(NOT_RETRYABLE, cause.getMessage());
+    }
+
+    /**
+     * A credit which has been repeated by the other node is treated only once
+     */
+    private void acceptCredit(final Message<String> message) throws IOException {
+        final TransactionDto op = JsonCodec.decode(Buffer.buffer(message.body()), TransactionDto.class);
+        final TransferResultEnum result = credited.get(op.getTransactionId());
+        if (!isNull(result)) {
+            message.reply(result.name());
+            return;
+        }
+
+        if (crediting.put(op.getTransactionId(), message) != null) // it is in a shard, the last message gets the result
+            return;
+
+        if (!TS.acceptCredit(op)) {
+            op.setResult(TransferResultEnum.CORRUPTED);
+            credited(op);
+        }
+    }
+
+    /**
+     * The node of the sender has written the transfer, so the result of the credit is forgotten after its record.
+     * A failed credit hasn`t been journaled, and an unknown one has been forgotten before, they are just answered
+     */
+    private void confirmCredit(final Message<String> message) {
+        final UUID id = UUID.fromString(message.body());
+        if (credited.get(id) != TransferResultEnum.SUCCESS) {
+            credited.remove(id);
+            message.reply(null);
+            return;
+        }
+
+        TS.confirmCredit(id).setHandler(ar -> {
+            if (ar.succeeded()) {
+                credited.remove(id);
+                message.reply(null);
+            } else {
+                fail(message, ar.cause()); // the node of the sender repeats it
+            }
+        });
+    }
+}
@@ -0,0 +1,150 @@
+package mondeytransfer.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Hot accounts (e.g. of merchants) which are split into parts on different shards, so one busy account is changed by
+ * several shard workers at once instead of capping the throughput of its shard. The part 0 is the account itself,
+ * other parts are hidden accounts of the store with reserved ids (see {@link HotAccounts#part(long, int)}), so the
+ * journal, snapshots and the replay keep them like any other account.
+ * <p>
+ * A transfer of a split account takes one part by the hash of its UUID: a credit adds the sum to the part, a debit
+ * takes it from the part, or from the next ones if the part doesn`t have enough money. The balance of the account is
+ * the sum of its parts. Money is moved between parts only by {@link TransactionsService#rebalanceParts()}, as a
+ * transfer through shards of both parts, between {@link Split#beginMove()} and {@link Split#endMove()}, so a read of
+ * all parts which hasn`t seen a move is the exact total. Transactions of a split account aren`t treated in the order of their arrival.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class HotAccounts {
+    public final static int MAX_PARTS = 64;
+    public final static long MAX_ID = 1L << 56; // only accounts from 0 to it can be split
+    public final static long NO_PART = Long.MIN_VALUE; // neither a part nor an account which can be split
+    private final static long RESERVED = Long.MIN_VALUE + MAX_ID * MAX_PARTS; // ids of parts are below it
+
+    private final Map<Long, Split> splits = new ConcurrentHashMap<>();
+
+    /**
+     * @param part - from 0, the part 0 is the account itself
+     */
+    public static long part(final long id, final int part) {
+        return part == 0 ? id : Long.MIN_VALUE + id * MAX_PARTS + part;
+    }
+
+    /**
+     * @return - true if it is a hidden part of a split account, users can`t have such ids
+     */
+    public static boolean isPart(final long id) {
+        return id < RESERVED;
+    }
+
+    /**
+     * @return - the account of the hidden part
+     */
+    public static long owner(final long part) {
+        return (part - Long.MIN_VALUE) / MAX_PARTS;
+    }
+
+    /**
+     * @return - the number of the hidden part
+     */
+    public static int index(final long part) {
+        return (int) ((part - Long.MIN_VALUE) % MAX_PARTS);
+    }
+
+    /**
+     * @return - null if the account isn`t split
+     */
+    public Split get(final long id) {
+        return splits.get(id);
+    }
+
+    public boolean isSplit(final long id) {
+        return splits.containsKey(id);
+    }
+
+    public Collection<Split> getSplits() {
+        return splits.values();
+    }
+
+    /**
+     * @param shards - the shard of each part, the part 0 is routed as the account itself
+     * @return - false if the account is already split
+     */
+    boolean add(final long id, final int[] shards) {
+        return splits.putIfAbsent(id, new Split(id, shards)) == null;
+    }
+
+    /**
+     * @return - the account which a transfer changes: a part of a split account by the UUID, or the account itself
+     */
+    public long account(final long id, final UUID transactionId) {
+        final Split split = splits.get(id);
+        return isNull(split) ? id : part(id, split.first(transactionId));
+    }
+
+    /**
+     * @return - the shard of the hidden part, or -1 if its account isn`t split
+     */
+    public int shard(final long part) {
+        final Split split = splits.get(owner(part));
+        return isNull(split) ? -1 : split.shards[index(part)];
+    }
+
+    public static class Split {
+        private final long id;
+        private final int[] shards;
+        private final AtomicLong moves = new AtomicLong(); // odd while money is moved between parts
+
+        private Split(final long id, final int[] shards) {
+            this.id = id;
+            this.shards = shards;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getParts() {
+            return shards.length;
+        }
+
+        /**
+         * @return - the part for the first try of a debit or for a credit
+         */
+        int first(final UUID transactionId) {
+            return (int) Math.floorMod(transactionId.getLeastSignificantBits() ^ transactionId.getMostSignificantBits(),
+                    (long) shards.length);
+        }
+
+        /**
+         * @param account - the part which doesn`t have enough money for the debit
+         * @return - the next part to try, or {@link HotAccounts#NO_PART} if all parts have been tried
+         */
+        long next(final long account, final UUID transactionId) {
+            final int next = ((account == id ? 0 : index(account)) + 1) % shards.length;
+            return next == first(transactionId) ? NO_PART : part(id, next);
+        }
+
+        /**
+         * @return - the counter of moves, see {@link Split#beginMove()}
+         */
+        public long getMoves() {
+            return moves.get();
+        }
+
+        void beginMove() {
+            moves.incrementAndGet();
+        }
+
+        void endMove() {
+            moves.incrementAndGet();
+        }
+    }
+}
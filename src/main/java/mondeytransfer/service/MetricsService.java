@@ -0,0 +1,248 @@
+package mondeytransfer.service;
+
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.other.LatencyHistogram;
+import mondeytransfer.other.ShardQueue;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the app in the Prometheus text format (see {@link MetricsService#render}).
+ * <p>
+ * Recording is cheap and doesn`t allocate anything: counters are {@link LongAdder} (striped, so threads don`t contend
+ * for a cache line), latencies go to {@link LatencyHistogram}. Each shard has its own metrics, which are written only
+ * by its worker. All work (formatting, sums of buckets) is done by a scrape.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class MetricsService {
+    public final static int REJECTED_BY_VALIDATION = 0, REJECTED_BY_SHARD = 1, REJECTED_BY_JOURNAL = 2,
+            REJECTED_BY_RATE_LIMIT = 3, REJECTED_BY_LOAD_SHEDDING = 4;
+    private final static String[] REJECT_REASONS = {"validation", "shard_saturated", "journal_saturated", "rate_limited",
+            "load_shedding"};
+    private final static String[] CODE_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+    private final static String OTHER_ROUTE = "other";
+
+    /**
+     * Upper bounds of histogram buckets for a scrape, in seconds
+     */
+    private final static double[] BOUNDS = {
+            0.00001, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5,
+            5, 10
+    };
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder migrations = new LongAdder();
+    private final LongAdder clusterRetries = new LongAdder();
+    private final LongAdder[] rejected = adders(REJECT_REASONS.length);
+    private final ShardMetrics[] shards;
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+    /**
+     * @param shards - the number of shards
+     */
+    public MetricsService(final int shards) {
+        this.shards = new ShardMetrics[shards];
+        for (int i = 0; i < shards; i++)
+            this.shards[i] = new ShardMetrics();
+
+        this.routes.put(OTHER_ROUTE, new RouteMetrics());
+    }
+
+    /**
+     * Requests of paths which haven`t been registered are counted together, so a scan of random urls doesn`t make new
+     * series
+     *
+     * @param path - a path of an HTTP route
+     */
+    public void route(final String path) {
+        routes.putIfAbsent(path, new RouteMetrics());
+    }
+
+    public void accepted() {
+        accepted.increment();
+    }
+
+    public void accepted(final int count) {
+        accepted.add(count);
+    }
+
+    /**
+     * A repeated request with an idempotency key has got the transaction which had been accepted before
+     */
+    public void replayed() {
+        replayed.increment();
+    }
+
+    /**
+     * @param reason - {@link MetricsService#REJECTED_BY_VALIDATION} etc.
+     */
+    public void rejected(final int reason) {
+        rejected[reason].increment();
+    }
+
+    /**
+     * An account has been moved to another shard
+     */
+    public void migrated() {
+        migrations.increment();
+    }
+
+    /**
+     * A credit or a confirmation hasn`t been answered by another node and it is sent again
+     */
+    public void clusterRetried() {
+        clusterRetries.increment();
+    }
+
+    public ShardMetrics shard(final int shard) {
+        return shards[shard];
+    }
+
+    public void httpRequest(final String path, final int statusCode, final long nanos) {
+        RouteMetrics route = routes.get(path);
+        if (route == null)
+            route = routes.get(OTHER_ROUTE);
+
+        final int codeClass = statusCode / 100 - 1;
+        route.requests[codeClass < 0 || codeClass >= CODE_CLASSES.length ? CODE_CLASSES.length - 1 : codeClass].increment();
+        route.latency.record(nanos);
+    }
+
+    /**
+     * @param queues  - shard queues by shards for gauges of their depth
+     * @param halves  - halves of transfers which wait for each shard, in its credit queue and in its spill
+     * @param spilled - halves which wait in the spill of each shard
+     */
+    public String render(final Map<Integer, ShardQueue<TransactionDto>> queues, final long[] halves,
+                         final long[] spilled) {
+        final StringBuilder sb = new StringBuilder(16_384);
+
+        header(sb, "transactions_accepted_total", "counter", "Transactions which have been sent to shards");
+        sb.append("transactions_accepted_total ").append(accepted.sum()).append('\n');
+
+        header(sb, "transactions_replayed_total", "counter", "Repeated requests which have got an accepted transaction");
+        sb.append("transactions_replayed_total ").append(replayed.sum()).append('\n');
+
+        header(sb, "transactions_rejected_total", "counter", "Transactions which have been rejected before shards");
+        for (int i = 0; i < REJECT_REASONS.length; i++)
+            sb.append("transactions_rejected_total{reason=\"").append(REJECT_REASONS[i]).append("\"} ")
+                    .append(rejected[i].sum()).append('\n');
+
+        header(sb, "transactions_processed_total", "counter", "Results of transactions by shards");
+        for (int shard = 0; shard < shards.length; shard++)
+            for (StatusEnum status : StatusEnum.values())
+                sb.append("transactions_processed_total{shard=\"").append(shard).append("\",status=\"")
+                        .append(status.name()).append("\"} ").append(shards[shard].processed[status.ordinal()].sum())
+                        .append('\n');
+
+        header(sb, "shard_migrations_total", "counter", "Accounts which have been moved to other shards");
+        sb.append("shard_migrations_total ").append(migrations.sum()).append('\n');
+
+        header(sb, "cluster_retries_total", "counter", "Halves of transfers which have been sent to other nodes again");
+        sb.append("cluster_retries_total ").append(clusterRetries.sum()).append('\n');
+
+        header(sb, "shard_queue_depth", "gauge", "Transactions which are waiting in a shard queue");
+        for (Map.Entry<Integer, ShardQueue<TransactionDto>> queue : queues.entrySet())
+            sb.append("shard_queue_depth{shard=\"").append(queue.getKey()).append("\"} ")
+                    .append(queue.getValue().size()).append('\n');
+
+        header(sb, "shard_credit_queue_depth", "gauge", "Halves of transfers which are waiting for a shard, with the spill");
+        for (int shard = 0; shard < halves.length; shard++)
+            sb.append("shard_credit_queue_depth{shard=\"").append(shard).append("\"} ").append(halves[shard]).append('\n');
+
+        header(sb, "shard_spill_depth", "gauge", "Halves of transfers which haven`t fit into the credit queue of a shard");
+        for (int shard = 0; shard < spilled.length; shard++)
+            sb.append("shard_spill_depth{shard=\"").append(shard).append("\"} ").append(spilled[shard]).append('\n');
+
+        header(sb, "shard_queue_capacity", "gauge", "The capacity of a shard queue");
+        for (Map.Entry<Integer, ShardQueue<TransactionDto>> queue : queues.entrySet())
+            sb.append("shard_queue_capacity{shard=\"").append(queue.getKey()).append("\"} ")
+                    .append(queue.getValue().capacity()).append('\n');
+
+        header(sb, "transaction_queue_wait_seconds", "histogram", "Time from a shard queue (or a credit queue) to its worker");
+        for (int shard = 0; shard < shards.length; shard++)
+            histogram(sb, "transaction_queue_wait_seconds", "shard=\"" + shard + "\"", shards[shard].queueWait);
+
+        header(sb, "transaction_processing_seconds", "histogram", "Time of a half of a transfer and its journal record in a worker");
+        for (int shard = 0; shard < shards.length; shard++)
+            histogram(sb, "transaction_processing_seconds", "shard=\"" + shard + "\"", shards[shard].processing);
+
+        header(sb, "http_requests_total", "counter", "HTTP requests by routes and classes of status codes");
+        final Map<String, RouteMetrics> routes = new TreeMap<>(this.routes); // a stable order of series
+        for (Map.Entry<String, RouteMetrics> route : routes.entrySet())
+            for (int i = 0; i < CODE_CLASSES.length; i++)
+                sb.append("http_requests_total{route=\"").append(route.getKey()).append("\",code=\"")
+                        .append(CODE_CLASSES[i]).append("\"} ").append(route.getValue().requests[i].sum()).append('\n');
+
+        header(sb, "http_request_duration_seconds", "histogram", "Time until response headers are sent");
+        for (Map.Entry<String, RouteMetrics> route : routes.entrySet())
+            histogram(sb, "http_request_duration_seconds", "route=\"" + route.getKey() + "\"", route.getValue().latency);
+
+        return sb.toString();
+    }
+
+    private static void header(final StringBuilder sb, final String name, final String type, final String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(final StringBuilder sb, final String name, final String labels,
+                                  final LatencyHistogram histogram) {
+        final long count = histogram.getCount();
+        for (double bound : BOUNDS)
+            sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                    .append(Math.min(count, histogram.countAtOrBelow((long) (bound * 1e9)))).append('\n');
+
+        sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+        sb.append(name).append("_sum{").append(labels).append("} ").append(histogram.getSum() / 1e9).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+
+    private static LongAdder[] adders(final int size) {
+        final LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    public static class ShardMetrics {
+        private final LongAdder[] processed = adders(StatusEnum.values().length);
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+        private final LatencyHistogram processing = new LatencyHistogram();
+
+        /**
+         * @param waited - nanoseconds in the queue
+         */
+        public void taken(final long waited) {
+            queueWait.record(waited);
+        }
+
+        /**
+         * A half of a transfer has been done and the transaction has been sent to another shard
+         *
+         * @param nanos - time of the processing
+         */
+        public void routed(final long nanos) {
+            processing.record(nanos);
+        }
+
+        /**
+         * @param nanos - time of the processing
+         */
+        public void processed(final StatusEnum status, final long nanos) {
+            processed[status.ordinal()].increment();
+            processing.record(nanos);
+        }
+    }
+
+    private static class RouteMetrics {
+        private final LongAdder[] requests = adders(CODE_CLASSES.length);
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,29 @@
+package mondeytransfer.service;
+
+import mondeytransfer.dto.TransactionDto;
+
+/**
+ * Halves of transfers between nodes of the cluster (see {@link ClusterService}). Shard workers call it, so it mustn`t
+ * block
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public interface RemoteNodes {
+
+    /**
+     * Send the credit half to the node of the receiver, the money has been taken from the sender. The answer comes
+     * back by {@link TransactionsService#credited(TransactionDto, mondeytransfer.enums.TransferResultEnum)}
+     */
+    void credit(TransactionDto op);
+
+    /**
+     * The credit half from another node has been treated, its result is {@link TransactionDto#getResult()}
+     */
+    void credited(TransactionDto op);
+
+    /**
+     * The node of the sender has written the result of the transfer, so the node of the receiver can forget the result
+     * of its credit
+     */
+    void confirmed(TransactionDto op);
+}
@@ -0,0 +1,252 @@
+package mondeytransfer.service;
+
+import mondeytransfer.enums.ShardAssignmentEnum;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Says which shard changes an account: by {@link ShardAssignmentEnum} or by a move of the account to another shard
+ * (see {@link ShardRouter#move(long, int)}), e.g. a hot account to a less loaded shard.
+ * <p>
+ * A move mustn`t change the order of transactions of the account, so each thread which sends a transaction to
+ * a shard reads the shard and adds the transaction between {@link ShardRouter#enter()} and
+ * {@link ShardRouter#exit(int)}. A move changes the route and waits for threads which could have read the old one
+ * (like RCU: readers are counted in padded stripes of the current epoch, a move switches the epoch and waits for
+ * the old one). After it nothing new comes to the old shard of the account, and the old shard marks the end of its
+ * transactions by a fence (see {@link Migration}). Readers never wait, a move is rare.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class ShardRouter {
+    public final static int MAX_MOVED = 1_024; // moved accounts, a lookup is a binary search in them
+    private final static int VIRTUAL_NODES = 128; // per a shard for CONSISTENT
+    private final static int STRIPES = 64, PADDING = 16; // 16 longs is 128 bytes, so stripes don`t share cache lines
+
+    private final int shards;
+    private final int nodes; // ids of a node of the cluster are id % nodes, so MODULO spreads id / nodes
+    private final ShardAssignmentEnum assignment;
+    private final long[] ringHashes;
+    private final int[] ringShards;
+
+    private volatile Moved moved = new Moved(new long[0], new int[0]);
+    private volatile Migration migration;
+
+    private volatile int epoch;
+    private final AtomicLongArray readers = new AtomicLongArray(2 * STRIPES * PADDING);
+
+    public ShardRouter(final int shards, final ShardAssignmentEnum assignment) {
+        this(shards, assignment, 1);
+    }
+
+    /**
+     * @param nodes - nodes of the cluster, see {@link TransactionsService#getNode(long)}
+     */
+    public ShardRouter(final int shards, final ShardAssignmentEnum assignment, final int nodes) {
+        this.shards = shards;
+        this.nodes = nodes;
+        this.assignment = assignment;
+
+        final Map<Long, Integer> ring = new TreeMap<>();
+        if (assignment == ShardAssignmentEnum.CONSISTENT)
+            for (int shard = 0; shard < shards; shard++)
+                for (int node = 0; node < VIRTUAL_NODES; node++)
+                    ring.putIfAbsent(mix(((long) shard << 32) | node), shard);
+
+        this.ringHashes = new long[ring.size()];
+        this.ringShards = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> node : ring.entrySet()) {
+            ringHashes[i] = node.getKey();
+            ringShards[i++] = node.getValue();
+        }
+    }
+
+    /**
+     * @return - the shard which changes the account now
+     */
+    public int shard(final long id) {
+        final Moved current = moved;
+        if (current.ids.length != 0) {
+            final int i = Arrays.binarySearch(current.ids, id);
+            if (i >= 0)
+                return current.shards[i];
+        }
+        return home(id);
+    }
+
+    /**
+     * @return - the shard of the account by {@link ShardAssignmentEnum}
+     */
+    public int home(final long id) {
+        if (assignment == ShardAssignmentEnum.MODULO)
+            return (int) Math.floorMod(Math.floorDiv(id, (long) nodes), (long) shards); // ids can be negative
+
+        int i = Arrays.binarySearch(ringHashes, mix(id));
+        if (i < 0)
+            i = -i - 1;
+        return ringShards[i == ringHashes.length ? 0 : i]; // the first node clockwise
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * @return - the move which waits for the fence from the old shard, or null
+     */
+    public Migration getMigration() {
+        return migration;
+    }
+
+    /**
+     * Start reading the route of a transaction
+     *
+     * @return - the token for {@link ShardRouter#exit(int)}
+     */
+    public int enter() {
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        while (true) {
+            final int current = epoch;
+            final int slot = ((current & 1) * STRIPES + stripe) * PADDING;
+            readers.incrementAndGet(slot);
+            if (epoch == current) // else a move hasn`t seen it, so it mustn`t read the old route
+                return slot;
+            readers.decrementAndGet(slot);
+        }
+    }
+
+    /**
+     * The transaction has been added to its shard
+     */
+    public void exit(final int token) {
+        readers.decrementAndGet(token);
+    }
+
+    /**
+     * Route new transactions of the account to the shard and wait until threads which could have read the old route
+     * have added their transactions. The caller must send a fence to the old shard then and call
+     * {@link ShardRouter#finish(Migration)} after the fence.
+     *
+     * @return - null if the account is already there or too many accounts have been moved
+     */
+    synchronized Migration move(final long id, final int to) {
+        final int from = shard(id);
+        final int home = home(id);
+        if (from == to || (to != home && Arrays.binarySearch(moved.ids, id) < 0 && moved.ids.length >= MAX_MOVED))
+            return null;
+
+        final Migration started = new Migration(id, from, to);
+        migration = started; // before the route, so the new shard knows what to wait for
+        moved = moved.with(id, to == home ? -1 : to);
+
+        final int old = epoch & 1;
+        epoch++;
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            while (readers.get((old * STRIPES + stripe) * PADDING) != 0)
+                LockSupport.parkNanos(10_000L);
+
+        return started;
+    }
+
+    synchronized void finish(final Migration finished) {
+        if (migration == finished)
+            migration = null;
+    }
+
+    /**
+     * Stafford's variant 13 of the 64-bit finalizer of MurmurHash3, sequential ids get uniform hashes
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A move of an account. The new shard keeps transactions of the account until the old shard has taken the fence,
+     * which is after all transactions of the account in its queues
+     */
+    public static class Migration {
+        private final long id;
+        private final int from;
+        private final int to;
+        private volatile boolean fenced;
+
+        private Migration(final long id, final int from, final int to) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        /**
+         * Only for the thread of the old shard
+         */
+        public void fence() {
+            fenced = true;
+        }
+
+        public boolean isFenced() {
+            return fenced;
+        }
+    }
+
+    /**
+     * Moved accounts: sorted ids and their shards, it is copied on each move
+     */
+    private static class Moved {
+        private final long[] ids;
+        private final int[] shards;
+
+        private Moved(final long[] ids, final int[] shards) {
+            this.ids = ids;
+            this.shards = shards;
+        }
+
+        /**
+         * @param shard - -1 to remove the account (it is back to its home shard)
+         */
+        private Moved with(final long id, final int shard) {
+            final int i = Arrays.binarySearch(ids, id);
+            if (i >= 0 && shard >= 0) {
+                final int[] copy = shards.clone();
+                copy[i] = shard;
+                return new Moved(ids, copy);
+            }
+            if (i < 0 && shard < 0)
+                return this;
+
+            final int size = ids.length + (i >= 0 ? -1 : 1);
+            final long[] newIds = new long[size];
+            final int[] newShards = new int[size];
+            final int at = i >= 0 ? i : -i - 1;
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(this.shards, 0, newShards, 0, at);
+            if (i >= 0) { // remove
+                System.arraycopy(ids, at + 1, newIds, at, size - at);
+                System.arraycopy(this.shards, at + 1, newShards, at, size - at);
+            } else { // insert
+                newIds[at] = id;
+                newShards[at] = shard;
+                System.arraycopy(ids, at, newIds, at + 1, size - at - 1);
+                System.arraycopy(this.shards, at, newShards, at + 1, size - at - 1);
+            }
+            return new Moved(newIds, newShards);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package mondeytransfer.service;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import mondeytransfer.dto.StatusDto;
+import mondeytransfer.enums.OverflowPolicyEnum;
+import mondeytransfer.enums.WaitStrategyEnum;
+import mondeytransfer.other.MpscRingBuffer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Pushes statuses of transactions to subscribers (e.g. SSE streams) as shard workers produce them.
+ * <p>
+ * Each subscriber has its own bounded {@link MpscRingBuffer}: shard workers offer statuses to it and never wait, the
+ * subscriber drains it on its own event loop. If a subscriber is too slow and its buffer is full,
+ * {@link OverflowPolicyEnum} decides: drop new statuses or disconnect the subscriber. So a slow client never slows
+ * transfers down and never takes more memory than its buffer.
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class StatusBroadcaster {
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final int bufferSize;
+    private final OverflowPolicyEnum policy;
+    private final int maxSubscribers;
+
+    public StatusBroadcaster(final int bufferSize, final OverflowPolicyEnum policy, final int maxSubscribers) {
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    /**
+     * It is called by shard workers, it doesn`t allocate anything if there aren`t subscribers
+     */
+    public void publish(final StatusDto status) {
+        for (Subscription subscription : subscriptions)
+            subscription.offer(status);
+    }
+
+    /**
+     * The batch version of {@link StatusBroadcaster#publish(StatusDto)}: each subscriber is woken up once for all
+     * statuses
+     */
+    public void publishAll(final List<StatusDto> statuses) {
+        for (Subscription subscription : subscriptions) {
+            boolean added = false;
+            for (StatusDto status : statuses)
+                added |= subscription.add(status);
+            if (added)
+                subscription.drain();
+        }
+    }
+
+    /**
+     * It must be called on an event loop, the drainer is always called on it
+     *
+     * @param filter  - only matched statuses are sent to the subscriber
+     * @param drainer - it is called when there are new statuses in the buffer or the subscriber has been overflowed
+     * @return - null if there are too many subscribers
+     */
+    public Subscription subscribe(final Predicate<StatusDto> filter, final Handler<Subscription> drainer) {
+        final Context context = Vertx.currentContext();
+        if (isNull(context))
+            throw new IllegalStateException("A subscription must be created on an event loop");
+
+        if (subscriptions.size() >= maxSubscribers)
+            return null;
+
+        final Subscription subscription = new Subscription(filter, drainer, context);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void unsubscribe(final Subscription subscription) {
+        subscription.closed = true;
+        subscriptions.remove(subscription);
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    public class Subscription {
+        private final Predicate<StatusDto> filter;
+        private final Handler<Subscription> drainer;
+        private final Context context;
+        private final MpscRingBuffer<StatusDto> buffer = new MpscRingBuffer<>(bufferSize, WaitStrategyEnum.PARK);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+
+        private Subscription(final Predicate<StatusDto> filter, final Handler<Subscription> drainer,
+                             final Context context) {
+            this.filter = filter;
+            this.drainer = drainer;
+            this.context = context;
+        }
+
+        private void offer(final StatusDto status) {
+            if (add(status))
+                drain();
+        }
+
+        /**
+         * @return - false if the status isn`t for the subscriber
+         */
+        private boolean add(final StatusDto status) {
+            if (closed || !filter.test(status))
+                return false;
+
+            if (!buffer.offer(status)) {
+                if (policy == OverflowPolicyEnum.DISCONNECT)
+                    overflowed = true;
+                else
+                    dropped.incrementAndGet();
+            }
+            return true;
+        }
+
+        /**
+         * Call the drainer on the event loop of the subscriber, once for any number of new statuses
+         */
+        public void drain() {
+            if (scheduled.compareAndSet(false, true))
+                context.runOnContext(v -> {
+                    scheduled.set(false);
+                    if (!closed)
+                        drainer.handle(this);
+                });
+        }
+
+        /**
+         * @return - null if the buffer is empty. Only on the event loop of the subscriber
+         */
+        public StatusDto poll() {
+            return buffer.poll();
+        }
+
+        /**
+         * @return - the number of statuses which have been dropped since the previous call
+         */
+        public long takeDropped() {
+            return dropped.getAndSet(0);
+        }
+
+        /**
+         * @return - true if the subscriber should be disconnected by {@link OverflowPolicyEnum#DISCONNECT}
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+    }
+}
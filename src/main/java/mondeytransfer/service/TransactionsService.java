@@ -1,72 +1,860 @@
 package mondeytransfer.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Shareable;
+import mondeytransfer.dto.HistoryEntryDto;
+import mondeytransfer.dto.HistoryPageDto;
+import mondeytransfer.dto.SendTransactionStatusDto;
 import mondeytransfer.dto.StatusDto;
 import mondeytransfer.dto.TransactionDto;
 import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.AuditModeEnum;
+import mondeytransfer.enums.EvictionPolicyEnum;
+import mondeytransfer.enums.OverflowPolicyEnum;
+import mondeytransfer.enums.QueueTypeEnum;
+import mondeytransfer.enums.ShardAssignmentEnum;
 import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.enums.StoreTypeEnum;
+import mondeytransfer.enums.TransferPhaseEnum;
+import mondeytransfer.enums.TransferResultEnum;
+import mondeytransfer.enums.WaitStrategyEnum;
+import mondeytransfer.model.AccountImage;
+import mondeytransfer.model.AccountStore;
+import mondeytransfer.model.AuditLog;
+import mondeytransfer.model.Currencies;
+import mondeytransfer.model.FxRateTable;
+import mondeytransfer.model.HistoryLedger;
+import mondeytransfer.model.IdempotencyCache;
+import mondeytransfer.model.JournalRecord;
+import mondeytransfer.model.PrimitiveAccountStore;
+import mondeytransfer.model.SnapshotStore;
+import mondeytransfer.model.StatusIndex;
+import mondeytransfer.model.TransactionJournal;
 import mondeytransfer.model.TransactionStore;
 import mondeytransfer.other.CustomThreadFactory;
+import mondeytransfer.other.HeavyHitters;
+import mondeytransfer.other.LinkedShardQueue;
+import mondeytransfer.other.Money;
+import mondeytransfer.other.MpscRingBuffer;
+import mondeytransfer.other.PaddedAtomicLong;
+import mondeytransfer.other.RejectedTransactionException;
+import mondeytransfer.other.ShardQueue;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import static java.util.Objects.isNull;
 import static mondeytransfer.dto.ErrorResponseDto.printError;
+import static mondeytransfer.enums.ConfigKeys.*;
 import static mondeytransfer.enums.Messages.*;
 
 /**
- * The service for works with transactions
+ * The service for works with transactions. It is the engine of the JVM: one instance is shared by all HTTP verticles
+ * (see {@link mondeytransfer.Launcher}), so it is thread-safe
  *
  * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
  */
-public class TransactionsService {
+public class TransactionsService implements Shareable {
     private final static Logger LOGGER = LoggerFactory.getLogger(TransactionsService.class);
     public final static long EXIST_USER_ID = 1L; // for tests
     public final static long EXIST_USER_ID_TWO = 2L; // for tests
-    public final static BigDecimal EXIST_USER_ID_BALANCE = new BigDecimal(1000L); // for tests
-    public final static BigDecimal EXIST_USER_ID_BALANCE_TWO = new BigDecimal(2000L); // for tests
+    public final static BigDecimal EXIST_USER_ID_BALANCE = new BigDecimal("1000.00"); // for tests
+    public final static BigDecimal EXIST_USER_ID_BALANCE_TWO = new BigDecimal("2000.00"); // for tests
+
+    public final static int DEFAULT_STORE_CAPACITY = 1_000_000;
+    public final static int DEFAULT_STORE_SCALE = 2;
+    public final static String DEFAULT_CURRENCY = "USD";
+    public final static int DEFAULT_FX_RATES_RELOAD_INTERVAL = 5; // in seconds
+    public final static int DEFAULT_QUEUE_CAPACITY = 20_000;
+    public final static int DEFAULT_STATUS_INDEX_CAPACITY = 100_000;
+    public final static long DEFAULT_STATUS_INDEX_TTL = 3_600L; // in seconds
+    public final static int DEFAULT_IDEMPOTENCY_CAPACITY = 100_000;
+    public final static long DEFAULT_IDEMPOTENCY_TTL = 3_600L; // in seconds
+    public final static int DEFAULT_STATUS_STREAM_BUFFER = 1_024;
+    public final static int DEFAULT_STATUS_STREAM_MAX_SUBSCRIBERS = 1_000;
+    public final static int DEFAULT_RETRY_AFTER = 1; // in seconds
+    public final static int DEFAULT_DRAIN_BATCH = 256;
+    public final static int HOT_ACCOUNTS_COUNTERS = 16;
+    public final static long MIN_REBALANCE_LOAD = 10_000; // halves of transfers of a shard between rebalances
+    public final static int DEFAULT_HOT_ACCOUNTS_REBALANCE_INTERVAL = 1; // in seconds
+    public final static String DEFAULT_JOURNAL_DIR = "data";
+    public final static long DEFAULT_JOURNAL_SEGMENT_SIZE = 64L << 20;
+    public final static int DEFAULT_JOURNAL_QUEUE_CAPACITY = 65_536;
+    public final static int DEFAULT_JOURNAL_MAX_BATCH = 1_024;
+    public final static long DEFAULT_JOURNAL_WINDOW_MICROS = 200L;
+    public final static String DEFAULT_AUDIT_FILE = "data/audit.jsonl";
+    public final static double DEFAULT_AUDIT_SAMPLE_RATE = 0.01;
+    public final static int DEFAULT_AUDIT_QUEUE_CAPACITY = 65_536;
+    public final static String DEFAULT_HISTORY_DIR = "data/history";
+    public final static int DEFAULT_HISTORY_SEGMENT_ROWS = 1 << 20; // 64 MB
+    public final static int DEFAULT_HISTORY_QUEUE_CAPACITY = 65_536;
 
     /**
-     * This map contains <NUMBER_OF_THREAD, LinkedBlockingQueue<TransactionDto>> in order to get rid of synchronization
+     * This map contains <NUMBER_OF_THREAD, ShardQueue<TransactionDto>> in order to get rid of synchronization
      * in the following way: this service get a new TransactionDto it put it in the concrete
-     * LinkedBlockingQueue<TransactionDto>> (LBQ). The service choice LBQ in the method
+     * ShardQueue<TransactionDto>> (SQ). The service choice SQ in the method
      * {@link TransactionsService#sendTransaction(mondeytransfer.dto.TransactionDto)}. The service get
-     * mondeytransfer.dto.TransactionDto#fromId from the received TransactionDto and choice the required queue by the
-     * formula (mondeytransfer.dto.TransactionDto#fromId % mondeytransfer.service.TransactionsService#COUNT_THREADS).
+     * mondeytransfer.dto.TransactionDto#fromId from the received TransactionDto and choice the required queue by
+     * {@link ShardRouter} (fromId % COUNT_THREADS or a hash ring, see {@link ShardAssignmentEnum}).
      * <p>
-     * After it threads run in LBQ {@link TransactionsService#runQueueExecutor()} are treating this queues. Each thread
-     * has his own LBQ. Hereby you don`t need to synchronized for each {@link UserDto}, because you have your SENDER
-     * users in a separate queue, and this queue is treating sequentially only by his own thread.
+     * After it threads run in SQ {@link TransactionsService#runQueueExecutor()} are treating this queues. Each thread
+     * has his own SQ, so a queue has many producers and the only consumer. By default it is a preallocated lock-free
+     * {@link MpscRingBuffer}, {@link LinkedShardQueue} is a fallback (see {@link QueueTypeEnum}). Hereby you don`t
+     * need to synchronized for each {@link UserDto}, because you have your SENDER users in a separate queue, and this
+     * queue is treating sequentially only by his own thread.
      * <p>
      * Though you can scale your horizontal service increase {@link TransactionsService#COUNT_THREADS} and CPU/Memory.
-     * Although it counting automatically now based a concrete machine where it was run, in the real app you can just
-     * put this variable {@link {@link TransactionsService#COUNT_THREADS}} to the config file on get it from the env var
+     * It is {@link mondeytransfer.enums.ConfigKeys#SHARDS_COUNT} in the config, by default it is counted by cores of
+     * the machine. A hot account can be moved to a less loaded shard online (see
+     * {@link TransactionsService#rebalance()}).
      */
-    private final Map<Integer, LinkedBlockingQueue<TransactionDto>> TDQ_MAP = new HashMap<>();
-    private final Queue<StatusDto> statusDtos = new LinkedList<>(); // this is transaction statuses queue
+    private final Map<Integer, ShardQueue<TransactionDto>> TDQ_MAP = new HashMap<>();
+    private final Map<Integer, ShardQueue<TransactionDto>> CREDIT_MAP = new HashMap<>(); // halves of transfers
+    private final Map<Integer, Queue<TransactionDto>> SPILL_MAP = new HashMap<>(); // if a credit queue is full
+    private final PaddedAtomicLong[] HALVES; // by shards, halves which wait in the credit queue and the spill of a shard
+    private final PaddedAtomicLong[] SPILLED; // by shards, halves which wait in the spill of a shard
+    private final PaddedAtomicLong[] BATCHES; // by shards, it is odd while a shard treats a batch, see awaitJournaled()
+    private final Queue<StatusDto> statusDtos = new ConcurrentLinkedQueue<>(); // this is transaction statuses queue
+    private final StatusBroadcaster STATUS_BROADCASTER; // pushes statuses to streams
+    private final StatusIndex STATUS_INDEX; // statuses by UUID
+    private final IdempotencyCache IDEMPOTENCY; // transactions by idempotency keys, null if it is disabled
+    private final MetricsService METRICS;
 
-    private final Map<Long, UserDto> TS_STORE;
+    private final AccountStore TS_STORE;
+    private final Currencies CURRENCIES;
+    private final FxRateTable FX; // rates for transfers between accounts of different currencies
 
     private final int CORES_AVAILABLE = Runtime.getRuntime().availableProcessors() / 4;
-    private final int COUNT_THREADS = CORES_AVAILABLE < 2 ? 2 : CORES_AVAILABLE;
+    private final int NODES; // of the cluster, 1 - it isn`t clustered
+    private final int NODE; // this one, from 0
+    private volatile RemoteNodes remote; // null until the cluster has been joined
+    private final Queue<TransactionDto> unrouted = new ConcurrentLinkedQueue<>(); // credits to nodes before it
+    private final Queue<TransactionDto> unconfirmed = new ConcurrentLinkedQueue<>(); // confirmations of the replay
+    private final Set<UUID> unconfirmedCredits = new HashSet<>(); // credits from other nodes, by the replay
+    private final int COUNT_THREADS;
+    private final ShardRouter ROUTER;
+    private final HeavyHitters[] HOT_ACCOUNTS; // by shards, for the rebalance
+    private final HotAccounts HOT = new HotAccounts(); // accounts which are split into parts on several shards
+    private final int HOT_ACCOUNT_PARTS_COUNT;
+    private final boolean HOT_ACCOUNT_AUTO_SPLITTING; // the rebalance splits an account which is too hot to be moved
+    private final long[] rebalanced; // records of shards at the previous rebalance
+
+    private final QueueTypeEnum SHARD_QUEUE_TYPE;
+    private final int SHARD_QUEUE_CAPACITY;
+    private final WaitStrategyEnum WAIT_STRATEGY;
+    private final int DRAIN_BATCH; // max transactions which a shard worker takes at once
+    private final int RETRY_AFTER;
 
     /**
-     * 1) Init some test data
-     * 2) Run threads for transactions processing in background
+     * null if the journal is disabled, then all data is only in memory
+     */
+    private final TransactionJournal journal;
+    /**
+     * null if snapshots are disabled
+     */
+    private final SnapshotStore snapshots;
+    /**
+     * null if the audit trail is off, see {@link AuditModeEnum}
+     */
+    private final AuditLog audit;
+    /**
+     * null if the history of transfers is disabled
      */
+    private final HistoryLedger history;
+    private final ScheduledExecutorService snapshotter;
+    private final ScheduledExecutorService rebalancer;
+    private final ScheduledExecutorService fxReloader;
+    private final ScheduledExecutorService partsRebalancer;
+    private final ExecutorService es;
+
     public TransactionsService() {
-        this.TS_STORE = new TransactionStore().getSTORE();
+        this(new JsonObject());
+    }
+
+    /**
+     * 1) Init some test data
+     * 2) Load the latest snapshot if snapshots are enabled
+     * 3) Replay the journal (from the checkpoint of the snapshot) if it is enabled
+     * 4) Run threads for transactions processing in background
+     * 5) Send transactions which were accepted, but hadn`t been treated before a restart (the debited ones to their
+     * credit halves)
+     * 6) Split hot accounts of the config
+     * 7) Take snapshots, rebalance shards and parts of split accounts and reload exchange rates periodically
+     *
+     * @param config - the verticle config
+     */
+    public TransactionsService(final JsonObject config) {
+        this.NODES = Math.max(config.getInteger(CLUSTER_NODES, 1), 1);
+        this.NODE = config.getInteger(CLUSTER_NODE, 0);
+        if (NODE < 0 || NODE >= NODES)
+            throw new IllegalArgumentException("The node " + NODE + " isn`t in the cluster of " + NODES + " nodes");
+
+        final int shards = config.getInteger(SHARDS_COUNT, 0);
+        this.COUNT_THREADS = shards > 0 ? shards : Math.max(CORES_AVAILABLE, 2);
+        this.ROUTER = new ShardRouter(COUNT_THREADS,
+                ShardAssignmentEnum.of(config.getString(SHARDS_ASSIGNMENT, ShardAssignmentEnum.MODULO.name())), NODES);
+        this.HOT_ACCOUNTS = new HeavyHitters[COUNT_THREADS];
+        this.HALVES = new PaddedAtomicLong[COUNT_THREADS];
+        this.SPILLED = new PaddedAtomicLong[COUNT_THREADS];
+        this.BATCHES = new PaddedAtomicLong[COUNT_THREADS];
+        for (int i = 0; i < COUNT_THREADS; i++) {
+            HALVES[i] = new PaddedAtomicLong(0);
+            SPILLED[i] = new PaddedAtomicLong(0);
+            BATCHES[i] = new PaddedAtomicLong(0);
+        }
+        this.rebalanced = new long[COUNT_THREADS];
+        final int parts = config.getInteger(HOT_ACCOUNT_PARTS, 0);
+        this.HOT_ACCOUNT_PARTS_COUNT = Math.min(parts > 0 ? parts : COUNT_THREADS, HotAccounts.MAX_PARTS);
+        this.HOT_ACCOUNT_AUTO_SPLITTING = config.getBoolean(HOT_ACCOUNT_AUTO_SPLIT, false);
+
+        this.SHARD_QUEUE_TYPE = QueueTypeEnum.of(config.getString(QUEUE_TYPE, QueueTypeEnum.RING.name()));
+        this.SHARD_QUEUE_CAPACITY = config.getInteger(QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+        this.WAIT_STRATEGY = WaitStrategyEnum.of(config.getString(QUEUE_WAIT_STRATEGY, WaitStrategyEnum.PARK.name()));
+        this.DRAIN_BATCH = Math.max(config.getInteger(QUEUE_DRAIN_BATCH, DEFAULT_DRAIN_BATCH), 1);
+        this.RETRY_AFTER = config.getInteger(QUEUE_RETRY_AFTER, DEFAULT_RETRY_AFTER);
+
+        this.STATUS_BROADCASTER = new StatusBroadcaster(
+                config.getInteger(STATUS_STREAM_BUFFER, DEFAULT_STATUS_STREAM_BUFFER),
+                OverflowPolicyEnum.of(config.getString(STATUS_STREAM_OVERFLOW, OverflowPolicyEnum.DROP.name())),
+                config.getInteger(STATUS_STREAM_MAX_SUBSCRIBERS, DEFAULT_STATUS_STREAM_MAX_SUBSCRIBERS)
+        );
+        this.STATUS_INDEX = new StatusIndex(
+                config.getInteger(STATUS_INDEX_CAPACITY, DEFAULT_STATUS_INDEX_CAPACITY),
+                TimeUnit.SECONDS.toMillis(config.getLong(STATUS_INDEX_TTL, DEFAULT_STATUS_INDEX_TTL)),
+                EvictionPolicyEnum.of(config.getString(STATUS_INDEX_EVICTION, EvictionPolicyEnum.FIFO.name()))
+        );
+        final int idempotencyCapacity = config.getInteger(IDEMPOTENCY_CAPACITY, DEFAULT_IDEMPOTENCY_CAPACITY);
+        this.IDEMPOTENCY = idempotencyCapacity <= 0 ? null : new IdempotencyCache(
+                idempotencyCapacity,
+                TimeUnit.SECONDS.toMillis(config.getLong(IDEMPOTENCY_TTL, DEFAULT_IDEMPOTENCY_TTL))
+        );
+        this.CURRENCIES = new Currencies(
+                config.getString(CURRENCY_DEFAULT, DEFAULT_CURRENCY),
+                config.getInteger(STORE_SCALE, DEFAULT_STORE_SCALE),
+                config.getJsonObject(CURRENCY_SCALES, new JsonObject())
+        );
+        this.TS_STORE = newStore(config, CURRENCIES);
+        this.METRICS = new MetricsService(COUNT_THREADS);
         initData();
+
+        final Map<UUID, TransactionDto> inFlight = new LinkedHashMap<>();
+        final int snapshotInterval = config.getInteger(SNAPSHOT_INTERVAL, 0);
+        final String fxRates = config.getString(FX_RATES_FILE); // null - without rates
+        try {
+            this.snapshots = snapshotInterval > 0 ? new SnapshotStore(
+                    Paths.get(config.getString(SNAPSHOT_DIR, config.getString(JOURNAL_DIR, DEFAULT_JOURNAL_DIR)))
+            ) : null;
+
+            this.journal = config.getBoolean(JOURNAL_ENABLED, false) ? new TransactionJournal(
+                    Paths.get(config.getString(JOURNAL_DIR, DEFAULT_JOURNAL_DIR)),
+                    config.getLong(JOURNAL_SEGMENT_SIZE, DEFAULT_JOURNAL_SEGMENT_SIZE),
+                    config.getInteger(JOURNAL_QUEUE_CAPACITY, DEFAULT_JOURNAL_QUEUE_CAPACITY),
+                    config.getInteger(JOURNAL_MAX_BATCH, DEFAULT_JOURNAL_MAX_BATCH),
+                    config.getLong(JOURNAL_WINDOW_MICROS, DEFAULT_JOURNAL_WINDOW_MICROS),
+                    config.getBoolean(JOURNAL_FSYNC, true)
+            ) : null;
+
+            this.FX = new FxRateTable(CURRENCIES, isNull(fxRates) ? null : Paths.get(fxRates));
+
+            final AuditModeEnum auditMode = AuditModeEnum.of(config.getString(AUDIT_MODE, AuditModeEnum.OFF.name()));
+            this.audit = auditMode == AuditModeEnum.OFF ? null : new AuditLog(
+                    Paths.get(config.getString(AUDIT_FILE, DEFAULT_AUDIT_FILE)),
+                    auditMode,
+                    config.getDouble(AUDIT_SAMPLE_RATE, DEFAULT_AUDIT_SAMPLE_RATE),
+                    config.getInteger(AUDIT_QUEUE_CAPACITY, DEFAULT_AUDIT_QUEUE_CAPACITY)
+            );
+            if (!isNull(audit))
+                audit.start();
+
+            this.history = config.getBoolean(HISTORY_ENABLED, false) ? new HistoryLedger(
+                    Paths.get(config.getString(HISTORY_DIR, DEFAULT_HISTORY_DIR)),
+                    config.getInteger(HISTORY_SEGMENT_ROWS, DEFAULT_HISTORY_SEGMENT_ROWS),
+                    config.getInteger(HISTORY_QUEUE_CAPACITY, DEFAULT_HISTORY_QUEUE_CAPACITY)
+            ) : null;
+            if (!isNull(history))
+                history.start();
+
+            final SnapshotStore.Header snapshot = isNull(snapshots) ? null : snapshots.load(TS_STORE::restore);
+
+            if (!isNull(journal)) {
+                journal.replay(isNull(snapshot) ? 0 : snapshot.getPendingFrom(), r -> replay(r, inFlight));
+                journal.start();
+            }
+            if (!isNull(snapshot) || !isNull(journal))
+                findSplitAccounts();
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "The journal, the snapshot, exchange rates, the audit log or the history can`t be opened", e);
+        }
+
+        this.es = Executors.newFixedThreadPool(COUNT_THREADS, new CustomThreadFactory("Transactions handler for the queue="));
         runQueueExecutor(); // run transactions handler
+
+        if (!inFlight.isEmpty()) {
+            LOGGER.info("Resend {0} transactions from the journal", inFlight.size());
+            try {
+                for (TransactionDto td : inFlight.values()) {
+                    final boolean debited = td.getPhase() == TransferPhaseEnum.CREDIT;
+                    try {
+                        if (isNull(td.getCurrency())) // accepted before currencies, the sum is in the sender`s one
+                            td.setCurrency(getCurrencyCode(td.getFromId()));
+                        TS_STORE.prepare(td);
+                        if (!debited)
+                            td.setFromAccount(HOT.account(td.getFromId(), td.getTransactionId()));
+                    } catch (ArithmeticException e) { // the store has been changed since the transaction was accepted
+                        LOGGER.error("The transaction {0} can`t be resent, reason=''{1}''", td, e.getMessage());
+                        journal(JournalRecord.rejected(td.getTransactionId(), StatusEnum.CRITICAL_SYSTEM_ERROR));
+                        continue;
+                    }
+                    if (debited) // the sender has already paid, the journal has its after-image
+                        route(td, TransferPhaseEnum.CREDIT, td.getToId());
+                    else
+                        put(td); // without the validation, a shard writes a result of each of them
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (Object id : config.getJsonArray(SPLIT_ACCOUNTS, new JsonArray()))
+            try {
+                splitAccount(((Number) id).longValue(), HOT_ACCOUNT_PARTS_COUNT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+        this.snapshotter = isNull(snapshots) ? null
+                : Executors.newSingleThreadScheduledExecutor(new CustomThreadFactory("Snapshot writer="));
+        if (!isNull(snapshotter))
+            snapshotter.scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+
+        final int rebalanceInterval = config.getInteger(SHARDS_REBALANCE_INTERVAL, 0);
+        this.rebalancer = rebalanceInterval <= 0 ? null
+                : Executors.newSingleThreadScheduledExecutor(new CustomThreadFactory("Shard rebalancer="));
+        if (!isNull(rebalancer))
+            rebalancer.scheduleWithFixedDelay(this::rebalance, rebalanceInterval, rebalanceInterval, TimeUnit.SECONDS);
+
+        final int fxReloadInterval = config.getInteger(FX_RATES_RELOAD_INTERVAL, DEFAULT_FX_RATES_RELOAD_INTERVAL);
+        this.fxReloader = isNull(fxRates) || fxReloadInterval <= 0 ? null
+                : Executors.newSingleThreadScheduledExecutor(new CustomThreadFactory("FX rates reloader="));
+        if (!isNull(fxReloader))
+            fxReloader.scheduleWithFixedDelay(FX::reload, fxReloadInterval, fxReloadInterval, TimeUnit.SECONDS);
+
+        final int partsInterval = config.getInteger(HOT_ACCOUNTS_REBALANCE_INTERVAL, DEFAULT_HOT_ACCOUNTS_REBALANCE_INTERVAL);
+        this.partsRebalancer = partsInterval <= 0 ? null
+                : Executors.newSingleThreadScheduledExecutor(new CustomThreadFactory("Parts rebalancer="));
+        if (!isNull(partsRebalancer))
+            partsRebalancer.scheduleWithFixedDelay(this::rebalanceParts, partsInterval, partsInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Split the account into parts on different shards (see {@link HotAccounts}), so its transfers are treated by
+     * several shard workers. Parts are added to the store and the journal as users with zero balances, then the money
+     * of the account is spread between them.
+     *
+     * @param parts - from 2 to {@link HotAccounts#MAX_PARTS}, more than shards don`t make it faster
+     * @return - false if the account doesn`t exist or it is already split
+     * @throws IllegalArgumentException - if the account can`t be split
+     * @throws IllegalStateException    - if the store is full
+     */
+    public synchronized boolean splitAccount(final long id, final int parts) throws InterruptedException {
+        if (parts < 2 || parts > HotAccounts.MAX_PARTS)
+            throw new IllegalArgumentException("An account can be split into 2-" + HotAccounts.MAX_PARTS + " parts");
+        if (id < 0 || id >= HotAccounts.MAX_ID || !isLocal(id))
+            throw new IllegalArgumentException("The account " + id + " can`t be split");
+
+        final UserDto user = TS_STORE.get(id);
+        if (isNull(user) || HOT.isSplit(id))
+            return false;
+
+        final int[] shards = new int[parts];
+        for (int i = 1; i < parts; i++) {
+            final UserDto part = new UserDto(HotAccounts.part(id, i), BigDecimal.ZERO, user.getCurrency());
+            if (TS_STORE.putIfAbsent(part))
+                journal(JournalRecord.user(part));
+            shards[i] = (ROUTER.home(id) + i) % COUNT_THREADS;
+        }
+        HOT.add(id, shards);
+        rebalanceParts(HOT.get(id));
+
+        LOGGER.info("The account {0} has been split into {1} parts", id, parts);
+        return true;
+    }
+
+    /**
+     * Find parts of split accounts which have been restored from the snapshot and the journal
+     */
+    private void findSplitAccounts() {
+        final Map<Long, Integer> parts = new HashMap<>();
+        TS_STORE.forEach((id, version, currency, balance) -> {
+            if (HotAccounts.isPart(id))
+                parts.merge(HotAccounts.owner(id), HotAccounts.index(id) + 1, Math::max);
+        });
+
+        for (Map.Entry<Long, Integer> split : parts.entrySet()) {
+            final int[] shards = new int[split.getValue()];
+            for (int i = 1; i < shards.length; i++)
+                shards[i] = (ROUTER.home(split.getKey()) + i) % COUNT_THREADS;
+            HOT.add(split.getKey(), shards);
+        }
+    }
+
+    /**
+     * Even the money between parts of each split account, so a part has enough money for debits. It runs
+     * periodically, shard workers aren`t stopped: a move is a transfer of the account to itself (see
+     * {@link PartMove}), the shard of one part debits it and the shard of the other one credits it, so a part is still
+     * changed only by its shard
+     */
+    public void rebalanceParts() {
+        for (HotAccounts.Split split : HOT.getSplits())
+            try {
+                rebalanceParts(split);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Parts of the account {0} haven`t been rebalanced, reason=''{1}''", split.getId(), e.getMessage());
+            }
+    }
+
+    /**
+     * Move money from the richest part to the poorest one while the poorest one has less than a half of the average
+     */
+    private void rebalanceParts(final HotAccounts.Split split) throws InterruptedException {
+        synchronized (split) {
+            final AccountImage image = new AccountImage(), from = new AccountImage(), to = new AccountImage();
+            final long[] units = new long[split.getParts()];
+            long total = 0;
+            for (int i = 0; i < units.length; i++) {
+                if (!TS_STORE.read(HotAccounts.part(split.getId(), i), image))
+                    return;
+                units[i] = image.getUnits();
+                total = saturatedAdd(total, units[i]);
+            }
+
+            final long average = total / units.length;
+            for (int moves = 0; moves < units.length; moves++) {
+                int rich = 0, poor = 0;
+                for (int i = 1; i < units.length; i++) {
+                    if (units[i] > units[rich])
+                        rich = i;
+                    if (units[i] < units[poor])
+                        poor = i;
+                }
+                final long sum = Math.min(units[rich] - average, average - units[poor]);
+                if (units[poor] >= average / 2 || sum <= 0)
+                    return;
+
+                if (!movePart(split, rich, poor, sum, from, to))
+                    return;
+                units[rich] = from.getUnits();
+                units[poor] = to.getUnits();
+            }
+        }
+    }
+
+    /**
+     * Send the move to the shard of the part which pays and wait until the shard of the other part has added it
+     *
+     * @param from - it gets the part which pays after the move
+     * @param to   - it gets the part which is paid after the move
+     * @return - false if the part hasn`t had the money, it has been changed by its shard since it was read
+     */
+    private boolean movePart(final HotAccounts.Split split, final int fromPart, final int toPart, final long sum,
+                             final AccountImage from, final AccountImage to) throws InterruptedException {
+        final long fromId = HotAccounts.part(split.getId(), fromPart), toId = HotAccounts.part(split.getId(), toPart);
+        final int currency = TS_STORE.getCurrency(split.getId());
+        final PartMove move = new PartMove(split.getId(), Money.toDecimal(sum, CURRENCIES.scale(currency)));
+        move.setCurrency(CURRENCIES.code(currency));
+        move.setSentUnits(sum, currency);
+        move.setFromAccount(fromId);
+        move.setToAccount(toId);
+
+        split.beginMove();
+        try {
+            journal(JournalRecord.accepted(move)); // a restart resends it as a transfer of the account to itself
+            route(move, TransferPhaseEnum.DEBIT, split.getId());
+            while (!move.done.await(100, TimeUnit.MILLISECONDS))
+                if (es.isShutdown())
+                    return false;
+        } finally {
+            split.endMove();
+        }
+
+        return move.moved && TS_STORE.read(fromId, from) && TS_STORE.read(toId, to);
+    }
+
+    /**
+     * The exact balance of a split account: parts are read again if money has been moved between them during the read
+     *
+     * @param units - it gets minor units of each part
+     * @return - false if a part doesn`t exist
+     */
+    private boolean readParts(final HotAccounts.Split split, final long[] units) {
+        final AccountImage image = new AccountImage();
+        while (true) {
+            final long moves = split.getMoves();
+            if ((moves & 1) == 0) {
+                for (int i = 0; i < units.length; i++)
+                    if (!TS_STORE.read(HotAccounts.part(split.getId(), i), image))
+                        return false;
+                    else
+                        units[i] = image.getUnits();
+
+                if (split.getMoves() == moves)
+                    return true;
+            }
+            Thread.yield(); // a move is rare
+        }
+    }
+
+    /**
+     * @return - the sum of all parts, Long.MAX_VALUE if it is too big for a long
+     */
+    private long getTotalUnits(final HotAccounts.Split split) {
+        final long[] units = new long[split.getParts()];
+        if (!readParts(split, units))
+            return 0;
+
+        long total = 0;
+        for (long part : units)
+            total = saturatedAdd(total, part);
+        return total;
+    }
+
+    private static long saturatedAdd(final long a, final long b) {
+        final long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum; // both are positive
+    }
+
+    /**
+     * @return - the code of the currency of the user, null if the user doesn`t exist
+     */
+    private String getCurrencyCode(final long id) {
+        final int currency = TS_STORE.getCurrency(id);
+        return currency < 0 ? null : CURRENCIES.code(currency);
+    }
+
+    /**
+     * Move the hottest account of the most loaded shard to the least loaded one, if the shard has more than twice of
+     * the average load and the move makes shards more even. The load is the number of halves of transfers since the
+     * previous rebalance, hot accounts are counted by {@link HeavyHitters} of each shard. One account which is hotter
+     * than the difference of shards isn`t moved: it would just make another shard hot, it is split instead if
+     * {@link mondeytransfer.enums.ConfigKeys#HOT_ACCOUNT_AUTO_SPLIT} is on (see {@link HotAccounts}).
+     */
+    public synchronized void rebalance() {
+        final long[] loads = new long[COUNT_THREADS];
+        long sum = 0;
+        int hot = 0, cold = 0;
+        for (int i = 0; i < COUNT_THREADS; i++) {
+            final long records = HOT_ACCOUNTS[i].getRecords();
+            loads[i] = records - rebalanced[i];
+            rebalanced[i] = records;
+            sum += loads[i];
+            if (loads[i] > loads[hot])
+                hot = i;
+            if (loads[i] < loads[cold])
+                cold = i;
+        }
+        if (loads[hot] < MIN_REBALANCE_LOAD || loads[hot] * COUNT_THREADS <= 2 * sum)
+            return;
+
+        final long id = HOT_ACCOUNTS[hot].getHottest();
+        final long load = (long) (HOT_ACCOUNTS[hot].getShare(id) * loads[hot]);
+        if (HotAccounts.isPart(id) || HOT.isSplit(id) || ROUTER.shard(id) != hot)
+            return;
+
+        try {
+            if (2 * load <= loads[hot] - loads[cold])
+                moveAccount(id, cold);
+            else if (HOT_ACCOUNT_AUTO_SPLITTING && id >= 0 && id < HotAccounts.MAX_ID && HOT_ACCOUNT_PARTS_COUNT > 1)
+                splitAccount(id, HOT_ACCOUNT_PARTS_COUNT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Move the account to another shard without a stop: new transactions of the account go to the new shard at once,
+     * but they wait there until the old shard has treated the ones which it has already got (see
+     * {@link ShardRouter}), so transactions of the account are treated in the same order.
+     *
+     * @return - false if the account is already there or too many accounts have been moved
+     */
+    public synchronized boolean moveAccount(final long id, final int shard) throws InterruptedException {
+        if (shard < 0 || shard >= COUNT_THREADS)
+            throw new IllegalArgumentException("There isn`t the shard " + shard);
+
+        final ShardRouter.Migration migration = ROUTER.move(id, shard);
+        if (isNull(migration))
+            return false;
+
+        final TransactionDto fence = new TransactionDto();
+        fence.setPhase(TransferPhaseEnum.FENCE);
+        fence.setEnqueuedAt(System.nanoTime());
+        TDQ_MAP.get(migration.getFrom()).put(fence); // after all transactions of the account in the old shard
+
+        while (!migration.isFenced() && !es.isShutdown())
+            LockSupport.parkNanos(100_000L);
+        ROUTER.finish(migration);
+
+        METRICS.migrated();
+        LOGGER.info("The account {0} has been moved from the shard {1} to the shard {2}", id, migration.getFrom(), shard);
+        return true;
+    }
+
+    /**
+     * @return - the shard which changes the user now
+     */
+    public int getShard(final long id) {
+        return ROUTER.shard(id);
+    }
+
+    /**
+     * @return - the node of the cluster which keeps the user (id % nodes, like shards of a node)
+     */
+    public int getNode(final long id) {
+        return (int) Math.floorMod(id, (long) NODES);
+    }
+
+    public boolean isLocal(final long id) {
+        return NODES == 1 || getNode(id) == NODE;
+    }
+
+    public int getNodes() {
+        return NODES;
+    }
+
+    /**
+     * Connect the engine to other nodes of the cluster, credits and confirmations which have waited for it are sent
+     */
+    public void setRemote(final RemoteNodes remote) {
+        this.remote = remote;
+        routeUnrouted();
+    }
+
+    private void routeUnrouted() {
+        TransactionDto op;
+        while (!isNull(op = unrouted.poll()))
+            remote.credit(op);
+        while (!isNull(op = unconfirmed.poll()))
+            remote.confirmed(op);
+    }
+
+    /**
+     * @return - credits from other nodes which have been replayed from the journal, but their senders haven`t
+     * confirmed them yet. The store has them, so a repeated one must only be answered
+     */
+    public Set<UUID> getUnconfirmedCredits() {
+        return Collections.unmodifiableSet(unconfirmedCredits);
+    }
+
+    /**
+     * The node of the sender has got the result of the credit from another node, so its CREDITED record isn`t in
+     * flight any more
+     *
+     * @return - a future which is completed after the record has been written
+     */
+    public Future<Void> confirmCredit(final UUID transactionId) {
+        if (isNull(journal))
+            return Future.succeededFuture();
+
+        final Future<Void> confirmed = Future.future();
+        final Handler<AsyncResult<Void>> onCommit = onCallerContext(ar -> {
+            if (ar.succeeded())
+                confirmed.complete();
+            else
+                confirmed.fail(new RejectedTransactionException(printError(JOURNAL_ERROR)));
+        });
+
+        if (!journal.append(JournalRecord.confirmed(transactionId).onCommit(onCommit)))
+            return Future.failedFuture(new RejectedTransactionException(printError(JOURNAL_IS_SATURATED), RETRY_AFTER));
+
+        return confirmed;
+    }
+
+    /**
+     * The credit half of a transfer from another node, the sender`s node has taken the money. The result is sent
+     * back by {@link RemoteNodes#credited(TransactionDto)}
+     *
+     * @return - false if the sum isn`t supported by the store, then it hasn`t been sent to a shard
+     */
+    public boolean acceptCredit(final TransactionDto op) {
+        if (HotAccounts.isPart(op.getToId()))
+            return false;
+        try {
+            TS_STORE.prepare(op);
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        route(op, TransferPhaseEnum.CREDIT, op.getToId());
+        return true;
+    }
+
+    /**
+     * The node of the receiver has treated the credit half: the shard of the sender confirms the transfer or gives
+     * the money back
+     */
+    public void credited(final TransactionDto op, final TransferResultEnum result) {
+        if (result == TransferResultEnum.SUCCESS) {
+            route(op, TransferPhaseEnum.CONFIRM, op.getFromId());
+        } else {
+            op.setResult(result);
+            route(op, TransferPhaseEnum.REFUND, op.getFromId());
+        }
+    }
+
+    /**
+     * Take a snapshot of {@link TransactionsService#TS_STORE} without stopping shard workers (see
+     * {@link SnapshotStore}), then delete journal segments which are covered by it. The snapshot replaces the previous
+     * one only after the journal has all changes which the scan could read, see
+     * {@link TransactionsService#awaitJournaled()}
+     */
+    public void snapshot() {
+        if (isNull(snapshots))
+            return;
+
+        try {
+            final JournalRecord checkpoint = isNull(journal) ? null : journal.checkpoint();
+            final long position = isNull(checkpoint) ? 0 : checkpoint.getPosition();
+            final long pendingFrom = isNull(checkpoint) ? 0 : checkpoint.getPendingFrom();
+
+            snapshots.write(TS_STORE, position, pendingFrom, this::awaitJournaled);
+
+            if (!isNull(journal))
+                journal.deleteBefore(pendingFrom);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("The snapshot hasn`t been written, reason=''{0}''", e.getMessage());
+        }
+    }
+
+    /**
+     * Wait until shard workers have finished the batches which they are treating now and the journal has written
+     * their records. A shard changes users in memory before its records are in the journal, so a snapshot which has
+     * read a change without its record (e.g. a debit without the DEBITED record) would restore the change, and the
+     * replay would make it again
+     */
+    private void awaitJournaled() throws InterruptedException, IOException {
+        for (PaddedAtomicLong batches : BATCHES) {
+            final long batch = batches.get();
+            while ((batch & 1) == 1 && batches.get() == batch && !es.isShutdown())
+                LockSupport.parkNanos(100_000L);
+        }
+        if (!isNull(journal))
+            journal.checkpoint();
+    }
+
+    /**
+     * Restore the state from a journal record. A USER record and after-images of APPLIED records are applied only if
+     * they are newer than the current state of the user (see {@link AccountStore#restore(long, long, String, BigDecimal)}).
+     * After-images are in currencies of existing users, a USER record has the currency of a new user. A DEBITED record
+     * restores the image of the sender and marks the transaction, so it is resent to its credit half. A CREDITED
+     * record restores the image of the receiver and it is kept until the sender confirms it, and a success transfer to
+     * another node is confirmed again, because the confirmation could be lost by the restart.
+     *
+     * @param inFlight - accepted transactions without results
+     */
+    private void replay(final JournalRecord r, final Map<UUID, TransactionDto> inFlight) {
+        switch (r.getType()) {
+            case JournalRecord.USER:
+                TS_STORE.restore(r.getFromId(), r.getFromVersion(), r.getCurrency(), r.getFromBalance());
+                break;
+            case JournalRecord.ACCEPTED:
+                inFlight.put(r.getTransactionId(), r.toTransaction());
+                break;
+            case JournalRecord.DEBITED:
+                TS_STORE.restore(r.getFromId(), r.getFromVersion(), null, r.getFromBalance());
+                final TransactionDto debited = inFlight.get(r.getTransactionId());
+                if (!isNull(debited)) {
+                    final BigDecimal balance = r.getFromBalance();
+                    debited.setFromAccount(r.getFromId()); // a part of a split account
+                    debited.setDebited(r.getFromVersion(), Money.toUnits(balance, balance.scale()));
+                    debited.setPhase(TransferPhaseEnum.CREDIT);
+                }
+                break;
+            case JournalRecord.CREDITED:
+                TS_STORE.restore(r.getToId(), r.getToVersion(), null, r.getToBalance());
+                unconfirmedCredits.add(r.getTransactionId());
+                break;
+            default:
+                final TransactionDto applied = inFlight.remove(r.getTransactionId());
+                unconfirmedCredits.remove(r.getTransactionId());
+                if (r.getStatus() == StatusEnum.SUCCESS) {
+                    if (!isNull(applied) && !isLocal(applied.getToId())) // confirmed or refunded
+                        unconfirmed.add(applied);
+                    if (r.getFromVersion() != JournalRecord.NO_IMAGE)
+                        TS_STORE.restore(r.getFromId(), r.getFromVersion(), null, r.getFromBalance());
+                    if (r.getToVersion() != JournalRecord.NO_IMAGE)
+                        TS_STORE.restore(r.getToId(), r.getToVersion(), null, r.getToBalance());
+                }
+        }
+    }
+
+    /**
+     * Stop threads of shards and write the rest of the journal, of the audit log and of the history
+     */
+    public void close() {
+        if (!isNull(snapshotter))
+            snapshotter.shutdownNow();
+        if (!isNull(rebalancer))
+            rebalancer.shutdownNow();
+        if (!isNull(fxReloader))
+            fxReloader.shutdownNow();
+        if (!isNull(partsRebalancer))
+            partsRebalancer.shutdownNow();
+        es.shutdownNow();
+        try {
+            if (!isNull(snapshotter) && !snapshotter.awaitTermination(10, TimeUnit.SECONDS))
+                LOGGER.warn("The snapshot writer hasn`t stopped");
+
+            if (!es.awaitTermination(10, TimeUnit.SECONDS))
+                LOGGER.warn("Transactions handlers haven`t stopped");
+
+            if (!isNull(journal))
+                journal.close();
+            if (!isNull(audit))
+                audit.close();
+            if (!isNull(history))
+                history.close();
+            TS_STORE.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.error("The journal, the audit log or the history hasn`t been closed, reason=''{0}''", e.getMessage());
+        }
     }
 
     /**
@@ -74,138 +862,1148 @@ public class TransactionsService {
      * a while-loop and consume data from {@link TransactionsService#TDQ_MAP}. As soon as some a transaction put in it,
      * a one of thread took it and treat it.
      * <p>
+     * Each user is changed only by the thread of the user`s shard, so a transfer has two halves: the shard of the
+     * sender takes the money and routes the transaction to {@link TransactionsService#CREDIT_MAP} of the receiver`s
+     * shard, which adds the money (see {@link TransferPhaseEnum}). Hereby a hot receiver (e.g. a merchant) is changed
+     * by one thread and doesn`t serialize shards of all its senders on one lock. Halves are taken before new
+     * transactions, because they have already been accepted. A credit queue is never full for a shard: if there isn`t
+     * a free slot in it, the half goes to {@link TransactionsService#SPILL_MAP}, so two shards never wait for each
+     * other. The spill is bounded by the admission instead: a new transaction isn`t accepted while the shard of its
+     * receiver has as many halves waiting as its credit queue takes (see
+     * {@link TransactionsService#isReceiverSaturated(TransactionDto)}), so the spill can`t get more halves than
+     * transactions which have already been in shard queues.
+     * <p>
      * During treating if an error with data consistence appeared the thread write it to
      * {@link TransactionsService#statusDtos} and send this error to this queue. If the transaction executed success it
      * also write the queue a msg about success.
+     * <p>
+     * A thread takes up to {@link TransactionsService#DRAIN_BATCH} transactions at once (see
+     * {@link ShardQueue#drainTo(List, int)}), treats them and then publishes their statuses and journal records
+     * together (see {@link ShardResults}). So under load a thread wakes up, moves the head of its queue and appends to
+     * the journal once per batch instead of once per transaction, and the latency of a single transaction doesn`t
+     * grow: a batch is only what has already been waiting in the queue.
+     * <p>
+     * A debit is journaled by a DEBITED record with the after-image of the sender, and the credit half is routed only
+     * after the records of the batch have been put to the journal: so the DEBITED record is always before any later
+     * image of the sender (e.g. of its next transfer, which is credited by another shard), and a restart never debits
+     * the sender again (see {@link TransactionsService#replay(JournalRecord, Map)}).
+     * <p>
+     * Each thread records the time of a transaction in its queue and the time of its processing to its own
+     * {@link MetricsService.ShardMetrics}. Treated halves aren`t logged by the thread, they go to the asynchronous
+     * {@link AuditLog} (if it is on).
      */
     private void runQueueExecutor() {
-
-        final ExecutorService es = Executors.newFixedThreadPool(COUNT_THREADS, new CustomThreadFactory("Transactions handler for the queue="));
+        for (Integer i = 0; i < COUNT_THREADS; i++) {
+            TDQ_MAP.put(i, newShardQueue());
+            CREDIT_MAP.put(i, new MpscRingBuffer<>(SHARD_QUEUE_CAPACITY, WAIT_STRATEGY));
+            SPILL_MAP.put(i, new ConcurrentLinkedQueue<>());
+        }
 
         for (Integer i = 0; i < COUNT_THREADS; i++) {
-            final LinkedBlockingQueue<TransactionDto> tdq = new LinkedBlockingQueue<>(20_000);
-            TDQ_MAP.put(i, tdq);
+            final int shard = i;
+            final ShardQueue<TransactionDto> tdq = TDQ_MAP.get(i), credits = CREDIT_MAP.get(i);
+            final Queue<TransactionDto> spill = SPILL_MAP.get(i);
+            final PaddedAtomicLong queuedHalves = HALVES[i], spilledHalves = SPILLED[i], batches = BATCHES[i];
+            final MetricsService.ShardMetrics metrics = METRICS.shard(i);
+            final HeavyHitters hotAccounts = HOT_ACCOUNTS[i] = new HeavyHitters(HOT_ACCOUNTS_COUNTERS);
 
             es.execute(() -> {
+                final AccountImage image = new AccountImage(); // reused by each half of a transfer
+                final List<TransactionDto> batch = new ArrayList<>(DRAIN_BATCH);
+                final ShardResults results = new ShardResults(DRAIN_BATCH);
+                final Queue<TransactionDto> waiting = new ArrayDeque<>(); // of an account which is moved to the shard
+                ShardRouter.Migration migration = null; // of the waiting account
+                long halves = 0; // the sample counter of the audit log
+                int idle = 0;
 
-                while (true) {
-                    try {
-                        final TransactionDto op = tdq.take(); // block and wait, if there aren`t transaction tasks
+                while (!Thread.currentThread().isInterrupted()) {
+                    batch.clear();
+                    final boolean resumed = !waiting.isEmpty() && migration.isFenced(); // the old shard has treated the account
+                    if (resumed) {
+                        while (batch.size() < DRAIN_BATCH && !waiting.isEmpty())
+                            batch.add(waiting.poll());
+                    } else {
+                        final int credited = credits.drainTo(batch, DRAIN_BATCH);
+                        int left = DRAIN_BATCH - credited, unspilled = 0;
+                        TransactionDto spilled;
+                        while (left > 0 && !isNull(spilled = spill.poll())) {
+                            batch.add(spilled);
+                            left--;
+                            unspilled++;
+                        }
+                        if (credited + unspilled > 0)
+                            queuedHalves.addAndGet(-(credited + unspilled));
+                        if (unspilled > 0)
+                            spilledHalves.addAndGet(-unspilled);
+                        if (left > 0)
+                            tdq.drainTo(batch, left);
+                        if (batch.isEmpty()) { // wait, if there aren`t transaction tasks
+                            idle = WAIT_STRATEGY.idle(idle);
+                            continue;
+                        }
+                    }
+                    idle = 0;
 
-                        final UserDto senderUser = TS_STORE.getOrDefault(op.getFromId(), new UserDto(0L));
-                        final UserDto receiverUser = TS_STORE.getOrDefault(op.getToId(), new UserDto(0L));
+                    batches.incrementAndGet(); // odd until records of the batch are in the journal
+                    try {
+                        for (TransactionDto op : batch) {
+                            if (op.getPhase() == TransferPhaseEnum.FENCE) { // this shard has treated the moved account
+                                results.flush(); // its statuses are before the ones from the new shard
+                                final ShardRouter.Migration fenced = ROUTER.getMigration();
+                                if (!isNull(fenced))
+                                    fenced.fence();
+                                continue;
+                            }
 
-                        LOGGER.info("{0} take {1}", Thread.currentThread().getName(), op);
+                            final long account = account(op);
+                            final ShardRouter.Migration moving = ROUTER.getMigration();
+                            if (!resumed && (!waiting.isEmpty() && account == migration.getId() || !isNull(moving)
+                                    && moving.getTo() == shard && account == moving.getId() && !moving.isFenced())) {
+                                if (waiting.isEmpty())
+                                    migration = moving;
+                                waiting.add(op); // the old shard can still have transactions of the account
+                                continue;
+                            }
 
-                        /**
-                         * This check just in case, because it a normal working system you can`t send ZERO, it
-                         * should be filtered in validation
-                         */
-                        if (senderUser.getBalance().compareTo(BigDecimal.ZERO) <= 0
-                                || receiverUser.getBalance().compareTo(BigDecimal.ZERO) <= 0) {
-                            LOGGER.error(
-                                    "transaction {0} has failed because data has been corrupted" +
-                                            "or the sender don`t have enough money",
-                                    op);
-                            statusDtos.add(new StatusDto(op.getTransactionId(), StatusEnum.CRITICAL_SYSTEM_ERROR, "Data has been corrupted or the sender don`t have enough money"));
+                            hotAccounts.record(account);
+                            final long started = System.nanoTime();
+                            metrics.taken(started - op.getEnqueuedAt());
+                            final TransferPhaseEnum phase = op.getPhase(); // the next half changes it
+                            final StatusEnum result = process(op, image, results);
+                            if (isNull(result))
+                                metrics.routed(System.nanoTime() - started);
+                            else
+                                metrics.processed(result, System.nanoTime() - started);
 
-                            continue;
+                            if (!isNull(audit) && audit.isRecorded(result, ++halves))
+                                audit.record(shard, phase, op, result);
                         }
+                        results.flush();
+                    } catch (InterruptedException e) {
+                        break;
+                    } finally {
+                        batches.incrementAndGet();
+                    }
+                }
+                LOGGER.info("The thread={0} has been stopped", Thread.currentThread().getName());
+            });
+        }
+    }
 
-                        final BigDecimal res = senderUser.getBalance().subtract(op.getSentSum());
+    /**
+     * transfer money. the main part of the app. After-images (balance and version) are read under the same locks as
+     * changes, so they are consistent for the journal
+     *
+     * @param image - it gets the after-image of the changed user
+     * @return - the status of the transaction, or null if it has been routed to another half
+     */
+    private StatusEnum process(final TransactionDto op, final AccountImage image, final ShardResults results) {
+        switch (op.getPhase()) {
+            case DEBIT:
+                return debit(op, image, results);
+            case CREDIT:
+                return credit(op, image, results);
+            case CONFIRM:
+                return confirm(op, results);
+            default:
+                return refund(op, image, results);
+        }
+    }
 
-                        if (res.compareTo(BigDecimal.ZERO) < 0) { // second check the sender`s balance
-                            LOGGER.warn(
-                                    "User {0} don`t have enough money",
-                                    op.getFromId());
-                            statusDtos.add(new StatusDto(op.getTransactionId(), StatusEnum.ERROR, "The sender don`t have enough money"));
+    private StatusEnum debit(final TransactionDto op, final AccountImage from, final ShardResults results) {
+        final HotAccounts.Split split = HOT.get(op.getFromId());
+        final long account = op.getFromAccount();
+        final TransferResultEnum result = !isNull(split) && !TS_STORE.canDebit(account, op)
+                ? TransferResultEnum.NOT_ENOUGH_MONEY // a part can be empty, it isn`t corrupted
+                : TS_STORE.debit(account, op, isLocal(op.getToId()) && !HOT.isSplit(op.getToId()), from);
 
-                            continue;
-                        }
+        if (!isNull(split) && result != TransferResultEnum.SUCCESS && !(op instanceof PartMove)) {
+            final long next = split.next(account, op.getTransactionId());
+            if (next != HotAccounts.NO_PART) { // try the next part of the sender
+                op.setFromAccount(next);
+                route(op, TransferPhaseEnum.DEBIT, op.getFromId());
+                return null;
+            }
+        }
+
+        switch (result) {
+            case SUCCESS:
+                if (!isNull(journal) || !isNull(history))
+                    op.setDebited(from.getVersion(), from.getUnits());
+                results.debited(op, JournalRecord.debited(op.getTransactionId(), account, from.getVersion(),
+                        from.getUnits(), from.getScale()));
+                return null;
+            case NOT_ENOUGH_MONEY:
+                if (op instanceof PartMove) // the part has been changed since the rebalance read it
+                    return moved((PartMove) op, false, JournalRecord.rejected(op.getTransactionId(), StatusEnum.ERROR),
+                            results);
+                LOGGER.warn(
+                        "User {0} don`t have enough money",
+                        op.getFromId());
+                results.add(new StatusDto(op, StatusEnum.ERROR, "The sender don`t have enough money"),
+                        JournalRecord.rejected(op.getTransactionId(), StatusEnum.ERROR));
+                return StatusEnum.ERROR;
+            default:
+                return corrupted(op, results);
+        }
+    }
+
+    private StatusEnum credit(final TransactionDto op, final AccountImage to, final ShardResults results) {
+        TransferResultEnum result = convert(op);
+        if (result == TransferResultEnum.SUCCESS)
+            result = TS_STORE.credit(op.getToAccount(), op.getCreditedUnits(), to);
+        if (!isLocal(op.getFromId())) { // the sender is on another node, it gets the result and makes the status
+            op.setResult(result);
+            JournalRecord record = null; // a failed credit hasn`t changed anything, it can be repeated
+            if (result == TransferResultEnum.SUCCESS) {
+                record = JournalRecord.credited(op.getTransactionId(), to.getId(), to.getVersion(), to.getUnits(),
+                        to.getScale());
+                results.history(HistoryEntryDto.credited(op, balance(op.getToId(), to.getUnits()), to.getScale()));
+            }
+            results.reply(op, record);
+            return null;
+        }
 
-                        /**
-                         * transfer money. the main part of the app
-                         */
-                        senderUser.setBalance(res);
-                        receiverUser.plusBalance(op.getSentSum());
+        if (result != TransferResultEnum.SUCCESS) {
+            op.setResult(result);
+            route(op, TransferPhaseEnum.REFUND, op.getFromId()); // give the money back to the sender
+            return null;
+        }
 
-                        statusDtos.add(new StatusDto(op.getTransactionId(), StatusEnum.SUCCESS));
+        final int fromScale = CURRENCIES.scale(op.getCurrencyIndex());
+        final JournalRecord applied = JournalRecord.applied(op.getTransactionId(), op.getFromAccount(),
+                op.getDebitedVersion(), op.getDebitedUnits(), fromScale, to.getId(), to.getVersion(), to.getUnits(),
+                to.getScale());
+        if (op instanceof PartMove)
+            return moved((PartMove) op, true, applied, results);
 
+        results.add(new StatusDto(op, StatusEnum.SUCCESS, null), applied);
+        results.history(HistoryEntryDto.debited(op, balance(op.getFromId(), op.getDebitedUnits()), fromScale));
+        results.history(HistoryEntryDto.credited(op, balance(op.getToId(), to.getUnits()), to.getScale()));
+        return StatusEnum.SUCCESS;
+    }
 
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                        LOGGER.error("Transaction error in the thread={0}, reason='{1}'",
-                                Thread.currentThread().getName(),
-                                e.getMessage()
-                                );
-                    }
-                }
-            });
+    /**
+     * Convert the sum to the currency of the receiver by the current rates, in the shard of the receiver. Rates are
+     * read without locks (see {@link FxRateTable}), so a reload doesn`t stop transfers
+     *
+     * @return - {@link TransferResultEnum#NOT_CONVERTIBLE} if there isn`t a rate or the result is out of range
+     */
+    private TransferResultEnum convert(final TransactionDto op) {
+        final int to = TS_STORE.getCurrency(op.getToId());
+        if (to < 0 || to == op.getCurrencyIndex()) // a missing receiver is found by the credit
+            return TransferResultEnum.SUCCESS;
+
+        final long units = FX.get().convert(op.getSentUnits(), op.getCurrencyIndex(), to);
+        if (units < 0)
+            return TransferResultEnum.NOT_CONVERTIBLE;
+
+        op.setCreditedUnits(units);
+        return TransferResultEnum.SUCCESS;
+    }
+
+    /**
+     * The receiver on another node has got the money
+     */
+    private StatusEnum confirm(final TransactionDto op, final ShardResults results) {
+        final JournalRecord record = JournalRecord.applied(op.getTransactionId(), op.getFromAccount(),
+                op.getDebitedVersion(), op.getDebitedUnits(), CURRENCIES.scale(op.getCurrencyIndex()));
+        results.confirm(op, record);
+        results.add(new StatusDto(op, StatusEnum.SUCCESS, null), record);
+        results.history(HistoryEntryDto.debited(op, balance(op.getFromId(), op.getDebitedUnits()),
+                CURRENCIES.scale(op.getCurrencyIndex())));
+        return StatusEnum.SUCCESS;
+    }
+
+    /**
+     * Give the money back to the sender. The record has the after-image of the sender, else a later image of the
+     * sender which has been read before the refund would be restored by a replay without the money
+     */
+    private StatusEnum refund(final TransactionDto op, final AccountImage from, final ShardResults results) {
+        if (TS_STORE.credit(op.getFromAccount(), op.getSentUnits(), from) != TransferResultEnum.SUCCESS)
+            return corrupted(op, results);
+        final JournalRecord refunded = JournalRecord.refunded(op.getTransactionId(), op.getFromAccount(),
+                from.getVersion(), from.getUnits(), from.getScale());
+        if (!isLocal(op.getToId()))
+            results.confirm(op, refunded);
+        if (op instanceof PartMove) // the other part can`t take the money
+            return moved((PartMove) op, false, refunded, results);
+
+        if (op.getResult() == TransferResultEnum.NOT_CONVERTIBLE) { // the rate has been removed since the validation
+            LOGGER.warn("transaction {0} has failed because the sum can`t be converted", op);
+            results.add(new StatusDto(op, StatusEnum.ERROR, String.format(CANT_BE_CONVERTED, op.getToId())), refunded);
+            return StatusEnum.ERROR;
+        }
+
+        if (op.getResult() == TransferResultEnum.CORRUPTED && !isLocal(op.getToId())) { // it isn`t validated here
+            LOGGER.warn("transaction {0} has failed because the receiver hasn`t been found", op);
+            results.add(new StatusDto(op, StatusEnum.ERROR, String.format(RECEIVER_NOT_FOUND, op.getToId())), refunded);
+            return StatusEnum.ERROR;
         }
+        if (op.getResult() != TransferResultEnum.OVERFLOW)
+            return corrupted(op, results, refunded);
+
+        LOGGER.error("transaction {0} has failed because the receiver`s balance overflows", op);
+        results.add(new StatusDto(op, StatusEnum.ERROR, "The receiver`s balance is too big"), refunded);
+        return StatusEnum.ERROR;
     }
 
-    public String getAll() {
+    /**
+     * A move between parts of a split account doesn`t have a status and the history, the rebalance goes on after its
+     * record
+     */
+    private StatusEnum moved(final PartMove move, final boolean success, final JournalRecord record,
+                             final ShardResults results) {
+        move.moved = success;
+        results.moved(move, record);
+        return success ? StatusEnum.SUCCESS : StatusEnum.ERROR;
+    }
+
+    private StatusEnum corrupted(final TransactionDto op, final ShardResults results) {
+        return corrupted(op, results, JournalRecord.rejected(op.getTransactionId(), StatusEnum.CRITICAL_SYSTEM_ERROR));
+    }
+
+    private StatusEnum corrupted(final TransactionDto op, final ShardResults results, final JournalRecord record) {
+        LOGGER.error(
+                "transaction {0} has failed because data has been corrupted" +
+                        "or the sender don`t have enough money",
+                op);
+        results.add(new StatusDto(op, StatusEnum.CRITICAL_SYSTEM_ERROR, "Data has been corrupted or the sender don`t have enough money"),
+                record);
+        return StatusEnum.CRITICAL_SYSTEM_ERROR;
+    }
+
+    /**
+     * Send the transaction to the next half on the shard of the user, it never waits. A credit of a user on another
+     * node goes to {@link RemoteNodes}
+     */
+    private void route(final TransactionDto op, final TransferPhaseEnum phase, final long id) {
+        op.setPhase(phase);
+        if (!isLocal(id)) {
+            final RemoteNodes nodes = remote;
+            if (isNull(nodes)) { // the journal resends transactions before the cluster has been joined
+                unrouted.add(op);
+                if (!isNull(remote))
+                    routeUnrouted();
+            } else {
+                nodes.credit(op);
+            }
+            return;
+        }
+
+        if (phase == TransferPhaseEnum.CREDIT && !(op instanceof PartMove)) // the rebalance chooses the part of a move
+            op.setToAccount(HOT.account(id, op.getTransactionId()));
+
+        final int reader = ROUTER.enter();
         try {
-            return new ObjectMapper().writeValueAsString(TS_STORE);
-        } catch (Exception e) {
-            LOGGER.error("Serialize error in getAll()");
-            return printError(String.format("An error occurred during serialization %s", e.getMessage()));
+            op.setEnqueuedAt(System.nanoTime());
+            final int shard = shard(phase == TransferPhaseEnum.CREDIT ? op.getToAccount() : op.getFromAccount());
+            HALVES[shard].incrementAndGet(); // before the worker can take it
+            if (!CREDIT_MAP.get(shard).offer(op)) {
+                SPILLED[shard].incrementAndGet();
+                SPILL_MAP.get(shard).add(op);
+            }
+        } finally {
+            ROUTER.exit(reader);
+        }
+    }
+
+    /**
+     * @return - the user which the half of the transfer changes
+     */
+    private static long account(final TransactionDto op) {
+        return op.getPhase() == TransferPhaseEnum.CREDIT ? op.getToAccount() : op.getFromAccount();
+    }
+
+    /**
+     * @return - the balance of the user for the history, a split account doesn`t have one balance after a change of
+     * its part
+     */
+    private long balance(final long id, final long units) {
+        return HOT.isSplit(id) ? HistoryEntryDto.NO_BALANCE : units;
+    }
+
+    /**
+     * @return - the shard which changes the account or the part of a split account
+     */
+    private int shard(final long account) {
+        if (HotAccounts.isPart(account)) {
+            final int shard = HOT.shard(account);
+            if (shard >= 0)
+                return shard;
+        }
+        return ROUTER.shard(account);
+    }
+
+    /**
+     * @return - true if the shard of the receiver has as many halves of transfers waiting as its credit queue takes,
+     * so the credit of a new transaction would only grow the spill of the shard. A receiver on another node is
+     * checked by its node
+     */
+    private boolean isReceiverSaturated(final TransactionDto td) {
+        if (!isLocal(td.getToId()))
+            return false;
+
+        final int shard = shard(HOT.account(td.getToId(), td.getTransactionId()));
+        return HALVES[shard].get() >= CREDIT_MAP.get(shard).capacity();
+    }
+
+    /**
+     * Send the transaction to the shard of the sender, see {@link ShardRouter#enter()}
+     *
+     * @return - false if the queue of the shard is full
+     */
+    private boolean offer(final TransactionDto td) {
+        final int reader = ROUTER.enter();
+        try {
+            td.setEnqueuedAt(System.nanoTime());
+            return TDQ_MAP.get(shard(td.getFromAccount())).offer(td);
+        } finally {
+            ROUTER.exit(reader);
         }
     }
 
+    /**
+     * The blocking version of {@link TransactionsService#offer(TransactionDto)}
+     */
+    private void put(final TransactionDto td) throws InterruptedException {
+        final int reader = ROUTER.enter();
+        try {
+            td.setEnqueuedAt(System.nanoTime());
+            TDQ_MAP.get(shard(td.getFromAccount())).put(td);
+        } finally {
+            ROUTER.exit(reader);
+        }
+    }
+
+    /**
+     * A move of money between parts of a split account (see {@link TransactionsService#rebalanceParts()}). It is a
+     * transfer of the account to itself between the parts which the rebalance has chosen, but it doesn`t have a status
+     * and the history. A restart resends it as an ordinary transfer, so the money isn`t lost
+     */
+    private static class PartMove extends TransactionDto {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean moved; // it is read after done
+
+        PartMove(final long id, final BigDecimal sum) {
+            super(id, sum, id);
+        }
+    }
+
+    /**
+     * Results of a batch of a shard worker. Statuses are kept for {@link TransactionsService#getStatuses()} and
+     * {@link TransactionsService#getStatus(UUID)} and pushed to streams, records are written to the journal and
+     * entries to the history, all by one call for the whole batch. Debited transactions go to their credit halves
+     * after the records. Other nodes get results of their credits and confirmations of transfers after the records
+     * have been written, so a restart of any node can`t make a credit twice
+     */
+    private class ShardResults {
+        private final List<StatusDto> statuses;
+        private final List<JournalRecord> records;
+        private final List<HistoryEntryDto> entries;
+        private final List<TransactionDto> debited;
+        private final List<TransactionDto> replies; // credits from other nodes
+        private final List<TransactionDto> confirmations; // transfers to other nodes, if the journal is disabled
+        private final List<PartMove> moves; // the rebalance waits for them
+
+        ShardResults(final int capacity) {
+            this.statuses = new ArrayList<>(capacity);
+            this.records = new ArrayList<>(capacity);
+            this.entries = new ArrayList<>(capacity);
+            this.debited = new ArrayList<>(capacity);
+            this.replies = new ArrayList<>();
+            this.confirmations = new ArrayList<>();
+            this.moves = new ArrayList<>();
+        }
+
+        void add(final StatusDto status, final JournalRecord record) {
+            statuses.add(status);
+            journal(record);
+        }
+
+        /**
+         * A record without a status, the status is made by another node
+         */
+        void journal(final JournalRecord record) {
+            if (!isNull(journal))
+                records.add(record);
+        }
+
+        /**
+         * A change of a user by a success transfer
+         */
+        void history(final HistoryEntryDto entry) {
+            if (!isNull(history))
+                entries.add(entry);
+        }
+
+        /**
+         * The sender has paid, the transaction goes to the credit half after the record
+         */
+        void debited(final TransactionDto op, final JournalRecord record) {
+            journal(record);
+            debited.add(op);
+        }
+
+        /**
+         * The result of a credit from another node goes back after its CREDITED record, else the node of the sender
+         * could repeat the credit after a restart of this one
+         *
+         * @param record - null if the credit has failed
+         */
+        void reply(final TransactionDto op, final JournalRecord record) {
+            if (isNull(journal) || isNull(record)) {
+                replies.add(op);
+                return;
+            }
+
+            records.add(record.onCommit(ar -> {
+                if (ar.succeeded())
+                    remote.credited(op); // else the node of the sender repeats it, and the message waits for it
+                else
+                    LOGGER.error("The credit of the transaction {0} hasn`t been answered, because it hasn`t been " +
+                            "journaled", op.getTransactionId());
+            }));
+        }
+
+        /**
+         * The node of the receiver can forget the credit after the record of the transfer, which must be added by
+         * {@link ShardResults#add(StatusDto, JournalRecord)}
+         */
+        void confirm(final TransactionDto op, final JournalRecord record) {
+            if (isNull(journal))
+                confirmations.add(op);
+            else
+                record.onCommit(ar -> {
+                    if (ar.succeeded())
+                        remote.confirmed(op); // else the replay confirms it
+                });
+        }
+
+        /**
+         * A move between parts of a split account is done or it has failed
+         */
+        void moved(final PartMove move, final JournalRecord record) {
+            journal(record);
+            moves.add(move);
+        }
+
+        /**
+         * It waits if the journal is overloaded, because results can`t be lost
+         */
+        void flush() throws InterruptedException {
+            if (!statuses.isEmpty()) {
+                statusDtos.addAll(statuses); // one CAS for the whole batch
+                for (StatusDto status : statuses)
+                    STATUS_INDEX.put(status);
+                STATUS_BROADCASTER.publishAll(statuses);
+                statuses.clear();
+            }
+
+            if (!records.isEmpty())
+                journal.putAll(records);
+            records.clear();
+
+            if (!entries.isEmpty())
+                history.putAll(entries);
+            entries.clear();
+
+            for (TransactionDto op : debited)
+                route(op, TransferPhaseEnum.CREDIT, op.getToId());
+            debited.clear();
+
+            for (TransactionDto op : replies)
+                remote.credited(op);
+            replies.clear();
+
+            for (TransactionDto op : confirmations)
+                remote.confirmed(op);
+            confirmations.clear();
+
+            for (PartMove move : moves)
+                move.done.countDown();
+            moves.clear();
+        }
+    }
+
+    /**
+     * Write a result of a transaction to the journal. It waits if the journal is overloaded, because results can`t be
+     * lost
+     */
+    private void journal(final JournalRecord record) throws InterruptedException {
+        if (!isNull(journal))
+            journal.put(record);
+    }
+
+    private static AccountStore newStore(final JsonObject config, final Currencies currencies) {
+        switch (StoreTypeEnum.of(config.getString(STORE_TYPE, StoreTypeEnum.MAP.name()))) {
+            case PRIMITIVE:
+                return new PrimitiveAccountStore(config.getInteger(STORE_CAPACITY, DEFAULT_STORE_CAPACITY), currencies);
+            default:
+                return new TransactionStore(currencies);
+        }
+    }
+
+    private ShardQueue<TransactionDto> newShardQueue() {
+        switch (SHARD_QUEUE_TYPE) {
+            case LINKED:
+                return new LinkedShardQueue<>(SHARD_QUEUE_CAPACITY);
+            default:
+                return new MpscRingBuffer<>(SHARD_QUEUE_CAPACITY, WAIT_STRATEGY);
+        }
+    }
+
+    /**
+     * A page of users for an export of the store, see {@link AccountStore#forEachAfter(Long, int, AccountStore.UserConsumer)}.
+     * Only the page is in the memory, not all users
+     *
+     * @return - the cursor of the next page, or null if it was the last page
+     */
+    public Long getPage(final Long after, final int limit, final AccountStore.UserConsumer consumer) {
+        return TS_STORE.forEachAfter(after, limit, (id, version, currency, balance) -> {
+            if (HotAccounts.isPart(id)) // a page can have less users than the limit
+                return;
+            final HotAccounts.Split split = HOT.get(id);
+            consumer.accept(id, version, currency, isNull(split) ? balance : getTotal(split, balance.scale()));
+        });
+    }
+
+    /**
+     * A page of the history of the user, see {@link HistoryLedger#read(long, Long, int, java.util.function.Consumer)}
+     *
+     * @return - null if the history is disabled or the user hasn`t existed
+     * @throws IllegalArgumentException - if the cursor isn`t an entry of the user
+     */
+    public HistoryPageDto getHistory(final long id, final Long from, final int limit) {
+        if (isNull(history) || isNull(TS_STORE.get(id)))
+            return null;
+
+        final HistoryPageDto page = new HistoryPageDto(limit);
+        page.setNext(history.read(id, from, limit, page.getEntries()::add));
+        return page;
+    }
+
+    public boolean isHistoryEnabled() {
+        return !isNull(history);
+    }
+
+    /**
+     * @return - null if the user doesn`t exist. The balance of a split account is the exact sum of its parts
+     */
     public UserDto getById(final Long id) {
-        return TS_STORE.get(id);
+        if (HotAccounts.isPart(id))
+            return null;
+
+        final UserDto user = TS_STORE.get(id);
+        final HotAccounts.Split split = isNull(user) ? null : HOT.get(id);
+        return isNull(split) ? user
+                : new UserDto(id, getTotal(split, user.getBalance().scale()), user.getCurrency());
     }
 
-    public String addOne(final UserDto user) {
-        return isNull(TS_STORE.putIfAbsent(user.getId(), user)) ? null : printError(String.format(USER_EXIST, user.getId()));
+    private BigDecimal getTotal(final HotAccounts.Split split, final int scale) {
+        final long[] units = new long[split.getParts()];
+        readParts(split, units);
+        BigDecimal total = BigDecimal.ZERO;
+        for (long part : units)
+            total = total.add(Money.toDecimal(part, scale));
+        return total;
+    }
+
+    /**
+     * @return - a future with an error if the user exists else with null. If the journal is enabled the future is
+     * completed after the user has been written to it
+     */
+    public Future<String> addOne(final UserDto user) {
+        if (HotAccounts.isPart(user.getId()))
+            return Future.succeededFuture(printError(String.format(ID_IS_RESERVED, user.getId())));
+
+        final int currency = CURRENCIES.index(user.getCurrency());
+        if (currency < 0)
+            return Future.succeededFuture(printError(String.format(UNKNOWN_CURRENCY, user.getCurrency())));
+        user.setCurrency(CURRENCIES.code(currency)); // the journal keeps the code
+
+        try {
+            if (!TS_STORE.putIfAbsent(user))
+                return Future.succeededFuture(printError(String.format(USER_EXIST, user.getId())));
+        } catch (IllegalArgumentException e) {
+            return Future.succeededFuture(printError(String.format(AMOUNT_IS_NOT_SUPPORTED, user.getBalance())));
+        } catch (IllegalStateException e) {
+            return Future.succeededFuture(printError(STORE_IS_FULL));
+        }
+
+        if (isNull(journal))
+            return Future.succeededFuture();
+
+        final Future<String> saved = Future.future();
+        final Handler<AsyncResult<Void>> onCommit = onCallerContext(ar -> {
+            if (ar.succeeded())
+                saved.complete();
+            else
+                saved.fail(new RejectedTransactionException(printError(JOURNAL_ERROR)));
+        });
+
+        if (!journal.append(JournalRecord.user(user).onCommit(onCommit))) {
+            TS_STORE.remove(user.getId());
+            return Future.failedFuture(new RejectedTransactionException(printError(JOURNAL_IS_SATURATED), RETRY_AFTER));
+        }
+
+        return saved;
     }
 
     private void initData() {
         final UserDto first = new UserDto(EXIST_USER_ID, EXIST_USER_ID_BALANCE);
         final UserDto second = new UserDto(EXIST_USER_ID_TWO, EXIST_USER_ID_BALANCE_TWO);
         final UserDto third = new UserDto(3L, 3000.0);
-        TS_STORE.put(first.getId(), first);
-        TS_STORE.put(second.getId(), second);
-        TS_STORE.put(third.getId(), third);
+        for (UserDto user : new UserDto[]{first, second, third})
+            if (isLocal(user.getId()))
+                TS_STORE.putIfAbsent(user);
     }
 
     /**
-     * This method validate data and if success send to {@link TransactionsService#TDQ_MAP} on processing
+     * This method validate data and if success send to {@link TransactionsService#TDQ_MAP} on processing. It blocks:
+     * if the journal is enabled it waits for the group commit of the ACCEPTED record before the transaction is sent, as
+     * {@link TransactionsService#submitTransaction(TransactionDto)} does, and then it waits for a free slot in the
+     * queue of the sender
      *
      * @param td - transaction dto
-     * @return - some error during the validation if exist else null then validation is succes
+     * @return - some error during the validation if exist else null then validation is succes. If the thread is
+     * interrupted the transaction isn`t sent, the error is returned and the thread keeps the interrupted status
      */
     public String sendTransaction(final TransactionDto td) {
+        final String error = validate(td);
+        if (!isNull(error)) {
+            METRICS.rejected(MetricsService.REJECTED_BY_VALIDATION);
+            return printError(error);
+        }
+        if (isReceiverSaturated(td)) {
+            METRICS.rejected(MetricsService.REJECTED_BY_SHARD);
+            return printError(SHARD_IS_SATURATED);
+        }
+
+        try {
+            if (!isNull(journal) && !commit(JournalRecord.accepted(td))) {
+                METRICS.rejected(MetricsService.REJECTED_BY_JOURNAL);
+                return printError(TRANSACTION_ISNT_JOURNALED);
+            }
+            put(td);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("A transaction interrupted {0}", td);
+            cancel(td);
+            return printError(TRANSACTION_IS_INTERRUPTED);
+        }
+        METRICS.accepted();
+
+        return null;
+    }
+
+    /**
+     * Put the record to the journal and wait for its group commit
+     *
+     * @return - false if the commit has failed
+     */
+    private boolean commit(final JournalRecord record) throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(1);
+        final AsyncResult<?>[] result = new AsyncResult[1];
+        journal.put(record.onCommit(ar -> {
+            result[0] = ar;
+            written.countDown();
+        }));
+
+        written.await();
+        return result[0].succeeded();
+    }
+
+    /**
+     * The non-blocking version of {@link TransactionsService#sendTransaction(TransactionDto)}, so it can be called
+     * from an event loop. It never waits for a free slot in a shard queue: if the queue of the sender is full
+     * the transaction is rejected at once, and the client should repeat it later.
+     *
+     * <p>
+     * If the journal is enabled the ACCEPTED record is appended first and the transaction is sent to the shard only
+     * after the group commit of the record (so the record is always before the result of the transaction in the
+     * journal). If the commit fails the transaction isn`t sent at all, so the future reports the real outcome.
+     *
+     * @param td - transaction dto
+     * @return - a succeeded future if the transaction has been sent on processing, else a future failed with
+     * {@link RejectedTransactionException} (with retryAfter if the sender`s shard is saturated)
+     */
+    public Future<Void> submitTransaction(final TransactionDto td) {
+        final String error = validate(td);
+        if (!isNull(error)) {
+            METRICS.rejected(MetricsService.REJECTED_BY_VALIDATION);
+            return Future.failedFuture(new RejectedTransactionException(printError(error)));
+        }
+        if (isReceiverSaturated(td)) {
+            METRICS.rejected(MetricsService.REJECTED_BY_SHARD);
+            return Future.failedFuture(new RejectedTransactionException(printError(SHARD_IS_SATURATED), RETRY_AFTER));
+        }
+
+        if (isNull(journal)) {
+            final RejectedTransactionException rejected = send(td);
+            return isNull(rejected) ? Future.succeededFuture() : Future.failedFuture(rejected);
+        }
+
+        final Future<Void> sent = Future.future();
+        final Handler<AsyncResult<Void>> onCommit = onCallerContext(ar -> {
+            if (ar.failed()) {
+                METRICS.rejected(MetricsService.REJECTED_BY_JOURNAL);
+                sent.fail(new RejectedTransactionException(printError(TRANSACTION_ISNT_JOURNALED), RETRY_AFTER));
+                return;
+            }
 
-        final UserDto user = TS_STORE.get(td.getFromId());
+            final RejectedTransactionException rejected = send(td);
+            if (isNull(rejected))
+                sent.complete();
+            else
+                sent.fail(rejected);
+        });
 
-        if (isNull(user))
-            return printError(String.format(USER_NOT_FOUND, td.getFromId()));
+        if (!journal.append(JournalRecord.accepted(td).onCommit(onCommit))) {
+            METRICS.rejected(MetricsService.REJECTED_BY_JOURNAL);
+            return Future.failedFuture(new RejectedTransactionException(printError(JOURNAL_IS_SATURATED), RETRY_AFTER));
+        }
+
+        return sent;
+    }
+
+    /**
+     * Send an accepted transaction to the shard of the sender. If the queue is full, the ACCEPTED record (if any) is
+     * cancelled by a REJECTED one
+     *
+     * @return - null if the transaction has been sent, else the reason of the rejection
+     */
+    private RejectedTransactionException send(final TransactionDto td) {
+        if (offer(td)) {
+            METRICS.accepted();
+            return null;
+        }
 
-        if (user.getBalance().compareTo(td.getSentSum()) < 0)
-            return printError(USER_DOESNT_HAVE_ENOUGH_MONEY);
+        METRICS.rejected(MetricsService.REJECTED_BY_SHARD);
+        LOGGER.warn("The queue for the sender {0} is full", td.getFromId());
+        cancel(td);
+        return new RejectedTransactionException(printError(SHARD_IS_SATURATED), RETRY_AFTER);
+    }
+
+    /**
+     * Cancel the ACCEPTED record of a transaction which hasn`t been sent, so it isn`t resent after a restart
+     */
+    private void cancel(final TransactionDto td) {
+        if (!isNull(journal) && !journal.append(JournalRecord.rejected(td.getTransactionId(), StatusEnum.ERROR)))
+            LOGGER.error("The rejected transaction {0} will be resent after a restart", td.getTransactionId());
+    }
 
-        if (!TS_STORE.containsKey(td.getToId()))
-            return printError(String.format(RECEIVER_DOESNT_HAVE_ENOUGH_MONEY, td.getToId()));
+    /**
+     * {@link TransactionsService#submitTransaction(TransactionDto)} with an idempotency key of the client: the first
+     * request with the key sends the transaction, a repeated one (e.g. after a timeout) gets the transaction which has
+     * been accepted before and doesn`t send anything. The key is consulted before the validation, and it is freed if
+     * the transaction is rejected, so the client can repeat it. The same key with another transfer is an error.
+     *
+     * @param idempotencyKey - null if the client hasn`t sent it
+     * @return - a future with the answer: the UUID of the transaction which has the key (td itself, if it is a new one)
+     * and the result of a repeated one, if it is ready
+     */
+    public Future<SendTransactionStatusDto> submitTransaction(final TransactionDto td, final String idempotencyKey) {
+        if (isNull(IDEMPOTENCY) || isNull(idempotencyKey))
+            return accepted(submitTransaction(td), td);
 
+        final TransactionDto original = IDEMPOTENCY.claim(idempotencyKey, td);
+        if (!isNull(original)) {
+            if (!isSameTransfer(original, td)) {
+                METRICS.rejected(MetricsService.REJECTED_BY_VALIDATION);
+                return Future.failedFuture(new RejectedTransactionException(printError(IDEMPOTENCY_KEY_IS_USED)));
+            }
+            METRICS.replayed();
+            final SendTransactionStatusDto answer = new SendTransactionStatusDto(original.getTransactionId());
+            final StatusDto status = STATUS_INDEX.get(original.getTransactionId()); // it can be already treated
+            if (!isNull(status))
+                answer.setResult(status.getStatusEnum());
+            return Future.succeededFuture(answer);
+        }
+
+        return accepted(submitTransaction(td), td, () -> IDEMPOTENCY.release(idempotencyKey, td));
+    }
+
+    private static Future<SendTransactionStatusDto> accepted(final Future<Void> submitted, final TransactionDto td) {
+        return accepted(submitted, td, null);
+    }
+
+    /**
+     * @param unsent - it is called if the transaction has been rejected, a failed future means that it hasn`t been
+     *               sent on processing
+     */
+    private static Future<SendTransactionStatusDto> accepted(final Future<Void> submitted, final TransactionDto td,
+                                                             final Runnable unsent) {
+        final Future<SendTransactionStatusDto> accepted = Future.future();
+        submitted.setHandler(ar -> {
+            if (ar.succeeded()) {
+                accepted.complete(new SendTransactionStatusDto(td.getTransactionId()));
+            } else {
+                if (!isNull(unsent))
+                    unsent.run();
+                accepted.fail(ar.cause());
+            }
+        });
+        return accepted;
+    }
+
+    private static boolean isSameTransfer(final TransactionDto first, final TransactionDto second) {
+        return Objects.equals(first.getFromId(), second.getFromId())
+                && Objects.equals(first.getToId(), second.getToId())
+                && !isNull(first.getSentSum()) && !isNull(second.getSentSum())
+                && first.getSentSum().compareTo(second.getSentSum()) == 0;
+    }
+
+    /**
+     * The batch version of {@link TransactionsService#submitTransaction(TransactionDto)}: transactions are validated in
+     * one pass, split by shards and each shard gets its part by one {@link ShardQueue#offerAll(List)}. Transactions
+     * which don`t fit into the queue of their shard are rejected, the rest of the batch is sent.
+     * <p>
+     * If the journal is enabled the batch is sent only after the group commit of all its ACCEPTED records. If the
+     * commit fails nothing is sent, and the records which have been committed are cancelled.
+     *
+     * @param tds - transactions after the request validation
+     * @return - a future with an error for each transaction (null if the transaction has been sent on processing), or
+     * a future failed with {@link RejectedTransactionException} if the journal can`t write the batch
+     */
+    public Future<String[]> submitTransactions(final List<TransactionDto> tds) {
+        final String[] errors = new String[tds.size()];
+        final List<Integer> accepted = new ArrayList<>(tds.size()); // indexes of transactions which can be sent
+
+        final Future<String[]> sent = isNull(journal) ? null : Future.future();
+        final BatchCommit commit = isNull(journal) ? null : new BatchCommit(onCallerContext(ar -> {
+            if (ar.succeeded()) {
+                send(tds, accepted, errors);
+                sent.complete(errors);
+                return;
+            }
+
+            for (Integer i : accepted) {
+                METRICS.rejected(MetricsService.REJECTED_BY_JOURNAL);
+                cancel(tds.get(i));
+            }
+            sent.fail(new RejectedTransactionException(printError(TRANSACTION_ISNT_JOURNALED), RETRY_AFTER));
+        }));
+
+        for (int i = 0; i < tds.size(); i++) {
+            final TransactionDto td = tds.get(i);
+            errors[i] = validate(td);
+            if (!isNull(errors[i])) {
+                METRICS.rejected(MetricsService.REJECTED_BY_VALIDATION);
+                continue;
+            }
+            if (isReceiverSaturated(td)) {
+                METRICS.rejected(MetricsService.REJECTED_BY_SHARD);
+                errors[i] = SHARD_IS_SATURATED;
+                continue;
+            }
+
+            if (!isNull(journal)) {
+                commit.pending.incrementAndGet();
+                if (!journal.append(JournalRecord.accepted(td).onCommit(commit))) {
+                    commit.pending.decrementAndGet();
+                    METRICS.rejected(MetricsService.REJECTED_BY_JOURNAL);
+                    errors[i] = JOURNAL_IS_SATURATED;
+                    continue;
+                }
+            }
+            accepted.add(i);
+        }
+
+        if (isNull(journal)) {
+            send(tds, accepted, errors);
+            return Future.succeededFuture(errors);
+        }
+
+        commit.handle(null); // all records of the batch have been appended
+        return sent;
+    }
+
+    /**
+     * Send accepted transactions of a batch to shards of their senders, see {@link ShardRouter#enter()}
+     *
+     * @param accepted - indexes of the transactions in the batch
+     * @param errors   - errors of the batch, transactions which don`t fit into their queues get SHARD_IS_SATURATED
+     */
+    private void send(final List<TransactionDto> tds, final List<Integer> accepted, final String[] errors) {
+        final List<List<TransactionDto>> shards = new ArrayList<>(COUNT_THREADS);
+        final List<List<Integer>> indexes = new ArrayList<>(COUNT_THREADS); // indexes of transactions in the batch
+        for (int i = 0; i < COUNT_THREADS; i++) {
+            shards.add(new ArrayList<>());
+            indexes.add(new ArrayList<>());
+        }
+
+        final int reader = ROUTER.enter(); // shards of the batch are read and the batch is sent to them together
         try {
-            TDQ_MAP.get((int) (td.getFromId() % COUNT_THREADS)).put(td);
-        } catch (InterruptedException e) {
-            LOGGER.error("A transaction interrupted {0}", td);
+            for (Integer i : accepted) {
+                final int shard = shard(tds.get(i).getFromAccount());
+                shards.get(shard).add(tds.get(i));
+                indexes.get(shard).add(i);
+            }
+
+            for (int shard = 0; shard < COUNT_THREADS; shard++) {
+                final List<TransactionDto> part = shards.get(shard);
+                if (part.isEmpty())
+                    continue;
+
+                final long enqueuedAt = System.nanoTime();
+                for (TransactionDto td : part)
+                    td.setEnqueuedAt(enqueuedAt);
+
+                final int sent = TDQ_MAP.get(shard).offerAll(part);
+                METRICS.accepted(sent);
+                if (sent < part.size())
+                    LOGGER.warn("The queue={0} is full, {1} transactions of a batch are rejected", shard, part.size() - sent);
+
+                for (int i = sent; i < part.size(); i++) {
+                    errors[indexes.get(shard).get(i)] = SHARD_IS_SATURATED;
+                    METRICS.rejected(MetricsService.REJECTED_BY_SHARD);
+                    cancel(part.get(i));
+                }
+            }
+        } finally {
+            ROUTER.exit(reader);
+        }
+    }
+
+    /**
+     * Counts commits of ACCEPTED records of a batch. It starts from 1, so it isn`t completed until the whole batch has
+     * been appended
+     */
+    private static class BatchCommit implements Handler<AsyncResult<Void>> {
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final Handler<AsyncResult<Void>> onCommit;
+        private volatile Throwable failure;
+
+        BatchCommit(final Handler<AsyncResult<Void>> onCommit) {
+            this.onCommit = onCommit;
+        }
+
+        @Override
+        public void handle(final AsyncResult<Void> ar) {
+            if (!isNull(ar) && ar.failed())
+                failure = ar.cause();
+
+            if (pending.decrementAndGet() == 0)
+                onCommit.handle(isNull(failure) ? Future.succeededFuture() : Future.failedFuture(failure));
+        }
+    }
+
+    /**
+     * Futures aren`t thread-safe, so a journal thread completes them on the event loop of the caller
+     */
+    private static <T> Handler<AsyncResult<T>> onCallerContext(final Handler<AsyncResult<T>> handler) {
+        final Context context = Vertx.currentContext();
+        if (isNull(context))
+            return handler;
+
+        return ar -> context.runOnContext(v -> handler.handle(ar));
+    }
+
+    /**
+     * @return - some error during the validation if exist else null then validation is succes
+     */
+    private String validate(final TransactionDto td) {
+        final int currency = HotAccounts.isPart(td.getFromId()) ? -1 : TS_STORE.getCurrency(td.getFromId());
+        if (currency < 0)
+            return String.format(USER_NOT_FOUND, td.getFromId());
+
+        final String code = CURRENCIES.code(currency);
+        if (!isNull(td.getCurrency()) && CURRENCIES.index(td.getCurrency()) != currency)
+            return String.format(CURRENCY_ISNT_OF_THE_SENDER, code, td.getCurrency());
+        td.setCurrency(code); // the sum is in the currency of the sender
+
+        try {
+            TS_STORE.prepare(td);
+        } catch (ArithmeticException e) {
+            return String.format(AMOUNT_IS_NOT_SUPPORTED, td.getSentSum());
         }
 
+        final HotAccounts.Split split = HOT.get(td.getFromId());
+        if (isNull(split) ? !TS_STORE.canDebit(td.getFromId(), td) : getTotalUnits(split) < td.getSentUnits())
+            return USER_DOESNT_HAVE_ENOUGH_MONEY;
+        td.setFromAccount(HOT.account(td.getFromId(), td.getTransactionId()));
+
+        if (!isLocal(td.getToId())) // the node of the receiver checks it
+            return null;
+
+        final int toCurrency = HotAccounts.isPart(td.getToId()) ? -1 : TS_STORE.getCurrency(td.getToId());
+        if (toCurrency < 0)
+            return String.format(RECEIVER_NOT_FOUND, td.getToId());
+        if (toCurrency != currency && FX.get().convert(td.getSentUnits(), currency, toCurrency) < 0)
+            return String.format(CANT_BE_CONVERTED, td.getToId());
+
         return null;
     }
 
+
     /**
      * This service return data a push-notify service
      *
      * @return - statuses for a push-notify service
      */
     public Queue<StatusDto> getStatuses() {
-        final Queue<StatusDto> tmp = new LinkedList<>(this.statusDtos);
-        this.statusDtos.clear();
+        final Queue<StatusDto> tmp = new LinkedList<>();
+        StatusDto status;
+        while (!isNull(status = this.statusDtos.poll())) // a status added during the drain isn`t lost
+            tmp.add(status);
         return tmp;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return - null if the transaction is in processing, its status has expired or it hasn`t existed
+     */
+    public StatusDto getStatus(final UUID uuid) {
+        return STATUS_INDEX.get(uuid);
+    }
+
+    /**
+     * @return - the push channel of statuses, see {@link StatusBroadcaster}
+     */
+    public StatusBroadcaster getStatusBroadcaster() {
+        return STATUS_BROADCASTER;
+    }
+
+    public MetricsService getMetrics() {
+        return METRICS;
+    }
+
+    /**
+     * @return - all metrics with gauges of shard queues in the Prometheus text format
+     */
+    public String renderMetrics() {
+        final long[] halves = new long[COUNT_THREADS], spilled = new long[COUNT_THREADS];
+        for (int i = 0; i < COUNT_THREADS; i++) {
+            halves[i] = HALVES[i].get();
+            spilled[i] = SPILLED[i].get();
+        }
+        return METRICS.render(TDQ_MAP, halves, spilled);
+    }
+
+    /**
+     * @return - the average fill of shards, from 0 to 1, see {@link TransactionsService#getShardFill(int)}
+     */
+    public double getQueueFill() {
+        double fill = 0;
+        for (int shard = 0; shard < COUNT_THREADS; shard++)
+            fill += getShardFill(shard);
+        return fill / COUNT_THREADS;
+    }
+
+    /**
+     * @return - the fill of the shard of the sender (of the part 0 of a split account), from 0 to 1
+     */
+    public double getQueueFill(final long fromId) {
+        return getShardFill(ROUTER.shard(fromId));
+    }
+
+    /**
+     * A shard is as full as the fuller of its queues: new transactions or credit halves which wait for it (the spill
+     * too), so a slow receiver shard sheds the load as well as a slow sender one
+     */
+    private double getShardFill(final int shard) {
+        final ShardQueue<TransactionDto> queue = TDQ_MAP.get(shard), credits = CREDIT_MAP.get(shard);
+        return Math.min(1, Math.max((double) queue.size() / queue.capacity(),
+                (double) HALVES[shard].get() / credits.capacity()));
+    }
+}
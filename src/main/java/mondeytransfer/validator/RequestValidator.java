@@ -1,12 +1,17 @@
 package mondeytransfer.validator;
 
+import com.fasterxml.jackson.databind.MappingIterator;
 import io.vertx.core.http.HttpServerResponse;
-import io.vertx.core.json.Json;
 import io.vertx.ext.web.RoutingContext;
+import mondeytransfer.dto.StatusDto;
 import mondeytransfer.dto.TransactionDto;
 import mondeytransfer.dto.UserDto;
+import mondeytransfer.other.JsonCodec;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 import static java.util.Objects.isNull;
 import static mondeytransfer.dto.ErrorResponseDto.printError;
@@ -44,13 +49,42 @@ public class RequestValidator {
 
         return id;
     }
+    public static UUID getStatusValidator(final HttpServerResponse response, final RoutingContext routingContext) {
+        response.putHeader("Content-Type", "application/json");
+        final String uuid = routingContext.request().getParam("uuid");
+        try {
+            if (!isNull(uuid))
+                return UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            // incorrect data
+        }
+
+        response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+        response.end(printError(INCORRECT_DATA));
+        return null;
+    }
+
+    public static StatusDto getStatusPostValidator(final HttpServerResponse response, final StatusDto status,
+                                                   final UUID uuid) {
+        if (isNull(status)) {
+            response.setStatusCode(NOT_FOUND.getCode());
+            response.end(printError(String.format(STATUS_NOT_FOUND, uuid)));
+            return null;
+        }
+
+        return status;
+    }
+
     public static TransactionDto transactionValidator(final HttpServerResponse response, final RoutingContext routingContext) {
         response.putHeader("Content-Type", "application/json");
 
         TransactionDto td;
         try {
-            td = Json.decodeValue(routingContext.getBodyAsString(), TransactionDto.class);
-        } catch (io.vertx.core.json.DecodeException e) {
+            td = JsonCodec.decode(routingContext.getBody(), TransactionDto.class);
+        } catch (IOException | RuntimeException e) {
+            td = null;
+        }
+        if (isNull(td)) { // `null` isn`t a transaction too
             response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
 
             response.end(printError(EMPTY_DATA));
@@ -58,25 +92,73 @@ public class RequestValidator {
             return null;
         }
 
-        if (
-                isNull(td.getFromId()) || isNull(td.getSentSum()) || BigDecimal.ZERO.compareTo(td.getSentSum()) >= 0 ||
-                isNull(td.getToId())
-        ) {
+        final String error = transactionError(td);
+        if (!isNull(error)) {
             response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
-            response.end(printError(INCORRECT_DATA));
-
+            response.end(printError(error));
 
             return null;
         }
 
-        if (td.getFromId().equals(td.getToId())) {
+        return td;
+    }
+
+    /**
+     * A batch is a JSON array of transactions or NDJSON (a transaction per line). Transactions aren`t checked here,
+     * check each of them by {@link RequestValidator#transactionError(TransactionDto)}
+     *
+     * @param maxSize - max transactions in a batch
+     * @return - null if the batch can`t be decoded (e.g. it has a null), it is empty or too big
+     */
+    public static List<TransactionDto> transactionsValidator(final HttpServerResponse response,
+                                                             final RoutingContext routingContext,
+                                                             final int maxSize) {
+        response.putHeader("Content-Type", "application/json");
+
+        final List<TransactionDto> tds = new ArrayList<>();
+        try (MappingIterator<TransactionDto> it = JsonCodec.decodeValues(routingContext.getBody(), TransactionDto.class)) {
+            while (it.hasNextValue()) {
+                if (tds.size() == maxSize) {
+                    response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
+                    response.end(printError(String.format(BATCH_IS_TOO_BIG, maxSize)));
+
+                    return null;
+                }
+                final TransactionDto td = it.nextValue();
+                if (isNull(td)) { // `null` of the array isn`t a transaction, the batch is broken
+                    tds.clear();
+                    break;
+                }
+                tds.add(td);
+            }
+        } catch (IOException | RuntimeException e) {
+            tds.clear();
+        }
+
+        if (tds.isEmpty()) {
             response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
-            response.end(printError(TRANSACTION_CANT_BE_SEND_TO_THE_SAME_SENDER));
+            response.end(printError(EMPTY_DATA));
 
             return null;
         }
 
-        return td;
+        return tds;
+    }
+
+    /**
+     * @return - an error if the transaction is incorrect, else null
+     */
+    public static String transactionError(final TransactionDto td) {
+        if (
+                isNull(td.getFromId()) || isNull(td.getSentSum()) || td.getSentSum().signum() <= 0 ||
+                isNull(td.getToId())
+        )
+            return INCORRECT_DATA;
+
+        if (td.getFromId().equals(td.getToId()))
+            return TRANSACTION_CANT_BE_SEND_TO_THE_SAME_SENDER;
+
+        return null;
     }
 
     /**
@@ -91,8 +173,8 @@ public class RequestValidator {
 
         UserDto user;
         try {
-            user = Json.decodeValue(routingContext.getBodyAsString(), UserDto.class);
-        } catch (io.vertx.core.json.DecodeException e) {
+            user = JsonCodec.decode(routingContext.getBody(), UserDto.class);
+        } catch (IOException | RuntimeException e) {
             response.setStatusCode(NO_CONTENT.getCode());
             response.end();
 
@@ -105,7 +187,7 @@ public class RequestValidator {
             return null;
         }
 
-        if (BigDecimal.ZERO.compareTo(user.getBalance()) > 0) {
+        if (user.getBalance().signum() < 0) {
             response.setStatusCode(UNPROCESSABLE_ENTITY.getCode());
             response.end(printError("Balance less then 0.0"));
 
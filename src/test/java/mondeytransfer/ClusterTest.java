@@ -0,0 +1,187 @@
+package mondeytransfer;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.StatusEnum;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static mondeytransfer.enums.ConfigKeys.CLUSTER_NODE;
+import static mondeytransfer.enums.ConfigKeys.CLUSTER_NODES;
+import static mondeytransfer.enums.ConfigKeys.HTTP_PORT;
+import static mondeytransfer.enums.ConfigKeys.SHARDS_COUNT;
+import static mondeytransfer.enums.HttpStatusesCodeEnum.CREATED;
+import static mondeytransfer.enums.HttpStatusesCodeEnum.OK;
+import static mondeytransfer.enums.Routes.*;
+import static mondeytransfer.service.TransactionsService.EXIST_USER_ID;
+import static mondeytransfer.service.TransactionsService.EXIST_USER_ID_BALANCE;
+import static mondeytransfer.service.TransactionsService.EXIST_USER_ID_BALANCE_TWO;
+import static mondeytransfer.service.TransactionsService.EXIST_USER_ID_TWO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two nodes of the cluster on localhost: users with odd ids are on the node 1, with even ids on the node 0. Requests
+ * are sent to the node which doesn`t keep the user
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class ClusterTest {
+    private final static int NODES = 2;
+
+    private static final Vertx[] nodes = new Vertx[NODES];
+    private static final int[] ports = new int[NODES];
+    private static Vertx client;
+    private static HttpClient http;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        for (int node = 0; node < NODES; node++) {
+            nodes[node] = clusteredVertx();
+            ports[node] = freePort();
+            final JsonObject config = new JsonObject()
+                    .put(HTTP_PORT, ports[node])
+                    .put(CLUSTER_NODES, NODES)
+                    .put(CLUSTER_NODE, node)
+                    .put(SHARDS_COUNT, 2);
+
+            final CompletableFuture<String> deployed = new CompletableFuture<>();
+            nodes[node].deployVerticle(Launcher.class.getName(), new DeploymentOptions().setConfig(config), ar -> {
+                if (ar.succeeded())
+                    deployed.complete(ar.result());
+                else
+                    deployed.completeExceptionally(ar.cause());
+            });
+            deployed.get(1, TimeUnit.MINUTES);
+        }
+
+        client = Vertx.vertx();
+        http = client.createHttpClient();
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        client.close();
+        for (Vertx node : nodes) {
+            final CompletableFuture<Void> closed = new CompletableFuture<>();
+            node.close(ar -> closed.complete(null));
+            closed.get(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * The sender is on the node 1, the receiver is on the node 0, the request comes to the node 0
+     */
+    @Test
+    public void transferBetweenNodes() throws Exception {
+        final String[] answer = request(HttpMethod.POST, 0, SEND_TRANSACTION,
+                Json.encode(new TransactionDto(EXIST_USER_ID, new BigDecimal(100), EXIST_USER_ID_TWO)));
+        assertThat(answer[0]).isEqualTo(String.valueOf(OK.getCode()));
+        final String uuid = new JsonObject(answer[1]).getString("uuid");
+
+        assertThat(waitForStatus(0, uuid)).isEqualTo(StatusEnum.SUCCESS.name()); // it is on the node 1
+        assertThat(balance(1, EXIST_USER_ID_TWO)).isEqualByComparingTo(EXIST_USER_ID_BALANCE_TWO.add(new BigDecimal(100)));
+        assertThat(balance(0, EXIST_USER_ID)).isEqualByComparingTo(EXIST_USER_ID_BALANCE.subtract(new BigDecimal(100)));
+    }
+
+    /**
+     * The receiver 4 would be on the node 0, but it hasn`t existed: the sender gets the money back
+     */
+    @Test
+    public void failedCreditOnAnotherNodeGivesTheMoneyBack() throws Exception {
+        final String[] answer = request(HttpMethod.POST, 1, SEND_TRANSACTION,
+                Json.encode(new TransactionDto(3L, BigDecimal.TEN, 4L)));
+        final String uuid = new JsonObject(answer[1]).getString("uuid");
+
+        assertThat(waitForStatus(1, uuid)).isEqualTo(StatusEnum.ERROR.name());
+        assertThat(balance(0, 3L)).isEqualByComparingTo("3000");
+    }
+
+    @Test
+    public void addUserToAnotherNode() throws Exception {
+        assertThat(request(HttpMethod.POST, 0, CREATE_A_NEW_USER, Json.encode(new UserDto(5L, new BigDecimal(50))))[0])
+                .isEqualTo(String.valueOf(CREATED.getCode()));
+        assertThat(balance(1, 5L)).isEqualByComparingTo("50"); // it is local there
+        assertThat(request(HttpMethod.GET, 1, GET_BY_ID + "?id=7", null)[0]).isEqualTo("404");
+    }
+
+    private static String waitForStatus(final int node, final String uuid) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        String[] answer;
+        do {
+            Thread.sleep(20);
+            answer = request(HttpMethod.GET, node, GET_STATUS + "?uuid=" + uuid, null);
+        } while (!answer[0].equals(String.valueOf(OK.getCode())) && System.nanoTime() < deadline);
+        return new JsonObject(answer[1]).getString("statusEnum");
+    }
+
+    private static BigDecimal balance(final int node, final long id) throws Exception {
+        return Json.decodeValue(request(HttpMethod.GET, node, GET_BY_ID + "?id=" + id, null)[1], UserDto.class)
+                .getBalance();
+    }
+
+    /**
+     * @return - the status code and the body
+     */
+    private static String[] request(final HttpMethod method, final int node, final String uri, final String body)
+            throws Exception {
+        final CompletableFuture<String[]> answer = new CompletableFuture<>();
+        final HttpClientRequest request = http.request(method, ports[node], "localhost", uri, response ->
+                response.bodyHandler(b -> answer.complete(new String[]{String.valueOf(response.statusCode()), b.toString()})));
+        if (body == null) {
+            request.end();
+        } else {
+            request.putHeader("content-type", "application/json");
+            request.end(body);
+        }
+        return answer.get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Nodes find each other by TCP on localhost instead of multicast
+     */
+    private static Vertx clusteredVertx() throws Exception {
+        final HazelcastClusterManager manager = new HazelcastClusterManager();
+        final Config config = manager.loadConfigFromClasspath();
+        final JoinConfig join = config.getNetworkConfig().getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+        config.getNetworkConfig().getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+        config.setProperty("hazelcast.logging.type", "jdk");
+        config.setProperty("hazelcast.health.monitoring.level", "OFF");
+        config.setProperty("hazelcast.phone.home.enabled", "false");
+        manager.setConfig(config);
+
+        final CompletableFuture<Vertx> started = new CompletableFuture<>();
+        Vertx.clusteredVertx(new VertxOptions().setClusterManager(manager).setClusterHost("127.0.0.1"), ar -> {
+            if (ar.succeeded())
+                started.complete(ar.result());
+            else
+                started.completeExceptionally(ar.cause());
+        });
+        return started.get(1, TimeUnit.MINUTES);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
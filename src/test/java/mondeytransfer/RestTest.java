@@ -1,16 +1,22 @@
 package mondeytransfer;
 
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import mondeytransfer.controller.AppController;
+import mondeytransfer.dto.BatchTransactionStatusDto;
 import mondeytransfer.dto.ErrorResponseDto;
 import mondeytransfer.dto.SendTransactionStatusDto;
 import mondeytransfer.dto.TransactionDto;
 import mondeytransfer.dto.UserDto;
+import mondeytransfer.service.HotAccounts;
+import mondeytransfer.service.TransactionsService;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
@@ -18,8 +24,15 @@ import org.junit.runners.MethodSorters;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static mondeytransfer.dto.ErrorResponseDto.printError;
+import static mondeytransfer.enums.ConfigKeys.HOT_ACCOUNT_PARTS;
+import static mondeytransfer.enums.ConfigKeys.LOAD_SHEDDING_QUEUE_FILL;
+import static mondeytransfer.enums.ConfigKeys.QUEUE_CAPACITY;
+import static mondeytransfer.enums.ConfigKeys.SHARDS_COUNT;
 import static mondeytransfer.enums.HttpStatusesCodeEnum.*;
 import static mondeytransfer.enums.Messages.*;
 import static mondeytransfer.enums.Routes.*;
@@ -96,7 +109,7 @@ public class RestTest {
     @Test
     public void executeTransactionsTransfer(final TestContext context) {
         final Async async = context.async();
-        final BigDecimal transferSum = new BigDecimal(100.1);
+        final BigDecimal transferSum = new BigDecimal("100.10");
         final TransactionDto ts = new TransactionDto(EXIST_USER_ID, transferSum, EXIST_USER_ID_TWO);
         final SendTransactionStatusDto mock = new SendTransactionStatusDto(ts.getTransactionId());
 
@@ -255,7 +268,7 @@ public class RestTest {
                     context.assertEquals(response.statusCode(), OK.getCode());
                     context.assertTrue(response.headers().get("content-type").contains("application/json"));
                     response.bodyHandler(body -> {
-                        context.assertEquals(body.toString(), printError(String.format(RECEIVER_DOESNT_HAVE_ENOUGH_MONEY, unexistedId)));
+                        context.assertEquals(body.toString(), printError(String.format(RECEIVER_NOT_FOUND, unexistedId)));
                         async4.complete();
                     });
                 })
@@ -298,6 +311,241 @@ public class RestTest {
                 .end();
     }
 
+    /**
+     * Send a batch in NDJSON: each transaction gets its own result in the same order
+     */
+    @Test
+    public void executeBatchOfTransactions(final TestContext context) {
+        final Async async = context.async();
+        final TransactionDto success = new TransactionDto(EXIST_USER_ID_TWO, BigDecimal.ONE, EXIST_USER_ID);
+        final TransactionDto toYourself = new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, EXIST_USER_ID);
+        final TransactionDto notEnoughMoney
+                = new TransactionDto(EXIST_USER_ID, EXIST_USER_ID_BALANCE.add(BigDecimal.ONE), EXIST_USER_ID_TWO);
+
+        final String batch = Json.encode(success) + "\n" + Json.encode(toYourself) + "\n" + Json.encode(notEnoughMoney);
+
+        vertx.createHttpClient().post(port, "localhost", SEND_TRANSACTIONS)
+                .putHeader("content-type", "application/x-ndjson")
+                .putHeader("content-length", Integer.toString(batch.length()))
+                .handler(response -> {
+                    context.assertEquals(response.statusCode(), OK.getCode());
+                    context.assertTrue(response.headers().get("content-type").contains("application/json"));
+                    response.bodyHandler(body -> {
+                        final BatchTransactionStatusDto[] statuses
+                                = Json.decodeValue(body.toString(), BatchTransactionStatusDto[].class);
+                        context.assertEquals(statuses.length, 3);
+
+                        context.assertEquals(statuses[0].getUuid(), success.getTransactionId());
+                        context.assertEquals(statuses[0].getStatus(), TRANSACTION_SUCCESS);
+                        context.assertNull(statuses[0].getError());
+
+                        context.assertEquals(statuses[1].getUuid(), toYourself.getTransactionId());
+                        context.assertEquals(statuses[1].getError(), TRANSACTION_CANT_BE_SEND_TO_THE_SAME_SENDER);
+
+                        context.assertEquals(statuses[2].getError(), USER_DOESNT_HAVE_ENOUGH_MONEY);
+                        async.complete();
+                    });
+                })
+                .write(batch)
+                .end();
+
+        final Async async1 = context.async();
+        vertx.createHttpClient().post(port, "localhost", SEND_TRANSACTIONS) // send a broken batch
+                .putHeader("content-type", "application/json")
+                .putHeader("content-length", "3")
+                .handler(response -> {
+                    context.assertEquals(response.statusCode(), UNPROCESSABLE_ENTITY.getCode());
+                    response.bodyHandler(body -> {
+                        context.assertEquals(body.toString(), printError(EMPTY_DATA));
+                        async1.complete();
+                    });
+                })
+                .write("[{]")
+                .end();
+
+        final Async async2 = context.async();
+        final String withNull = "[" + Json.encode(success) + ",null]";
+        vertx.createHttpClient().post(port, "localhost", SEND_TRANSACTIONS) // a null isn`t a transaction
+                .putHeader("content-type", "application/json")
+                .putHeader("content-length", Integer.toString(withNull.length()))
+                .handler(response -> {
+                    context.assertEquals(response.statusCode(), UNPROCESSABLE_ENTITY.getCode());
+                    response.bodyHandler(body -> {
+                        context.assertEquals(body.toString(), printError(EMPTY_DATA));
+                        async2.complete();
+                    });
+                })
+                .write(withNull)
+                .end();
+    }
+
+    /**
+     * Subscribe to statuses of a sender by SSE, then send its transaction and get the status from the stream
+     */
+    @Test
+    public void streamStatuses(final TestContext context) {
+        final Async async = context.async();
+        final long sender = 3L;
+        final TransactionDto ts = new TransactionDto(sender, BigDecimal.ONE, EXIST_USER_ID);
+        final String transaction = Json.encode(ts);
+        final StringBuilder stream = new StringBuilder();
+
+        vertx.createHttpClient().getNow(port, "localhost", STREAM_STATUSES + "?accountId=" + sender, response -> {
+            context.assertEquals(response.statusCode(), OK.getCode());
+            context.assertEquals(response.headers().get("content-type"), "text/event-stream");
+
+            response.handler(chunk -> {
+                if (stream.length() == 0) // subscribed
+                    vertx.createHttpClient().post(port, "localhost", SEND_TRANSACTION)
+                            .putHeader("content-type", "application/json")
+                            .putHeader("content-length", Integer.toString(transaction.length()))
+                            .handler(res -> context.assertEquals(res.statusCode(), OK.getCode()))
+                            .write(transaction)
+                            .end();
+
+                stream.append(chunk.toString());
+                if (stream.indexOf(ts.getTransactionId().toString()) >= 0) {
+                    context.assertTrue(stream.indexOf("\"statusEnum\":\"SUCCESS\"") >= 0);
+                    async.complete();
+                }
+            });
+        });
+    }
+
+    /**
+     * Send a transaction and get its status by the UUID, check validations
+     */
+    @Test
+    public void getStatusByUuid(final TestContext context) {
+        final Async async = context.async();
+        final TransactionDto ts = new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, EXIST_USER_ID_TWO);
+        final String transaction = Json.encode(ts);
+
+        vertx.createHttpClient().post(port, "localhost", SEND_TRANSACTION)
+                .putHeader("content-type", "application/json")
+                .putHeader("content-length", Integer.toString(transaction.length()))
+                .handler(res -> {
+                    context.assertEquals(res.statusCode(), OK.getCode());
+                    pollStatus(context, ts.getTransactionId().toString(), async);
+                })
+                .write(transaction)
+                .end();
+
+        defRequest(context, GET_STATUS + "?uuid=1", printError(INCORRECT_DATA), "application/json", UNPROCESSABLE_ENTITY.getCode());
+
+        final String unknown = "00000000-0000-0000-0000-000000000000";
+        defRequest(context, GET_STATUS + "?uuid=" + unknown, printError(String.format(STATUS_NOT_FOUND, unknown)),
+                "application/json", NOT_FOUND.getCode());
+    }
+
+    /**
+     * Repeat the request while the transaction is in processing
+     */
+    private void pollStatus(final TestContext context, final String uuid, final Async async) {
+        vertx.createHttpClient().getNow(port, "localhost", GET_STATUS + "?uuid=" + uuid, response -> {
+            if (response.statusCode() == NOT_FOUND.getCode()) {
+                vertx.setTimer(10, t -> pollStatus(context, uuid, async));
+                return;
+            }
+
+            context.assertEquals(response.statusCode(), OK.getCode());
+            response.bodyHandler(body -> {
+                context.assertTrue(body.toString().contains("\"statusEnum\":\"SUCCESS\""));
+                context.assertTrue(body.toString().contains(uuid));
+                async.complete();
+            });
+        });
+    }
+
+    /**
+     * Get all users by one stream and page by page, the cursor of the last page is null
+     */
+    @Test
+    public void getAllUsers(final TestContext context) {
+        final Async async = context.async();
+
+        vertx.createHttpClient().getNow(port, "localhost", GET_ALL, response -> {
+            context.assertEquals(response.statusCode(), OK.getCode());
+            response.bodyHandler(body -> {
+                final JsonObject all = new JsonObject(body.toString());
+                context.assertEquals(all.size(), 3);
+                context.assertEquals(all.getJsonObject(String.valueOf(EXIST_USER_ID)).getLong("id"), EXIST_USER_ID);
+
+                vertx.createHttpClient().getNow(port, "localhost", GET_ALL + "?limit=2", first -> first.bodyHandler(body1 -> {
+                    final JsonObject page = new JsonObject(body1.toString());
+                    context.assertEquals(page.getJsonArray("users").size(), 2);
+                    context.assertEquals(page.getLong("next"), EXIST_USER_ID_TWO);
+
+                    vertx.createHttpClient().getNow(port, "localhost", GET_ALL + "?limit=2&after=" + page.getLong("next"), second -> second.bodyHandler(body2 -> {
+                        final JsonObject last = new JsonObject(body2.toString());
+                        context.assertEquals(last.getJsonArray("users").getJsonObject(0).getLong("id"), 3L);
+                        context.assertNull(last.getLong("next"));
+
+                        vertx.createHttpClient().getNow(port, "localhost", GET_ALL + "?limit=0", incorrect -> {
+                            context.assertEquals(incorrect.statusCode(), UNPROCESSABLE_ENTITY.getCode());
+                            async.complete();
+                        });
+                    }));
+                }));
+            });
+        });
+    }
+
+    /**
+     * A user created through one connection is seen through the others, whichever HTTP verticle has got them
+     */
+    @Test
+    public void httpVerticlesShareTheEngine(final TestContext context) {
+        final long newId = 200L;
+        final int connections = 8;
+        final Async async = context.async(connections);
+        final String newUser = Json.encode(new UserDto(newId, new BigDecimal(10)));
+
+        vertx.createHttpClient().post(port, "localhost", CREATE_A_NEW_USER)
+                .putHeader("content-type", "application/json")
+                .putHeader("content-length", Integer.toString(newUser.length()))
+                .handler(created -> {
+                    context.assertEquals(created.statusCode(), CREATED.getCode());
+                    for (int i = 0; i < connections; i++)
+                        vertx.createHttpClient().getNow(port, "localhost", GET_BY_ID + "?id=" + newId, response -> {
+                            context.assertEquals(response.statusCode(), OK.getCode());
+                            response.bodyHandler(body -> {
+                                context.assertEquals(Json.decodeValue(body.toString(), UserDto.class).getId(), newId);
+                                async.countDown();
+                            });
+                        });
+                })
+                .write(newUser)
+                .end();
+    }
+
+    /**
+     * Send a transaction and find it in metrics
+     */
+    @Test
+    public void getMetrics(final TestContext context) {
+        final Async async = context.async();
+        final String transaction = Json.encode(new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, EXIST_USER_ID_TWO));
+
+        vertx.createHttpClient().post(port, "localhost", SEND_TRANSACTION)
+                .putHeader("content-type", "application/json")
+                .putHeader("content-length", Integer.toString(transaction.length()))
+                .handler(res -> vertx.createHttpClient().getNow(port, "localhost", GET_METRICS, response -> {
+                    context.assertEquals(response.statusCode(), OK.getCode());
+                    context.assertEquals(response.headers().get("content-type"), "text/plain; version=0.0.4");
+                    response.bodyHandler(body -> {
+                        final String metrics = body.toString();
+                        context.assertTrue(metrics.contains("transactions_accepted_total 1\n"));
+                        context.assertTrue(metrics.contains("# TYPE transaction_processing_seconds histogram"));
+                        context.assertTrue(metrics.contains("shard_queue_depth{shard=\"0\"}"));
+                        context.assertTrue(metrics.contains("http_requests_total{route=\"" + SEND_TRANSACTION + "\",code=\"2xx\"} 1\n"));
+                        async.complete();
+                    });
+                }))
+                .write(transaction)
+                .end();
+    }
+
     /**
      * Get by id an uncreated user and check validations
      */
@@ -430,6 +678,203 @@ public class RestTest {
                 .end();
     }
 
+    /**
+     * The history is disabled by default, but a request is validated before it
+     */
+    @Test
+    public void getHistoryValidations(final TestContext context) {
+        defRequest(context, GET_HISTORY + "?id=1", printError(HISTORY_IS_DISABLED), "application/json",
+                NOT_FOUND.getCode());
+        defRequest(context, GET_HISTORY + "?id=1&limit=0",
+                printError(String.format(HISTORY_PAGE_IS_TOO_BIG, AppController.MAX_HISTORY_PAGE)),
+                "application/json", UNPROCESSABLE_ENTITY.getCode());
+        defRequest(context, GET_HISTORY + "?id=x", printError(INCORRECT_DATA), "application/json",
+                UNPROCESSABLE_ENTITY.getCode());
+    }
+
+    /**
+     * The shard queue of the sender is full (its worker waits in a filter of a status stream): a transaction gets 503
+     * and Retry-After at once, without waiting for a slot
+     */
+    @Test
+    public void fullShardQueueGetsRetryAfter(final TestContext context) throws IOException {
+        final Async async = context.async();
+        final Vertx node = Vertx.vertx();
+        final ServerSocket socket = new ServerSocket(0);
+        final int nodePort = socket.getLocalPort();
+        socket.close();
+        final JsonObject config = new JsonObject()
+                .put("http.port", nodePort)
+                .put(SHARDS_COUNT, 2) // the sender 1 and the receiver 3 are in the shard 1
+                .put(QUEUE_CAPACITY, 4)
+                .put(LOAD_SHEDDING_QUEUE_FILL, 1.0); // only the engine rejects transactions
+        final CountDownLatch release = new CountDownLatch(1);
+        final String transaction = Json.encode(new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, 3L));
+
+        node.deployVerticle(Launcher.class.getName(), new DeploymentOptions().setConfig(config), context.asyncAssertSuccess(id ->
+                node.runOnContext(v -> {
+                    final TransactionsService engine = (TransactionsService) node.sharedData()
+                            .getLocalMap(Launcher.SHARED_MAP).get(Launcher.ENGINE);
+                    final AtomicBoolean first = new AtomicBoolean(true);
+                    engine.getStatusBroadcaster().subscribe(status -> {
+                        if (first.getAndSet(false)) {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        return false;
+                    }, subscription -> {
+                    });
+
+                    sendUntilRejected(context, node, nodePort, transaction, 100, release, response -> {
+                        context.assertEquals(response.statusCode(), SERVICE_UNAVAILABLE.getCode());
+                        context.assertEquals(response.headers().get("Retry-After"), String.valueOf(DEFAULT_RETRY_AFTER));
+                        response.bodyHandler(body -> {
+                            context.assertEquals(body.toString(), printError(SHARD_IS_SATURATED));
+                            node.close(context.asyncAssertSuccess(closed -> async.complete()));
+                        });
+                    });
+                })));
+    }
+
+    /**
+     * Parts of split accounts fill the first pages of the export (their ids are before all accounts) and they are
+     * skipped, so the export must stay a correct JSON
+     */
+    @Test
+    public void getAllSkipsPagesOfParts(final TestContext context) throws IOException {
+        final Async async = context.async();
+        final Vertx node = Vertx.vertx();
+        final ServerSocket socket = new ServerSocket(0);
+        final int nodePort = socket.getLocalPort();
+        socket.close();
+        final JsonObject config = new JsonObject()
+                .put("http.port", nodePort)
+                .put(HOT_ACCOUNT_PARTS, HotAccounts.MAX_PARTS);
+        final int accounts = 16; // more parts than a page of the export
+
+        node.deployVerticle(Launcher.class.getName(), new DeploymentOptions().setConfig(config), context.asyncAssertSuccess(id -> {
+            final TransactionsService engine = (TransactionsService) node.sharedData()
+                    .getLocalMap(Launcher.SHARED_MAP).get(Launcher.ENGINE);
+            for (long account = 100; account < 100 + accounts; account++) {
+                engine.addOne(new UserDto(account, BigDecimal.TEN));
+                try {
+                    context.assertTrue(engine.splitAccount(account, HotAccounts.MAX_PARTS));
+                } catch (InterruptedException e) {
+                    context.fail(e);
+                }
+            }
+
+            node.createHttpClient().getNow(nodePort, "localhost", GET_ALL, response -> {
+                context.assertEquals(response.statusCode(), OK.getCode());
+                response.bodyHandler(body -> {
+                    final JsonObject users = new JsonObject(body.toString()); // a stray comma isn`t JSON
+                    context.assertEquals(users.size(), 3 + accounts);
+                    context.assertEquals(new BigDecimal(users.getJsonObject("100").getValue("balance").toString())
+                            .compareTo(BigDecimal.TEN), 0);
+                    node.close(context.asyncAssertSuccess(closed -> async.complete()));
+                });
+            });
+        }));
+    }
+
+    /**
+     * The shard queue of one sender of a batch is full, the other shard is empty: only the transaction of that sender
+     * gets the error, as a single transaction would be shed
+     */
+    @Test
+    public void batchShedsTransactionsOfFullShard(final TestContext context) throws IOException {
+        final Async async = context.async();
+        final Vertx node = Vertx.vertx();
+        final ServerSocket socket = new ServerSocket(0);
+        final int nodePort = socket.getLocalPort();
+        socket.close();
+        final JsonObject config = new JsonObject()
+                .put("http.port", nodePort)
+                .put(SHARDS_COUNT, 2) // the sender 1 and the receiver 3 are in the shard 1, the sender 2 is in the shard 0
+                .put(QUEUE_CAPACITY, 4)
+                .put(LOAD_SHEDDING_QUEUE_FILL, 0.75);
+        final CountDownLatch stalled = new CountDownLatch(1), release = new CountDownLatch(1);
+        final TransactionDto shed = new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, 3L);
+        final TransactionDto sent = new TransactionDto(EXIST_USER_ID_TWO, BigDecimal.ONE, EXIST_USER_ID);
+        final String batch = Json.encode(shed) + "\n" + Json.encode(sent);
+
+        node.deployVerticle(Launcher.class.getName(), new DeploymentOptions().setConfig(config), context.asyncAssertSuccess(id ->
+                node.runOnContext(v -> {
+                    final TransactionsService engine = (TransactionsService) node.sharedData()
+                            .getLocalMap(Launcher.SHARED_MAP).get(Launcher.ENGINE);
+                    final AtomicBoolean first = new AtomicBoolean(true);
+                    engine.getStatusBroadcaster().subscribe(status -> {
+                        if (first.getAndSet(false)) {
+                            stalled.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        return false;
+                    }, subscription -> {
+                    });
+
+                    try {
+                        engine.submitTransaction(new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, 3L));
+                        context.assertTrue(stalled.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        context.fail(e);
+                    }
+                    for (int i = 0; i < 3; i++) // the shard 1 is filled by 3/4
+                        engine.submitTransaction(new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, 3L));
+
+                    node.createHttpClient().post(nodePort, "localhost", SEND_TRANSACTIONS)
+                            .putHeader("content-type", "application/x-ndjson")
+                            .putHeader("content-length", Integer.toString(batch.length()))
+                            .handler(response -> {
+                                context.assertEquals(response.statusCode(), OK.getCode());
+                                response.bodyHandler(body -> {
+                                    release.countDown();
+                                    final BatchTransactionStatusDto[] statuses
+                                            = Json.decodeValue(body.toString(), BatchTransactionStatusDto[].class);
+                                    context.assertEquals(statuses.length, 2);
+                                    context.assertEquals(statuses[0].getError(), SERVICE_IS_OVERLOADED);
+                                    context.assertEquals(statuses[1].getStatus(), TRANSACTION_SUCCESS);
+                                    node.close(context.asyncAssertSuccess(closed -> async.complete()));
+                                });
+                            })
+                            .write(batch)
+                            .end();
+                })));
+    }
+
+    /**
+     * Send the transaction one by one until a response isn`t 200, then release the stopped worker
+     */
+    private void sendUntilRejected(final TestContext context, final Vertx node, final int nodePort,
+                                   final String transaction, final int attempts, final CountDownLatch release,
+                                   final Handler<HttpClientResponse> rejected) {
+        if (attempts == 0) {
+            release.countDown();
+            context.fail("The transaction hasn`t been rejected");
+            return;
+        }
+
+        node.createHttpClient().post(nodePort, "localhost", SEND_TRANSACTION)
+                .putHeader("content-type", "application/json")
+                .putHeader("content-length", Integer.toString(transaction.length()))
+                .handler(response -> {
+                    if (response.statusCode() == OK.getCode()) {
+                        sendUntilRejected(context, node, nodePort, transaction, attempts - 1, release, rejected);
+                    } else {
+                        release.countDown();
+                        rejected.handle(response);
+                    }
+                })
+                .write(transaction)
+                .end();
+    }
+
     private void defRequest(final TestContext context, final String urn, final String expectedResponse, final String contentType, final int statusCode) {
         // This test is asynchronous, so get an async handler to inform the test when we are done.
         final Async async = context.async();
@@ -0,0 +1,72 @@
+package mondeytransfer.model;
+
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.enums.AuditModeEnum;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.enums.TransferPhaseEnum;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check that the audit log writes every record in the full mode, samples successful ones and keeps all failed ones
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class AuditLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fullModeWritesEverything() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("audit/full.jsonl");
+        final AuditLog audit = new AuditLog(file, AuditModeEnum.FULL, 0, 4); // a tiny buffer, so workers wait for it
+        audit.start();
+        final TransactionDto td = new TransactionDto(1L, new BigDecimal("10.50"), 2L);
+        for (long i = 1; i <= 1_000; i++) {
+            assertThat(audit.isRecorded(i % 2 == 0 ? StatusEnum.SUCCESS : null, i)).isTrue();
+            audit.record(3, TransferPhaseEnum.DEBIT, td, i % 2 == 0 ? StatusEnum.SUCCESS : null);
+        }
+        audit.close();
+
+        final List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(1_000);
+        assertThat(audit.getDropped()).isEqualTo(0);
+
+        final JsonObject first = new JsonObject(lines.get(0));
+        assertThat(first.getInteger("shard")).isEqualTo(3);
+        assertThat(first.getString("phase")).isEqualTo("DEBIT");
+        assertThat(first.getString("transactionId")).isEqualTo(td.getTransactionId().toString());
+        assertThat(first.getLong("fromId")).isEqualTo(1L);
+        assertThat(first.getLong("toId")).isEqualTo(2L);
+        assertThat(first.getString("sum")).isEqualTo("10.50");
+        assertThat(first.getString("result")).isEqualTo("ROUTED");
+        assertThat(new JsonObject(lines.get(1)).getString("result")).isEqualTo("SUCCESS");
+    }
+
+    @Test
+    public void samplesSuccessfulAndKeepsFailed() {
+        final AuditLog sampled = new AuditLog(folder.getRoot().toPath().resolve("sampled.jsonl"), AuditModeEnum.SAMPLED, 0.1, 16);
+        int recorded = 0;
+        for (long i = 1; i <= 1_000; i++)
+            if (sampled.isRecorded(StatusEnum.SUCCESS, i))
+                recorded++;
+        assertThat(recorded).isEqualTo(100);
+        assertThat(sampled.isRecorded(StatusEnum.ERROR, 1)).isTrue();
+        assertThat(sampled.isRecorded(StatusEnum.CRITICAL_SYSTEM_ERROR, 1)).isTrue();
+
+        final AuditLog errors = new AuditLog(folder.getRoot().toPath().resolve("errors.jsonl"), AuditModeEnum.ERRORS, 1, 16);
+        assertThat(errors.isRecorded(StatusEnum.SUCCESS, 10)).isFalse();
+        assertThat(errors.isRecorded(null, 10)).isFalse();
+        assertThat(errors.isRecorded(StatusEnum.ERROR, 10)).isTrue();
+    }
+}
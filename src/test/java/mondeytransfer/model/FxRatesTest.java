@@ -0,0 +1,80 @@
+package mondeytransfer.model;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check conversions of minor units between currencies of different scales and reloads of the rate file
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class FxRatesTest {
+    private static final Currencies CURRENCIES = new Currencies("USD", 2,
+            new JsonObject().put("EUR", 2).put("JPY", 0).put("BTC", 8));
+    private static final int USD = 0, EUR = CURRENCIES.index("EUR"), JPY = CURRENCIES.index("jpy"),
+            BTC = CURRENCIES.index("BTC");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void convertsAndRoundsDown() {
+        final Map<String, BigDecimal> rates = new HashMap<>();
+        rates.put("USD", BigDecimal.ONE);
+        rates.put("EUR", new BigDecimal("1.0835"));
+        rates.put("JPY", new BigDecimal("0.0067"));
+        final FxRates fx = new FxRates(CURRENCIES, rates, 1);
+
+        assertThat(fx.convert(10_000, EUR, USD)).isEqualTo(10_835); // 100.00 EUR = 108.35 USD
+        assertThat(fx.convert(10_835, USD, EUR)).isEqualTo(10_000);
+        assertThat(fx.convert(10_000, USD, EUR)).isEqualTo(9_229); // 92.2934... EUR
+        assertThat(fx.convert(1_000, JPY, USD)).isEqualTo(670); // 1000 JPY = 6.70 USD
+        assertThat(fx.convert(100, USD, JPY)).isEqualTo(149); // 1.00 USD = 149.25... JPY
+        assertThat(fx.convert(1, JPY, USD)).isEqualTo(-1); // 0.0067 USD is less than a cent
+        assertThat(fx.convert(500, JPY, JPY)).isEqualTo(500);
+        assertThat(fx.convert(100, USD, BTC)).isEqualTo(-1); // there isn`t a rate
+        assertThat(fx.convert(Long.MAX_VALUE, EUR, USD)).isEqualTo(-1); // the result doesn`t fit a long
+        assertThat(fx.convert(Long.MAX_VALUE / 20_000, EUR, USD))
+                .isEqualTo(BigDecimal.valueOf(Long.MAX_VALUE / 20_000).multiply(new BigDecimal("1.0835")).longValue());
+        assertThat(FxRates.empty(CURRENCIES).convert(100, USD, EUR)).isEqualTo(-1);
+    }
+
+    @Test
+    public void reloadsChangedFile() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("fx-rates.json");
+        write(file, "{\"USD\": \"1\", \"EUR\": 1.25}", 1_000);
+        final FxRateTable table = new FxRateTable(CURRENCIES, file);
+        final FxRates first = table.get();
+        assertThat(first.getVersion()).isEqualTo(1);
+        assertThat(first.convert(100, EUR, USD)).isEqualTo(125);
+
+        assertThat(table.reload()).isTrue(); // not changed
+        assertThat(table.get()).isSameAs(first);
+
+        write(file, "{\"USD\": \"1\", \"EUR\": \"2\"}", 2_000);
+        assertThat(table.reload()).isTrue();
+        assertThat(table.get().convert(100, EUR, USD)).isEqualTo(200);
+        assertThat(first.convert(100, EUR, USD)).isEqualTo(125); // a snapshot never changes
+
+        write(file, "{\"USD\": \"1\", \"EUR\": \"-2\"}", 3_000);
+        assertThat(table.reload()).isFalse();
+        assertThat(table.get().getVersion()).isEqualTo(2); // the broken file is ignored
+    }
+
+    private static void write(final Path file, final String json, final long modified) throws Exception {
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+    }
+}
@@ -0,0 +1,108 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.HistoryEntryDto;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Check that the history of a user is read page by page from the newest entry across segments, and that a restart
+ * finds heads of users with and without the saved file
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class HistoryLedgerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsPagesOfOneUser() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        final HistoryLedger ledger = new HistoryLedger(dir, 16, 8); // segments of 16 rows, a tiny queue
+        ledger.start();
+        final List<HistoryEntryDto> entries = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            entries.add(new HistoryEntryDto(UUID.randomUUID(), 1L, 2L, new BigDecimal("-1.50"),
+                    new BigDecimal(1000 - i), 1_500_000_000_000L + i));
+            entries.add(new HistoryEntryDto(UUID.randomUUID(), 2L, 1L, new BigDecimal("1.50"), BigDecimal.ZERO, 1L));
+        }
+        ledger.putAll(entries);
+        waitForRows(ledger, 100);
+
+        final List<HistoryEntryDto> read = new ArrayList<>();
+        Long next = ledger.read(1L, null, 20, read::add);
+        assertThat(read).hasSize(20);
+        assertThat(read.get(0).getTransactionId()).isEqualTo(entries.get(98).getTransactionId()); // the newest one
+        assertThat(read.get(0).getAmount()).isEqualTo(new BigDecimal("-1.50"));
+        assertThat(read.get(0).getBalance()).isEqualByComparingTo("950");
+        assertThat(read.get(0).getCounterpartyId()).isEqualTo(2L);
+        assertThat(read.get(0).getTime()).isEqualTo(1_500_000_000_050L);
+
+        while (next != null)
+            next = ledger.read(1L, next, 20, read::add);
+        assertThat(read).hasSize(50);
+        assertThat(read.get(49).getTransactionId()).isEqualTo(entries.get(0).getTransactionId());
+
+        assertThat(ledger.read(3L, null, 20, read::add)).isNull(); // no transfers
+        try {
+            ledger.read(2L, 0L, 20, read::add); // the row 0 is of the user 1
+            fail("The cursor of another user has been read");
+        } catch (IllegalArgumentException e) {
+            // the cursor is wrong
+        }
+        ledger.close();
+    }
+
+    @Test
+    public void restartFindsHeads() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        HistoryLedger ledger = new HistoryLedger(dir, 4, 64);
+        ledger.start();
+        for (long i = 0; i < 10; i++)
+            ledger.putAll(singleton(i % 3, new BigDecimal("12345678901234567890.1"))); // too big for a row
+        ledger.close();
+
+        ledger = new HistoryLedger(dir, 1_000, 64); // the size of existing segments is kept
+        assertThat(ledger.size()).isEqualTo(10);
+        ledger.start();
+        ledger.putAll(singleton(0L, BigDecimal.ONE)); // in the next segment of 4 rows
+        waitForRows(ledger, 11);
+        ledger.close();
+
+        Files.delete(dir.resolve("heads")); // all rows are scanned
+        ledger = new HistoryLedger(dir, 4, 64);
+        final List<HistoryEntryDto> read = new ArrayList<>();
+        assertThat(ledger.read(0L, null, 10, read::add)).isNull();
+        assertThat(read).hasSize(5); // 0, 3, 6, 9 and the new one
+        assertThat(read.get(0).getAmount()).isEqualTo(BigDecimal.ONE);
+        assertThat(read.get(1).getAmount()).isNull();
+        ledger.start();
+        ledger.close();
+    }
+
+    private static List<HistoryEntryDto> singleton(final long accountId, final BigDecimal amount) {
+        final List<HistoryEntryDto> entries = new ArrayList<>();
+        entries.add(new HistoryEntryDto(UUID.randomUUID(), accountId, 100L, amount, BigDecimal.TEN,
+                System.currentTimeMillis()));
+        return entries;
+    }
+
+    private static void waitForRows(final HistoryLedger ledger, final long rows) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (ledger.size() < rows && System.nanoTime() < deadline)
+            Thread.sleep(5);
+        assertThat(ledger.size()).isEqualTo(rows);
+    }
+}
@@ -0,0 +1,48 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.TransactionDto;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check keys of senders, the capacity and TTL of the idempotency cache
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class IdempotencyCacheTest {
+
+    @Test
+    public void keysBelongToSenders() {
+        final IdempotencyCache cache = new IdempotencyCache(100, 60_000);
+        final TransactionDto first = new TransactionDto(1L, BigDecimal.ONE, 2L);
+        assertThat(cache.claim("key", first)).isNull();
+        assertThat(cache.claim("key", new TransactionDto(1L, BigDecimal.TEN, 2L))).isSameAs(first);
+        assertThat(cache.claim("key", new TransactionDto(2L, BigDecimal.ONE, 1L))).isNull(); // another sender
+
+        cache.release("key", new TransactionDto(1L, BigDecimal.ONE, 2L)); // not the owner of the key
+        assertThat(cache.claim("key", new TransactionDto(1L, BigDecimal.ONE, 2L))).isSameAs(first);
+        cache.release("key", first);
+        assertThat(cache.claim("key", new TransactionDto(1L, BigDecimal.ONE, 2L))).isNotSameAs(first).isNull();
+    }
+
+    @Test
+    public void keysAreBoundedByTheCapacityAndTtl() {
+        final AtomicLong now = new AtomicLong();
+        final IdempotencyCache cache = new IdempotencyCache(128, 1_000, now::get);
+        final TransactionDto first = new TransactionDto(1L, BigDecimal.ONE, 2L);
+        cache.claim("first", first);
+
+        now.addAndGet(999_000_000L);
+        assertThat(cache.claim("first", new TransactionDto(1L, BigDecimal.ONE, 2L))).isSameAs(first);
+        now.addAndGet(1_000_000L);
+        assertThat(cache.claim("first", new TransactionDto(1L, BigDecimal.ONE, 2L))).isNull(); // expired
+
+        for (int i = 0; i < 10_000; i++)
+            cache.claim("key" + i, new TransactionDto((long) i, BigDecimal.ONE, 0L));
+        assertThat(cache.size()).isLessThanOrEqualTo(128);
+    }
+}
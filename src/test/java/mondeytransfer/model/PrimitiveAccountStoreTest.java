@@ -0,0 +1,227 @@
+package mondeytransfer.model;
+
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.TransferResultEnum;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Check the primitive store: exact minor units, currencies, versions, overflows, pages, reuse of slots of removed
+ * users and no lost money under contention
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class PrimitiveAccountStoreTest {
+    private static final Currencies CURRENCIES = new Currencies("USD", 2, new JsonObject().put("JPY", 0));
+
+    @Test
+    public void transfersAndRestores() {
+        final PrimitiveAccountStore store = new PrimitiveAccountStore(100, CURRENCIES);
+        for (long id = 1; id <= 100; id++)
+            assertThat(store.putIfAbsent(new UserDto(id, "10.5"))).isTrue();
+        assertThat(store.putIfAbsent(new UserDto(1L, "1"))).isFalse();
+        assertThat(store.size()).isEqualTo(100);
+
+        final AccountImage from = new AccountImage(), to = new AccountImage();
+        assertThat(store.transfer(transaction(1L, "0.25", 2L), from, to)).isEqualTo(TransferResultEnum.SUCCESS);
+        assertThat(from.getBalance()).isEqualTo(new BigDecimal("10.25"));
+        assertThat(from.getVersion()).isEqualTo(1);
+        assertThat(to.getBalance()).isEqualTo(new BigDecimal("10.75"));
+        assertThat(to.getVersion()).isEqualTo(1);
+        assertThat(store.transfer(transaction(1L, "11", 2L), from, to)).isEqualTo(TransferResultEnum.NOT_ENOUGH_MONEY);
+
+        store.restore(3L, 5, null, new BigDecimal("1.00"));
+        store.restore(3L, 4, null, new BigDecimal("2.00")); // older, skipped
+        store.restore(1000L, 1, null, new BigDecimal("3"));
+        store.restore(1001L, 1, "jpy", new BigDecimal("300"));
+        store.restore(1001L, 2, null, new BigDecimal("301")); // the currency of an existing user is kept
+
+        final Map<Long, BigDecimal> balances = new HashMap<>();
+        final Map<Long, Long> versions = new HashMap<>();
+        final Map<Long, String> currencies = new HashMap<>();
+        store.forEach((id, version, currency, balance) -> {
+            balances.put(id, balance);
+            versions.put(id, version);
+            currencies.put(id, currency);
+        });
+        assertThat(balances).hasSize(102);
+        assertThat(balances.get(3L)).isEqualTo(new BigDecimal("1.00"));
+        assertThat(versions.get(3L)).isEqualTo(5L);
+        assertThat(balances.get(1000L)).isEqualTo(new BigDecimal("3.00"));
+        assertThat(currencies.get(1000L)).isEqualTo("USD");
+        assertThat(balances.get(1001L)).isEqualTo(new BigDecimal("301"));
+        assertThat(store.get(1001L).getCurrency()).isEqualTo("JPY");
+        assertThat(store.getCurrency(1001L)).isEqualTo(CURRENCIES.index("JPY"));
+        assertThat(store.getCurrency(5000L)).isEqualTo(-1);
+        assertThat(store.get(2L).getBalance()).isEqualTo(new BigDecimal("10.75"));
+        store.close();
+    }
+
+    @Test
+    public void rejectsAmountsWhichCantBeKept() {
+        final PrimitiveAccountStore store = new PrimitiveAccountStore(4, CURRENCIES);
+        try {
+            store.putIfAbsent(new UserDto(1L, "0.001"));
+            fail("A balance with 3 digits after the point has been accepted");
+        } catch (IllegalArgumentException e) {
+            assertThat(store.containsKey(1L)).isFalse();
+        }
+        try {
+            store.putIfAbsent(new UserDto(1L, BigDecimal.ONE, "XXX"));
+            fail("An unknown currency has been accepted");
+        } catch (IllegalArgumentException e) {
+            assertThat(store.containsKey(1L)).isFalse();
+        }
+
+        store.putIfAbsent(new UserDto(1L, new BigDecimal(Long.MAX_VALUE).movePointLeft(2)));
+        store.putIfAbsent(new UserDto(2L, "1"));
+        final TransactionDto td = transaction(2L, "1", 1L);
+        assertThat(store.transfer(td, new AccountImage(), new AccountImage())).isEqualTo(TransferResultEnum.OVERFLOW);
+        assertThat(store.get(2L).getBalance()).isEqualByComparingTo("1"); // the money has been given back
+
+        try {
+            store.prepare(new TransactionDto(2L, new BigDecimal(100.1), 1L));
+            fail("An inexact sum has been accepted");
+        } catch (ArithmeticException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void rejectsUsersOverCapacity() {
+        final PrimitiveAccountStore store = new PrimitiveAccountStore(2, CURRENCIES);
+        assertThat(store.putIfAbsent(new UserDto(1L, "1"))).isTrue();
+        assertThat(store.putIfAbsent(new UserDto(2L, "1"))).isTrue();
+        try {
+            store.putIfAbsent(new UserDto(3L, "1"));
+            fail("The store has accepted more users than its capacity");
+        } catch (IllegalStateException e) {
+            assertThat(store.size()).isEqualTo(2);
+        }
+
+        store.remove(2L);
+        assertThat(store.get(2L)).isNull();
+        assertThat(store.putIfAbsent(new UserDto(3L, "1"))).isTrue();
+    }
+
+    /**
+     * Removed users leave tombstones and new users take them, so churn never fills the table while the store has less
+     * users than the capacity
+     */
+    @Test
+    public void reusesSlotsOfRemovedUsers() {
+        final int capacity = 16, window = capacity / 2;
+        final PrimitiveAccountStore store = new PrimitiveAccountStore(capacity, CURRENCIES);
+        for (long id = 1; id <= window; id++)
+            assertThat(store.putIfAbsent(new UserDto(id, "1"))).isTrue();
+
+        final long first = 1_000, last = 11_000;
+        for (long id = first; id < last; id++) {
+            if (id - window >= first)
+                store.remove(id - window);
+            assertThat(store.putIfAbsent(new UserDto(id, "2"))).isTrue();
+        }
+        assertThat(store.size()).isEqualTo(capacity);
+
+        for (long id = 1; id <= window; id++)
+            assertThat(store.get(id).getBalance()).isEqualByComparingTo("1");
+        for (long id = last - window; id < last; id++)
+            assertThat(store.get(id).getBalance()).isEqualByComparingTo("2");
+        assertThat(store.get(first)).isNull();
+        assertThat(store.containsKey(last - window - 1)).isFalse();
+        assertThat(store.transfer(transaction(first, "1", 1L), new AccountImage(), new AccountImage()))
+                .isEqualTo(TransferResultEnum.CORRUPTED);
+
+        final int[] users = {0};
+        store.forEach((id, version, currency, balance) -> users[0]++);
+        assertThat(users[0]).isEqualTo(capacity);
+        try {
+            store.putIfAbsent(new UserDto(last, "1"));
+            fail("The store has accepted more users than its capacity");
+        } catch (IllegalStateException e) {
+            assertThat(store.size()).isEqualTo(capacity);
+        }
+    }
+
+    @Test
+    public void pagesVisitEachUserOnce() {
+        final PrimitiveAccountStore store = new PrimitiveAccountStore(100, CURRENCIES);
+        for (long id = 1; id <= 25; id++)
+            store.putIfAbsent(new UserDto(id * 7, "1"));
+        store.remove(14L);
+
+        final Set<Long> visited = new HashSet<>();
+        Long next = null;
+        int pages = 0;
+        do {
+            next = store.forEachAfter(next, 10, (id, version, currency, balance) -> assertThat(visited.add(id)).isTrue());
+            pages++;
+        } while (next != null);
+
+        assertThat(visited).hasSize(24).doesNotContain(14L);
+        assertThat(pages).isEqualTo(3);
+        assertThat(store.forEachAfter(14L, 100, (id, version, currency, balance) -> {
+        })).isNull(); // a removed user is still a cursor
+        try {
+            store.forEachAfter(8L, 10, (id, version, currency, balance) -> {
+            });
+            fail("An unknown cursor has been accepted");
+        } catch (IllegalArgumentException e) {
+            // the cursor must be a user of the store
+        }
+    }
+
+    @Test
+    public void concurrentTransfersKeepTheTotal() throws Exception {
+        final int users = 64, threads = 4, perThread = 100_000;
+        final PrimitiveAccountStore store = new PrimitiveAccountStore(users, CURRENCIES);
+        for (long id = 0; id < users; id++)
+            store.putIfAbsent(new UserDto(id, "100.00"));
+
+        final ExecutorService es = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            es.execute(() -> {
+                final AccountImage from = new AccountImage(), to = new AccountImage();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    final TransactionDto td = transaction((i + thread) % users, "0.01", (i * 7 + 1) % users);
+                    store.transfer(td, from, to);
+                }
+            });
+        }
+        start.countDown();
+        es.shutdown();
+        assertThat(es.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        final BigDecimal[] total = {BigDecimal.ZERO};
+        store.forEach((id, version, currency, balance) -> total[0] = total[0].add(balance));
+        assertThat(total[0]).isEqualByComparingTo(new BigDecimal(100 * users));
+        store.close();
+    }
+
+    private static TransactionDto transaction(final long fromId, final String sum, final long toId) {
+        final TransactionDto td = new TransactionDto(fromId, new BigDecimal(sum), toId);
+        td.setSentUnits(td.getSentSum().movePointRight(2).longValueExact(), 0); // in USD with the scale 2
+        return td;
+    }
+}
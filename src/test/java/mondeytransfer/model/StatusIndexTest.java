@@ -0,0 +1,76 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.StatusDto;
+import mondeytransfer.enums.EvictionPolicyEnum;
+import mondeytransfer.enums.StatusEnum;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check bounds of the status index: the capacity, TTL and eviction policies
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class StatusIndexTest {
+
+    @Test
+    public void keepsNotMoreThanTheCapacity() {
+        final StatusIndex index = new StatusIndex(160, 60_000, EvictionPolicyEnum.FIFO);
+        final List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            final StatusDto status = new StatusDto(UUID.randomUUID(), StatusEnum.SUCCESS);
+            uuids.add(status.getUuid());
+            index.put(status);
+        }
+
+        assertThat(index.size()).isLessThanOrEqualTo(160);
+        assertThat(index.get(uuids.get(0))).isNull(); // the oldest one has been evicted
+        assertThat(index.get(uuids.get(uuids.size() - 1)).getStatusEnum()).isEqualTo(StatusEnum.SUCCESS);
+    }
+
+    @Test
+    public void evictsExpiredStatuses() {
+        final AtomicLong now = new AtomicLong();
+        final StatusIndex index = new StatusIndex(100, 1_000, EvictionPolicyEnum.FIFO, now::get);
+        final StatusDto first = new StatusDto(UUID.randomUUID(), StatusEnum.SUCCESS);
+        index.put(first);
+
+        now.addAndGet(999_000_000L);
+        assertThat(index.get(first.getUuid())).isSameAs(first);
+
+        now.addAndGet(1_000_000L);
+        assertThat(index.get(first.getUuid())).isNull();
+        assertThat(index.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void lruKeepsStatusesWhichAreRead() {
+        final StatusIndex index = new StatusIndex(32, 60_000, EvictionPolicyEnum.LRU); // 2 statuses per stripe
+        final StatusDto read = new StatusDto(UUID.randomUUID(), StatusEnum.ERROR);
+        index.put(read);
+
+        for (int i = 0; i < 1_000; i++) {
+            index.get(read.getUuid());
+            index.put(new StatusDto(UUID.randomUUID(), StatusEnum.SUCCESS));
+        }
+
+        assertThat(index.size()).isLessThanOrEqualTo(32);
+        assertThat(index.get(read.getUuid())).isSameAs(read);
+    }
+
+    @Test
+    public void zeroCapacityIsOff() {
+        final StatusIndex index = new StatusIndex(0, 60_000, EvictionPolicyEnum.FIFO);
+        final StatusDto status = new StatusDto(UUID.randomUUID(), StatusEnum.SUCCESS);
+        index.put(status);
+
+        assertThat(index.get(status.getUuid())).isNull();
+        assertThat(index.size()).isEqualTo(0);
+    }
+}
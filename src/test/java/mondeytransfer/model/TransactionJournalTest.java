@@ -0,0 +1,91 @@
+package mondeytransfer.model;
+
+import mondeytransfer.dto.UserDto;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check that a failed group commit is cut off and the next records are written right after the committed ones
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class TransactionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void failedBatchDoesntMovePosition() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        final TransactionJournal journal = journal(dir);
+        journal.replay(0, r -> {
+        });
+        journal.start();
+        assertThat(commit(journal, user(1L, BigDecimal.ONE))).isTrue();
+
+        // one batch: the first record is correct, the second one can`t be encoded
+        final BigDecimal tooBig = new BigDecimal(BigInteger.ONE.shiftLeft(10_000));
+        final CountDownLatch failed = new CountDownLatch(2);
+        final AtomicInteger failures = new AtomicInteger();
+        for (JournalRecord r : new JournalRecord[]{user(2L, BigDecimal.ONE), user(3L, tooBig)})
+            journal.append(r.onCommit(ar -> {
+                if (ar.failed())
+                    failures.incrementAndGet();
+                failed.countDown();
+            }));
+        assertThat(failed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(failures.get()).isEqualTo(2);
+
+        assertThat(commit(journal, user(4L, BigDecimal.TEN))).isTrue();
+        final JournalRecord checkpoint = journal.checkpoint();
+        journal.close();
+        assertThat(checkpoint.getPosition()).isEqualTo(size(dir));
+
+        final List<Long> users = new ArrayList<>();
+        final TransactionJournal reopened = journal(dir);
+        reopened.replay(0, r -> users.add(r.getFromId()));
+        reopened.close();
+        assertThat(users).containsExactly(1L, 4L);
+    }
+
+    private static TransactionJournal journal(final Path dir) throws Exception {
+        return new TransactionJournal(dir, 1 << 20, 64, 16, 200_000, false); // a long window, so appends are one batch
+    }
+
+    private static JournalRecord user(final long id, final BigDecimal balance) {
+        return JournalRecord.user(new UserDto(id, balance));
+    }
+
+    private static boolean commit(final TransactionJournal journal, final JournalRecord r) throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(1);
+        final boolean[] succeeded = new boolean[1];
+        journal.append(r.onCommit(ar -> {
+            succeeded[0] = ar.succeeded();
+            written.countDown();
+        }));
+        return written.await(10, TimeUnit.SECONDS) && succeeded[0];
+    }
+
+    private static long size(final Path dir) throws Exception {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.journal")) {
+            for (Path file : files)
+                size += Files.size(file);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,59 @@
+package mondeytransfer.other;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.dto.SendTransactionStatusDto;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static mondeytransfer.dto.ErrorResponseDto.printError;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Check that bodies are decoded from buffers and that all answers are valid JSON
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class JsonCodecTest {
+
+    @Test
+    public void decodesFromBuffers() throws IOException {
+        final TransactionDto td = JsonCodec.decode(
+                Buffer.buffer("{\"fromId\": \"1\", \"sentSum\": \"100.1\", \"toId\": \"2\"}"), TransactionDto.class);
+        assertThat(td.getFromId()).isEqualTo(1L);
+        assertThat(td.getSentSum()).isEqualByComparingTo("100.1");
+
+        try (MappingIterator<TransactionDto> it = JsonCodec.decodeValues(
+                Buffer.buffer("{\"fromId\": 1, \"sentSum\": \"1\", \"toId\": 2}\n{\"fromId\": 2, \"sentSum\": \"2\", \"toId\": 3}"),
+                TransactionDto.class)) {
+            assertThat(it.readAll()).hasSize(2);
+        }
+
+        try {
+            JsonCodec.decode(Buffer.buffer(), UserDto.class);
+            fail("An empty body has been decoded");
+        } catch (IOException e) {
+            // no content
+        }
+    }
+
+    @Test
+    public void encodesValidJson() {
+        final String error = printError("The user \"1\" isn`t found");
+        assertThat(new JsonObject(error).getString("error")).isEqualTo("The user \"1\" isn`t found");
+
+        final UUID uuid = UUID.randomUUID();
+        final JsonObject status = new JsonObject(new SendTransactionStatusDto(uuid).toString());
+        assertThat(status.getString("uuid")).isEqualTo(uuid.toString());
+
+        final Buffer buffer = JsonCodec.encode(Buffer.buffer("data: "), new UserDto(1L, new BigDecimal("10.50")));
+        assertThat(buffer.toString()).isEqualTo("data: {\"id\":1,\"balance\":10.50}");
+    }
+}
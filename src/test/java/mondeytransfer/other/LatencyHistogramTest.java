@@ -0,0 +1,45 @@
+package mondeytransfer.other;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check buckets of the histogram: each value is in a bucket which bounds it with the declared precision
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsBoundValues() {
+        for (long value = 0; value < 1_000_000; value += 1 + value / 7) {
+            final int index = LatencyHistogram.index(value);
+            assertThat(LatencyHistogram.upperBound(index)).isGreaterThanOrEqualTo(value);
+            assertThat(LatencyHistogram.upperBound(index)).isLessThanOrEqualTo(value + value / 8);
+            if (index > 0)
+                assertThat(LatencyHistogram.upperBound(index - 1)).isLessThan(value);
+        }
+        assertThat(LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void countsAndPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.valueAtPercentile(99)).isEqualTo(0);
+
+        for (long i = 1; i <= 1000; i++)
+            histogram.record(i * 1000);
+        histogram.record(-5); // it is counted as zero
+
+        assertThat(histogram.getCount()).isEqualTo(1001);
+        assertThat(histogram.getSum()).isEqualTo(500_500_000L);
+        assertThat(histogram.countAtOrBelow(0)).isEqualTo(1);
+        assertThat(histogram.countAtOrBelow(Long.MAX_VALUE)).isEqualTo(1001);
+        assertThat(histogram.countAtOrBelow(100_000)).isBetween(90L, 101L);
+
+        final long p50 = histogram.valueAtPercentile(50);
+        assertThat(p50).isBetween(500_000L, 500_000L + 500_000L / 8);
+        assertThat(histogram.valueAtPercentile(100)).isGreaterThanOrEqualTo(1_000_000L);
+    }
+}
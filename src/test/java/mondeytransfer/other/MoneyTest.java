@@ -0,0 +1,66 @@
+package mondeytransfer.other;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Check that amounts are converted to minor units exactly: they are never rounded and overflows are rejected
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class MoneyTest {
+
+    @Test
+    public void parsesExactly() {
+        assertThat(Money.parse("10", 2)).isEqualTo(1000);
+        assertThat(Money.parse("10.5", 2)).isEqualTo(1050);
+        assertThat(Money.parse("0.01", 2)).isEqualTo(1);
+        assertThat(Money.parse("-0.01", 2)).isEqualTo(-1);
+        assertThat(Money.parse("1.2300", 2)).isEqualTo(123); // trailing zeros
+        assertThat(Money.parse("7.", 0)).isEqualTo(7);
+        assertThat(Money.parse("1e3", 2)).isEqualTo(100_000);
+        assertThat(Money.parse("92233720368547758.07", 2)).isEqualTo(Long.MAX_VALUE);
+        assertThat(Money.parse("-92233720368547758.08", 2)).isEqualTo(Long.MIN_VALUE);
+
+        for (String value : new String[]{"0.001", "92233720368547758.08", "1e-3", "100000000000000000000"})
+            try {
+                Money.parse(value, 2);
+                fail("The amount " + value + " has been accepted");
+            } catch (ArithmeticException e) {
+                // it can`t be kept
+            }
+        for (String value : new String[]{"", "-", ".", "1.2.3", "12a", "0x10"})
+            try {
+                Money.parse(value, 2);
+                fail("The amount '" + value + "' has been parsed");
+            } catch (NumberFormatException e) {
+                // it isn`t a number
+            }
+    }
+
+    @Test
+    public void convertsDecimals() {
+        assertThat(Money.toUnits(new BigDecimal("10.50"), 2)).isEqualTo(1050);
+        assertThat(Money.toUnits(new BigDecimal("3E+2"), 2)).isEqualTo(30_000);
+        assertThat(Money.toUnits(BigDecimal.valueOf(3000.0), 2)).isEqualTo(300_000);
+        assertThat(Money.toDecimal(1050, 2)).isEqualTo(new BigDecimal("10.50"));
+        assertThat(Money.parse(Money.toDecimal(Long.MIN_VALUE, 18).toPlainString(), 18)).isEqualTo(Long.MIN_VALUE);
+
+        try {
+            Money.toUnits(new BigDecimal(100.1), 2); // the binary value of the double
+            fail("An inexact amount has been rounded");
+        } catch (ArithmeticException e) {
+            // ok
+        }
+        try {
+            Money.checkScale(19);
+            fail("The scale 19 has been accepted");
+        } catch (IllegalArgumentException e) {
+            // 10^19 isn`t a long
+        }
+    }
+}
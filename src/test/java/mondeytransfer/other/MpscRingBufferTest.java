@@ -0,0 +1,104 @@
+package mondeytransfer.other;
+
+import mondeytransfer.enums.WaitStrategyEnum;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check the ring buffer semantic: bounds, batches, FIFO for a producer and no lost or duplicated elements under contention
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class MpscRingBufferTest {
+
+    @Test
+    public void roundsCapacityAndRejectsWhenFull() {
+        final MpscRingBuffer<Long> rb = new MpscRingBuffer<>(3, WaitStrategyEnum.PARK);
+        assertThat(rb.capacity()).isEqualTo(4);
+
+        for (long i = 0; i < 4; i++)
+            assertThat(rb.offer(i)).isTrue();
+        assertThat(rb.offer(4L)).isFalse();
+        assertThat(rb.size()).isEqualTo(4);
+
+        assertThat(rb.poll()).isEqualTo(0L);
+        assertThat(rb.offer(4L)).isTrue(); // the next lap
+        for (long i = 1; i < 5; i++)
+            assertThat(rb.poll()).isEqualTo(i);
+        assertThat(rb.poll()).isNull();
+        assertThat(rb.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void offerAllAddsWhileThereIsAPlace() {
+        final MpscRingBuffer<Long> rb = new MpscRingBuffer<>(4, WaitStrategyEnum.PARK);
+        assertThat(rb.offer(0L)).isTrue();
+        assertThat(rb.offerAll(Arrays.asList(1L, 2L, 3L, 4L, 5L))).isEqualTo(3);
+        assertThat(rb.offerAll(Arrays.asList(4L, 5L))).isEqualTo(0);
+
+        assertThat(rb.poll()).isEqualTo(0L);
+        assertThat(rb.poll()).isEqualTo(1L);
+        assertThat(rb.offerAll(Arrays.asList(4L, 5L))).isEqualTo(2); // the next lap
+        for (long i = 2; i < 6; i++)
+            assertThat(rb.poll()).isEqualTo(i);
+        assertThat(rb.poll()).isNull();
+    }
+
+    @Test
+    public void drainToTakesUpToMax() {
+        final MpscRingBuffer<Long> rb = new MpscRingBuffer<>(4, WaitStrategyEnum.PARK);
+        final List<Long> sink = new ArrayList<>();
+        assertThat(rb.drainTo(sink, 2)).isEqualTo(0);
+
+        rb.offerAll(Arrays.asList(0L, 1L, 2L));
+        assertThat(rb.drainTo(sink, 2)).isEqualTo(2);
+        assertThat(rb.offerAll(Arrays.asList(3L, 4L, 5L, 6L))).isEqualTo(3); // the freed slots are in the next lap
+        assertThat(rb.drainTo(sink, 10)).isEqualTo(4);
+        assertThat(sink).containsExactly(0L, 1L, 2L, 3L, 4L, 5L);
+        assertThat(rb.size()).isEqualTo(0);
+        assertThat(rb.poll()).isNull();
+    }
+
+    @Test
+    public void manyProducersOneConsumer() throws Exception {
+        final int producers = 4, perProducer = 200_000;
+        final MpscRingBuffer<Long> rb = new MpscRingBuffer<>(1024, WaitStrategyEnum.YIELD);
+        final ExecutorService es = Executors.newFixedThreadPool(producers);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            final long producer = p;
+            es.execute(() -> {
+                try {
+                    start.await();
+                    for (long i = 0; i < perProducer; i++)
+                        rb.put(producer << 32 | i);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+
+        final long[] next = new long[producers];
+        for (int i = 0; i < producers * perProducer; i++) {
+            final long e = rb.take();
+            final int producer = (int) (e >>> 32);
+            assertThat(e & 0xFFFF_FFFFL).isEqualTo(next[producer]); // FIFO for each producer
+            next[producer]++;
+        }
+
+        es.shutdown();
+        assertThat(es.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(rb.poll()).isNull();
+    }
+}
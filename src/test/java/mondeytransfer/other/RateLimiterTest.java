@@ -0,0 +1,43 @@
+package mondeytransfer.other;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check buckets of the limiter: a full bucket gives the burst at once, then tokens come at the rate, and keys don`t
+ * take tokens of each other
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class RateLimiterTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void burstThenRate() {
+        final RateLimiter limiter = new RateLimiter(100, 5, 1024); // a token per 10 ms
+        for (int i = 0; i < 5; i++)
+            assertThat(limiter.tryAcquire(42, 1, 0)).isZero();
+        assertThat(limiter.tryAcquire(42, 1, 0)).isEqualTo(10 * MS); // empty until the next token
+
+        assertThat(limiter.tryAcquire(42, 1, 10 * MS)).isZero();
+        assertThat(limiter.tryAcquire(42, 1, 10 * MS)).isPositive();
+        assertThat(limiter.tryAcquire(42, 2, 25 * MS)).isEqualTo(5 * MS); // only one token has come
+
+        assertThat(limiter.tryAcquire(42, 5, 1_000 * MS)).isZero(); // the bucket is full again, not more
+        assertThat(limiter.tryAcquire(42, 1, 1_000 * MS)).isPositive();
+        assertThat(limiter.tryAcquire(42, 6, 2_000 * MS)).isPositive(); // more than the burst is never taken
+    }
+
+    @Test
+    public void keysHaveOwnBuckets() {
+        final RateLimiter limiter = new RateLimiter(1, 1, 1024);
+        assertThat(limiter.tryAcquire(1, 1, 0)).isZero();
+        assertThat(limiter.tryAcquire(1, 1, 0)).isPositive();
+        assertThat(limiter.tryAcquire(2, 1, 0)).isZero();
+        assertThat(limiter.tryAcquire("client".hashCode(), 1, 0)).isZero();
+
+        assertThat(RateLimiter.toSeconds(1)).isEqualTo(1);
+        assertThat(RateLimiter.toSeconds(1_500 * MS)).isEqualTo(2);
+    }
+}
@@ -0,0 +1,105 @@
+package mondeytransfer.service;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.other.JsonCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static mondeytransfer.enums.ConfigKeys.*;
+import static mondeytransfer.service.TransactionsService.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check that the node of the receiver adds a credit from another node only once, even if it has been restarted before
+ * the sender got the answer
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class ClusterServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void repeatedCreditIsAddedOnceAfterRestart() throws Exception {
+        final JsonObject config = new JsonObject()
+                .put(CLUSTER_NODES, 2)
+                .put(CLUSTER_NODE, 1) // EXIST_USER_ID is here, the sender is on the node 0
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath());
+        final TransactionDto op = new TransactionDto(2L, BigDecimal.TEN, EXIST_USER_ID);
+        op.setCurrency(DEFAULT_CURRENCY);
+        final String credit = JsonCodec.encodeToString(op);
+        final BigDecimal credited = EXIST_USER_ID_BALANCE.add(BigDecimal.TEN);
+
+        Node node = new Node(config);
+        try {
+            assertThat(node.send(ClusterService.CREDIT, credit)).isEqualTo("SUCCESS");
+        } finally {
+            node.close();
+        }
+
+        node = new Node(config); // the answer has been lost, so the sender repeats the credit
+        try {
+            assertThat(node.ts.getUnconfirmedCredits()).containsExactly(op.getTransactionId());
+            assertThat(node.send(ClusterService.CREDIT, credit)).isEqualTo("SUCCESS");
+            assertThat(node.ts.getById(EXIST_USER_ID).getBalance()).isEqualByComparingTo(credited);
+            assertThat(node.send(ClusterService.CONFIRM, op.getTransactionId().toString())).isNull();
+        } finally {
+            node.close();
+        }
+
+        node = new Node(config);
+        try {
+            assertThat(node.ts.getUnconfirmedCredits()).isEmpty();
+            assertThat(node.ts.getById(EXIST_USER_ID).getBalance()).isEqualByComparingTo(credited);
+        } finally {
+            node.close();
+        }
+    }
+
+    /**
+     * One node of the cluster with its own event bus
+     */
+    private static class Node {
+        private final Vertx vertx = Vertx.vertx();
+        private final TransactionsService ts;
+        private final ClusterService cluster;
+
+        Node(final JsonObject config) throws Exception {
+            this.ts = new TransactionsService(config);
+            final CompletableFuture<ClusterService> created = new CompletableFuture<>();
+            vertx.runOnContext(v -> created.complete(new ClusterService(vertx, ts, config)));
+            this.cluster = created.get(5, TimeUnit.SECONDS);
+        }
+
+        /**
+         * @return - the answer of the node
+         */
+        String send(final String action, final String body) throws Exception {
+            final CompletableFuture<String> answer = new CompletableFuture<>();
+            vertx.eventBus().<String>send(ClusterService.ADDRESS + 1, body,
+                    new DeliveryOptions().addHeader(ClusterService.ACTION, action), ar -> {
+                        if (ar.succeeded())
+                            answer.complete(ar.result().body());
+                        else
+                            answer.completeExceptionally(ar.cause());
+                    });
+            return answer.get(5, TimeUnit.SECONDS);
+        }
+
+        void close() {
+            cluster.close();
+            ts.close();
+            vertx.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package mondeytransfer.service;
+
+import mondeytransfer.enums.ShardAssignmentEnum;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Check assignments of accounts to shards and that a move waits for threads which could have read the old route
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class ShardRouterTest {
+
+    @Test
+    public void consistentHashingSpreadsAndKeepsAccounts() {
+        final int accounts = 100_000;
+        final ShardRouter eight = new ShardRouter(8, ShardAssignmentEnum.CONSISTENT);
+        final ShardRouter nine = new ShardRouter(9, ShardAssignmentEnum.CONSISTENT);
+
+        final int[] counts = new int[8];
+        int moved = 0;
+        for (long id = 0; id < accounts; id++) {
+            counts[eight.shard(id)]++;
+            if (eight.shard(id) != nine.shard(id)) {
+                moved++;
+                assertThat(nine.shard(id)).isEqualTo(8); // only to the new shard
+            }
+        }
+
+        for (int count : counts)
+            assertThat(count).isBetween(accounts / 8 * 3 / 4, accounts / 8 * 5 / 4);
+        assertThat(moved).isBetween(accounts / 9 / 2, accounts / 9 * 2);
+
+        final ShardRouter modulo = new ShardRouter(8, ShardAssignmentEnum.MODULO);
+        assertThat(modulo.shard(13)).isEqualTo(5);
+        assertThat(modulo.shard(-3)).isEqualTo(5);
+        assertThat(new ShardRouter(4, ShardAssignmentEnum.MODULO, 2).shard(13)).isEqualTo(2); // 13 / 2 nodes % 4
+    }
+
+    @Test
+    public void movesAndReturnsAccounts() {
+        final ShardRouter router = new ShardRouter(4, ShardAssignmentEnum.MODULO);
+        assertThat(router.move(5L, 1)).isNull(); // it is already there
+
+        final ShardRouter.Migration migration = router.move(5L, 3);
+        assertThat(migration.getFrom()).isEqualTo(1);
+        assertThat(router.getMigration()).isSameAs(migration);
+        assertThat(router.shard(5L)).isEqualTo(3);
+        assertThat(router.shard(9L)).isEqualTo(1);
+        router.finish(migration);
+        assertThat(router.getMigration()).isNull();
+
+        router.move(2L, 0);
+        router.move(5L, 1); // back home
+        assertThat(router.shard(5L)).isEqualTo(1);
+        assertThat(router.shard(2L)).isEqualTo(0);
+        assertThat(router.home(2L)).isEqualTo(2);
+    }
+
+    @Test
+    public void moveWaitsForReaders() throws Exception {
+        final ShardRouter router = new ShardRouter(2, ShardAssignmentEnum.MODULO);
+        final int reader = router.enter();
+
+        final CompletableFuture<ShardRouter.Migration> move = CompletableFuture.supplyAsync(() -> router.move(1L, 0));
+        try {
+            move.get(100, TimeUnit.MILLISECONDS);
+            fail("The move hasn`t waited for the reader");
+        } catch (TimeoutException e) {
+            assertThat(router.shard(1L)).isEqualTo(0); // new readers already see the new route
+        }
+
+        router.exit(reader);
+        assertThat(move.get(5, TimeUnit.SECONDS).getTo()).isEqualTo(0);
+
+        router.exit(router.enter()); // a reader of the new epoch doesn`t block the next move
+        assertThat(router.move(1L, 1)).isNotNull();
+    }
+}
@@ -0,0 +1,315 @@
+package mondeytransfer.service;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.enums.StoreTypeEnum;
+import mondeytransfer.other.RejectedTransactionException;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static mondeytransfer.enums.ConfigKeys.*;
+import static mondeytransfer.enums.Messages.TRANSACTION_ISNT_JOURNALED;
+import static mondeytransfer.enums.Messages.TRANSACTION_IS_INTERRUPTED;
+import static mondeytransfer.service.TransactionsService.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check that users and balances survive a restart of the service with the journal
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class TransactionsServiceJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoreStateAfterRestart() throws Exception {
+        final JsonObject config = new JsonObject()
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath());
+        final long newId = 100L;
+
+        TransactionsService ts = new TransactionsService(config);
+        final Future<String> added = ts.addOne(new UserDto(newId, new BigDecimal("50.5"))); // no context, so it is completed by the journal thread
+        assertThat(waitFor(added::isComplete)).isTrue();
+        assertThat(added.succeeded()).isTrue();
+        assertThat(added.result()).isNull();
+
+        final Future<Void> accepted = ts.submitTransaction(new TransactionDto(EXIST_USER_ID, new BigDecimal("100.25"), newId));
+        assertThat(waitFor(accepted::isComplete)).isTrue();
+        assertThat(accepted.succeeded()).isTrue();
+        assertThat(waitFor(() -> ts.getStatuses().stream().anyMatch(s -> s.getStatusEnum() == StatusEnum.SUCCESS))).isTrue();
+        ts.close();
+
+        final TransactionsService restarted = new TransactionsService(config);
+        try {
+            assertThat(restarted.getById(newId).getBalance()).isEqualByComparingTo("150.75");
+            assertThat(restarted.getById(EXIST_USER_ID).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE.subtract(new BigDecimal("100.25")));
+            assertThat(restarted.getById(EXIST_USER_ID_TWO).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE_TWO);
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void restoreStateFromSnapshotAndJournalTail() throws Exception {
+        final JsonObject config = new JsonObject()
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath())
+                .put(JOURNAL_SEGMENT_SIZE, 1L) // a segment per a group commit
+                .put(SNAPSHOT_INTERVAL, 3600);
+
+        TransactionsService ts = new TransactionsService(config);
+        transfer(ts, new TransactionDto(EXIST_USER_ID, new BigDecimal("10"), EXIST_USER_ID_TWO));
+        ts.snapshot();
+        transfer(ts, new TransactionDto(EXIST_USER_ID_TWO, new BigDecimal("1.5"), EXIST_USER_ID)); // only in the journal
+        ts.close();
+
+        assertThat(folder.getRoot().list((dir, name) -> name.endsWith(".snapshot"))).hasSize(1);
+
+        final TransactionsService restarted = new TransactionsService(config);
+        try {
+            assertThat(restarted.getById(EXIST_USER_ID).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE.subtract(new BigDecimal("8.5")));
+            assertThat(restarted.getById(EXIST_USER_ID_TWO).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE_TWO.add(new BigDecimal("8.5")));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    /**
+     * The service stops between the halves of a transfer, while the next transfer of the same sender has been applied
+     * with the image of the sender after both debits: after a restart the first transfer is resent to its credit half
+     * only, so the sender pays once
+     */
+    @Test
+    public void crashBetweenHalvesDoesntDebitTwice() throws Exception {
+        final long sender = 1_001L, receiver = 1_000L, other = 1_003L; // the shards 1, 0 and 1
+        final JsonObject config = new JsonObject()
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath())
+                .put(SHARDS_COUNT, 2);
+        final Vertx vertx = Vertx.vertx();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final TransactionsService ts = new TransactionsService(config);
+        final TransactionDto first = new TransactionDto(sender, BigDecimal.TEN, receiver);
+        try {
+            for (UserDto user : new UserDto[]{new UserDto(sender, "100"), new UserDto(receiver, "1"), new UserDto(other, "1")}) {
+                final Future<String> added = ts.addOne(user);
+                assertThat(waitFor(added::isComplete)).isTrue();
+                assertThat(added.succeeded()).isTrue();
+            }
+            stall(vertx, ts, receiver, release); // the credit half of the first transfer waits on the shard 0
+
+            final Future<Void> accepted = ts.submitTransaction(first);
+            assertThat(waitFor(accepted::isComplete)).isTrue();
+            assertThat(accepted.succeeded()).isTrue();
+            transfer(ts, new TransactionDto(sender, new BigDecimal("5"), other));
+            assertThat(ts.getStatus(first.getTransactionId())).isNull();
+        } finally {
+            ts.close(); // the worker of the shard 0 is interrupted, the credit half is lost
+            release.countDown();
+            vertx.close();
+        }
+
+        final TransactionsService restarted = new TransactionsService(config);
+        try {
+            assertThat(waitFor(() -> restarted.getStatus(first.getTransactionId()) != null)).isTrue();
+            assertThat(restarted.getStatus(first.getTransactionId()).getStatusEnum()).isEqualTo(StatusEnum.SUCCESS);
+            assertThat(waitFor(() -> restarted.getById(receiver).getBalance().compareTo(new BigDecimal("12")) == 0)).isTrue();
+            assertThat(restarted.getById(sender).getBalance()).isEqualByComparingTo("85");
+            assertThat(restarted.getById(other).getBalance()).isEqualByComparingTo("6");
+        } finally {
+            restarted.close();
+        }
+    }
+
+    /**
+     * The credit overflows the receiver, so the sender gets the money back: the refund is restored after a restart
+     * together with the debit
+     */
+    @Test
+    public void refundSurvivesRestart() throws Exception {
+        final JsonObject config = new JsonObject()
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath())
+                .put(STORE_TYPE, StoreTypeEnum.PRIMITIVE.name());
+
+        final TransactionsService ts = new TransactionsService(config);
+        try {
+            for (UserDto user : new UserDto[]{new UserDto(100L, new BigDecimal(Long.MAX_VALUE).movePointLeft(2)), new UserDto(101L, "5")}) {
+                final Future<String> added = ts.addOne(user);
+                assertThat(waitFor(added::isComplete)).isTrue();
+                assertThat(added.succeeded()).isTrue();
+            }
+            final TransactionDto td = new TransactionDto(101L, BigDecimal.ONE, 100L);
+            transfer(ts, td);
+            assertThat(ts.getStatus(td.getTransactionId()).getStatusEnum()).isEqualTo(StatusEnum.ERROR);
+        } finally {
+            ts.close();
+        }
+
+        final TransactionsService restarted = new TransactionsService(config);
+        try {
+            assertThat(restarted.getById(101L).getBalance()).isEqualByComparingTo("5");
+        } finally {
+            restarted.close();
+        }
+    }
+
+    /**
+     * The split spreads the money between parts by transfers through their shards: they don`t have statuses, and
+     * after a restart each part still has a quarter, so no part can pay 30
+     */
+    @Test
+    public void movesBetweenPartsSurviveRestart() throws Exception {
+        final long merchant = 100L;
+        final JsonObject config = new JsonObject()
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath())
+                .put(SHARDS_COUNT, 4);
+
+        final TransactionsService ts = new TransactionsService(config);
+        try {
+            final Future<String> added = ts.addOne(new UserDto(merchant, "100"));
+            assertThat(waitFor(added::isComplete)).isTrue();
+            assertThat(ts.splitAccount(merchant, 4)).isTrue();
+            assertThat(ts.getStatuses()).isEmpty();
+            assertThat(ts.getById(merchant).getBalance()).isEqualByComparingTo("100");
+        } finally {
+            ts.close();
+        }
+
+        final TransactionsService restarted = new TransactionsService(config);
+        try {
+            assertThat(restarted.getById(merchant).getBalance()).isEqualByComparingTo("100");
+            assertThat(restarted.sendTransaction(new TransactionDto(merchant, new BigDecimal("30"), EXIST_USER_ID))).isNull();
+            assertThat(waitFor(() -> restarted.getStatuses().stream().anyMatch(s -> s.getStatusEnum() == StatusEnum.ERROR))).isTrue();
+            assertThat(restarted.getById(merchant).getBalance()).isEqualByComparingTo("100");
+        } finally {
+            restarted.close();
+        }
+    }
+
+    /**
+     * A full disk fails the group commit of ACCEPTED records: transactions aren`t sent, so the failure which the
+     * client gets is the real outcome
+     */
+    @Test
+    public void failedCommitDoesntSendTransactions() throws Exception {
+        final Path full = Paths.get("/dev/full");
+        Assume.assumeTrue(Files.isWritable(full));
+        Files.createSymbolicLink(folder.getRoot().toPath().resolve("transactions-00000000000000000000.journal"), full);
+
+        final TransactionsService ts = new TransactionsService(new JsonObject()
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath()));
+        try {
+            final Future<Void> single = ts.submitTransaction(new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, EXIST_USER_ID_TWO));
+            final Future<String[]> batch = ts.submitTransactions(Arrays.asList(
+                    new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, EXIST_USER_ID_TWO),
+                    new TransactionDto(EXIST_USER_ID_TWO, BigDecimal.ONE, EXIST_USER_ID)));
+            assertThat(waitFor(() -> single.isComplete() && batch.isComplete())).isTrue();
+            for (Future<?> failed : Arrays.asList(single, batch)) {
+                assertThat(failed.failed()).isTrue();
+                assertThat(((RejectedTransactionException) failed.cause()).isRetryable()).isTrue();
+            }
+
+            assertThat(ts.sendTransaction(new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, EXIST_USER_ID_TWO)))
+                    .contains(TRANSACTION_ISNT_JOURNALED);
+
+            Thread.sleep(200); // shard workers would have treated a sent transaction
+            assertThat(ts.getStatuses()).isEmpty();
+            assertThat(ts.getById(EXIST_USER_ID).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE);
+            assertThat(ts.getById(EXIST_USER_ID_TWO).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE_TWO);
+        } finally {
+            ts.close();
+        }
+    }
+
+    /**
+     * An interrupted blocking send doesn`t send the transaction, it returns the error and keeps the interrupted status
+     */
+    @Test
+    public void interruptedSendIsntSent() throws Exception {
+        final TransactionsService ts = new TransactionsService(new JsonObject()
+                .put(JOURNAL_ENABLED, true)
+                .put(JOURNAL_DIR, folder.getRoot().getAbsolutePath()));
+        try {
+            Thread.currentThread().interrupt(); // the thread doesn`t wait for the commit of the ACCEPTED record
+            final String error = ts.sendTransaction(new TransactionDto(EXIST_USER_ID, BigDecimal.ONE, EXIST_USER_ID_TWO));
+            assertThat(Thread.interrupted()).isTrue();
+            assertThat(error).contains(TRANSACTION_IS_INTERRUPTED);
+
+            final TransactionDto sent = new TransactionDto(EXIST_USER_ID, BigDecimal.TEN, EXIST_USER_ID_TWO);
+            assertThat(ts.sendTransaction(sent)).isNull();
+            Thread.sleep(200); // shard workers would have treated the interrupted transaction too
+            assertThat(ts.getStatuses()).extracting("uuid").containsExactly(sent.getTransactionId());
+            assertThat(ts.getById(EXIST_USER_ID).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE.subtract(BigDecimal.TEN));
+        } finally {
+            ts.close();
+        }
+    }
+
+    private static void transfer(final TransactionsService ts, final TransactionDto td) throws InterruptedException {
+        final Future<Void> accepted = ts.submitTransaction(td);
+        assertThat(waitFor(accepted::isComplete)).isTrue();
+        assertThat(accepted.succeeded()).isTrue();
+        assertThat(waitFor(() -> ts.getStatuses().stream().anyMatch(s -> s.getUuid().equals(td.getTransactionId())))).isTrue();
+    }
+
+    /**
+     * Stop the worker of the receiver`s shard: a status stream filter waits for the release on the status of a transfer
+     * to the receiver, the filter is called by the worker before the records of its batch are journaled
+     */
+    private static void stall(final Vertx vertx, final TransactionsService ts, final long receiver,
+                              final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch subscribed = new CountDownLatch(1), stalled = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        vertx.runOnContext(v -> {
+            ts.getStatusBroadcaster().subscribe(status -> {
+                if (status.getToId() == receiver && first.getAndSet(false)) {
+                    stalled.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return false;
+            }, subscription -> {});
+            subscribed.countDown();
+        });
+        assertThat(subscribed.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(ts.sendTransaction(new TransactionDto(EXIST_USER_ID_TWO, BigDecimal.ONE, receiver))).isNull();
+        assertThat(stalled.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static boolean waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean())
+                return true;
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
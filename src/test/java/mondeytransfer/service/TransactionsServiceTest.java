@@ -0,0 +1,408 @@
+package mondeytransfer.service;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import mondeytransfer.dto.HistoryPageDto;
+import mondeytransfer.dto.StatusDto;
+import mondeytransfer.dto.TransactionDto;
+import mondeytransfer.dto.UserDto;
+import mondeytransfer.enums.StatusEnum;
+import mondeytransfer.enums.StoreTypeEnum;
+import mondeytransfer.other.RejectedTransactionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static mondeytransfer.enums.ConfigKeys.CURRENCY_SCALES;
+import static mondeytransfer.enums.ConfigKeys.FX_RATES_FILE;
+import static mondeytransfer.enums.ConfigKeys.HISTORY_DIR;
+import static mondeytransfer.enums.ConfigKeys.HISTORY_ENABLED;
+import static mondeytransfer.enums.ConfigKeys.QUEUE_CAPACITY;
+import static mondeytransfer.enums.ConfigKeys.SHARDS_COUNT;
+import static mondeytransfer.enums.ConfigKeys.STORE_TYPE;
+import static mondeytransfer.service.TransactionsService.EXIST_USER_ID_BALANCE;
+import static mondeytransfer.service.TransactionsService.MIN_REBALANCE_LOAD;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Check transfers across shards: a hot receiver which sends money at the same time doesn`t lose updates,
+ * a failed credit gives the money back to the sender, moves of accounts between shards keep the order of their
+ * transactions, the history has both sides of each transfer, the receiver gets the sum in its currency and a split
+ * account keeps the exact balance
+ *
+ * @author <a href="mailto:1arxemond1@gmail.com">Yuri Glushenkov</a>
+ */
+public class TransactionsServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hotReceiverKeepsTheTotalOnMap() throws Exception {
+        hotReceiverKeepsTheTotal(StoreTypeEnum.MAP, 0);
+    }
+
+    @Test
+    public void hotReceiverKeepsTheTotalOnPrimitive() throws Exception {
+        hotReceiverKeepsTheTotal(StoreTypeEnum.PRIMITIVE, 0);
+    }
+
+    /**
+     * The merchant is split into parts on all shards, money is moved between parts while they are changed
+     */
+    @Test
+    public void splitReceiverKeepsTheExactTotal() throws Exception {
+        hotReceiverKeepsTheTotal(StoreTypeEnum.PRIMITIVE, 4);
+    }
+
+    /**
+     * The worker of the receiver`s shard is stopped, so halves of transfers wait for it: its senders are pushed back
+     * instead of growing the spill of the shard
+     */
+    @Test
+    public void slowReceiverPushesBackItsSenders() throws Exception {
+        final long sender = 1_001L, receiver = 1_000L; // the shards 1 and 0
+        final int capacity = 16;
+        final Vertx vertx = Vertx.vertx();
+        final CountDownLatch release = new CountDownLatch(1);
+        final TransactionsService ts = new TransactionsService(new JsonObject().put(SHARDS_COUNT, 2)
+                .put(QUEUE_CAPACITY, capacity));
+        try {
+            ts.addOne(new UserDto(sender, "1000000"));
+            ts.addOne(new UserDto(receiver, "1"));
+            stall(vertx, ts, receiver, release);
+
+            int accepted = 0, rejected = 0;
+            for (int i = 0; i < 1_000; i++) {
+                final Future<Void> submitted = ts.submitTransaction(new TransactionDto(sender, BigDecimal.ONE, receiver));
+                if (submitted.succeeded())
+                    accepted++;
+                else if (((RejectedTransactionException) submitted.cause()).isRetryable())
+                    rejected++;
+            }
+            assertThat(rejected).isPositive();
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (gauge(ts, "shard_queue_depth", 1) > 0 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertThat(gauge(ts, "shard_credit_queue_depth", 0)).isBetween((long) capacity, 2L * capacity);
+            assertThat(ts.getQueueFill(receiver)).isEqualTo(1.0); // load shedding sees the credits of the shard
+            assertThat(ts.submitTransaction(new TransactionDto(sender, BigDecimal.ONE, receiver)).failed()).isTrue();
+
+            release.countDown();
+            assertThat(waitForStatuses(ts, accepted + 1)).isEqualTo(new int[]{accepted + 1, 0, 0});
+            assertThat(gauge(ts, "shard_credit_queue_depth", 0)).isZero();
+            assertThat(gauge(ts, "shard_spill_depth", 0)).isZero();
+            assertThat(ts.getById(receiver).getBalance()).isEqualByComparingTo(BigDecimal.valueOf(accepted + 2));
+        } finally {
+            release.countDown();
+            ts.close();
+            vertx.close();
+        }
+    }
+
+    @Test
+    public void overflowOfTheReceiverGivesTheMoneyBack() throws Exception {
+        final TransactionsService ts = new TransactionsService(new JsonObject().put(STORE_TYPE, StoreTypeEnum.PRIMITIVE.name()));
+        try {
+            ts.addOne(new UserDto(100L, new BigDecimal(Long.MAX_VALUE).movePointLeft(2)));
+            ts.addOne(new UserDto(101L, "5"));
+            final TransactionDto td = new TransactionDto(101L, BigDecimal.ONE, 100L);
+            assertThat(ts.sendTransaction(td)).isNull();
+
+            assertThat(waitForStatuses(ts, 1)).isEqualTo(new int[]{0, 1, 0});
+            assertThat(ts.getStatus(td.getTransactionId()).getStatusEnum()).isEqualTo(StatusEnum.ERROR);
+            assertThat(ts.getById(101L).getBalance()).isEqualByComparingTo("5");
+        } finally {
+            ts.close();
+        }
+    }
+
+    @Test
+    public void receiverGetsTheSumInItsCurrency() throws Exception {
+        final Path rates = folder.newFile("fx-rates.json").toPath();
+        Files.write(rates, "{\"USD\": \"1\", \"EUR\": \"1.25\"}".getBytes(StandardCharsets.UTF_8));
+        final TransactionsService ts = new TransactionsService(new JsonObject().put(SHARDS_COUNT, 2)
+                .put(CURRENCY_SCALES, new JsonObject().put("EUR", 2).put("JPY", 0)).put(FX_RATES_FILE, rates.toString()));
+        try {
+            assertThat(ts.addOne(new UserDto(100L, new BigDecimal("100"), "eur")).result()).isNull();
+            assertThat(ts.addOne(new UserDto(101L, "1")).result()).isNull(); // in the default currency, USD
+            assertThat(ts.addOne(new UserDto(102L, new BigDecimal("1000"), "JPY")).result()).isNull();
+            assertThat(ts.addOne(new UserDto(103L, new BigDecimal("1"), "XXX")).result()).isNotNull();
+
+            final TransactionDto td = new TransactionDto(100L, new BigDecimal("10.01"), 101L);
+            assertThat(ts.sendTransaction(td)).isNull();
+            final TransactionDto wrongCurrency = new TransactionDto(100L, BigDecimal.ONE, 101L);
+            wrongCurrency.setCurrency("USD");
+            assertThat(ts.sendTransaction(wrongCurrency)).isNotNull();
+            assertThat(ts.sendTransaction(new TransactionDto(100L, BigDecimal.ONE, 102L))).isNotNull(); // no rate
+
+            assertThat(waitForStatuses(ts, 1)).isEqualTo(new int[]{1, 0, 0});
+            assertThat(ts.getById(100L).getBalance()).isEqualTo(new BigDecimal("89.99"));
+            assertThat(ts.getById(100L).getCurrency()).isEqualTo("EUR");
+            assertThat(ts.getById(101L).getBalance()).isEqualTo(new BigDecimal("13.51")); // 12.5125 is rounded down
+            assertThat(ts.getById(102L).getBalance()).isEqualTo(new BigDecimal("1000"));
+        } finally {
+            ts.close();
+        }
+    }
+
+    @Test
+    public void idempotencyKeyReplaysTheTransaction() throws Exception {
+        final TransactionsService ts = new TransactionsService();
+        try {
+            final TransactionDto td = new TransactionDto(1L, BigDecimal.TEN, 2L);
+            assertThat(ts.submitTransaction(td, "key").result().getUuid()).isEqualTo(td.getTransactionId());
+            assertThat(ts.submitTransaction(new TransactionDto(1L, new BigDecimal("10.00"), 2L), "key").result()
+                    .getUuid()).isEqualTo(td.getTransactionId());
+            assertThat(ts.submitTransaction(new TransactionDto(1L, BigDecimal.ONE, 2L), "key").failed()).isTrue();
+
+            final TransactionDto rejected = new TransactionDto(1L, new BigDecimal("1000000"), 2L);
+            assertThat(ts.submitTransaction(rejected, "other").failed()).isTrue();
+            final TransactionDto repeated = new TransactionDto(1L, BigDecimal.ONE, 2L); // the key has been freed
+            assertThat(ts.submitTransaction(repeated, "other").result().getUuid()).isEqualTo(repeated.getTransactionId());
+
+            assertThat(waitForStatuses(ts, 2)).isEqualTo(new int[]{2, 0, 0});
+            assertThat(ts.getById(1L).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE.subtract(new BigDecimal("11")));
+        } finally {
+            ts.close();
+        }
+    }
+
+    @Test
+    public void historyHasBothSidesOfTransfers() throws Exception {
+        final TransactionsService ts = new TransactionsService(new JsonObject().put(SHARDS_COUNT, 2)
+                .put(HISTORY_ENABLED, true).put(HISTORY_DIR, folder.getRoot().getPath()));
+        try {
+            for (int i = 0; i < 3; i++)
+                assertThat(ts.sendTransaction(new TransactionDto(1L, BigDecimal.TEN, 2L))).isNull();
+            assertThat(waitForStatuses(ts, 3)[0]).isEqualTo(3);
+
+            HistoryPageDto page = ts.getHistory(1L, null, 2);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (page.getNext() == null && System.nanoTime() < deadline) { // the ledger thread writes them later
+                Thread.sleep(10);
+                page = ts.getHistory(1L, null, 2);
+            }
+            assertThat(page.getEntries()).hasSize(2);
+            assertThat(page.getEntries().get(0).getAmount()).isEqualByComparingTo("-10");
+            assertThat(page.getEntries().get(0).getBalance()).isEqualByComparingTo(EXIST_USER_ID_BALANCE.subtract(new BigDecimal(30)));
+            assertThat(ts.getHistory(1L, page.getNext(), 2).getEntries()).hasSize(1);
+
+            final HistoryPageDto receiver = ts.getHistory(2L, null, 10);
+            assertThat(receiver.getEntries()).hasSize(3);
+            assertThat(receiver.getEntries().get(2).getCounterpartyId()).isEqualTo(1L);
+            assertThat(receiver.getEntries().get(2).getAmount()).isEqualByComparingTo("10");
+            assertThat(ts.getHistory(100L, null, 10)).isNull();
+        } finally {
+            ts.close();
+        }
+    }
+
+    /**
+     * The sender is moved between shards while it sends more than it has: if the order of its transactions is kept,
+     * exactly the first ones succeed
+     */
+    @Test
+    public void moveKeepsTheOrderOfTransactions() throws Exception {
+        final long sender = 100L, receiver = 101L;
+        final int count = 3_000, affordable = 1_000;
+        final TransactionsService ts = new TransactionsService(new JsonObject().put(SHARDS_COUNT, 4));
+        try {
+            ts.addOne(new UserDto(sender, String.valueOf(affordable)));
+            ts.addOne(new UserDto(receiver, "1"));
+
+            final List<UUID> accepted = new ArrayList<>();
+            final CompletableFuture<Void> moves = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 1; i <= 20; i++)
+                        ts.moveAccount(sender, (ts.getShard(sender) + 1) % 4);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                final TransactionDto td = new TransactionDto(sender, BigDecimal.ONE, receiver);
+                if (ts.sendTransaction(td) == null)
+                    accepted.add(td.getTransactionId());
+            }
+            moves.get(30, TimeUnit.SECONDS);
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (accepted.stream().anyMatch(uuid -> ts.getStatus(uuid) == null) && System.nanoTime() < deadline)
+                Thread.sleep(10);
+
+            for (int i = 0; i < accepted.size(); i++)
+                assertThat(ts.getStatus(accepted.get(i)).getStatusEnum() == StatusEnum.SUCCESS).isEqualTo(i < affordable);
+            assertThat(ts.getById(sender).getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+        } finally {
+            ts.close();
+        }
+    }
+
+    /**
+     * An account which sends 40% of transactions of its shard is moved to an idle shard
+     */
+    @Test
+    public void rebalanceMovesAHotAccount() throws Exception {
+        final TransactionsService ts = new TransactionsService(new JsonObject().put(SHARDS_COUNT, 4));
+        try {
+            for (long id = 100; id < 140; id += 4) // all of them are in the shard 0
+                ts.addOne(new UserDto(id, "1000000"));
+
+            final int count = (int) MIN_REBALANCE_LOAD;
+            for (int i = 0; i < count; i++)
+                assertThat(ts.sendTransaction(new TransactionDto(i % 5 < 2 ? 100L : 104L + 4 * (i % 9), BigDecimal.ONE,
+                        136L - 4 * (i % 7)))).isNull();
+            assertThat(waitForStatuses(ts, count)[0]).isEqualTo(count);
+
+            assertThat(ts.getShard(100L)).isEqualTo(0);
+            ts.rebalance();
+            assertThat(ts.getShard(100L)).isNotEqualTo(0);
+            assertThat(ts.getShard(104L)).isEqualTo(0);
+        } finally {
+            ts.close();
+        }
+    }
+
+    /**
+     * All users send money to the merchant, and the merchant sends money back to them at the same time
+     *
+     * @param split - the number of parts of the merchant, 0 - it isn`t split
+     */
+    private void hotReceiverKeepsTheTotal(final StoreTypeEnum store, final int split) throws Exception {
+        final int users = 32, threads = 4, perThread = 2_000;
+        final long merchant = 1_000L;
+        final TransactionsService ts = new TransactionsService(new JsonObject().put(STORE_TYPE, store.name())
+                .put(SHARDS_COUNT, 4));
+        try {
+            ts.addOne(new UserDto(merchant, "1000000"));
+            if (split > 0) {
+                assertThat(ts.splitAccount(merchant, split)).isTrue();
+                assertThat(ts.splitAccount(merchant, split)).isFalse();
+            }
+            for (long id = 0; id < users; id++)
+                ts.addOne(new UserDto(10_000L + id, "1000000"));
+            final BigDecimal total = total(ts, merchant, users);
+
+            final ExecutorService es = Executors.newFixedThreadPool(threads);
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicInteger sent = new AtomicInteger();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                es.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        final long user = 10_000L + (i + thread) % users;
+                        final TransactionDto td = i % 4 == 0
+                                ? new TransactionDto(merchant, new BigDecimal("0.03"), user)
+                                : new TransactionDto(user, new BigDecimal("0.01"), merchant);
+                        if (ts.sendTransaction(td) == null)
+                            sent.incrementAndGet();
+                    }
+                });
+            }
+            start.countDown();
+            es.shutdown();
+            while (!es.awaitTermination(5, TimeUnit.MILLISECONDS))
+                ts.rebalanceParts();
+
+            assertThat(waitForStatuses(ts, sent.get())).isEqualTo(new int[]{sent.get(), 0, 0});
+            assertThat(total(ts, merchant, users)).isEqualByComparingTo(total);
+            final int toMerchant = threads * perThread * 3 / 4, fromMerchant = threads * perThread / 4;
+            assertThat(ts.getById(merchant).getBalance()).isEqualByComparingTo(new BigDecimal("1000000")
+                    .add(new BigDecimal("0.01").multiply(new BigDecimal(toMerchant)))
+                    .subtract(new BigDecimal("0.03").multiply(new BigDecimal(fromMerchant))));
+
+            final AtomicInteger parts = new AtomicInteger();
+            ts.getPage(null, 1_000, (id, version, currency, balance) -> {
+                if (HotAccounts.isPart(id))
+                    parts.incrementAndGet();
+            });
+            assertThat(parts.get()).isZero(); // they are hidden
+        } finally {
+            ts.close();
+        }
+    }
+
+    /**
+     * Stop the worker of the receiver`s shard: a status stream filter waits for the release on the status of the first
+     * transfer to the receiver, the filter is called by the worker
+     */
+    private static void stall(final Vertx vertx, final TransactionsService ts, final long receiver,
+                              final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch subscribed = new CountDownLatch(1), stalled = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        vertx.runOnContext(v -> {
+            ts.getStatusBroadcaster().subscribe(status -> {
+                if (status.getToId() == receiver && first.getAndSet(false)) {
+                    stalled.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return false;
+            }, subscription -> {});
+            subscribed.countDown();
+        });
+        assertThat(subscribed.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(ts.sendTransaction(new TransactionDto(receiver + 1, BigDecimal.ONE, receiver))).isNull();
+        assertThat(stalled.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    /**
+     * @return - the value of the gauge of the shard from /metrics
+     */
+    private static long gauge(final TransactionsService ts, final String name, final int shard) {
+        final String prefix = name + "{shard=\"" + shard + "\"} ";
+        for (String line : ts.renderMetrics().split("\n"))
+            if (line.startsWith(prefix))
+                return Long.parseLong(line.substring(prefix.length()));
+        throw new IllegalArgumentException("There isn`t the gauge " + prefix);
+    }
+
+    private static BigDecimal total(final TransactionsService ts, final long merchant, final int users) {
+        BigDecimal total = ts.getById(merchant).getBalance();
+        for (long id = 0; id < users; id++)
+            total = total.add(ts.getById(10_000L + id).getBalance());
+        return total;
+    }
+
+    /**
+     * @return - the numbers of SUCCESS, ERROR and CRITICAL_SYSTEM_ERROR statuses
+     */
+    private static int[] waitForStatuses(final TransactionsService ts, final int count) throws InterruptedException {
+        final int[] statuses = new int[3];
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (statuses[0] + statuses[1] + statuses[2] < count && System.nanoTime() < deadline) {
+            for (StatusDto status : ts.getStatuses())
+                statuses[status.getStatusEnum() == StatusEnum.SUCCESS ? 0
+                        : status.getStatusEnum() == StatusEnum.ERROR ? 1 : 2]++;
+            Thread.sleep(10);
+        }
+        return statuses;
+    }
+}